@@ -0,0 +1,124 @@
+package benchmarks;
+
+import benchmarks.standin.SyntheticSession;
+import benchmarks.standin.SyntheticTable;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Row;
+import db.beans.BeanRowDecoder;
+import db.beans.BeanStatementBinder;
+import db.beans.UserActivityBean;
+import db.daos.CqlRequestFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping between beans and the driver: decoding rows into beans, beans into maps and binding beans to statements,
+ * per row, no session involved beyond preparing the statement
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class BeanMappingBenchmark {
+
+    private static final String TABLE = "user_activity";
+    private static final String[] FIELDS = {"pid", "uid", "day", "moneySpent"};
+
+    @Param({"100"})
+    public int rowCount;
+
+    private SyntheticSession session;
+    private List<Row> rows;
+    private List<UserActivityBean> beans;
+    private PreparedStatement insert;
+    private BeanStatementBinder binder;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticTable table = SyntheticTable.userActivity();
+        session = SyntheticSession.builder().table(table).build();
+        rows = table.rows(rowCount);
+        beans = new ArrayList<>(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            UserActivityBean bean = new UserActivityBean();
+            bean.setPid("p" + i);
+            bean.setUid("u" + i);
+            bean.setDay(new Date(1500000000000L + i * 86400000L));
+            bean.setMoneySpent(i * 1.5);
+            beans.add(bean);
+        }
+        insert = session.prepare(CqlRequestFactory.getInsertString(TABLE, FIELDS));
+        binder = BeanStatementBinder.forFields(UserActivityBean.class, FIELDS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        session.close();
+    }
+
+    /**
+     * Rows to beans the way the DAOs do it
+     * @param blackhole
+     */
+    @Benchmark
+    public void buildFrom(Blackhole blackhole) {
+        for (Row row : rows) {
+            UserActivityBean bean = new UserActivityBean();
+            bean.buildFrom(row);
+            blackhole.consume(bean);
+        }
+    }
+
+    /**
+     * Rows to beans through the decoder directly, without the per row lookup of the decoder
+     * @param blackhole
+     */
+    @Benchmark
+    public void decodeRows(Blackhole blackhole) {
+        BeanRowDecoder<UserActivityBean> decoder = BeanRowDecoder.forClass(UserActivityBean.class);
+        for (Row row : rows) {
+            blackhole.consume(decoder.newBean(row));
+        }
+    }
+
+    @Benchmark
+    public void toCassandraObject(Blackhole blackhole) {
+        for (UserActivityBean bean : beans) {
+            Map<String, Object> map = bean.toCassandraObject();
+            blackhole.consume(map);
+        }
+    }
+
+    /**
+     * Beans to bound statements the way CqlRequest.addStatementsAsBeans does it
+     * @param blackhole
+     */
+    @Benchmark
+    public void bindBeans(Blackhole blackhole) {
+        for (UserActivityBean bean : beans) {
+            BoundStatement statement = binder.bind(insert, bean);
+            blackhole.consume(statement);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package benchmarks;
+
+import db.daos.CqlRequestFactory;
+import db.daos.StatementHandle;
+import db.daos.StatementRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of getting the query of a request: building the CQL string per call versus the lookup of the statement registry
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class QueryBuildingBenchmark {
+
+    private static final String TABLE = "user_activity";
+    private final String[] fields = {"pid", "uid", "day", "moneySpent"};
+    private final String[] keyFields = {"pid", "uid"};
+    private final List<String> partitionKey = Arrays.asList("pid", "uid");
+
+    @Benchmark
+    public String insertString() {
+        return CqlRequestFactory.getInsertString(TABLE, fields);
+    }
+
+    @Benchmark
+    public String selectWhereString() {
+        return CqlRequestFactory.getSelectWhereString(TABLE, fields, keyFields, "day", true, true, true, false, true);
+    }
+
+    @Benchmark
+    public String tokenRangeSelectString() {
+        return CqlRequestFactory.getTokenRangeSelectString(TABLE, fields, partitionKey, false);
+    }
+
+    /**
+     * What getUpsertSafeRequest does before creating the request
+     * @return
+     */
+    @Benchmark
+    public StatementHandle registryLookup() {
+        return StatementRegistry.get(TABLE, StatementRegistry.Operation.UPSERT, fields);
+    }
+}
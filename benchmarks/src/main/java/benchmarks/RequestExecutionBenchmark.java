@@ -0,0 +1,170 @@
+package benchmarks;
+
+import benchmarks.standin.Latency;
+import benchmarks.standin.SyntheticSession;
+import benchmarks.standin.SyntheticTable;
+import com.datastax.driver.core.Row;
+import db.beans.UserActivityBean;
+import db.config.CassandraConfig;
+import db.config.CassandraConnector;
+import db.config.StandInConnections;
+import db.daos.CqlRequest;
+import db.daos.CqlRequestFactory;
+import db.daos.Page;
+import db.daos.StatementRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole CqlRequest (binding, pipeline, retries, metrics, paging) against the stand-in session, so the time measured
+ * is the one of the application plus the configured server latency, without a cluster or a network
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class RequestExecutionBenchmark {
+
+    private static final String TABLE = "user_activity";
+    private static final String[] FIELDS = {"pid", "uid", "day", "moneySpent"};
+    private static final List<String> PARTITION_KEY = Arrays.asList("pid", "uid");
+    // below batch_size_warn_threshold_in_kb
+    private static final int MAX_BATCH_BYTES = 5 * 1024;
+
+    /**
+     * Server latency of a request, 0 to only measure the client
+     */
+    @Param({"0", "200"})
+    public long latencyMicros;
+
+    /**
+     * Statements per request
+     */
+    @Param({"1", "100"})
+    public int statements;
+
+    /**
+     * Rows returned by a read
+     */
+    @Param({"100"})
+    public int rowsPerRead;
+
+    private SyntheticSession session;
+    private String selectQuery;
+    private List<UserActivityBean> beans;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        session = SyntheticSession.builder()
+                .table(SyntheticTable.userActivity())
+                .rowsPerRead(rowsPerRead)
+                .latency(latencyMicros == 0 ? Latency.none() : Latency.fixedMicros(latencyMicros))
+                .build();
+        StandInConnections.install(session, CassandraConfig.of(new Properties()));
+        // statements prepared by a previous trial belong to its session
+        StatementRegistry.invalidateAll();
+        selectQuery = CqlRequestFactory.getSelectWhereString(TABLE, FIELDS, new String[]{"pid", "uid"}, null,
+                false, false, false, false, false);
+        beans = new ArrayList<>(statements);
+        for (int i = 0; i < statements; i++) {
+            UserActivityBean bean = new UserActivityBean();
+            // a few rows per partition, so batching by partition has something to group
+            bean.setPid("p" + i / 4);
+            bean.setUid("u" + i / 4);
+            bean.setDay(new Date(1500000000000L + i * 86400000L));
+            bean.setMoneySpent(i * 1.5);
+            beans.add(bean);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        CassandraConnector.shutdown();
+    }
+
+    /**
+     * Key lookups, all rows collected
+     * @return
+     */
+    @Benchmark
+    public List<Row> select() {
+        CqlRequest request = new CqlRequest(selectQuery);
+        for (int i = 0; i < statements; i++) {
+            request.addStatements("p" + i, "u" + i);
+        }
+        return request.treat();
+    }
+
+    /**
+     * Upsert of beans, one statement per bean
+     * @return
+     */
+    @Benchmark
+    public List<Row> upsert() {
+        CqlRequest request = CqlRequestFactory.getUpsertSafeRequest(TABLE, FIELDS);
+        for (UserActivityBean bean : beans) {
+            request.addStatementsAsBeans(bean, FIELDS);
+        }
+        return request.treat();
+    }
+
+    /**
+     * Upsert of beans grouped into one batch per partition
+     * @return
+     */
+    @Benchmark
+    public List<Row> upsertBatchedByPartition() {
+        CqlRequest request = CqlRequestFactory.getUpsertSafeRequest(TABLE, FIELDS);
+        for (UserActivityBean bean : beans) {
+            request.addStatementsAsBeans(bean, FIELDS);
+        }
+        request.batchByPartition(PARTITION_KEY, MAX_BATCH_BYTES);
+        return request.treat();
+    }
+
+    /**
+     * A single page of a key lookup
+     * @return
+     */
+    @Benchmark
+    public Page<Row> selectPage() {
+        CqlRequest request = new CqlRequest(selectQuery);
+        request.addStatements("p0", "u0");
+        return request.treatPage(rowsPerRead, null);
+    }
+
+    /**
+     * Key lookups streamed to a handler
+     * @param blackhole
+     * @return
+     */
+    @Benchmark
+    public boolean streamRows(Blackhole blackhole) {
+        CqlRequest request = new CqlRequest(selectQuery);
+        for (int i = 0; i < statements; i++) {
+            request.addStatements("p" + i, "u" + i);
+        }
+        return request.streamRows(blackhole::consume);
+    }
+}
@@ -0,0 +1,275 @@
+package benchmarks.faults;
+
+import benchmarks.standin.FaultInjectingSession;
+import benchmarks.standin.FaultScenario;
+import db.beans.UserActivityBean;
+import db.config.CassandraConfig;
+import db.config.CassandraConnector;
+import db.config.StandInConnections;
+import db.daos.CqlRequest;
+import db.daos.CqlRequestFactory;
+import db.daos.Deadline;
+import db.daos.StatementRegistry;
+import org.HdrHistogram.Recorder;
+import utils.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Retry and backoff behavior of CqlRequest under the faults of scenarios: for each scenario, requests are executed
+ * at a fixed rate by a pool of caller threads (as a servlet container would) against a FaultInjectingSession, and the
+ * goodput, the statements executed more than once, the time to drain once the faults are over and the caller
+ * threads held by requests are reported
+ */
+public final class FaultBenchmark {
+
+    private static final String TABLE = "user_activity";
+    private static final String[] FIELDS = {"pid", "uid", "day", "moneySpent"};
+    private static final int KEYS = 10000;
+    private static final String SELECT = CqlRequestFactory.getSelectWhereString(TABLE, FIELDS, new String[]{"pid", "uid"}, null,
+            false, false, false, false, false);
+
+    private FaultBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        FaultBenchmarkOptions options;
+        List<FaultScenario> scenarios;
+        try {
+            options = FaultBenchmarkOptions.parse(args);
+            scenarios = loadScenarios(options.scenarios);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(FaultBenchmarkOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+        List<ScenarioResult> results = new ArrayList<>();
+        for (FaultScenario scenario : scenarios) {
+            System.out.println("Running scenario " + scenario);
+            ScenarioResult result = run(scenario, options);
+            results.add(result);
+            System.out.println(result);
+            System.out.println();
+        }
+        writeCsv(results, options.output);
+        System.out.println("Report written to " + options.output.getAbsolutePath());
+        System.exit(0);
+    }
+
+    /**
+     * Scenario files, in the order given, the files of a directory sorted by name
+     * @param paths
+     * @return
+     * @throws IOException
+     */
+    private static List<FaultScenario> loadScenarios(List<File> paths) throws IOException {
+        List<FaultScenario> scenarios = new ArrayList<>();
+        for (File path : paths) {
+            File[] files = path.isDirectory() ? path.listFiles((dir, name) -> name.endsWith(".properties")) : new File[]{path};
+            if (files == null || files.length == 0) {
+                throw new IllegalArgumentException("No scenario in " + path.getAbsolutePath());
+            }
+            Arrays.sort(files);
+            for (File file : files) {
+                scenarios.add(FaultScenario.load(file.toPath()));
+            }
+        }
+        return scenarios;
+    }
+
+    /**
+     * Warm up without faults, then send the requests of the scenario and wait for them to drain
+     * @param scenario
+     * @param options
+     * @return
+     * @throws InterruptedException
+     */
+    private static ScenarioResult run(FaultScenario scenario, FaultBenchmarkOptions options) throws InterruptedException {
+        FaultInjectingSession.Builder builder = FaultInjectingSession.builder(scenario);
+        builder.rowsPerRead(options.rowsPerRead);
+        FaultInjectingSession session = builder.build();
+        StandInConnections.install(session, CassandraConfig.of(new Properties()));
+        // statements prepared by the previous scenario belong to its session
+        StatementRegistry.invalidateAll();
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService callers = Executors.newFixedThreadPool(options.threads, runnable -> {
+            Thread thread = new Thread(runnable, "fault-caller-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            if (options.warmupSeconds > 0) {
+                // also lets the shared concurrency limits recover from the previous scenario
+                Run warmup = new Run(Long.MAX_VALUE);
+                warmup.send(callers, options, options.warmupSeconds);
+                warmup.awaitDrained(options.drainTimeoutSeconds);
+            }
+            long durationNanos = TimeUnit.SECONDS.toNanos(options.durationSeconds);
+            long faultEndNanos = scenario.getFaultDurationNanos() < 0 ? durationNanos
+                    : Math.min(durationNanos, scenario.getFaultStartNanos() + scenario.getFaultDurationNanos());
+            session.startScenario();
+            Run run = new Run(faultEndNanos);
+            run.send(callers, options, options.durationSeconds);
+            boolean drained = run.awaitDrained(options.drainTimeoutSeconds);
+            long windowNanos = System.nanoTime() - run.startNanos;
+            double drainSeconds = drained ? Math.max(0, run.lastFaultyCompletion.get() - run.startNanos - faultEndNanos) / 1e9 : -1;
+            return new ScenarioResult(scenario.getName(), run.requests.sum(), run.ok.sum(), run.failed.sum(), run.withinSlo.sum(),
+                    options.durationSeconds, run.latency.getIntervalHistogram(), session, drainSeconds,
+                    run.busyNanos.sum() / (double) windowNanos, run.maxBusy.get(), options.threads);
+        } finally {
+            callers.shutdownNow();
+            CassandraConnector.shutdown();
+        }
+    }
+
+    /**
+     * Execute a request as the application does, blocking the caller thread
+     * @param options
+     * @return whether it succeeded
+     */
+    private static boolean execute(FaultBenchmarkOptions options) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        CqlRequest request;
+        if (random.nextDouble() < options.writeRatio) {
+            request = CqlRequestFactory.getUpsertSafeRequest(TABLE, FIELDS);
+            for (int i = 0; i < options.statements; i++) {
+                UserActivityBean bean = new UserActivityBean();
+                int key = random.nextInt(KEYS);
+                bean.setPid("p" + key);
+                bean.setUid("u" + key);
+                bean.setDay(new Date(1500000000000L + random.nextInt(365) * 86400000L));
+                bean.setMoneySpent(random.nextDouble() * 100);
+                request.addStatementsAsBeans(bean, FIELDS);
+            }
+        } else {
+            request = new CqlRequest(SELECT);
+            for (int i = 0; i < options.statements; i++) {
+                int key = random.nextInt(KEYS);
+                request.addStatements("p" + key, "u" + key);
+            }
+        }
+        if (options.deadlineMillis > 0) {
+            request.setDeadline(Deadline.after(options.deadlineMillis));
+        }
+        return request.treat() != null && !request.isFailed();
+    }
+
+    /**
+     * Requests sent at the rate for a while, their outcome and the caller threads they held
+     */
+    private static final class Run {
+        final LongAdder requests = new LongAdder();
+        final LongAdder ok = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder withinSlo = new LongAdder();
+        final LongAdder busyNanos = new LongAdder();
+        final AtomicInteger busy = new AtomicInteger();
+        final AtomicInteger maxBusy = new AtomicInteger();
+        // latency from the time requests were due, so the time waiting for a caller thread counts
+        final Recorder latency = new Recorder(3);
+        // requests due before the end of the faults not completed yet, and the time the last of them completed
+        final LongAdder faultyPending = new LongAdder();
+        final LongAccumulator lastFaultyCompletion = new LongAccumulator(Math::max, 0);
+        // end of the faults, since the start of the run
+        final long faultEndNanos;
+        long startNanos;
+
+        Run(long faultEndNanos) {
+            this.faultEndNanos = faultEndNanos;
+        }
+
+        void send(ExecutorService callers, FaultBenchmarkOptions options, int seconds) {
+            long sloMicros = (long) (options.sloMillis * 1000);
+            long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / options.rate);
+            startNanos = System.nanoTime();
+            long end = startNanos + TimeUnit.SECONDS.toNanos(seconds);
+            for (long due = startNanos; due < end; due += intervalNanos) {
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                long dueNanos = due;
+                boolean faulty = dueNanos - startNanos < faultEndNanos;
+                requests.increment();
+                if (faulty) {
+                    faultyPending.increment();
+                }
+                callers.execute(() -> {
+                    long began = System.nanoTime();
+                    maxBusy.accumulateAndGet(busy.incrementAndGet(), Math::max);
+                    boolean succeeded;
+                    try {
+                        succeeded = execute(options);
+                    } catch (RuntimeException e) {
+                        Log.e("Request failed", e);
+                        succeeded = false;
+                    }
+                    long completed = System.nanoTime();
+                    busy.decrementAndGet();
+                    busyNanos.add(completed - began);
+                    long latencyMicros = TimeUnit.NANOSECONDS.toMicros(completed - dueNanos);
+                    latency.recordValue(latencyMicros);
+                    if (succeeded) {
+                        ok.increment();
+                        if (latencyMicros <= sloMicros) {
+                            withinSlo.increment();
+                        }
+                    } else {
+                        failed.increment();
+                    }
+                    if (faulty) {
+                        lastFaultyCompletion.accumulate(completed);
+                        faultyPending.decrement();
+                    }
+                });
+            }
+        }
+
+        /**
+         * Wait for every request sent to complete
+         * @param timeoutSeconds
+         * @return false if some were still running after the timeout
+         * @throws InterruptedException
+         */
+        boolean awaitDrained(int timeoutSeconds) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+            while (ok.sum() + failed.sum() < requests.sum()) {
+                if (System.nanoTime() > deadline) {
+                    return faultyPending.sum() == 0;
+                }
+                Thread.sleep(10);
+            }
+            return true;
+        }
+    }
+
+    private static void writeCsv(List<ScenarioResult> results, File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        try (PrintWriter out = new PrintWriter(file, StandardCharsets.UTF_8.name())) {
+            out.println(ScenarioResult.CSV_HEADER);
+            for (ScenarioResult result : results) {
+                out.println(result.toCsv());
+            }
+        }
+    }
+}
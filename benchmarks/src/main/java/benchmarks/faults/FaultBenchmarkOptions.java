@@ -0,0 +1,111 @@
+package benchmarks.faults;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Options of the fault benchmark, given as --name=value arguments (an empty value keeps the default)
+ */
+final class FaultBenchmarkOptions {
+
+    static final String USAGE = String.join("\n",
+            "Options (--name=value):",
+            "  --scenarios=scenarios   scenario file, or directory of .properties scenario files, comma separated",
+            "  --rate=100              requests per second, sent whatever the response times (open model)",
+            "  --duration=30           seconds of requests per scenario, the faults are timed from its start",
+            "  --warmup=5              seconds of requests without faults before each scenario",
+            "  --threads=200           caller threads executing the requests, like the threads of a servlet container",
+            "  --statements=4          statements per request",
+            "  --write-ratio=0.5       share of the requests writing (upserts), the others read",
+            "  --rows-per-read=10      rows returned by a read",
+            "  --slo=1000              latency (ms) a successful request has to stay under to count in the goodput",
+            "  --deadline=             deadline (ms) of each request, set by the caller, the one of the default profile if empty",
+            "  --drain-timeout=300     seconds to wait for the requests still running at the end of a scenario",
+            "  --output=fault-benchmark.csv         CSV report");
+
+    List<File> scenarios = Arrays.asList(new File("scenarios"));
+    double rate = 100;
+    int durationSeconds = 30;
+    int warmupSeconds = 5;
+    int threads = 200;
+    int statements = 4;
+    double writeRatio = 0.5;
+    int rowsPerRead = 10;
+    double sloMillis = 1000;
+    // 0 for the deadline of the profile
+    long deadlineMillis = 0;
+    int drainTimeoutSeconds = 300;
+    File output = new File("fault-benchmark.csv");
+
+    private FaultBenchmarkOptions() {
+    }
+
+    /**
+     * @param args
+     * @return
+     * @throws IllegalArgumentException on an unknown option or an invalid value
+     */
+    static FaultBenchmarkOptions parse(String[] args) {
+        FaultBenchmarkOptions options = new FaultBenchmarkOptions();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            String name = arg.substring(2, equals);
+            String value = arg.substring(equals + 1).trim();
+            if (!value.isEmpty()) {
+                options.set(name, value);
+            }
+        }
+        return options;
+    }
+
+    private void set(String name, String value) {
+        switch (name) {
+            case "scenarios":
+                scenarios = new ArrayList<>();
+                for (String scenario : value.split(",")) {
+                    scenarios.add(new File(scenario.trim()));
+                }
+                break;
+            case "rate":
+                rate = Double.parseDouble(value);
+                break;
+            case "duration":
+                durationSeconds = Integer.parseInt(value);
+                break;
+            case "warmup":
+                warmupSeconds = Integer.parseInt(value);
+                break;
+            case "threads":
+                threads = Integer.parseInt(value);
+                break;
+            case "statements":
+                statements = Integer.parseInt(value);
+                break;
+            case "write-ratio":
+                writeRatio = Double.parseDouble(value);
+                break;
+            case "rows-per-read":
+                rowsPerRead = Integer.parseInt(value);
+                break;
+            case "slo":
+                sloMillis = Double.parseDouble(value);
+                break;
+            case "deadline":
+                deadlineMillis = Long.parseLong(value);
+                break;
+            case "drain-timeout":
+                drainTimeoutSeconds = Integer.parseInt(value);
+                break;
+            case "output":
+                output = new File(value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option --" + name);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package benchmarks.faults;
+
+import benchmarks.standin.FaultInjectingSession;
+import org.HdrHistogram.Histogram;
+
+import java.util.Locale;
+
+/**
+ * Outcome of a fault scenario: what the callers got (goodput, failures, latency from the time requests were due),
+ * what the server saw (statements sent and executed again) and what it cost (time to drain, caller threads held)
+ */
+final class ScenarioResult {
+
+    static final String CSV_HEADER = "scenario,requests,ok,failed,unfinished,goodput,ok_rate,p50_ms,p99_ms,max_ms,"
+            + "statements,resent,duplicate_executions,timeouts,overloaded,unavailable,lost_node_requests,"
+            + "drain_seconds,avg_busy_threads,max_busy_threads,occupancy";
+
+    final String scenario;
+    final long requests;
+    final long ok;
+    final long failed;
+    // requests still running at the drain timeout
+    final long unfinished;
+    // successful requests within the SLO per second
+    final double goodput;
+    final double okRate;
+    final Histogram latencyMicros;
+    final long statements;
+    final long resent;
+    final long duplicateExecutions;
+    final long timeouts;
+    final long overloaded;
+    final long unavailable;
+    final long lostNodeRequests;
+    // from the end of the faults until the requests due before it completed, -1 if they didn't by the drain timeout
+    final double drainSeconds;
+    final double avgBusyThreads;
+    final int maxBusyThreads;
+    final int threads;
+
+    ScenarioResult(String scenario, long requests, long ok, long failed, long withinSlo, double durationSeconds,
+                   Histogram latencyMicros, FaultInjectingSession session, double drainSeconds, double avgBusyThreads,
+                   int maxBusyThreads, int threads) {
+        this.scenario = scenario;
+        this.requests = requests;
+        this.ok = ok;
+        this.failed = failed;
+        this.unfinished = requests - ok - failed;
+        this.goodput = withinSlo / durationSeconds;
+        this.okRate = ok / durationSeconds;
+        this.latencyMicros = latencyMicros;
+        this.statements = session.getStatements();
+        this.resent = session.getResentStatements();
+        this.duplicateExecutions = session.getDuplicateExecutions();
+        this.timeouts = session.getTimeouts();
+        this.overloaded = session.getOverloaded();
+        this.unavailable = session.getUnavailable();
+        this.lostNodeRequests = session.getLostNodeRequests();
+        this.drainSeconds = drainSeconds;
+        this.avgBusyThreads = avgBusyThreads;
+        this.maxBusyThreads = maxBusyThreads;
+        this.threads = threads;
+    }
+
+    double getPercentileMillis(double percentile) {
+        return latencyMicros.getTotalCount() == 0 ? 0 : latencyMicros.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    double getMaxMillis() {
+        return latencyMicros.getTotalCount() == 0 ? 0 : latencyMicros.getMaxValue() / 1000.0;
+    }
+
+    /**
+     * Share of the caller threads held by requests on average
+     * @return
+     */
+    double getOccupancy() {
+        return threads == 0 ? 0 : avgBusyThreads / threads;
+    }
+
+    String toCsv() {
+        return String.format(Locale.ROOT, "%s,%d,%d,%d,%d,%.1f,%.1f,%.3f,%.3f,%.3f,%d,%d,%d,%d,%d,%d,%d,%.3f,%.1f,%d,%.3f",
+                scenario, requests, ok, failed, unfinished, goodput, okRate, getPercentileMillis(50), getPercentileMillis(99),
+                getMaxMillis(), statements, resent, duplicateExecutions, timeouts, overloaded, unavailable, lostNodeRequests,
+                drainSeconds, avgBusyThreads, maxBusyThreads, getOccupancy());
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%s%n"
+                        + "  requests %d: ok %d, failed %d, unfinished %d; goodput %.1f/s (ok %.1f/s); latency p50 %.1f ms, p99 %.1f ms, max %.1f ms%n"
+                        + "  statements %d: resent %d, executed twice or more %d; injected: %d timeouts, %d overloaded, %d unavailable, %d on lost nodes%n"
+                        + "  time to drain %s; caller threads busy %.1f on average (%.0f%%), %d at most",
+                scenario, requests, ok, failed, unfinished, goodput, okRate, getPercentileMillis(50), getPercentileMillis(99), getMaxMillis(),
+                statements, resent, duplicateExecutions, timeouts, overloaded, unavailable, lostNodeRequests,
+                drainSeconds < 0 ? "over the drain timeout" : String.format(Locale.ROOT, "%.1fs", drainSeconds),
+                avgBusyThreads, getOccupancy() * 100, maxBusyThreads);
+    }
+}
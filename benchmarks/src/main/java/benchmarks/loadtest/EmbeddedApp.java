@@ -0,0 +1,105 @@
+package benchmarks.loadtest;
+
+import org.apache.catalina.Container;
+import org.apache.catalina.Context;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.startup.Tomcat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The webapp (web.xml, JSPs and the classes on the classpath) in an embedded Tomcat on an ephemeral port,
+ * the servlet of the Controller getting extra init-params, e.g. the cassandra.* settings of the stand-in
+ */
+final class EmbeddedApp implements AutoCloseable {
+
+    private static final String CONTROLLER_CLASS = "controller.Controller";
+
+    private final Tomcat tomcat;
+
+    private EmbeddedApp(Tomcat tomcat) {
+        this.tomcat = tomcat;
+    }
+
+    /**
+     * Deploy the webapp at the root context and start Tomcat
+     * @param webapp document base, e.g. src/main/webapp
+     * @param baseDir work directory of Tomcat
+     * @param controllerParams init-params added to the servlet of the Controller
+     * @return
+     * @throws LifecycleException
+     */
+    static EmbeddedApp start(File webapp, File baseDir, Map<String, String> controllerParams) throws LifecycleException {
+        Tomcat tomcat = new Tomcat();
+        tomcat.setBaseDir(baseDir.getAbsolutePath());
+        tomcat.setPort(0);
+        tomcat.getConnector();
+        Context context = tomcat.addWebapp("", webapp.getAbsolutePath());
+        // web.xml is parsed on configure start, the servlets are loaded on start after it
+        context.addLifecycleListener(event -> {
+            if (Lifecycle.CONFIGURE_START_EVENT.equals(event.getType())) {
+                for (Container child : context.findChildren()) {
+                    Wrapper wrapper = (Wrapper) child;
+                    if (wrapper.getServletClass() != null && wrapper.getServletClass().trim().equals(CONTROLLER_CLASS)) {
+                        for (Map.Entry<String, String> param : controllerParams.entrySet()) {
+                            wrapper.addInitParameter(param.getKey(), param.getValue());
+                        }
+                    }
+                }
+            }
+        });
+        tomcat.start();
+        return new EmbeddedApp(tomcat);
+    }
+
+    /**
+     * @return e.g. http://127.0.0.1:41234/
+     */
+    String getBaseUrl() {
+        return "http://127.0.0.1:" + tomcat.getConnector().getLocalPort() + "/";
+    }
+
+    /**
+     * Wait for ready.do to answer 200, i.e. for the Controller to be connected and warmed up
+     * @param timeoutSeconds
+     * @throws IOException if it isn't ready in time
+     * @throws InterruptedException
+     */
+    void awaitReady(int timeoutSeconds) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        int status = -1;
+        while (System.nanoTime() < deadline) {
+            HttpURLConnection connection = (HttpURLConnection) new URL(getBaseUrl() + "ready.do").openConnection();
+            try {
+                status = connection.getResponseCode();
+                InputStream body = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+                if (body != null) {
+                    body.close();
+                }
+            } catch (IOException e) {
+                status = -1;
+            } finally {
+                connection.disconnect();
+            }
+            if (status == HttpURLConnection.HTTP_OK) {
+                return;
+            }
+            Thread.sleep(200);
+        }
+        throw new IOException("ready.do still answers " + status + " after " + timeoutSeconds + "s");
+    }
+
+    @Override
+    public void close() throws LifecycleException {
+        tomcat.stop();
+        tomcat.destroy();
+    }
+}
@@ -0,0 +1,178 @@
+package benchmarks.loadtest;
+
+import benchmarks.standin.Latency;
+import benchmarks.standin.cql.CqlStandIn;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.LocalDate;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import utils.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * End-to-end load test of the webapp: the Controller in an embedded Tomcat, backed by the driver talking to an
+ * in-process Cassandra stand-in, under open-model HTTP load. Steps at increasing rates find the saturation point,
+ * the highest rate sustained within the p99 SLO
+ */
+public final class LoadTest {
+
+    private static final String KEYSPACE = "test_db";
+    // pause between steps, so that the requests of a step don't weigh on the next one
+    private static final long PAUSE_MILLIS = 2000;
+    private static final int READY_TIMEOUT_SECONDS = 120;
+    private static final int SEED_CHUNK = 256;
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options;
+        try {
+            options = LoadTestOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(LoadTestOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+        LoadTestReport report = new LoadTestReport(options.sloP99Millis);
+        try (CqlStandIn cassandra = standIn(options).start()) {
+            seed(cassandra.getPort(), options);
+            Map<String, String> params = new HashMap<>();
+            params.put("cassandra.contactPoints", "127.0.0.1");
+            params.put("cassandra.port", String.valueOf(cassandra.getPort()));
+            params.put("cassandra.keyspace", KEYSPACE);
+            // the stand-in speaks uncompressed frames only
+            params.put("cassandra.compression", "NONE");
+            EmbeddedApp app = EmbeddedApp.start(options.webapp, new File("target/loadtest-tomcat"), params);
+            try (OpenLoadGenerator generator = new OpenLoadGenerator(app.getBaseUrl(), new Workload(options.mix, options.keys),
+                    options.poisson, options.concurrency, options.maxOutstanding)) {
+                app.awaitReady(READY_TIMEOUT_SECONDS);
+                Log.i("Webapp ready at " + app.getBaseUrl());
+                double firstRate = options.rates.isEmpty() ? options.startRate : options.rates.get(0);
+                if (options.warmupSeconds > 0) {
+                    Log.i("Warming up at " + firstRate + " req/s for " + options.warmupSeconds + "s");
+                    generator.run(firstRate, options.warmupSeconds);
+                    Thread.sleep(PAUSE_MILLIS);
+                }
+                if (options.rates.isEmpty()) {
+                    search(generator, options, report);
+                } else {
+                    for (double rate : options.rates) {
+                        step(generator, rate, options, report);
+                    }
+                }
+            } finally {
+                app.close();
+            }
+            Log.i("Cassandra stand-in served " + cassandra.getRequests() + " requests");
+        }
+        report.printSummary(System.out);
+        report.writeCsv(options.output);
+        Log.i("Report written to " + options.output.getAbsolutePath());
+        double saturation = report.getSaturationRate();
+        if (saturation < options.minRate) {
+            System.err.println("Saturation point " + saturation + " req/s is below the minimum of " + options.minRate + " req/s");
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Multiply the rate until a step isn't sustained, then bisect between the last sustained rate and it
+     * @param generator
+     * @param options
+     * @param report
+     * @throws InterruptedException
+     */
+    private static void search(OpenLoadGenerator generator, LoadTestOptions options, LoadTestReport report) throws InterruptedException {
+        double sustained = 0;
+        double rate = options.startRate;
+        while (true) {
+            if (!step(generator, rate, options, report)) {
+                break;
+            }
+            sustained = rate;
+            if (rate >= options.maxRate) {
+                return;
+            }
+            rate = Math.min(rate * options.factor, options.maxRate);
+        }
+        double failed = rate;
+        for (int i = 0; i < options.refine && sustained > 0; i++) {
+            double middle = (sustained + failed) / 2;
+            if (step(generator, middle, options, report)) {
+                sustained = middle;
+            } else {
+                failed = middle;
+            }
+        }
+    }
+
+    /**
+     * @return whether the step was sustained
+     */
+    private static boolean step(OpenLoadGenerator generator, double rate, LoadTestOptions options, LoadTestReport report) throws InterruptedException {
+        Log.i("Step at " + rate + " req/s for " + options.durationSeconds + "s");
+        StepResult result = generator.run(rate, options.durationSeconds);
+        report.add(result);
+        report.print(result, System.out);
+        Thread.sleep(PAUSE_MILLIS);
+        return result.isSustained(options.sloP99Millis);
+    }
+
+    /**
+     * Stand-in loaded with the schema file, or all the .cql files of the schema directory
+     * @param options
+     * @return
+     * @throws IOException
+     */
+    private static CqlStandIn standIn(LoadTestOptions options) throws IOException {
+        CqlStandIn.Builder builder = CqlStandIn.builder().latency(options.latencyMicros > 0 ? Latency.fixedMicros(options.latencyMicros) : Latency.none());
+        File[] files = options.schema.isDirectory() ? options.schema.listFiles((dir, name) -> name.endsWith(".cql")) : new File[]{options.schema};
+        if (files == null || files.length == 0) {
+            throw new IOException("No CQL schema in " + options.schema.getAbsolutePath());
+        }
+        // user_activity.cql, creating the keyspace, sorts first
+        Arrays.sort(files);
+        for (File file : files) {
+            builder.schemaFile(file.toPath());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Write rows for the keys of the workload, on days of the last year, so that demo.do reads real pages
+     * @param port
+     * @param options
+     */
+    private static void seed(int port, LoadTestOptions options) {
+        try (Cluster cluster = Cluster.builder().addContactPoint("127.0.0.1").withPort(port).withoutJMXReporting().build();
+             Session session = cluster.connect(KEYSPACE)) {
+            PreparedStatement insert = session.prepare("INSERT INTO user_activity (pid, uid, day, moneyspent) VALUES (?, ?, ?, ?)");
+            int today = (int) (System.currentTimeMillis() / 86400000L);
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            List<ResultSetFuture> chunk = new ArrayList<>(SEED_CHUNK);
+            for (int i = 0; i < options.seedRows; i++) {
+                int key = i % options.keys;
+                chunk.add(session.executeAsync(insert.bind(Workload.pid(key), Workload.uid(key),
+                        LocalDate.fromDaysSinceEpoch(today - random.nextInt(365)), random.nextDouble() * 100)));
+                if (chunk.size() == SEED_CHUNK) {
+                    chunk.forEach(ResultSetFuture::getUninterruptibly);
+                    chunk.clear();
+                }
+            }
+            chunk.forEach(ResultSetFuture::getUninterruptibly);
+        }
+        Log.i("Seeded " + options.seedRows + " rows for " + options.keys + " keys");
+    }
+}
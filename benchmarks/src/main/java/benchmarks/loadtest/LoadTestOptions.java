@@ -0,0 +1,160 @@
+package benchmarks.loadtest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Options of the load test, given as --name=value arguments (an empty value keeps the default)
+ */
+final class LoadTestOptions {
+
+    static final String USAGE = String.join("\n",
+            "Options (--name=value):",
+            "  --rates=100,200,400     target rates (requests/s) of the steps, empty to search the saturation point",
+            "  --start-rate=50         first rate of the search, multiplied by --factor=2 after each sustained step",
+            "  --max-rate=20000        rate the search stops at",
+            "  --refine=2              steps bisecting between the last sustained rate and the first one that wasn't",
+            "  --duration=20           seconds per step",
+            "  --warmup=10             seconds at the first rate before the measured steps",
+            "  --mix=demo.do:60,add.do:30,delete.do:10   actions and their weights",
+            "  --arrivals=poisson      poisson or uniform inter-arrival times",
+            "  --slo-p99=100           p99 (ms) a step has to stay under to be sustained",
+            "  --min-rate=0            exit with status 1 if the saturation point is below this rate",
+            "  --keys=1000             distinct (pid, uid) the actions pick from",
+            "  --seed-rows=10000       rows written to the stand-in before the test",
+            "  --latency-micros=0      latency of the responses of the Cassandra stand-in",
+            "  --concurrency=256       HTTP connections, requests beyond them wait (and count in the latency)",
+            "  --max-outstanding=8192  requests waiting or running beyond which new ones are dropped (and count as errors)",
+            "  --schema=../resource/schema          CQL file or directory of .cql files loaded into the stand-in",
+            "  --webapp=../src/main/webapp          document base of the webapp",
+            "  --output=loadtest-result.csv         CSV report");
+
+    List<Double> rates = Collections.emptyList();
+    double startRate = 50;
+    double factor = 2;
+    double maxRate = 20000;
+    int refine = 2;
+    int durationSeconds = 20;
+    int warmupSeconds = 10;
+    Map<String, Integer> mix = parseMix("demo.do:60,add.do:30,delete.do:10");
+    boolean poisson = true;
+    double sloP99Millis = 100;
+    double minRate = 0;
+    int keys = 1000;
+    int seedRows = 10000;
+    long latencyMicros = 0;
+    int concurrency = 256;
+    int maxOutstanding = 8192;
+    File schema = new File("../resource/schema");
+    File webapp = new File("../src/main/webapp");
+    File output = new File("loadtest-result.csv");
+
+    private LoadTestOptions() {
+    }
+
+    /**
+     * @param args
+     * @return
+     * @throws IllegalArgumentException on an unknown option or an invalid value
+     */
+    static LoadTestOptions parse(String[] args) {
+        LoadTestOptions options = new LoadTestOptions();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            String name = arg.substring(2, equals);
+            String value = arg.substring(equals + 1).trim();
+            if (!value.isEmpty()) {
+                options.set(name, value);
+            }
+        }
+        return options;
+    }
+
+    private void set(String name, String value) {
+        switch (name) {
+            case "rates":
+                rates = new ArrayList<>();
+                for (String rate : value.split(",")) {
+                    rates.add(Double.parseDouble(rate.trim()));
+                }
+                break;
+            case "start-rate":
+                startRate = Double.parseDouble(value);
+                break;
+            case "factor":
+                factor = Double.parseDouble(value);
+                break;
+            case "max-rate":
+                maxRate = Double.parseDouble(value);
+                break;
+            case "refine":
+                refine = Integer.parseInt(value);
+                break;
+            case "duration":
+                durationSeconds = Integer.parseInt(value);
+                break;
+            case "warmup":
+                warmupSeconds = Integer.parseInt(value);
+                break;
+            case "mix":
+                mix = parseMix(value);
+                break;
+            case "arrivals":
+                poisson = value.equalsIgnoreCase("poisson");
+                break;
+            case "slo-p99":
+                sloP99Millis = Double.parseDouble(value);
+                break;
+            case "min-rate":
+                minRate = Double.parseDouble(value);
+                break;
+            case "keys":
+                keys = Integer.parseInt(value);
+                break;
+            case "seed-rows":
+                seedRows = Integer.parseInt(value);
+                break;
+            case "latency-micros":
+                latencyMicros = Long.parseLong(value);
+                break;
+            case "concurrency":
+                concurrency = Integer.parseInt(value);
+                break;
+            case "max-outstanding":
+                maxOutstanding = Integer.parseInt(value);
+                break;
+            case "schema":
+                schema = new File(value);
+                break;
+            case "webapp":
+                webapp = new File(value);
+                break;
+            case "output":
+                output = new File(value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option --" + name);
+        }
+    }
+
+    /**
+     * Parse "demo.do:60,add.do:30" into the weight of each action
+     * @param mix
+     * @return
+     */
+    private static Map<String, Integer> parseMix(String mix) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String entry : mix.split(",")) {
+            String[] actionAndWeight = entry.trim().split(":");
+            weights.put(actionAndWeight[0].trim(), actionAndWeight.length > 1 ? Integer.parseInt(actionAndWeight[1].trim()) : 1);
+        }
+        return weights;
+    }
+}
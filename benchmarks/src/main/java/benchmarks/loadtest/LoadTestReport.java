@@ -0,0 +1,108 @@
+package benchmarks.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Report of the load test: latency percentiles and throughput per action and step, printed and written as CSV,
+ * and the saturation point, i.e. the highest rate sustained within the SLO
+ */
+final class LoadTestReport {
+
+    private static final String ALL = "all";
+
+    private final double sloP99Millis;
+    private final List<StepResult> steps = new ArrayList<>();
+
+    LoadTestReport(double sloP99Millis) {
+        this.sloP99Millis = sloP99Millis;
+    }
+
+    void add(StepResult step) {
+        steps.add(step);
+    }
+
+    /**
+     * Highest target rate of a sustained step
+     * @return 0 if no step was sustained
+     */
+    double getSaturationRate() {
+        double saturation = 0;
+        for (StepResult step : steps) {
+            if (step.isSustained(sloP99Millis)) {
+                saturation = Math.max(saturation, step.getTargetRate());
+            }
+        }
+        return saturation;
+    }
+
+    /**
+     * Print a step as it completes
+     * @param step
+     * @param out
+     */
+    void print(StepResult step, PrintStream out) {
+        out.println(String.format(Locale.ROOT, "%nStep at %.0f req/s: %s (p99 <= %.0f ms, errors <= %.0f%%)",
+                step.getTargetRate(), step.isSustained(sloP99Millis) ? "sustained" : "NOT sustained", sloP99Millis,
+                StepResult.MAX_ERROR_RATIO * 100));
+        out.println(String.format(Locale.ROOT, "%-10s %9s %9s %7s %8s %10s %9s %9s %9s %9s %9s",
+                "action", "sent", "ok", "errors", "dropped", "ok/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+        for (Map.Entry<Workload.Action, StepResult.ActionStats> action : step.getActions().entrySet()) {
+            out.println(line(action.getKey().path, action.getValue()));
+        }
+        out.println(line(ALL, step.getTotal()));
+    }
+
+    void printSummary(PrintStream out) {
+        out.println();
+        double saturation = getSaturationRate();
+        if (saturation > 0) {
+            out.println(String.format(Locale.ROOT, "Saturation point: %.0f req/s (highest sustained rate)", saturation));
+        } else {
+            out.println("Saturation point: none of the rates was sustained");
+        }
+    }
+
+    /**
+     * Write one line per step and action (and for all the actions of a step)
+     * @param file
+     * @throws IOException
+     */
+    void writeCsv(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        try (PrintWriter out = new PrintWriter(file, StandardCharsets.UTF_8.name())) {
+            out.println("target_rate,action,sent,ok,errors,dropped,ok_rate,p50_ms,p90_ms,p99_ms,p999_ms,max_ms,sustained");
+            for (StepResult step : steps) {
+                boolean sustained = step.isSustained(sloP99Millis);
+                for (Map.Entry<Workload.Action, StepResult.ActionStats> action : step.getActions().entrySet()) {
+                    out.println(csv(step, action.getKey().path, action.getValue(), sustained));
+                }
+                out.println(csv(step, ALL, step.getTotal(), sustained));
+            }
+        }
+    }
+
+    private static String line(String action, StepResult.ActionStats stats) {
+        return String.format(Locale.ROOT, "%-10s %9d %9d %7d %8d %10.1f %9.2f %9.2f %9.2f %9.2f %9.2f",
+                action, stats.getSent(), stats.getOk(), stats.getErrors(), stats.getDropped(), stats.getAchievedRate(),
+                stats.getPercentileMillis(50), stats.getPercentileMillis(90), stats.getPercentileMillis(99),
+                stats.getPercentileMillis(99.9), stats.getMaxMillis());
+    }
+
+    private static String csv(StepResult step, String action, StepResult.ActionStats stats, boolean sustained) {
+        return String.format(Locale.ROOT, "%.1f,%s,%d,%d,%d,%d,%.1f,%.3f,%.3f,%.3f,%.3f,%.3f,%b",
+                step.getTargetRate(), action, stats.getSent(), stats.getOk(), stats.getErrors(), stats.getDropped(),
+                stats.getAchievedRate(), stats.getPercentileMillis(50), stats.getPercentileMillis(90),
+                stats.getPercentileMillis(99), stats.getPercentileMillis(99.9), stats.getMaxMillis(), sustained);
+    }
+}
@@ -0,0 +1,186 @@
+package benchmarks.loadtest;
+
+import org.HdrHistogram.Recorder;
+import utils.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-model load: requests are sent at the target rate whatever the response times, as independent users would.
+ * Each request is due at a time of the schedule and its latency is measured from that time, so a slow server
+ * isn't hidden by the generator waiting for it (coordinated omission). Requests beyond the HTTP connections
+ * wait for one, beyond the outstanding limit they are dropped
+ */
+final class OpenLoadGenerator implements AutoCloseable {
+
+    // marker of error.jsp, the page of the actions that failed
+    static final String ERROR_PAGE_MARKER = "<h2>Errors</h2>";
+    private static final int TIMEOUT_MILLIS = 30000;
+    // time given to the requests of a step to complete once the step is over
+    private static final long DRAIN_SECONDS = 60;
+
+    private final String baseUrl;
+    private final Workload workload;
+    private final boolean poisson;
+    private final int maxOutstanding;
+    private final ExecutorService clients;
+
+    /**
+     * @param baseUrl e.g. http://127.0.0.1:8080/
+     * @param workload
+     * @param poisson exponential inter-arrival times (else evenly spaced requests)
+     * @param concurrency HTTP connections
+     * @param maxOutstanding requests waiting or running beyond which new ones are dropped
+     */
+    OpenLoadGenerator(String baseUrl, Workload workload, boolean poisson, int concurrency, int maxOutstanding) {
+        this.baseUrl = baseUrl;
+        this.workload = workload;
+        this.poisson = poisson;
+        this.maxOutstanding = maxOutstanding;
+        // kept-alive connections per host of HttpURLConnection, 5 by default
+        System.setProperty("http.maxConnections", String.valueOf(concurrency));
+        AtomicInteger count = new AtomicInteger();
+        this.clients = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "load-client-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Send requests at a rate for a while, then wait for them to complete
+     * @param rate requests per second
+     * @param seconds
+     * @return
+     * @throws InterruptedException
+     */
+    StepResult run(double rate, int seconds) throws InterruptedException {
+        Map<Workload.Action, Recorder> latencies = new EnumMap<>(Workload.Action.class);
+        Map<Workload.Action, LongAdder[]> counts = new EnumMap<>(Workload.Action.class);
+        for (Workload.Action action : workload.getActions()) {
+            latencies.put(action, new Recorder(3));
+            // ok, errors, dropped, sent
+            counts.put(action, new LongAdder[]{new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder()});
+        }
+        Semaphore outstanding = new Semaphore(maxOutstanding);
+        double meanIntervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        double due = start;
+        while (due < end) {
+            long dueNanos = (long) due;
+            long wait = dueNanos - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Workload.Request request = workload.next();
+            LongAdder[] count = counts.get(request.action);
+            count[3].increment();
+            if (!outstanding.tryAcquire()) {
+                count[2].increment();
+            } else {
+                clients.execute(() -> {
+                    try {
+                        boolean ok = send(request);
+                        latencies.get(request.action).recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - dueNanos)));
+                        count[ok ? 0 : 1].increment();
+                    } finally {
+                        outstanding.release();
+                    }
+                });
+            }
+            due += poisson ? -Math.log(1 - ThreadLocalRandom.current().nextDouble()) * meanIntervalNanos : meanIntervalNanos;
+        }
+        if (!outstanding.tryAcquire(maxOutstanding, DRAIN_SECONDS, TimeUnit.SECONDS)) {
+            Log.w("Requests of the step at " + rate + "/s still running after " + DRAIN_SECONDS + "s");
+        } else {
+            outstanding.release(maxOutstanding);
+        }
+        StepResult result = new StepResult(rate, seconds);
+        for (Workload.Action action : workload.getActions()) {
+            LongAdder[] count = counts.get(action);
+            long ok = count[0].sum();
+            long dropped = count[2].sum();
+            // requests still running after the drain count as errors
+            long errors = count[3].sum() - ok - dropped;
+            result.add(action, new StepResult.ActionStats(latencies.get(action).getIntervalHistogram(), ok, errors, dropped, seconds));
+        }
+        return result;
+    }
+
+    /**
+     * Send a request and read its response
+     * @param request
+     * @return whether the action succeeded: 200 and not the error page
+     */
+    private boolean send(Workload.Request request) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(baseUrl + request.action.path).openConnection();
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            connection.setInstanceFollowRedirects(false);
+            if (request.action.post) {
+                byte[] form = request.form.getBytes(StandardCharsets.UTF_8);
+                connection.setRequestMethod("POST");
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+                connection.setFixedLengthStreamingMode(form.length);
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(form);
+                }
+            }
+            int status = connection.getResponseCode();
+            String body = read(status >= 400 ? connection.getErrorStream() : connection.getInputStream());
+            return status == HttpURLConnection.HTTP_OK && !body.contains(ERROR_PAGE_MARKER);
+        } catch (IOException e) {
+            if (connection != null) {
+                // the connection can't be reused
+                connection.disconnect();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Read a response to the end, so that its connection is kept alive
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    private static String read(InputStream in) throws IOException {
+        if (in == null) {
+            return "";
+        }
+        try (InputStream body = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = body.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Override
+    public void close() {
+        clients.shutdownNow();
+    }
+}
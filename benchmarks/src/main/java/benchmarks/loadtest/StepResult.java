@@ -0,0 +1,122 @@
+package benchmarks.loadtest;
+
+import org.HdrHistogram.Histogram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Outcome of a step of the load test: per action, the requests sent, their latency (from the time they were due,
+ * so the time spent waiting for a connection counts) and their errors
+ */
+final class StepResult {
+
+    // share of errors (dropped and unfinished requests included) above which a step is not sustained
+    static final double MAX_ERROR_RATIO = 0.01;
+
+    private final double targetRate;
+    private final double durationSeconds;
+    private final Map<Workload.Action, ActionStats> actions = new LinkedHashMap<>();
+
+    StepResult(double targetRate, double durationSeconds) {
+        this.targetRate = targetRate;
+        this.durationSeconds = durationSeconds;
+    }
+
+    void add(Workload.Action action, ActionStats stats) {
+        actions.put(action, stats);
+    }
+
+    double getTargetRate() {
+        return targetRate;
+    }
+
+    Map<Workload.Action, ActionStats> getActions() {
+        return actions;
+    }
+
+    /**
+     * Stats of all the actions together
+     * @return
+     */
+    ActionStats getTotal() {
+        ActionStats total = new ActionStats(new Histogram(3), 0, 0, 0, durationSeconds);
+        for (ActionStats stats : actions.values()) {
+            total = total.plus(stats);
+        }
+        return total;
+    }
+
+    /**
+     * Whether the stack kept up with the target rate: few errors and a p99 within the SLO. The latency being
+     * measured from the time requests were due, a backlog shows in the p99 rather than in a lower rate
+     * @param sloP99Millis
+     * @return
+     */
+    boolean isSustained(double sloP99Millis) {
+        ActionStats total = getTotal();
+        return total.getErrorRatio() <= MAX_ERROR_RATIO && total.getPercentileMillis(99) <= sloP99Millis;
+    }
+
+    /**
+     * Requests of an action (or of all of them) during a step
+     */
+    static final class ActionStats {
+        // latency of the completed requests, in microseconds
+        private final Histogram latency;
+        private final long ok;
+        private final long errors;
+        private final long dropped;
+        private final double durationSeconds;
+
+        ActionStats(Histogram latency, long ok, long errors, long dropped, double durationSeconds) {
+            this.latency = latency;
+            this.ok = ok;
+            this.errors = errors;
+            this.dropped = dropped;
+            this.durationSeconds = durationSeconds;
+        }
+
+        ActionStats plus(ActionStats other) {
+            Histogram sum = latency.copy();
+            sum.add(other.latency);
+            return new ActionStats(sum, ok + other.ok, errors + other.errors, dropped + other.dropped, durationSeconds);
+        }
+
+        long getSent() {
+            return ok + errors + dropped;
+        }
+
+        long getOk() {
+            return ok;
+        }
+
+        long getErrors() {
+            return errors;
+        }
+
+        long getDropped() {
+            return dropped;
+        }
+
+        /**
+         * Successful requests per second of the step
+         * @return
+         */
+        double getAchievedRate() {
+            return durationSeconds <= 0 ? 0 : ok / durationSeconds;
+        }
+
+        double getErrorRatio() {
+            return getSent() == 0 ? 0 : (errors + dropped) / (double) getSent();
+        }
+
+        double getPercentileMillis(double percentile) {
+            return latency.getTotalCount() == 0 ? 0 : latency.getValueAtPercentile(percentile) / 1000.0;
+        }
+
+        double getMaxMillis() {
+            return latency.getTotalCount() == 0 ? 0 : latency.getMaxValue() / 1000.0;
+        }
+    }
+}
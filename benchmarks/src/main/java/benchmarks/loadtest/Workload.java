@@ -0,0 +1,117 @@
+package benchmarks.loadtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Mix of Controller actions the load is made of: each request picks an action by weight, and a (pid, uid) among
+ * the keys of the test for add.do and delete.do, as a user of the demo pages would post them
+ */
+final class Workload {
+
+    /**
+     * Actions of the Controller under test
+     */
+    enum Action {
+        DEMO("demo.do", false),
+        ADD("add.do", true),
+        DELETE("delete.do", true);
+
+        final String path;
+        final boolean post;
+
+        Action(String path, boolean post) {
+            this.path = path;
+            this.post = post;
+        }
+
+        static Action of(String path) {
+            for (Action action : values()) {
+                if (action.path.equals(path)) {
+                    return action;
+                }
+            }
+            throw new IllegalArgumentException("Unknown action " + path + ", expected demo.do, add.do or delete.do");
+        }
+    }
+
+    private final List<Action> actions = new ArrayList<>();
+    private final int[] cumulativeWeights;
+    private final int keys;
+
+    /**
+     * @param mix weight of each action by path
+     * @param keys distinct (pid, uid) the requests pick from
+     */
+    Workload(Map<String, Integer> mix, int keys) {
+        this.cumulativeWeights = new int[mix.size()];
+        int total = 0;
+        for (Map.Entry<String, Integer> entry : mix.entrySet()) {
+            total += entry.getValue();
+            cumulativeWeights[actions.size()] = total;
+            actions.add(Action.of(entry.getKey()));
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("The action mix has no weight");
+        }
+        this.keys = keys;
+    }
+
+    List<Action> getActions() {
+        return actions;
+    }
+
+    /**
+     * Next request of the mix
+     * @return
+     */
+    Request next() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int pick = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        int index = 0;
+        while (pick >= cumulativeWeights[index]) {
+            index++;
+        }
+        Action action = actions.get(index);
+        int key = random.nextInt(keys);
+        switch (action) {
+            case ADD:
+                return new Request(action, "pid=" + pid(key) + "&uid=" + uid(key) + "&moneySpent=" +
+                        String.format(Locale.ROOT, "%.2f", random.nextDouble() * 100));
+            case DELETE:
+                return new Request(action, "pid=" + pid(key) + "&uid=" + uid(key));
+            default:
+                return new Request(action, null);
+        }
+    }
+
+    /**
+     * Product of a key, shared by a few keys
+     * @param key
+     * @return
+     */
+    static String pid(int key) {
+        return "pid" + (key % 32);
+    }
+
+    static String uid(int key) {
+        return "uid" + key;
+    }
+
+    /**
+     * An HTTP request of an action
+     */
+    static final class Request {
+        final Action action;
+        // form parameters of a POST, null for a GET
+        final String form;
+
+        Request(Action action, String form) {
+            this.action = action;
+            this.form = form;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package benchmarks.standin;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.exceptions.OperationTimedOutException;
+import com.datastax.driver.core.exceptions.OverloadedException;
+import com.datastax.driver.core.exceptions.UnavailableException;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Stand-in session injecting the faults of a scenario: slow responses, requests executed but never answered,
+ * overloaded or unavailable replicas and lost nodes. It counts what a client can't see, the statements sent
+ * more than once and the ones the server executed more than once (a retried write is applied again)
+ */
+public class FaultInjectingSession extends SyntheticSession {
+
+    // statement being executed by executeAsync on this thread, so the first page of a statement is told apart from the next ones
+    private static final ThreadLocal<Statement> EXECUTING = new ThreadLocal<>();
+
+    private final FaultScenario scenario;
+    // sends of each statement, weak so the statements of completed requests can be collected
+    private final Map<Statement, Sends> sends = new WeakHashMap<>();
+    private final LongAdder statements = new LongAdder();
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder duplicateExecutions = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder overloaded = new LongAdder();
+    private final LongAdder unavailable = new LongAdder();
+    private final LongAdder lostNodeRequests = new LongAdder();
+    private volatile long startNanos;
+    // no fault is injected before startScenario()
+    private volatile boolean started = false;
+
+    protected FaultInjectingSession(Builder builder) {
+        super(builder);
+        this.scenario = builder.scenario;
+    }
+
+    /**
+     * Builder of a session injecting the faults of a scenario, with its latency
+     * @param scenario
+     * @return
+     */
+    public static Builder builder(FaultScenario scenario) {
+        Builder builder = new Builder(scenario);
+        builder.latency(scenario.getLatency());
+        return builder;
+    }
+
+    public FaultScenario getScenario() {
+        return scenario;
+    }
+
+    /**
+     * Start the clock of the scenario (its faults begin fault.start seconds later) and reset the counters,
+     * until then the session answers like a SyntheticSession
+     */
+    public void startScenario() {
+        synchronized (sends) {
+            sends.clear();
+        }
+        for (LongAdder counter : new LongAdder[]{statements, executions, duplicateExecutions, timeouts, overloaded, unavailable, lostNodeRequests}) {
+            counter.reset();
+        }
+        startNanos = System.nanoTime();
+        started = true;
+    }
+
+    /**
+     * @return nanoseconds since startScenario()
+     */
+    public long getElapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Distinct statements executed since the start of the scenario
+     * @return
+     */
+    public long getStatements() {
+        return statements.sum();
+    }
+
+    /**
+     * Statements sent again (retries and hedges), whether or not the server executed them
+     * @return
+     */
+    public long getResentStatements() {
+        return executions.sum() - statements.sum();
+    }
+
+    /**
+     * Executions by the server of a statement it had already executed, e.g. a write retried after a timeout
+     * @return
+     */
+    public long getDuplicateExecutions() {
+        return duplicateExecutions.sum();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    public long getOverloaded() {
+        return overloaded.sum();
+    }
+
+    public long getUnavailable() {
+        return unavailable.sum();
+    }
+
+    public long getLostNodeRequests() {
+        return lostNodeRequests.sum();
+    }
+
+    @Override
+    public ResultSetFuture executeAsync(Statement statement) {
+        EXECUTING.set(statement);
+        try {
+            return super.executeAsync(statement);
+        } finally {
+            EXECUTING.remove();
+        }
+    }
+
+    @Override
+    protected void deliver(Statement statement, SyntheticResultSetFuture future, Supplier<ResultSet> response) {
+        boolean firstPage = EXECUTING.get() == statement;
+        Sends statementSends = firstPage ? sent(statement) : null;
+        if (!started || !scenario.isFaulty(getElapsedNanos())) {
+            executed(statementSends);
+            super.deliver(statement, future, response);
+            return;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long readTimeoutNanos = readTimeoutNanos(statement);
+        if (random.nextInt(scenario.getNodes()) < scenario.getLostNodes()) {
+            // the coordinator is gone, nothing is executed and nothing answers
+            lostNodeRequests.increment();
+            schedule(readTimeoutNanos, () -> future.fail(new OperationTimedOutException(ADDRESS, "Timed out waiting for server response")));
+            return;
+        }
+        double fault = random.nextDouble();
+        long latencyNanos = scenario.getFaultLatency().nextNanos();
+        if (fault < scenario.getOverloadedRatio()) {
+            overloaded.increment();
+            schedule(Math.min(latencyNanos, readTimeoutNanos), () -> future.fail(new OverloadedException(ADDRESS, "Queue is full")));
+            return;
+        }
+        fault -= scenario.getOverloadedRatio();
+        if (fault < scenario.getUnavailableRatio()) {
+            unavailable.increment();
+            ConsistencyLevel consistency = statement.getConsistencyLevel() != null ? statement.getConsistencyLevel() : ConsistencyLevel.LOCAL_ONE;
+            schedule(Math.min(latencyNanos, readTimeoutNanos), () -> future.fail(new UnavailableException(ADDRESS, consistency, 1, 0)));
+            return;
+        }
+        fault -= scenario.getUnavailableRatio();
+        executed(statementSends);
+        if (fault < scenario.getTimeoutRatio()) {
+            // executed, but the response is lost
+            timeouts.increment();
+            latencyNanos = Long.MAX_VALUE;
+        }
+        respond(statement, future, response, latencyNanos);
+    }
+
+    private Sends sent(Statement statement) {
+        executions.increment();
+        synchronized (sends) {
+            Sends statementSends = sends.get(statement);
+            if (statementSends == null) {
+                statements.increment();
+                statementSends = new Sends();
+                sends.put(statement, statementSends);
+            }
+            return statementSends;
+        }
+    }
+
+    private void executed(Sends statementSends) {
+        if (statementSends != null && statementSends.executions.getAndIncrement() > 0) {
+            duplicateExecutions.increment();
+        }
+    }
+
+    /**
+     * Executions of a statement by the server
+     */
+    private static final class Sends {
+        final AtomicInteger executions = new AtomicInteger();
+    }
+
+    /**
+     * Builder of a session injecting the faults of a scenario
+     */
+    public static class Builder extends SyntheticSession.Builder {
+        private final FaultScenario scenario;
+
+        protected Builder(FaultScenario scenario) {
+            this.scenario = scenario;
+        }
+
+        @Override
+        public FaultInjectingSession build() {
+            return new FaultInjectingSession(this);
+        }
+    }
+}
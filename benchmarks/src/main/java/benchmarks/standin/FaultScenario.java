@@ -0,0 +1,164 @@
+package benchmarks.standin;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Faults injected by FaultInjectingSession, read from a scenario file (properties):
+ * <pre>
+ * description=one node of three lost for 10s
+ * latency=lognormal:800,0.5        latency of the responses, see Latency.parse
+ * fault.start=10                   seconds after the start of the scenario the faults begin
+ * fault.duration=10                seconds they last, -1 until the end
+ * fault.latency=fixed:5000         latency of the responses during the faults (latency if not set)
+ * fault.timeoutRatio=0.05          share of requests executed by the server but never answered
+ * fault.overloadedRatio=0.3        share of requests rejected with OverloadedException
+ * fault.unavailableRatio=0.1       share of requests rejected with UnavailableException
+ * fault.nodes=3                    nodes the requests are spread over
+ * fault.lostNodes=1                nodes that stopped answering, their requests time out
+ * </pre>
+ */
+public final class FaultScenario {
+
+    private static final String FAULT = "fault.";
+
+    private final String name;
+    private final String description;
+    private final Latency latency;
+    private final Latency faultLatency;
+    private final long faultStartNanos;
+    // -1 until the end
+    private final long faultDurationNanos;
+    private final double timeoutRatio;
+    private final double overloadedRatio;
+    private final double unavailableRatio;
+    private final int nodes;
+    private final int lostNodes;
+
+    private FaultScenario(String name, Properties properties) {
+        this.name = name;
+        this.description = properties.getProperty("description", "").trim();
+        this.latency = Latency.parse(properties.getProperty("latency", "none"));
+        String faultLatency = properties.getProperty(FAULT + "latency");
+        this.faultLatency = faultLatency == null ? latency : Latency.parse(faultLatency);
+        this.faultStartNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(properties.getProperty(FAULT + "start", "0").trim()));
+        long duration = Long.parseLong(properties.getProperty(FAULT + "duration", "-1").trim());
+        this.faultDurationNanos = duration < 0 ? -1 : TimeUnit.SECONDS.toNanos(duration);
+        this.timeoutRatio = ratio(properties, "timeoutRatio");
+        this.overloadedRatio = ratio(properties, "overloadedRatio");
+        this.unavailableRatio = ratio(properties, "unavailableRatio");
+        if (timeoutRatio + overloadedRatio + unavailableRatio > 1) {
+            throw new IllegalArgumentException("The fault ratios of scenario " + name + " add up to more than 1");
+        }
+        this.nodes = Integer.parseInt(properties.getProperty(FAULT + "nodes", "1").trim());
+        this.lostNodes = Integer.parseInt(properties.getProperty(FAULT + "lostNodes", "0").trim());
+        if (nodes < 1 || lostNodes < 0 || lostNodes > nodes) {
+            throw new IllegalArgumentException("Scenario " + name + " loses " + lostNodes + " of " + nodes + " nodes");
+        }
+    }
+
+    /**
+     * Read a scenario file, named after the file without its extension
+     * @param file
+     * @return
+     * @throws IOException
+     * @throws IllegalArgumentException on an invalid value
+     */
+    public static FaultScenario load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return of(dot > 0 ? name.substring(0, dot) : name, properties);
+    }
+
+    /**
+     * @param name
+     * @param properties
+     * @return
+     * @throws IllegalArgumentException on an invalid value
+     */
+    public static FaultScenario of(String name, Properties properties) {
+        try {
+            return new FaultScenario(name, properties);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value in scenario " + name + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static double ratio(Properties properties, String key) {
+        double ratio = Double.parseDouble(properties.getProperty(FAULT + key, "0").trim());
+        if (ratio < 0 || ratio > 1) {
+            throw new IllegalArgumentException(FAULT + key + " should be between 0 and 1, got " + ratio);
+        }
+        return ratio;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public Latency getLatency() {
+        return latency;
+    }
+
+    public Latency getFaultLatency() {
+        return faultLatency;
+    }
+
+    /**
+     * Whether the faults are injected at a time of the scenario
+     * @param elapsedNanos since the start of the scenario
+     * @return
+     */
+    public boolean isFaulty(long elapsedNanos) {
+        return elapsedNanos >= faultStartNanos && (faultDurationNanos < 0 || elapsedNanos < faultStartNanos + faultDurationNanos);
+    }
+
+    public long getFaultStartNanos() {
+        return faultStartNanos;
+    }
+
+    /**
+     * @return -1 if the faults last until the end
+     */
+    public long getFaultDurationNanos() {
+        return faultDurationNanos;
+    }
+
+    public double getTimeoutRatio() {
+        return timeoutRatio;
+    }
+
+    public double getOverloadedRatio() {
+        return overloadedRatio;
+    }
+
+    public double getUnavailableRatio() {
+        return unavailableRatio;
+    }
+
+    public int getNodes() {
+        return nodes;
+    }
+
+    public int getLostNodes() {
+        return lostNodes;
+    }
+
+    @Override
+    public String toString() {
+        return name + (description.isEmpty() ? "" : " (" + description + ")");
+    }
+}
@@ -0,0 +1,84 @@
+package benchmarks.standin;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the responses of the stand-in session
+ */
+public interface Latency {
+
+    /**
+     * Latency of the next response
+     * @return in nanoseconds, 0 to respond on the calling thread
+     */
+    long nextNanos();
+
+    /**
+     * Respond right away, on the thread executing the statement
+     * @return
+     */
+    static Latency none() {
+        return () -> 0;
+    }
+
+    /**
+     * Same latency for every response
+     * @param micros
+     * @return
+     */
+    static Latency fixedMicros(long micros) {
+        long nanos = TimeUnit.MICROSECONDS.toNanos(micros);
+        return () -> nanos;
+    }
+
+    /**
+     * Latency uniformly spread between two bounds
+     * @param minMicros
+     * @param maxMicros
+     * @return
+     */
+    static Latency uniformMicros(long minMicros, long maxMicros) {
+        long min = TimeUnit.MICROSECONDS.toNanos(minMicros);
+        long max = TimeUnit.MICROSECONDS.toNanos(maxMicros);
+        return () -> min + (max > min ? ThreadLocalRandom.current().nextLong(max - min) : 0);
+    }
+
+    /**
+     * Log-normal latency, most responses close to the median and a long tail of slow ones
+     * @param medianMicros
+     * @param sigma spread of the tail, e.g. 0.5 puts the p99 at about 3.2 times the median
+     * @return
+     */
+    static Latency logNormalMicros(long medianMicros, double sigma) {
+        double median = TimeUnit.MICROSECONDS.toNanos(medianMicros);
+        return () -> (long) (median * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+    }
+
+    /**
+     * Parse a latency: none, fixed:MICROS, uniform:MIN-MAX or lognormal:MEDIAN,SIGMA (in microseconds)
+     * @param spec
+     * @return
+     * @throws IllegalArgumentException if the spec is not one of those
+     */
+    static Latency parse(String spec) {
+        String value = spec.trim();
+        int colon = value.indexOf(':');
+        String kind = (colon < 0 ? value : value.substring(0, colon)).trim().toLowerCase();
+        String[] args = colon < 0 ? new String[0] : value.substring(colon + 1).split("[-,]");
+        try {
+            if (kind.equals("none") && args.length == 0) {
+                return none();
+            } else if (kind.equals("fixed") && args.length == 1) {
+                return fixedMicros(Long.parseLong(args[0].trim()));
+            } else if (kind.equals("uniform") && args.length == 2) {
+                return uniformMicros(Long.parseLong(args[0].trim()), Long.parseLong(args[1].trim()));
+            } else if (kind.equals("lognormal") && args.length == 2) {
+                return logNormalMicros(Long.parseLong(args[0].trim()), Double.parseDouble(args[1].trim()));
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid latency " + spec, e);
+        }
+        throw new IllegalArgumentException("Invalid latency " + spec + ", expected none, fixed:MICROS, uniform:MIN-MAX or lognormal:MEDIAN,SIGMA");
+    }
+}
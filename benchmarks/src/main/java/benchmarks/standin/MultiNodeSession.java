@@ -0,0 +1,240 @@
+package benchmarks.standin;
+
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Statement;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Stand-in session of a cluster of nodes with a bounded capacity each: a node executes at most slotsPerNode requests
+ * at the same time for the latency of the session, the others queue. Partitions are replicated on replicationFactor
+ * consecutive nodes of the ring, a coordinator that isn't a replica of the partition spends forwardMicros on it
+ * before a replica executes it (the least busy one, like the dynamic snitch).
+ * The stand-in has no Cluster for the load balancing policies of the driver to run on, so the coordinator is picked
+ * here, as the routing of the application would:
+ * <pre>
+ * single-node    every request goes to the same node (WhiteListPolicy on a single address)
+ * round-robin    coordinators in turn, whatever the partition (DCAwareRoundRobinPolicy)
+ * token-aware    a replica of the partition, from the routing key of the statement (TokenAwarePolicy)
+ * </pre>
+ */
+public class MultiNodeSession extends SyntheticSession {
+
+    /**
+     * How the coordinator of a request is picked
+     */
+    public enum Routing {
+        SINGLE_NODE, ROUND_ROBIN, TOKEN_AWARE;
+
+        /**
+         * @param name e.g. token-aware
+         * @return
+         * @throws IllegalArgumentException on an unknown routing
+         */
+        public static Routing parse(String name) {
+            return valueOf(name.trim().toUpperCase().replace('-', '_'));
+        }
+
+        @Override
+        public String toString() {
+            return name().toLowerCase().replace('_', '-');
+        }
+    }
+
+    private final Routing routing;
+    private final int replicationFactor;
+    private final long forwardNanos;
+    private final Node[] nodes;
+    private final AtomicInteger nextCoordinator = new AtomicInteger();
+    private final LongAdder forwarded = new LongAdder();
+
+    protected MultiNodeSession(Builder builder) {
+        super(builder);
+        this.routing = builder.routing;
+        this.replicationFactor = Math.min(builder.nodes, Math.max(1, builder.replicationFactor));
+        this.forwardNanos = builder.forwardMicros * 1000;
+        this.nodes = new Node[builder.nodes];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new Node(builder.slotsPerNode);
+        }
+    }
+
+    public static Builder builder(Routing routing, int nodes) {
+        return new Builder(routing, nodes);
+    }
+
+    public Routing getRouting() {
+        return routing;
+    }
+
+    /**
+     * Requests coordinated by each node
+     * @return
+     */
+    public long[] getCoordinated() {
+        long[] coordinated = new long[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            coordinated[i] = nodes[i].coordinated.sum();
+        }
+        return coordinated;
+    }
+
+    /**
+     * Requests whose coordinator wasn't a replica of their partition
+     * @return
+     */
+    public long getForwarded() {
+        return forwarded.sum();
+    }
+
+    /**
+     * Reset the counters, e.g. after a warm-up
+     */
+    public void resetCounters() {
+        forwarded.reset();
+        for (Node node : nodes) {
+            node.coordinated.reset();
+        }
+    }
+
+    @Override
+    protected void deliver(Statement statement, SyntheticResultSetFuture future, Supplier<ResultSet> response) {
+        int firstReplica = Math.floorMod(partitionHash(statement), nodes.length);
+        int coordinator;
+        switch (routing) {
+            case SINGLE_NODE:
+                coordinator = 0;
+                break;
+            case ROUND_ROBIN:
+                coordinator = Math.floorMod(nextCoordinator.getAndIncrement(), nodes.length);
+                break;
+            default:
+                // the token aware policy shuffles the replicas
+                coordinator = (firstReplica + ThreadLocalRandom.current().nextInt(replicationFactor)) % nodes.length;
+        }
+        nodes[coordinator].coordinated.increment();
+        long now = System.nanoTime();
+        long done;
+        if (isReplica(coordinator, firstReplica)) {
+            done = nodes[coordinator].execute(now, getLatency().nextNanos());
+        } else {
+            forwarded.increment();
+            long received = nodes[coordinator].execute(now, forwardNanos);
+            Node replica = nodes[firstReplica];
+            for (int i = 1; i < replicationFactor; i++) {
+                Node other = nodes[(firstReplica + i) % nodes.length];
+                if (other.nextFreeNanos() < replica.nextFreeNanos()) {
+                    replica = other;
+                }
+            }
+            done = replica.execute(received, getLatency().nextNanos());
+        }
+        respond(statement, future, response, done - now);
+    }
+
+    private boolean isReplica(int node, int firstReplica) {
+        return Math.floorMod(node - firstReplica, nodes.length) < replicationFactor;
+    }
+
+    private static int partitionHash(Statement statement) {
+        ByteBuffer routingKey = statement.getRoutingKey(ProtocolVersion.V4, CodecRegistry.DEFAULT_INSTANCE);
+        return routingKey == null ? ThreadLocalRandom.current().nextInt() : routingKey.hashCode();
+    }
+
+    /**
+     * A node executing a bounded number of requests at the same time, in the order they arrive
+     */
+    private static final class Node {
+        // time each slot is busy until, guarded by this
+        private final long[] busyUntilNanos;
+        final LongAdder coordinated = new LongAdder();
+
+        Node(int slots) {
+            this.busyUntilNanos = new long[Math.max(1, slots)];
+            // nanoTime may be negative
+            Arrays.fill(busyUntilNanos, Long.MIN_VALUE);
+        }
+
+        /**
+         * Execute a request on the first slot free once it arrived
+         * @param arrivalNanos
+         * @param serviceNanos
+         * @return time it is done
+         */
+        synchronized long execute(long arrivalNanos, long serviceNanos) {
+            int slot = 0;
+            for (int i = 1; i < busyUntilNanos.length; i++) {
+                if (busyUntilNanos[i] < busyUntilNanos[slot]) {
+                    slot = i;
+                }
+            }
+            long done = Math.max(arrivalNanos, busyUntilNanos[slot]) + serviceNanos;
+            busyUntilNanos[slot] = done;
+            return done;
+        }
+
+        synchronized long nextFreeNanos() {
+            long min = Long.MAX_VALUE;
+            for (long busyUntil : busyUntilNanos) {
+                min = Math.min(min, busyUntil);
+            }
+            return min;
+        }
+    }
+
+    /**
+     * Builder of a stand-in cluster, defaults: replication factor 3, 8 slots per node, 200us to forward a request
+     */
+    public static class Builder extends SyntheticSession.Builder {
+        private final Routing routing;
+        private final int nodes;
+        private int replicationFactor = 3;
+        private int slotsPerNode = 8;
+        private long forwardMicros = 200;
+
+        protected Builder(Routing routing, int nodes) {
+            if (nodes < 1) {
+                throw new IllegalArgumentException("A cluster has at least one node, got " + nodes);
+            }
+            this.routing = routing;
+            this.nodes = nodes;
+        }
+
+        public Builder replicationFactor(int replicationFactor) {
+            this.replicationFactor = replicationFactor;
+            return this;
+        }
+
+        /**
+         * Requests a node executes at the same time
+         * @param slotsPerNode
+         * @return
+         */
+        public Builder slotsPerNode(int slotsPerNode) {
+            this.slotsPerNode = slotsPerNode;
+            return this;
+        }
+
+        /**
+         * Time spent by a coordinator not replica of the partition on a request
+         * @param forwardMicros
+         * @return
+         */
+        public Builder forwardMicros(long forwardMicros) {
+            this.forwardMicros = forwardMicros;
+            return this;
+        }
+
+        @Override
+        public MultiNodeSession build() {
+            return new MultiNodeSession(this);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package benchmarks.standin;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.DriverInternals;
+import com.datastax.driver.core.PreparedId;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.policies.RetryPolicy;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Statement prepared by the stand-in session, binding values into the real BoundStatement of the driver
+ */
+final class SyntheticPreparedStatement implements PreparedStatement {
+
+    private final SyntheticQuery query;
+    private final PreparedId preparedId;
+    private volatile ByteBuffer routingKey;
+    private volatile ConsistencyLevel consistencyLevel;
+    private volatile ConsistencyLevel serialConsistencyLevel;
+    private volatile boolean tracing;
+    private volatile RetryPolicy retryPolicy;
+    private volatile Map<String, ByteBuffer> outgoingPayload;
+    private volatile Boolean idempotent;
+
+    SyntheticPreparedStatement(SyntheticQuery query) {
+        this.query = query;
+        this.preparedId = DriverInternals.preparedId(query.getQuery(), query.getVariables(), query.getResultColumns(),
+                query.getRoutingKeyIndexes(), ProtocolVersion.V4);
+    }
+
+    SyntheticQuery getQuery() {
+        return query;
+    }
+
+    @Override
+    public ColumnDefinitions getVariables() {
+        return query.getVariables();
+    }
+
+    @Override
+    public BoundStatement bind(Object... values) {
+        return new BoundStatement(this).bind(values);
+    }
+
+    @Override
+    public BoundStatement bind() {
+        return new BoundStatement(this);
+    }
+
+    @Override
+    public PreparedStatement setRoutingKey(ByteBuffer routingKey) {
+        this.routingKey = routingKey;
+        return this;
+    }
+
+    @Override
+    public PreparedStatement setRoutingKey(ByteBuffer... routingKeyComponents) {
+        // same layout as the composite routing key of the driver
+        int size = 0;
+        for (ByteBuffer component : routingKeyComponents) {
+            size += 2 + component.remaining() + 1;
+        }
+        ByteBuffer composite = ByteBuffer.allocate(size);
+        for (ByteBuffer component : routingKeyComponents) {
+            composite.putShort((short) component.remaining());
+            composite.put(component.duplicate());
+            composite.put((byte) 0);
+        }
+        composite.flip();
+        this.routingKey = composite;
+        return this;
+    }
+
+    @Override
+    public ByteBuffer getRoutingKey() {
+        return routingKey;
+    }
+
+    @Override
+    public PreparedStatement setConsistencyLevel(ConsistencyLevel consistencyLevel) {
+        this.consistencyLevel = consistencyLevel;
+        return this;
+    }
+
+    @Override
+    public ConsistencyLevel getConsistencyLevel() {
+        return consistencyLevel;
+    }
+
+    @Override
+    public PreparedStatement setSerialConsistencyLevel(ConsistencyLevel serialConsistencyLevel) {
+        this.serialConsistencyLevel = serialConsistencyLevel;
+        return this;
+    }
+
+    @Override
+    public ConsistencyLevel getSerialConsistencyLevel() {
+        return serialConsistencyLevel;
+    }
+
+    @Override
+    public String getQueryString() {
+        return query.getQuery();
+    }
+
+    @Override
+    public String getQueryKeyspace() {
+        return query.getTable().getKeyspace();
+    }
+
+    @Override
+    public PreparedStatement enableTracing() {
+        this.tracing = true;
+        return this;
+    }
+
+    @Override
+    public PreparedStatement disableTracing() {
+        this.tracing = false;
+        return this;
+    }
+
+    @Override
+    public boolean isTracing() {
+        return tracing;
+    }
+
+    @Override
+    public PreparedStatement setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    @Override
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    @Override
+    public PreparedId getPreparedId() {
+        return preparedId;
+    }
+
+    @Override
+    public Map<String, ByteBuffer> getIncomingPayload() {
+        return null;
+    }
+
+    @Override
+    public Map<String, ByteBuffer> getOutgoingPayload() {
+        return outgoingPayload;
+    }
+
+    @Override
+    public PreparedStatement setOutgoingPayload(Map<String, ByteBuffer> payload) {
+        this.outgoingPayload = payload;
+        return this;
+    }
+
+    @Override
+    public CodecRegistry getCodecRegistry() {
+        return CodecRegistry.DEFAULT_INSTANCE;
+    }
+
+    @Override
+    public PreparedStatement setIdempotent(Boolean idempotent) {
+        this.idempotent = idempotent;
+        return this;
+    }
+
+    @Override
+    public Boolean isIdempotent() {
+        return idempotent;
+    }
+
+    @Override
+    public String toString() {
+        return "SyntheticPreparedStatement{" + query.getQuery() + '}';
+    }
+}
@@ -0,0 +1,198 @@
+package benchmarks.standin;
+
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.DriverInternals;
+import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.Row;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * What the stand-in knows of a query: its table, bound variables and result columns, parsed from the CQL the application
+ * builds (CqlRequestFactory), e.g. "SELECT a, b FROM t WHERE k=? AND token(k) > ? LIMIT ?" or "INSERT INTO t (a,b) VALUES (?,?)"
+ */
+final class SyntheticQuery {
+
+    private static final Pattern TABLE = Pattern.compile("(?i)\\b(?:FROM|INTO|UPDATE)\\s+(?:\\w+\\.)?(\\w+)");
+    private static final Pattern INSERT_COLUMNS = Pattern.compile("(?i)^\\s*INSERT\\s+INTO\\s+\\S+\\s*\\(([^)]*)\\)");
+    private static final Pattern SELECTORS = Pattern.compile("(?is)^\\s*SELECT\\s+(.*?)\\s+FROM\\s");
+    // a bind marker and what it restricts: a column, a token or a limit
+    private static final Pattern MARKER = Pattern.compile("(?i)(token\\s*\\([^)]*\\)|\\w+)\\s*(?:=|>=|<=|>|<|\\bIN\\b)\\s*\\?|(PER\\s+PARTITION\\s+LIMIT|LIMIT)\\s+\\?");
+    private static final Pattern FUNCTION = Pattern.compile("(?i)(\\w+)\\s*\\(\\s*(\\w*)\\s*\\)");
+    private static final Pattern CONDITIONAL = Pattern.compile("(?i)\\sIF\\s");
+
+    private final String query;
+    private final SyntheticTable table;
+    private final boolean read;
+    private final ColumnDefinitions variables;
+    private final ColumnDefinitions resultColumns;
+    // indexes of the partition key columns in the variables, null if not all are bound
+    private final int[] routingKeyIndexes;
+    // distinct rows of a read, the row of a conditional write ([applied] = true), none for other writes
+    private final List<Row> rows;
+
+    private SyntheticQuery(String query, SyntheticTable table) {
+        this.query = query;
+        this.table = table;
+        this.read = query.trim().toUpperCase(Locale.ROOT).startsWith("SELECT");
+
+        List<String> names = new ArrayList<>();
+        List<DataType> types = new ArrayList<>();
+        Matcher insert = INSERT_COLUMNS.matcher(query);
+        if (insert.find()) {
+            for (String column : insert.group(1).split(",")) {
+                names.add(column.trim().toLowerCase(Locale.ROOT));
+                types.add(typeOf(column.trim()));
+            }
+        } else {
+            Matcher marker = MARKER.matcher(query);
+            while (marker.find()) {
+                if (marker.group(2) != null) {
+                    names.add(marker.group(2).toUpperCase(Locale.ROOT).startsWith("PER") ? "[per_partition_limit]" : "[limit]");
+                    types.add(DataType.cint());
+                } else if (marker.group(1).toLowerCase(Locale.ROOT).startsWith("token")) {
+                    names.add("partition key token");
+                    types.add(DataType.bigint());
+                } else {
+                    names.add(marker.group(1).toLowerCase(Locale.ROOT));
+                    types.add(typeOf(marker.group(1)));
+                }
+            }
+        }
+        this.variables = DriverInternals.columnDefinitions(table.getKeyspace(), table.getName(), names, types);
+        this.routingKeyIndexes = routingKeyIndexes(table, names);
+
+        if (read) {
+            this.resultColumns = selectedColumns(query, table);
+            this.rows = resultColumns == table.getColumnDefinitions() ? table.rows(SyntheticTable.DISTINCT_ROWS) : SyntheticTable.generateRows(resultColumns);
+        } else if (CONDITIONAL.matcher(query).find()) {
+            this.resultColumns = DriverInternals.columnDefinitions(table.getKeyspace(), table.getName(),
+                    Collections.singletonList("[applied]"), Collections.singletonList(DataType.cboolean()));
+            ByteBuffer applied = CodecRegistry.DEFAULT_INSTANCE.codecFor(DataType.cboolean()).serialize(true, ProtocolVersion.V4);
+            this.rows = Collections.singletonList(DriverInternals.row(resultColumns, Collections.singletonList(applied), ProtocolVersion.V4));
+        } else {
+            this.resultColumns = DriverInternals.columnDefinitions(table.getKeyspace(), table.getName(),
+                    Collections.<String>emptyList(), Collections.<DataType>emptyList());
+            this.rows = Collections.emptyList();
+        }
+    }
+
+    /**
+     * Parse a query on one of the given tables
+     * @param query
+     * @param tables
+     * @return
+     */
+    static SyntheticQuery parse(String query, List<SyntheticTable> tables) {
+        Matcher matcher = TABLE.matcher(query);
+        if (!matcher.find()) {
+            throw new IllegalArgumentException("The stand-in can't tell the table of " + query);
+        }
+        String name = matcher.group(1).toLowerCase(Locale.ROOT);
+        for (SyntheticTable table : tables) {
+            if (table.getName().equals(name)) {
+                return new SyntheticQuery(query, table);
+            }
+        }
+        throw new IllegalArgumentException("The stand-in has no table " + name + " for " + query);
+    }
+
+    private DataType typeOf(String column) {
+        DataType type = table.typeOf(column);
+        if (type == null) {
+            throw new IllegalArgumentException("Table " + table.getName() + " has no column " + column + " in " + query);
+        }
+        return type;
+    }
+
+    private static int[] routingKeyIndexes(SyntheticTable table, List<String> variables) {
+        List<String> partitionKey = table.getPartitionKey();
+        int[] indexes = new int[partitionKey.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = variables.indexOf(partitionKey.get(i));
+            if (indexes[i] < 0) {
+                return null;
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * Columns of the selectors: all of them for *, the column for a column, the type of the argument for min/max/sum, bigint for count
+     * @param query
+     * @param table
+     * @return
+     */
+    private static ColumnDefinitions selectedColumns(String query, SyntheticTable table) {
+        Matcher selectors = SELECTORS.matcher(query);
+        if (!selectors.find() || selectors.group(1).trim().equals("*")) {
+            return table.getColumnDefinitions();
+        }
+        List<String> names = new ArrayList<>();
+        List<DataType> types = new ArrayList<>();
+        for (String selector : selectors.group(1).split(",")) {
+            String name = selector.trim().toLowerCase(Locale.ROOT);
+            Matcher function = FUNCTION.matcher(name);
+            DataType type;
+            if (function.matches()) {
+                DataType argumentType = table.typeOf(function.group(2));
+                type = function.group(1).equals("count") || argumentType == null ? DataType.bigint() : argumentType;
+            } else {
+                type = table.typeOf(name);
+            }
+            names.add(name);
+            types.add(type == null ? DataType.text() : type);
+        }
+        return DriverInternals.columnDefinitions(table.getKeyspace(), table.getName(), names, types);
+    }
+
+    String getQuery() {
+        return query;
+    }
+
+    SyntheticTable getTable() {
+        return table;
+    }
+
+    boolean isRead() {
+        return read;
+    }
+
+    ColumnDefinitions getVariables() {
+        return variables;
+    }
+
+    ColumnDefinitions getResultColumns() {
+        return resultColumns;
+    }
+
+    int[] getRoutingKeyIndexes() {
+        return routingKeyIndexes;
+    }
+
+    /**
+     * Number of rows returned by the query
+     * @param rowsPerRead rows of a read
+     * @return
+     */
+    int rowCount(int rowsPerRead) {
+        return read ? rowsPerRead : rows.size();
+    }
+
+    /**
+     * Get the i-th row of the result
+     * @param i
+     * @return
+     */
+    Row row(int i) {
+        return rows.get(i % rows.size());
+    }
+}
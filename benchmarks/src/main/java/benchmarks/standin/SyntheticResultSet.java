@@ -0,0 +1,174 @@
+package benchmarks.standin;
+
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.DriverInternals;
+import com.datastax.driver.core.ExecutionInfo;
+import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Statement;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Result of a statement executed by the stand-in session, paged by the fetch size of the statement like the driver does:
+ * fetchMoreResults asks the session for the next page (with its latency), iterating past the fetched rows blocks on it
+ */
+final class SyntheticResultSet implements ResultSet {
+
+    // fetch size of the driver when the statement doesn't set one
+    private static final int DEFAULT_FETCH_SIZE = 5000;
+
+    private final SyntheticSession session;
+    private final Statement statement;
+    private final SyntheticQuery query;
+    private final int rowCount;
+    private final int pageSize;
+    // guarded by this
+    private final ArrayDeque<Row> available = new ArrayDeque<>();
+    private final List<ExecutionInfo> executionInfos = new ArrayList<>();
+    // offset of the first row not fetched yet
+    private int fetched;
+    private SyntheticResultSetFuture fetching;
+
+    SyntheticResultSet(SyntheticSession session, Statement statement, SyntheticQuery query, int rowCount, int offset) {
+        this.session = session;
+        this.statement = statement;
+        this.query = query;
+        this.rowCount = rowCount;
+        this.pageSize = statement.getFetchSize() > 0 ? statement.getFetchSize() : DEFAULT_FETCH_SIZE;
+        addPage(offset);
+    }
+
+    /**
+     * Add the rows of the page starting at the offset
+     * @param offset
+     */
+    synchronized void addPage(int offset) {
+        int end = Math.min(rowCount, offset + pageSize);
+        for (int i = offset; i < end; i++) {
+            available.add(query.row(i));
+        }
+        fetched = end;
+        ByteBuffer pagingState = null;
+        if (fetched < rowCount) {
+            pagingState = ByteBuffer.allocate(4);
+            pagingState.putInt(0, fetched);
+        }
+        executionInfos.add(DriverInternals.executionInfo(statement, pagingState, ProtocolVersion.V4));
+    }
+
+    /**
+     * Offset a statement resumes from
+     * @param statement
+     * @return 0 without paging state
+     */
+    static int offsetOf(Statement statement) {
+        ByteBuffer pagingState = DriverInternals.pagingState(statement);
+        return pagingState == null || pagingState.remaining() < 4 ? 0 : pagingState.getInt(pagingState.position());
+    }
+
+    @Override
+    public synchronized ColumnDefinitions getColumnDefinitions() {
+        return query.getResultColumns();
+    }
+
+    @Override
+    public boolean wasApplied() {
+        return true;
+    }
+
+    @Override
+    public boolean isExhausted() {
+        synchronized (this) {
+            if (!available.isEmpty() || isFullyFetched()) {
+                return available.isEmpty();
+            }
+        }
+        // like the driver, iterating past the fetched rows waits for the next page
+        ((SyntheticResultSetFuture) fetchMoreResults()).getUninterruptibly();
+        return isExhausted();
+    }
+
+    @Override
+    public synchronized boolean isFullyFetched() {
+        return fetched >= rowCount;
+    }
+
+    @Override
+    public synchronized int getAvailableWithoutFetching() {
+        return available.size();
+    }
+
+    @Override
+    public synchronized ListenableFuture<ResultSet> fetchMoreResults() {
+        if (isFullyFetched()) {
+            SyntheticResultSetFuture done = new SyntheticResultSetFuture();
+            done.complete(this);
+            return done;
+        }
+        if (fetching == null || fetching.isDone()) {
+            fetching = new SyntheticResultSetFuture();
+            int offset = fetched;
+            session.fetchPage(statement, fetching, () -> {
+                addPage(offset);
+                return this;
+            });
+        }
+        return fetching;
+    }
+
+    @Override
+    public Row one() {
+        if (isExhausted()) {
+            return null;
+        }
+        synchronized (this) {
+            return available.poll();
+        }
+    }
+
+    @Override
+    public List<Row> all() {
+        List<Row> rows = new ArrayList<>();
+        for (Row row = one(); row != null; row = one()) {
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    @Override
+    public Iterator<Row> iterator() {
+        return new Iterator<Row>() {
+            @Override
+            public boolean hasNext() {
+                return !isExhausted();
+            }
+
+            @Override
+            public Row next() {
+                Row row = one();
+                if (row == null) {
+                    throw new NoSuchElementException();
+                }
+                return row;
+            }
+        };
+    }
+
+    @Override
+    public synchronized ExecutionInfo getExecutionInfo() {
+        return executionInfos.get(executionInfos.size() - 1);
+    }
+
+    @Override
+    public synchronized List<ExecutionInfo> getAllExecutionInfo() {
+        return new ArrayList<>(executionInfos);
+    }
+}
@@ -0,0 +1,67 @@
+package benchmarks.standin;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.exceptions.DriverException;
+import com.datastax.driver.core.exceptions.DriverInternalError;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Future of a request to the stand-in session, completed by the session once the response is due
+ */
+public class SyntheticResultSetFuture extends AbstractFuture<ResultSet> implements ResultSetFuture {
+
+    /**
+     * Complete the request with its result
+     * @param resultSet
+     * @return false if the request was already completed or cancelled
+     */
+    public boolean complete(ResultSet resultSet) {
+        return set(resultSet);
+    }
+
+    /**
+     * Fail the request
+     * @param error
+     * @return false if the request was already completed or cancelled
+     */
+    public boolean fail(Throwable error) {
+        return setException(error);
+    }
+
+    @Override
+    public ResultSet getUninterruptibly() {
+        try {
+            return Uninterruptibles.getUninterruptibly(this);
+        } catch (ExecutionException e) {
+            throw propagate(e);
+        }
+    }
+
+    @Override
+    public ResultSet getUninterruptibly(long timeout, TimeUnit unit) throws TimeoutException {
+        try {
+            return Uninterruptibles.getUninterruptibly(this, timeout, unit);
+        } catch (ExecutionException e) {
+            throw propagate(e);
+        }
+    }
+
+    /**
+     * Rethrow the cause like the driver does, copied so the stack trace shows the caller
+     * @param e
+     * @return
+     */
+    private static RuntimeException propagate(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof DriverException) {
+            return ((DriverException) cause).copy();
+        }
+        return new DriverInternalError("Unexpected error of the stand-in session", cause);
+    }
+}
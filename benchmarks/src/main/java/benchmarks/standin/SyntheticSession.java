@@ -0,0 +1,323 @@
+package benchmarks.standin;
+
+import com.datastax.driver.core.AbstractSession;
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.CloseFuture;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.DriverInternals;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.RegularStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.exceptions.OperationTimedOutException;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * In-process stand-in of a Session: statements are answered after the configured latency with rows generated for
+ * their table (reads return rowsPerRead rows, paged by the fetch size of the statement, writes return nothing).
+ * Nothing is stored, the cost measured is the one of the application and of the driver objects it uses.
+ * Install it with StandInConnections.install(session, config)
+ */
+public class SyntheticSession extends AbstractSession {
+
+    /**
+     * Address the responses come from
+     */
+    public static final InetSocketAddress ADDRESS = new InetSocketAddress("127.0.0.1", 9042);
+    // read timeout of the driver when the statement doesn't set one
+    private static final int DEFAULT_READ_TIMEOUT_MILLIS = 12000;
+
+    private final List<SyntheticTable> tables;
+    private final int rowsPerRead;
+    private final Latency latency;
+    private final ScheduledExecutorService timer;
+    private final ConcurrentHashMap<String, SyntheticQuery> queries = new ConcurrentHashMap<>();
+    private final AtomicLong executions = new AtomicLong();
+    private final AtomicLong pageFetches = new AtomicLong();
+    private volatile boolean closed = false;
+
+    protected SyntheticSession(Builder builder) {
+        this.tables = new ArrayList<>(builder.tables);
+        if (tables.isEmpty()) {
+            tables.add(SyntheticTable.userActivity());
+        }
+        this.rowsPerRead = builder.rowsPerRead;
+        this.latency = builder.latency;
+        this.timer = Executors.newScheduledThreadPool(builder.timerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "synthetic-session-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Latency of the responses
+     * @return
+     */
+    protected Latency getLatency() {
+        return latency;
+    }
+
+    /**
+     * Statements executed so far, retries and hedges included (pages fetched after the first one are not)
+     * @return
+     */
+    public long getExecutions() {
+        return executions.get();
+    }
+
+    /**
+     * Pages fetched after the first page of a statement
+     * @return
+     */
+    public long getPageFetches() {
+        return pageFetches.get();
+    }
+
+    /**
+     * Parse (once) the query of a statement
+     * @param query
+     * @return
+     */
+    protected SyntheticQuery queryOf(String query) {
+        return queries.computeIfAbsent(query, key -> SyntheticQuery.parse(key, tables));
+    }
+
+    @Override
+    public ResultSetFuture executeAsync(Statement statement) {
+        executions.incrementAndGet();
+        SyntheticResultSetFuture future = new SyntheticResultSetFuture();
+        if (closed) {
+            future.fail(new IllegalStateException("Could not send request, session is closed"));
+            return future;
+        }
+        if (statement instanceof BatchStatement) {
+            SyntheticQuery first = queryOf(queryString(((BatchStatement) statement).getStatements().iterator().next()));
+            deliver(statement, future, () -> new SyntheticResultSet(this, statement, first, 0, 0));
+            return future;
+        }
+        SyntheticQuery query = queryOf(queryString(statement));
+        int offset = SyntheticResultSet.offsetOf(statement);
+        deliver(statement, future, () -> new SyntheticResultSet(this, statement, query, query.rowCount(rowsPerRead), offset));
+        return future;
+    }
+
+    private static String queryString(Statement statement) {
+        if (statement instanceof BoundStatement) {
+            return ((BoundStatement) statement).preparedStatement().getQueryString();
+        }
+        if (statement instanceof RegularStatement) {
+            return ((RegularStatement) statement).getQueryString();
+        }
+        throw new IllegalArgumentException("The stand-in can't execute " + statement.getClass().getName());
+    }
+
+    /**
+     * Complete a request (the first page of a statement, or a next page) once its latency elapsed. Like the driver,
+     * a request without response within the read timeout of the statement fails with OperationTimedOutException.
+     * Override to inject faults
+     * @param statement
+     * @param future
+     * @param response result of the request, only called if it succeeds
+     */
+    protected void deliver(Statement statement, SyntheticResultSetFuture future, Supplier<ResultSet> response) {
+        respond(statement, future, response, latency.nextNanos());
+    }
+
+    /**
+     * Complete a request after the given latency, or fail it with OperationTimedOutException at the read timeout
+     * of the statement if the latency is longer
+     * @param statement
+     * @param future
+     * @param response
+     * @param latencyNanos
+     */
+    protected void respond(Statement statement, SyntheticResultSetFuture future, Supplier<ResultSet> response, long latencyNanos) {
+        long readTimeoutNanos = readTimeoutNanos(statement);
+        if (latencyNanos > readTimeoutNanos) {
+            schedule(readTimeoutNanos, () -> future.fail(new OperationTimedOutException(ADDRESS, "Timed out waiting for server response")));
+        } else {
+            schedule(latencyNanos, () -> future.complete(response.get()));
+        }
+    }
+
+    /**
+     * Read timeout of a statement, the one of the driver if the statement doesn't set one
+     * @param statement
+     * @return
+     */
+    protected static long readTimeoutNanos(Statement statement) {
+        int millis = statement.getReadTimeoutMillis();
+        return TimeUnit.MILLISECONDS.toNanos(millis > 0 ? millis : DEFAULT_READ_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Run the action after the delay on the timer of the session, right away on the calling thread without delay
+     * @param delayNanos
+     * @param action
+     */
+    protected void schedule(long delayNanos, Runnable action) {
+        if (delayNanos <= 0) {
+            action.run();
+        } else {
+            timer.schedule(action, delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Called by a result set fetching its next page
+     * @param statement
+     * @param future
+     * @param response
+     */
+    void fetchPage(Statement statement, SyntheticResultSetFuture future, Supplier<ResultSet> response) {
+        pageFetches.incrementAndGet();
+        deliver(statement, future, response);
+    }
+
+    @Override
+    protected ListenableFuture<PreparedStatement> prepareAsync(String query, Map<String, ByteBuffer> customPayload) {
+        try {
+            return Futures.<PreparedStatement>immediateFuture(new SyntheticPreparedStatement(queryOf(query)));
+        } catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    /**
+     * No event loop (and no cluster to look it up on), blocking calls are allowed from any thread
+     */
+    @Override
+    public void checkNotInEventLoop() {
+    }
+
+    @Override
+    public String getLoggedKeyspace() {
+        return tables.isEmpty() ? null : tables.get(0).getKeyspace();
+    }
+
+    @Override
+    public Session init() {
+        return this;
+    }
+
+    @Override
+    public ListenableFuture<Session> initAsync() {
+        return Futures.<Session>immediateFuture(this);
+    }
+
+    @Override
+    public CloseFuture closeAsync() {
+        closed = true;
+        timer.shutdownNow();
+        return DriverInternals.closed();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return null, the stand-in has no cluster (and so no metadata)
+     */
+    @Override
+    public Cluster getCluster() {
+        return null;
+    }
+
+    @Override
+    public State getState() {
+        return new State() {
+            @Override
+            public Session getSession() {
+                return SyntheticSession.this;
+            }
+
+            @Override
+            public Collection<Host> getConnectedHosts() {
+                return Collections.emptyList();
+            }
+
+            @Override
+            public int getOpenConnections(Host host) {
+                return 0;
+            }
+
+            @Override
+            public int getTrashedConnections(Host host) {
+                return 0;
+            }
+
+            @Override
+            public int getInFlightQueries(Host host) {
+                return 0;
+            }
+        };
+    }
+
+    /**
+     * Builder of a stand-in session, defaults: the user_activity table, 100 rows per read, no latency
+     */
+    public static class Builder {
+        private final List<SyntheticTable> tables = new ArrayList<>();
+        private int rowsPerRead = 100;
+        private Latency latency = Latency.none();
+        private int timerThreads = 2;
+
+        protected Builder() {
+        }
+
+        public Builder table(SyntheticTable table) {
+            tables.add(table);
+            return this;
+        }
+
+        public Builder rowsPerRead(int rowsPerRead) {
+            this.rowsPerRead = rowsPerRead;
+            return this;
+        }
+
+        public Builder latency(Latency latency) {
+            this.latency = latency;
+            return this;
+        }
+
+        /**
+         * Threads completing the delayed responses
+         * @param timerThreads
+         * @return
+         */
+        public Builder timerThreads(int timerThreads) {
+            this.timerThreads = timerThreads;
+            return this;
+        }
+
+        public SyntheticSession build() {
+            return new SyntheticSession(this);
+        }
+    }
+}
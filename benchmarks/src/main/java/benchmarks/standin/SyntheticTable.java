@@ -0,0 +1,192 @@
+package benchmarks.standin;
+
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.DriverInternals;
+import com.datastax.driver.core.LocalDate;
+import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.Row;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Schema of a table served by the stand-in session, and the rows it returns: generated once with values of the column types,
+ * serialized like a response of the cluster, so decoding them costs what decoding real rows costs
+ */
+public final class SyntheticTable {
+
+    // distinct rows generated, larger results cycle through them
+    static final int DISTINCT_ROWS = 1024;
+
+    private final String keyspace;
+    private final String name;
+    private final List<String> columns;
+    private final List<DataType> types;
+    private final int partitionKeySize;
+    private final ColumnDefinitions columnDefinitions;
+    private final List<Row> rows;
+
+    private SyntheticTable(Builder builder) {
+        this.keyspace = builder.keyspace;
+        this.name = builder.name;
+        this.columns = Collections.unmodifiableList(new ArrayList<>(builder.columns));
+        this.types = Collections.unmodifiableList(new ArrayList<>(builder.types));
+        this.partitionKeySize = builder.partitionKeySize;
+        this.columnDefinitions = DriverInternals.columnDefinitions(keyspace, name, columns, types);
+        this.rows = generateRows(columnDefinitions);
+    }
+
+    /**
+     * Generate the distinct rows of a result
+     * @param columns
+     * @return
+     */
+    static List<Row> generateRows(ColumnDefinitions columns) {
+        List<Row> rows = new ArrayList<>(DISTINCT_ROWS);
+        for (int i = 0; i < DISTINCT_ROWS; i++) {
+            List<ByteBuffer> values = new ArrayList<>(columns.size());
+            for (int column = 0; column < columns.size(); column++) {
+                DataType type = columns.getType(column);
+                values.add(CodecRegistry.DEFAULT_INSTANCE.codecFor(type).serialize(valueOf(type, i), ProtocolVersion.V4));
+            }
+            rows.add(DriverInternals.row(columns, values, ProtocolVersion.V4));
+        }
+        return rows;
+    }
+
+    public static Builder builder(String keyspace, String name) {
+        return new Builder(keyspace, name);
+    }
+
+    /**
+     * The user_activity table of resource/schema
+     * @return
+     */
+    public static SyntheticTable userActivity() {
+        return builder("test_db", "user_activity")
+                .partitionKey("pid", DataType.text())
+                .partitionKey("uid", DataType.text())
+                .column("day", DataType.date())
+                .column("moneyspent", DataType.cdouble())
+                .build();
+    }
+
+    /**
+     * Value of a column of the i-th generated row
+     * @param type
+     * @param i
+     * @return
+     */
+    static Object valueOf(DataType type, int i) {
+        switch (type.getName()) {
+            case TEXT:
+            case VARCHAR:
+            case ASCII:
+                return "value-" + i;
+            case INT:
+                return i;
+            case BIGINT:
+            case COUNTER:
+                return (long) i;
+            case DOUBLE:
+                return i * 1.5;
+            case FLOAT:
+                return i * 1.5f;
+            case BOOLEAN:
+                return i % 2 == 0;
+            case DATE:
+                return LocalDate.fromDaysSinceEpoch(17000 + i % 365);
+            case TIMESTAMP:
+                return new Date(1500000000000L + i * 1000L);
+            case BLOB:
+                return ByteBuffer.wrap(new byte[]{(byte) i, (byte) (i >> 8)});
+            default:
+                throw new IllegalArgumentException("No synthetic values of type " + type);
+        }
+    }
+
+    /**
+     * Get the given number of rows, e.g. to decode them in a benchmark
+     * @param count
+     * @return
+     */
+    public List<Row> rows(int count) {
+        List<Row> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(rows.get(i % DISTINCT_ROWS));
+        }
+        return result;
+    }
+
+    public String getKeyspace() {
+        return keyspace;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    public List<String> getPartitionKey() {
+        return columns.subList(0, partitionKeySize);
+    }
+
+    /**
+     * Type of a column
+     * @param column
+     * @return null if the table has no such column
+     */
+    DataType typeOf(String column) {
+        int index = columns.indexOf(column.toLowerCase());
+        return index < 0 ? null : types.get(index);
+    }
+
+    ColumnDefinitions getColumnDefinitions() {
+        return columnDefinitions;
+    }
+
+    /**
+     * Builder of a table, partition key columns first
+     */
+    public static final class Builder {
+        private final String keyspace;
+        private final String name;
+        private final List<String> columns = new ArrayList<>();
+        private final List<DataType> types = new ArrayList<>();
+        private int partitionKeySize = 0;
+
+        private Builder(String keyspace, String name) {
+            this.keyspace = keyspace;
+            this.name = name;
+        }
+
+        public Builder partitionKey(String column, DataType type) {
+            if (columns.size() != partitionKeySize) {
+                throw new IllegalStateException("Partition key columns come first, " + column + " is declared after " + columns);
+            }
+            partitionKeySize += 1;
+            return column(column, type);
+        }
+
+        public Builder column(String column, DataType type) {
+            columns.add(column.toLowerCase());
+            types.add(type);
+            return this;
+        }
+
+        public SyntheticTable build() {
+            if (partitionKeySize == 0) {
+                throw new IllegalStateException("Table " + name + " has no partition key");
+            }
+            return new SyntheticTable(this);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package benchmarks.standin.cql;
+
+import utils.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Connection of a client to the stand-in: frames are read on the thread of the connection and handled by the workers
+ * of the stand-in, so the requests of a connection (the driver sends many at once on different streams) run concurrently
+ */
+final class Connection implements Runnable {
+
+    // flags of the frame header
+    private static final int COMPRESSION = 0x01;
+    private static final int CUSTOM_PAYLOAD = 0x04;
+
+    // BATCH: query string or prepared id
+    private static final int BATCH_QUERY = 0;
+
+    private final CqlStandIn server;
+    private final Socket socket;
+    private final OutputStream out;
+    // set by USE
+    private volatile String keyspace;
+
+    Connection(CqlStandIn server, Socket socket) throws IOException {
+        this.server = server;
+        this.socket = socket;
+        this.out = socket.getOutputStream();
+    }
+
+    @Override
+    public void run() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            byte[] header = new byte[Wire.HEADER_LENGTH];
+            while (true) {
+                in.readFully(header);
+                ByteBuffer frame = ByteBuffer.wrap(header);
+                int version = frame.get() & 0x7F;
+                int flags = frame.get();
+                int stream = frame.getShort();
+                int opcode = frame.get();
+                int length = frame.getInt();
+                if (length < 0 || length > Wire.MAX_FRAME_LENGTH) {
+                    throw new IOException("Invalid frame length " + length);
+                }
+                byte[] body = new byte[length];
+                in.readFully(body);
+                if (version != Wire.VERSION) {
+                    send(error(stream, Wire.PROTOCOL_ERROR, "Invalid or unsupported protocol version (" + version + "); supported versions are (4/v4)"));
+                } else if ((flags & COMPRESSION) != 0) {
+                    send(error(stream, Wire.PROTOCOL_ERROR, "The stand-in doesn't support compression"));
+                } else {
+                    server.submit(() -> handle(stream, opcode, flags, ByteBuffer.wrap(body)), this::send);
+                }
+            }
+        } catch (EOFException e) {
+            // closed by the client
+        } catch (IOException e) {
+            if (!socket.isClosed()) {
+                Log.d("Connection of the Cassandra stand-in with " + socket.getRemoteSocketAddress() + " failed", e);
+            }
+        } finally {
+            close();
+        }
+    }
+
+    void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            Log.d("Failed to close a connection of the Cassandra stand-in", e);
+        }
+        server.closed(this);
+    }
+
+    private void send(byte[] frame) {
+        synchronized (out) {
+            try {
+                out.write(frame);
+                out.flush();
+            } catch (IOException e) {
+                // the reader sees the connection fail too
+                Log.d("Failed to answer on a connection of the Cassandra stand-in", e);
+            }
+        }
+    }
+
+    /**
+     * Answer a request
+     * @param stream
+     * @param opcode
+     * @param flags
+     * @param body
+     * @return the response frame
+     */
+    private byte[] handle(int stream, int opcode, int flags, ByteBuffer body) {
+        try {
+            if ((flags & CUSTOM_PAYLOAD) != 0) {
+                // the payload is not used, skip the [bytes map]
+                int size = body.getShort() & 0xFFFF;
+                for (int i = 0; i < size; i++) {
+                    Wire.readString(body);
+                    Wire.readBytes(body);
+                }
+            }
+            switch (opcode) {
+                case Wire.OPTIONS:
+                    return supported(stream);
+                case Wire.STARTUP:
+                    if (Wire.readStringMap(body).containsKey("COMPRESSION")) {
+                        return error(stream, Wire.PROTOCOL_ERROR, "The stand-in doesn't support compression");
+                    }
+                    return new Wire.Writer().toFrame(stream, Wire.READY);
+                case Wire.REGISTER:
+                    // no event is ever sent, the schema and the topology don't change
+                    return new Wire.Writer().toFrame(stream, Wire.READY);
+                case Wire.QUERY:
+                    return query(stream, body);
+                case Wire.PREPARE:
+                    return prepare(stream, body);
+                case Wire.EXECUTE:
+                    return execute(stream, body);
+                case Wire.BATCH:
+                    return batch(stream, body);
+                default:
+                    return error(stream, Wire.PROTOCOL_ERROR, "The stand-in doesn't support the opcode " + opcode);
+            }
+        } catch (Unprepared e) {
+            return new Wire.Writer().writeInt(Wire.UNPREPARED).writeString(e.getMessage()).writeShortBytes(e.id).toFrame(stream, Wire.ERROR);
+        } catch (RequestError e) {
+            return error(stream, e.getCode(), e.getMessage());
+        } catch (RuntimeException e) {
+            Log.e("The Cassandra stand-in failed to answer a request", e);
+            return error(stream, Wire.SERVER_ERROR, String.valueOf(e));
+        }
+    }
+
+    private static byte[] supported(int stream) {
+        Map<String, List<String>> options = new LinkedHashMap<>();
+        options.put("CQL_VERSION", Collections.singletonList(SystemTables.CQL_VERSION));
+        options.put("COMPRESSION", Collections.<String>emptyList());
+        options.put("PROTOCOL_VERSIONS", Collections.singletonList("4/v4"));
+        return new Wire.Writer().writeStringMultimap(options).toFrame(stream, Wire.SUPPORTED);
+    }
+
+    private byte[] query(int stream, ByteBuffer body) {
+        String query = Wire.readLongString(body);
+        Parameters parameters = new Parameters(body);
+        return respond(stream, server.statement(query, keyspace).execute(parameters.values, parameters.pageSize, parameters.pagingState));
+    }
+
+    private byte[] prepare(int stream, ByteBuffer body) {
+        String query = Wire.readLongString(body);
+        byte[] id = server.prepare(query, keyspace);
+        return Result.prepared(id, server.prepared(id)).toFrame(stream);
+    }
+
+    private byte[] execute(int stream, ByteBuffer body) {
+        byte[] id = Wire.readShortBytes(body);
+        CqlStatement statement = prepared(id);
+        Parameters parameters = new Parameters(body);
+        return respond(stream, statement.execute(parameters.values, parameters.pageSize, parameters.pagingState));
+    }
+
+    /**
+     * Execute the statements of a batch one after the other, conditional statements are not supported
+     * @param stream
+     * @param body
+     * @return
+     */
+    private byte[] batch(int stream, ByteBuffer body) {
+        body.get();
+        int size = body.getShort() & 0xFFFF;
+        List<CqlStatement> statements = new ArrayList<>(size);
+        List<List<ByteBuffer>> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            CqlStatement statement = body.get() == BATCH_QUERY ? server.statement(Wire.readLongString(body), keyspace) :
+                    prepared(Wire.readShortBytes(body));
+            if (statement.getKind() == CqlParser.Kind.SELECT || statement.getKind() == CqlParser.Kind.USE) {
+                throw RequestError.invalid("Only INSERT, UPDATE or DELETE statements are allowed in a batch");
+            }
+            if (statement.isConditional()) {
+                throw RequestError.invalid("The stand-in doesn't support conditional batches");
+            }
+            statements.add(statement);
+            values.add(Wire.readValues(body));
+        }
+        for (int i = 0; i < size; i++) {
+            statements.get(i).execute(values.get(i), 0, null);
+        }
+        return respond(stream, Result.voidResult());
+    }
+
+    private CqlStatement prepared(byte[] id) {
+        CqlStatement statement = server.prepared(id);
+        if (statement == null) {
+            throw new Unprepared(id);
+        }
+        return statement;
+    }
+
+    private byte[] respond(int stream, Result result) {
+        if (result.getKeyspace() != null) {
+            keyspace = result.getKeyspace();
+        }
+        return result.toFrame(stream);
+    }
+
+    private static byte[] error(int stream, int code, String message) {
+        return new Wire.Writer().writeInt(code).writeString(message).toFrame(stream, Wire.ERROR);
+    }
+
+    /**
+     * Query parameters of QUERY and EXECUTE, the consistency, serial consistency and timestamp are read and ignored
+     */
+    private static final class Parameters {
+        final List<ByteBuffer> values;
+        final int pageSize;
+        final ByteBuffer pagingState;
+
+        Parameters(ByteBuffer body) {
+            body.getShort();
+            int flags = body.get();
+            if ((flags & Wire.WITH_NAMES_FOR_VALUES) != 0) {
+                throw new RequestError(Wire.PROTOCOL_ERROR, "The stand-in doesn't support named values");
+            }
+            values = (flags & Wire.VALUES) != 0 ? Wire.readValues(body) : Collections.<ByteBuffer>emptyList();
+            pageSize = (flags & Wire.PAGE_SIZE) != 0 ? body.getInt() : -1;
+            pagingState = (flags & Wire.WITH_PAGING_STATE) != 0 ? Wire.readBytes(body) : null;
+        }
+    }
+
+    /**
+     * The id of an EXECUTE is unknown, the driver prepares the statement again
+     */
+    private static final class Unprepared extends RuntimeException {
+        final byte[] id;
+
+        Unprepared(byte[] id) {
+            super("Prepared query with ID " + CqlStandIn.hex(id) + " not found");
+            this.id = id;
+        }
+    }
+}
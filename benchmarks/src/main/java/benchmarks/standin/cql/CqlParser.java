@@ -0,0 +1,463 @@
+package benchmarks.standin.cql;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Parser of the CQL the stand-in understands: the statements built by CqlRequestFactory and the queries of the driver
+ * on the system tables, i.e. USE, SELECT (columns, count/sum/min/max, WHERE on columns and token(), GROUP BY, ORDER BY,
+ * PER PARTITION LIMIT, LIMIT), INSERT (IF NOT EXISTS), UPDATE (IF) and DELETE, with bind markers or literals
+ */
+final class CqlParser {
+
+    enum Kind {
+        USE, SELECT, INSERT, UPDATE, DELETE
+    }
+
+    enum Operator {
+        EQ, LT, LE, GT, GE
+    }
+
+    /**
+     * What a bind marker stands for
+     */
+    enum MarkerKind {
+        COLUMN, TOKEN, LIMIT, PER_PARTITION_LIMIT, TTL, TIMESTAMP
+    }
+
+    private final String query;
+    private final List<String> tokens;
+    private int next = 0;
+    private final Query result = new Query();
+
+    private CqlParser(String query) {
+        this.query = query;
+        this.tokens = tokenize(query);
+    }
+
+    /**
+     * Parse a statement
+     * @param query
+     * @return
+     * @throws IllegalArgumentException if the stand-in can't parse it, the message is sent back as a syntax error
+     */
+    static Query parse(String query) {
+        CqlParser parser = new CqlParser(query);
+        parser.parseStatement();
+        return parser.result;
+    }
+
+    private void parseStatement() {
+        String keyword = nextKeyword();
+        switch (keyword) {
+            case "USE":
+                result.kind = Kind.USE;
+                result.keyspace = identifier();
+                break;
+            case "SELECT":
+                parseSelect();
+                break;
+            case "INSERT":
+                parseInsert();
+                break;
+            case "UPDATE":
+                parseUpdate();
+                break;
+            case "DELETE":
+                parseDelete();
+                break;
+            default:
+                throw error("unsupported statement " + keyword);
+        }
+        acceptSymbol(";");
+        if (next < tokens.size()) {
+            throw error("unexpected " + tokens.get(next));
+        }
+    }
+
+    private void parseSelect() {
+        result.kind = Kind.SELECT;
+        if (acceptSymbol("*")) {
+            result.selectors = null;
+        } else {
+            result.selectors = new ArrayList<>();
+            do {
+                String name = identifier();
+                if (acceptSymbol("(")) {
+                    String argument = acceptSymbol("*") ? null : identifier();
+                    expectSymbol(")");
+                    result.selectors.add(new Selector(name, argument));
+                } else {
+                    result.selectors.add(new Selector(null, name));
+                }
+            } while (acceptSymbol(","));
+        }
+        expectKeyword("FROM");
+        parseTableName();
+        if (acceptKeyword("WHERE")) {
+            parseRelations(result.relations);
+        }
+        if (acceptKeyword("GROUP")) {
+            expectKeyword("BY");
+            do {
+                result.groupBy.add(identifier());
+            } while (acceptSymbol(","));
+        }
+        if (acceptKeyword("ORDER")) {
+            expectKeyword("BY");
+            result.orderBy = identifier();
+            if (acceptKeyword("DESC")) {
+                result.orderDescending = true;
+            } else {
+                acceptKeyword("ASC");
+            }
+        }
+        if (acceptKeyword("PER")) {
+            expectKeyword("PARTITION");
+            expectKeyword("LIMIT");
+            result.perPartitionLimit = term(MarkerKind.PER_PARTITION_LIMIT, null);
+        }
+        if (acceptKeyword("LIMIT")) {
+            result.limit = term(MarkerKind.LIMIT, null);
+        }
+        if (acceptKeyword("ALLOW")) {
+            expectKeyword("FILTERING");
+        }
+    }
+
+    private void parseInsert() {
+        result.kind = Kind.INSERT;
+        expectKeyword("INTO");
+        parseTableName();
+        expectSymbol("(");
+        List<String> columns = new ArrayList<>();
+        do {
+            columns.add(identifier());
+        } while (acceptSymbol(","));
+        expectSymbol(")");
+        expectKeyword("VALUES");
+        expectSymbol("(");
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                expectSymbol(",");
+            }
+            result.assignments.add(new Assignment(columns.get(i), term(MarkerKind.COLUMN, columns.get(i))));
+        }
+        expectSymbol(")");
+        if (acceptKeyword("IF")) {
+            expectKeyword("NOT");
+            expectKeyword("EXISTS");
+            result.ifNotExists = true;
+        }
+        parseUsing();
+    }
+
+    private void parseUpdate() {
+        result.kind = Kind.UPDATE;
+        parseTableName();
+        parseUsing();
+        expectKeyword("SET");
+        do {
+            String column = identifier();
+            expectSymbol("=");
+            result.assignments.add(new Assignment(column, term(MarkerKind.COLUMN, column)));
+        } while (acceptSymbol(","));
+        expectKeyword("WHERE");
+        parseRelations(result.relations);
+        parseConditions();
+    }
+
+    private void parseDelete() {
+        result.kind = Kind.DELETE;
+        expectKeyword("FROM");
+        parseTableName();
+        parseUsing();
+        expectKeyword("WHERE");
+        parseRelations(result.relations);
+        parseConditions();
+    }
+
+    private void parseUsing() {
+        if (!acceptKeyword("USING")) {
+            return;
+        }
+        do {
+            if (acceptKeyword("TTL")) {
+                result.ttl = term(MarkerKind.TTL, null);
+            } else {
+                expectKeyword("TIMESTAMP");
+                result.timestamp = term(MarkerKind.TIMESTAMP, null);
+            }
+        } while (acceptKeyword("AND"));
+    }
+
+    private void parseConditions() {
+        if (!acceptKeyword("IF")) {
+            return;
+        }
+        if (acceptKeyword("EXISTS")) {
+            result.ifExists = true;
+            return;
+        }
+        parseRelations(result.conditions);
+    }
+
+    private void parseTableName() {
+        String name = identifier();
+        if (acceptSymbol(".")) {
+            result.keyspace = name;
+            name = identifier();
+        }
+        result.table = name;
+    }
+
+    private void parseRelations(List<Relation> relations) {
+        do {
+            if (acceptKeyword("TOKEN")) {
+                expectSymbol("(");
+                List<String> columns = new ArrayList<>();
+                do {
+                    columns.add(identifier());
+                } while (acceptSymbol(","));
+                expectSymbol(")");
+                Operator operator = operator();
+                relations.add(new Relation(null, columns, operator, term(MarkerKind.TOKEN, null)));
+            } else {
+                String column = identifier();
+                Operator operator = operator();
+                relations.add(new Relation(column, null, operator, term(MarkerKind.COLUMN, column)));
+            }
+        } while (acceptKeyword("AND"));
+    }
+
+    private Operator operator() {
+        String symbol = nextToken();
+        switch (symbol) {
+            case "=":
+                return Operator.EQ;
+            case "<":
+                return Operator.LT;
+            case "<=":
+                return Operator.LE;
+            case ">":
+                return Operator.GT;
+            case ">=":
+                return Operator.GE;
+            default:
+                throw error("unsupported operator " + symbol);
+        }
+    }
+
+    /**
+     * A bind marker (numbered in order of appearance) or a literal
+     * @param kind what a marker stands for
+     * @param column column of a marker of kind COLUMN
+     * @return
+     */
+    private Term term(MarkerKind kind, String column) {
+        String token = nextToken();
+        if (token.equals("?")) {
+            result.markers.add(new Marker(kind, column));
+            return new Term(result.markers.size() - 1, null);
+        }
+        if (token.equals(":")) {
+            throw error("named bind markers are not supported");
+        }
+        return new Term(-1, token);
+    }
+
+    private String identifier() {
+        String token = nextToken();
+        if (token.startsWith("\"")) {
+            return token.substring(1, token.length() - 1).replace("\"\"", "\"");
+        }
+        if (!Character.isLetter(token.charAt(0))) {
+            throw error("expected an identifier, got " + token);
+        }
+        return token.toLowerCase(Locale.ROOT);
+    }
+
+    private String nextToken() {
+        if (next >= tokens.size()) {
+            throw error("unexpected end of statement");
+        }
+        return tokens.get(next++);
+    }
+
+    private String nextKeyword() {
+        return nextToken().toUpperCase(Locale.ROOT);
+    }
+
+    private boolean acceptKeyword(String keyword) {
+        if (next < tokens.size() && tokens.get(next).equalsIgnoreCase(keyword)) {
+            next++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expectKeyword(String keyword) {
+        if (!acceptKeyword(keyword)) {
+            throw error("expected " + keyword + (next < tokens.size() ? ", got " + tokens.get(next) : ""));
+        }
+    }
+
+    private boolean acceptSymbol(String symbol) {
+        if (next < tokens.size() && tokens.get(next).equals(symbol)) {
+            next++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expectSymbol(String symbol) {
+        if (!acceptSymbol(symbol)) {
+            throw error("expected " + symbol + (next < tokens.size() ? ", got " + tokens.get(next) : ""));
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("line 1: " + message + " in " + query);
+    }
+
+    /**
+     * Split a statement into identifiers (quoted ones keep their quotes), string literals (with their quotes),
+     * numbers and symbols
+     * @param query
+     * @return
+     */
+    static List<String> tokenize(String query) {
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < query.length()) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '\'' || c == '"') {
+                int end = i + 1;
+                while (true) {
+                    if (end >= query.length()) {
+                        throw new IllegalArgumentException("line 1: unterminated quote in " + query);
+                    }
+                    if (query.charAt(end) == c) {
+                        // a doubled quote is an escaped one
+                        if (end + 1 < query.length() && query.charAt(end + 1) == c) {
+                            end += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    end++;
+                }
+                tokens.add(query.substring(i, end + 1));
+                i = end + 1;
+            } else if (Character.isLetterOrDigit(c) || c == '_' || (c == '-' && i + 1 < query.length() && Character.isDigit(query.charAt(i + 1)))) {
+                int end = i + 1;
+                while (end < query.length() && (Character.isLetterOrDigit(query.charAt(end)) || query.charAt(end) == '_'
+                        || (Character.isDigit(c) && (query.charAt(end) == '.' || query.charAt(end) == '-')))) {
+                    end++;
+                }
+                tokens.add(query.substring(i, end));
+                i = end;
+            } else if ((c == '<' || c == '>') && i + 1 < query.length() && query.charAt(i + 1) == '=') {
+                tokens.add(query.substring(i, i + 2));
+                i += 2;
+            } else {
+                tokens.add(String.valueOf(c));
+                i++;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Parsed statement, names are lower cased unless they were quoted
+     */
+    static final class Query {
+        Kind kind;
+        String keyspace;
+        String table;
+        // null for *
+        List<Selector> selectors;
+        final List<Relation> relations = new ArrayList<>();
+        final List<String> groupBy = new ArrayList<>();
+        String orderBy;
+        boolean orderDescending;
+        Term perPartitionLimit;
+        Term limit;
+        // columns set by INSERT and UPDATE, in order
+        final List<Assignment> assignments = new ArrayList<>();
+        boolean ifNotExists;
+        boolean ifExists;
+        final List<Relation> conditions = new ArrayList<>();
+        Term ttl;
+        Term timestamp;
+        // bind markers in order of appearance
+        final List<Marker> markers = new ArrayList<>();
+    }
+
+    /**
+     * A column, or a function of a column (null column for count(*))
+     */
+    static final class Selector {
+        final String function;
+        final String column;
+
+        Selector(String function, String column) {
+            this.function = function;
+            this.column = column;
+        }
+    }
+
+    /**
+     * column operator term, or token(columns) operator term
+     */
+    static final class Relation {
+        // null for a token relation
+        final String column;
+        final List<String> tokenColumns;
+        final Operator operator;
+        final Term term;
+
+        Relation(String column, List<String> tokenColumns, Operator operator, Term term) {
+            this.column = column;
+            this.tokenColumns = tokenColumns;
+            this.operator = operator;
+            this.term = term;
+        }
+    }
+
+    static final class Assignment {
+        final String column;
+        final Term term;
+
+        Assignment(String column, Term term) {
+            this.column = column;
+            this.term = term;
+        }
+    }
+
+    /**
+     * A bind marker (its index in the bound values) or a literal
+     */
+    static final class Term {
+        final int marker;
+        final String literal;
+
+        Term(int marker, String literal) {
+            this.marker = marker;
+            this.literal = literal;
+        }
+    }
+
+    static final class Marker {
+        final MarkerKind kind;
+        final String column;
+
+        Marker(MarkerKind kind, String column) {
+            this.kind = kind;
+            this.column = column;
+        }
+    }
+}
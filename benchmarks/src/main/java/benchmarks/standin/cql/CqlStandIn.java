@@ -0,0 +1,283 @@
+package benchmarks.standin.cql;
+
+import benchmarks.standin.Latency;
+import utils.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * In-process stand-in of a single Cassandra 3.11 node speaking the native protocol v4, with its tables in memory.
+ * The real driver connects to it like to a node (so the whole request path is measured: driver, netty, protocol),
+ * it understands the statements of the application and the queries of the driver on the system tables.
+ * Not supported: compression, authentication, UDTs and tuples, IN, secondary indexes, counters, TTL (ignored)
+ */
+public final class CqlStandIn implements Closeable {
+
+    private final InetSocketAddress requestedAddress;
+    private final List<String> schemas;
+    private final Latency latency;
+    private final int workerThreads;
+    // by id
+    private final ConcurrentHashMap<ByteBuffer, CqlStatement> prepared = new ConcurrentHashMap<>();
+    // statements sent as QUERY, by keyspace and query
+    private final ConcurrentHashMap<String, CqlStatement> unprepared = new ConcurrentHashMap<>();
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicLong requests = new AtomicLong();
+    private Store store;
+    private ServerSocket serverSocket;
+    private ExecutorService workers;
+    private ScheduledExecutorService timer;
+    private volatile boolean closed = false;
+
+    private CqlStandIn(Builder builder) {
+        this.requestedAddress = new InetSocketAddress(builder.host, builder.port);
+        this.schemas = new ArrayList<>(builder.schemas);
+        this.latency = builder.latency;
+        this.workerThreads = builder.workerThreads;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Load the schemas and accept connections
+     * @return
+     * @throws IOException if the address can't be bound
+     */
+    public CqlStandIn start() throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(requestedAddress);
+        store = new Store(getAddress());
+        for (String schema : schemas) {
+            SchemaLoader.load(schema, store);
+        }
+        workers = Executors.newFixedThreadPool(workerThreads, threads("cql-stand-in-worker"));
+        timer = Executors.newSingleThreadScheduledExecutor(threads("cql-stand-in-timer"));
+        Thread acceptor = threads("cql-stand-in-acceptor").newThread(this::accept);
+        acceptor.start();
+        Log.i("Cassandra stand-in listening on " + getAddress());
+        return this;
+    }
+
+    /**
+     * @return address the stand-in listens on, with the port chosen if the requested one was 0
+     */
+    public InetSocketAddress getAddress() {
+        return new InetSocketAddress(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Requests answered or being answered so far, handshakes and queries of the driver on the system tables included
+     * @return
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+        for (Connection connection : connections) {
+            connection.close();
+        }
+        if (workers != null) {
+            workers.shutdownNow();
+            timer.shutdownNow();
+        }
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Connection connection = new Connection(this, socket);
+                connections.add(connection);
+                threads("cql-stand-in-connection").newThread(connection).start();
+            } catch (IOException e) {
+                if (!closed) {
+                    Log.e("The Cassandra stand-in failed to accept a connection", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Answer a request on a worker, the response being sent after the latency of the stand-in
+     * @param response
+     * @param send
+     */
+    void submit(Supplier<byte[]> response, Consumer<byte[]> send) {
+        requests.incrementAndGet();
+        workers.execute(() -> {
+            long latencyNanos = latency.nextNanos();
+            byte[] frame = response.get();
+            if (latencyNanos <= 0) {
+                send.accept(frame);
+            } else {
+                timer.schedule(() -> send.accept(frame), latencyNanos, TimeUnit.NANOSECONDS);
+            }
+        });
+    }
+
+    void closed(Connection connection) {
+        connections.remove(connection);
+    }
+
+    /**
+     * Statement of a QUERY, parsed once per keyspace
+     * @param query
+     * @param keyspace keyspace of the connection
+     * @return
+     */
+    CqlStatement statement(String query, String keyspace) {
+        String key = keyspace + "\u0000" + query;
+        CqlStatement statement = unprepared.get(key);
+        if (statement == null) {
+            statement = CqlStatement.prepare(query, keyspace, store);
+            unprepared.putIfAbsent(key, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Prepare a statement, its id only depends on the keyspace and the query as the one of a node
+     * @param query
+     * @param keyspace keyspace of the connection
+     * @return id of the prepared statement
+     */
+    byte[] prepare(String query, String keyspace) {
+        byte[] id = md5((keyspace == null ? "" : keyspace) + query);
+        ByteBuffer key = ByteBuffer.wrap(id);
+        if (!prepared.containsKey(key)) {
+            prepared.putIfAbsent(key, CqlStatement.prepare(query, keyspace, store));
+        }
+        return id;
+    }
+
+    /**
+     * @param id
+     * @return null if no statement was prepared with this id
+     */
+    CqlStatement prepared(byte[] id) {
+        return prepared.get(ByteBuffer.wrap(id));
+    }
+
+    static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static byte[] md5(String value) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ThreadFactory threads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Builder of a stand-in, defaults: 127.0.0.1 on an ephemeral port, no latency, 2 workers per processor
+     */
+    public static final class Builder {
+        private String host = "127.0.0.1";
+        private int port = 0;
+        private final List<String> schemas = new ArrayList<>();
+        private Latency latency = Latency.none();
+        private int workerThreads = 2 * Runtime.getRuntime().availableProcessors();
+
+        private Builder() {
+        }
+
+        public Builder host(String host) {
+            this.host = host;
+            return this;
+        }
+
+        /**
+         * @param port 0 for an ephemeral port
+         * @return
+         */
+        public Builder port(int port) {
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * CQL statements creating keyspaces and tables, as in resource/schema
+         * @param cql
+         * @return
+         */
+        public Builder schema(String cql) {
+            schemas.add(cql);
+            return this;
+        }
+
+        public Builder schemaFile(Path file) throws IOException {
+            return schema(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Latency added to every response
+         * @param latency
+         * @return
+         */
+        public Builder latency(Latency latency) {
+            this.latency = latency;
+            return this;
+        }
+
+        public Builder workerThreads(int workerThreads) {
+            this.workerThreads = workerThreads;
+            return this;
+        }
+
+        public CqlStandIn build() {
+            return new CqlStandIn(this);
+        }
+    }
+}
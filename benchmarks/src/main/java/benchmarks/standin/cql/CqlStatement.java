@@ -0,0 +1,897 @@
+package benchmarks.standin.cql;
+
+import benchmarks.standin.cql.CqlParser.Kind;
+import benchmarks.standin.cql.CqlParser.Operator;
+import benchmarks.standin.cql.CqlParser.Term;
+import com.datastax.driver.core.DataType;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+
+/**
+ * Statement resolved against the schema of the stand-in, executed (many times once prepared) with bound values.
+ * Reads scan the partition of the key if it is restricted, else the partitions in token order,
+ * and filter the rows by the other restrictions
+ */
+final class CqlStatement {
+
+    static final String APPLIED = "[applied]";
+
+    private final CqlParser.Query query;
+    private final String keyspace;
+    private final TableData table;
+    private final TableSchema schema;
+
+    private final List<String> variableNames = new ArrayList<>();
+    private final List<DataType> variableTypes = new ArrayList<>();
+    private int[] partitionKeyIndexes = new int[0];
+    private final List<String> resultNames = new ArrayList<>();
+    private final List<DataType> resultTypes = new ArrayList<>();
+
+    // WHERE on columns, token(...) and IF, resolved to column indexes
+    private final List<Restriction> restrictions = new ArrayList<>();
+    private final List<Restriction> tokenRestrictions = new ArrayList<>();
+    private final List<Restriction> conditions = new ArrayList<>();
+    // index in restrictions of the equality restricting each primary key column, -1 if none
+    private int[] keyRestrictions = new int[0];
+    // column of each assignment of INSERT and UPDATE
+    private int[] assignedColumns = new int[0];
+
+    // SELECT: column of each selector (-1 for count(*)) and its function (null for a column)
+    private int[] selectedColumns = new int[0];
+    private String[] functions = new String[0];
+    private int[] groupBy = new int[0];
+    private boolean aggregate = false;
+    private boolean reversed = false;
+
+    private CqlStatement(CqlParser.Query query, String sessionKeyspace, Store store) {
+        this.query = query;
+        if (query.kind == Kind.USE) {
+            if (!store.hasKeyspace(query.keyspace)) {
+                throw RequestError.invalid("Keyspace '" + query.keyspace + "' does not exist");
+            }
+            this.keyspace = query.keyspace;
+            this.table = null;
+            this.schema = null;
+            return;
+        }
+        this.keyspace = query.keyspace != null ? query.keyspace : sessionKeyspace;
+        if (keyspace == null) {
+            throw RequestError.invalid("No keyspace has been specified. USE a keyspace, or explicitly specify keyspace.tablename");
+        }
+        this.table = store.table(keyspace, query.table);
+        if (table == null) {
+            throw RequestError.invalid("unconfigured table " + query.table);
+        }
+        this.schema = table.getSchema();
+        for (CqlParser.Marker marker : query.markers) {
+            variableNames.add(variableName(marker));
+            variableTypes.add(typeOf(marker.kind, marker.column));
+        }
+        keyRestrictions = new int[schema.getPartitionKeySize() + schema.getClusteringSize()];
+        Arrays.fill(keyRestrictions, -1);
+        for (CqlParser.Relation relation : query.relations) {
+            if (relation.column == null) {
+                List<String> partitionKey = schema.getColumns().subList(0, schema.getPartitionKeySize());
+                if (!relation.tokenColumns.equals(partitionKey)) {
+                    throw RequestError.invalid("The token function arguments must be in the partition key order: " + partitionKey);
+                }
+                tokenRestrictions.add(new Restriction(-1, DataType.bigint(), relation.operator, relation.term));
+                continue;
+            }
+            int column = columnIndex(relation.column);
+            if (relation.operator == Operator.EQ && column < keyRestrictions.length) {
+                keyRestrictions[column] = restrictions.size();
+            }
+            restrictions.add(new Restriction(column, schema.getType(column), relation.operator, relation.term));
+        }
+        for (CqlParser.Relation condition : query.conditions) {
+            int column = columnIndex(condition.column);
+            if (condition.operator != Operator.EQ || column < keyRestrictions.length) {
+                throw RequestError.invalid("The stand-in only supports equality conditions on regular columns, got " + condition.column);
+            }
+            conditions.add(new Restriction(column, schema.getType(column), condition.operator, condition.term));
+        }
+        assignedColumns = new int[query.assignments.size()];
+        for (int i = 0; i < assignedColumns.length; i++) {
+            assignedColumns[i] = columnIndex(query.assignments.get(i).column);
+        }
+        switch (query.kind) {
+            case SELECT:
+                resolveSelection();
+                break;
+            case INSERT:
+                resolveInsert();
+                break;
+            case UPDATE:
+                resolveUpdate();
+                break;
+            default:
+                resolveDelete();
+        }
+        if (isConditional()) {
+            resultNames.add(APPLIED);
+            resultTypes.add(DataType.cboolean());
+        }
+        resolvePartitionKeyIndexes();
+    }
+
+    /**
+     * Parse and resolve a statement
+     * @param query
+     * @param sessionKeyspace keyspace of the connection, null if none
+     * @param store
+     * @return
+     * @throws RequestError if the statement is invalid (or not supported by the stand-in)
+     */
+    static CqlStatement prepare(String query, String sessionKeyspace, Store store) {
+        CqlParser.Query parsed;
+        try {
+            parsed = CqlParser.parse(query);
+        } catch (IllegalArgumentException e) {
+            throw new RequestError(Wire.SYNTAX_ERROR, e.getMessage());
+        }
+        return new CqlStatement(parsed, sessionKeyspace, store);
+    }
+
+    Kind getKind() {
+        return query.kind;
+    }
+
+    String getKeyspace() {
+        return keyspace;
+    }
+
+    String getTable() {
+        return query.table;
+    }
+
+    List<String> getVariableNames() {
+        return variableNames;
+    }
+
+    List<DataType> getVariableTypes() {
+        return variableTypes;
+    }
+
+    /**
+     * Index of the bind marker of each partition key column, empty unless all of them are bound by a marker
+     * @return
+     */
+    int[] getPartitionKeyIndexes() {
+        return partitionKeyIndexes;
+    }
+
+    List<String> getResultNames() {
+        return resultNames;
+    }
+
+    List<DataType> getResultTypes() {
+        return resultTypes;
+    }
+
+    /**
+     * Whether the columns of the result are known when preparing, i.e. for a SELECT (a lightweight transaction
+     * answers its own columns)
+     * @return
+     */
+    boolean hasResultMetadata() {
+        return query.kind == Kind.SELECT;
+    }
+
+    boolean isConditional() {
+        return query.ifNotExists || query.ifExists || !query.conditions.isEmpty();
+    }
+
+    /**
+     * Execute the statement
+     * @param values bound values, in order of the markers
+     * @param pageSize rows per page, not positive for all the rows at once
+     * @param pagingState where the previous page ended, null for the first page
+     * @return
+     * @throws RequestError if the values are invalid
+     */
+    Result execute(List<ByteBuffer> values, int pageSize, ByteBuffer pagingState) {
+        if (values.size() != query.markers.size()) {
+            throw RequestError.invalid("There were " + query.markers.size() + " markers(?) in CQL but " + values.size() + " bound variables");
+        }
+        switch (query.kind) {
+            case USE:
+                return Result.setKeyspace(keyspace);
+            case SELECT:
+                return select(values, pageSize, pagingState);
+            case INSERT:
+            case UPDATE:
+                return upsert(values);
+            default:
+                return delete(values);
+        }
+    }
+
+    private void resolveSelection() {
+        if (query.selectors == null) {
+            selectedColumns = new int[schema.getColumns().size()];
+            functions = new String[selectedColumns.length];
+            for (int i = 0; i < selectedColumns.length; i++) {
+                selectedColumns[i] = i;
+                resultNames.add(schema.getColumns().get(i));
+                resultTypes.add(schema.getType(i));
+            }
+        } else {
+            selectedColumns = new int[query.selectors.size()];
+            functions = new String[selectedColumns.length];
+            for (int i = 0; i < selectedColumns.length; i++) {
+                CqlParser.Selector selector = query.selectors.get(i);
+                String function = selector.function == null ? null : selector.function.toLowerCase(Locale.ROOT);
+                if (function == null) {
+                    selectedColumns[i] = columnIndex(selector.column);
+                    resultNames.add(selector.column);
+                    resultTypes.add(schema.getType(selectedColumns[i]));
+                    continue;
+                }
+                functions[i] = function;
+                aggregate = true;
+                if (function.equals("count")) {
+                    selectedColumns[i] = selector.column == null ? -1 : columnIndex(selector.column);
+                    resultNames.add(selector.column == null ? "count" : "system.count(" + selector.column + ")");
+                    resultTypes.add(DataType.bigint());
+                } else if (function.equals("sum") || function.equals("min") || function.equals("max")) {
+                    if (selector.column == null) {
+                        throw RequestError.invalid("Invalid use of * for function " + function);
+                    }
+                    selectedColumns[i] = columnIndex(selector.column);
+                    DataType type = schema.getType(selectedColumns[i]);
+                    if (function.equals("sum") && !isNumeric(type)) {
+                        throw RequestError.invalid("Invalid call to function sum, none of its type signatures match: " + type);
+                    }
+                    resultNames.add("system." + function + "(" + selector.column + ")");
+                    resultTypes.add(type);
+                } else {
+                    throw RequestError.invalid("Unknown function '" + function + "'");
+                }
+            }
+        }
+        groupBy = new int[query.groupBy.size()];
+        for (int i = 0; i < groupBy.length; i++) {
+            groupBy[i] = columnIndex(query.groupBy.get(i));
+            if (groupBy[i] != i || i >= keyRestrictions.length) {
+                throw RequestError.invalid("Group by is currently only supported on the columns of the PRIMARY KEY, got " + query.groupBy.get(i));
+            }
+        }
+        if (groupBy.length > 0 && groupBy.length < schema.getPartitionKeySize()) {
+            throw RequestError.invalid("Group by currently only support groups of columns following their declared order in the PRIMARY KEY");
+        }
+        aggregate = aggregate || groupBy.length > 0;
+        if (query.orderBy != null) {
+            int column = columnIndex(query.orderBy) - schema.getPartitionKeySize();
+            if (column < 0 || column >= schema.getClusteringSize()) {
+                throw RequestError.invalid("Order by is currently only supported on the clustered columns of the PRIMARY KEY, got " + query.orderBy);
+            }
+            reversed = query.orderDescending != schema.isDescending(column);
+        }
+    }
+
+    private void resolveInsert() {
+        for (int column = 0; column < keyRestrictions.length; column++) {
+            boolean assigned = false;
+            for (int assignedColumn : assignedColumns) {
+                assigned |= assignedColumn == column;
+            }
+            if (!assigned) {
+                throw missingKey(column);
+            }
+        }
+    }
+
+    private void resolveUpdate() {
+        for (int column : assignedColumns) {
+            if (column < keyRestrictions.length) {
+                throw RequestError.invalid("PRIMARY KEY part " + schema.getColumns().get(column) + " found in SET part");
+            }
+        }
+        validateKeyRestrictions(keyRestrictions.length);
+    }
+
+    private void resolveDelete() {
+        validateKeyRestrictions(isConditional() ? keyRestrictions.length : schema.getPartitionKeySize());
+    }
+
+    /**
+     * Writes are restricted by equality on the given primary key columns, and optionally by ranges on the clustering columns
+     * @param required number of primary key columns that have to be restricted by equality
+     */
+    private void validateKeyRestrictions(int required) {
+        if (!tokenRestrictions.isEmpty()) {
+            throw RequestError.invalid("The token function is not supported in the WHERE clause of " + query.kind + " statements");
+        }
+        for (int column = 0; column < required; column++) {
+            if (keyRestrictions[column] < 0) {
+                throw missingKey(column);
+            }
+        }
+        for (Restriction restriction : restrictions) {
+            if (restriction.column >= keyRestrictions.length) {
+                throw RequestError.invalid("Non PRIMARY KEY columns found in where clause: " + schema.getColumns().get(restriction.column));
+            }
+            if (restriction.column < schema.getPartitionKeySize() && restriction.operator != Operator.EQ) {
+                throw RequestError.invalid("Only EQ and IN relation are supported on the partition key");
+            }
+        }
+    }
+
+    private RequestError missingKey(int column) {
+        return RequestError.invalid((column < schema.getPartitionKeySize() ? "Some partition key parts are missing: " :
+                "Some clustering keys are missing: ") + schema.getColumns().get(column));
+    }
+
+    private void resolvePartitionKeyIndexes() {
+        int[] indexes = new int[schema.getPartitionKeySize()];
+        for (int column = 0; column < indexes.length; column++) {
+            Term term = null;
+            if (query.kind == Kind.INSERT) {
+                for (int i = 0; i < assignedColumns.length; i++) {
+                    if (assignedColumns[i] == column) {
+                        term = query.assignments.get(i).term;
+                    }
+                }
+            } else if (keyRestrictions[column] >= 0) {
+                term = restrictions.get(keyRestrictions[column]).term;
+            }
+            if (term == null || term.marker < 0) {
+                return;
+            }
+            indexes[column] = term.marker;
+        }
+        partitionKeyIndexes = indexes;
+    }
+
+    private Result select(List<ByteBuffer> values, int pageSize, ByteBuffer pagingState) {
+        ByteBuffer[] bound = bind(restrictions, values, false);
+        ByteBuffer[] tokens = bind(tokenRestrictions, values, false);
+        long lowerToken = Long.MIN_VALUE;
+        boolean lowerInclusive = true;
+        long upperToken = Long.MAX_VALUE;
+        boolean upperInclusive = true;
+        for (int i = 0; i < tokens.length; i++) {
+            Restriction restriction = tokenRestrictions.get(i);
+            long token = tokens[i].getLong(tokens[i].position());
+            switch (restriction.operator) {
+                case GT:
+                case GE:
+                    lowerToken = token;
+                    lowerInclusive = restriction.operator == Operator.GE;
+                    break;
+                case LT:
+                case LE:
+                    upperToken = token;
+                    upperInclusive = restriction.operator == Operator.LE;
+                    break;
+                default:
+                    lowerToken = token;
+                    upperToken = token;
+            }
+        }
+        int limit = query.limit == null ? Integer.MAX_VALUE : positive("LIMIT", bind(query.limit, DataType.cint(), values));
+        int perPartitionLimit = query.perPartitionLimit == null ? Integer.MAX_VALUE :
+                positive("PER PARTITION LIMIT", bind(query.perPartitionLimit, DataType.cint(), values));
+        PagingState state = pagingState == null || aggregate ? null : PagingState.decode(pagingState);
+
+        ByteBuffer[] partitionKey = new ByteBuffer[schema.getPartitionKeySize()];
+        for (int column = 0; column < schema.getPartitionKeySize(); column++) {
+            if (keyRestrictions[column] < 0) {
+                partitionKey = null;
+                break;
+            }
+            partitionKey[column] = bound[keyRestrictions[column]];
+        }
+        Iterator<TableData.Partition> partitions;
+        TableData.PartitionKey resumed = state == null ? null : table.partitionKey(state.partitionKey);
+        if (partitionKey != null) {
+            TableData.Partition partition = table.get(table.partitionKey(partitionKey));
+            partitions = partition == null ? Collections.<TableData.Partition>emptyIterator() : Collections.singletonList(partition).iterator();
+        } else if (resumed != null) {
+            partitions = table.from(resumed).values().iterator();
+        } else {
+            partitions = table.fromToken(lowerToken).values().iterator();
+        }
+
+        int maxRows = aggregate || pageSize <= 0 ? Integer.MAX_VALUE : pageSize;
+        int rowLimit = aggregate ? Integer.MAX_VALUE : limit;
+        List<ByteBuffer[]> rows = new ArrayList<>();
+        int returned = state == null ? 0 : state.returned;
+        TableData.PartitionKey lastKey = null;
+        ByteBuffer[] lastClustering = null;
+        int lastInPartition = 0;
+        boolean more = false;
+        scan:
+        while (partitions.hasNext()) {
+            TableData.Partition partition = partitions.next();
+            long token = partition.key.token;
+            if (token < lowerToken || (token == lowerToken && !lowerInclusive)) {
+                continue;
+            }
+            if (token > upperToken || (token == upperToken && !upperInclusive)) {
+                break;
+            }
+            NavigableMap<ByteBuffer[], ByteBuffer[]> partitionRows = reversed ? partition.rows.descendingMap() : partition.rows;
+            int inPartition = 0;
+            if (resumed != null && partition.key.equals(resumed)) {
+                partitionRows = partitionRows.tailMap(state.clustering, false);
+                inPartition = state.returnedInPartition;
+            }
+            for (Map.Entry<ByteBuffer[], ByteBuffer[]> entry : partitionRows.entrySet()) {
+                if (inPartition >= perPartitionLimit) {
+                    break;
+                }
+                ByteBuffer[] row = entry.getValue();
+                if (!matches(row, restrictions, bound)) {
+                    continue;
+                }
+                if (returned >= rowLimit) {
+                    break scan;
+                }
+                if (rows.size() >= maxRows) {
+                    more = true;
+                    break scan;
+                }
+                rows.add(row);
+                returned++;
+                inPartition++;
+                lastKey = partition.key;
+                lastClustering = entry.getKey();
+                lastInPartition = inPartition;
+            }
+        }
+        if (aggregate) {
+            return Result.rows(this, aggregate(rows, limit), null);
+        }
+        List<ByteBuffer[]> selected = new ArrayList<>(rows.size());
+        for (ByteBuffer[] row : rows) {
+            ByteBuffer[] projected = new ByteBuffer[selectedColumns.length];
+            for (int i = 0; i < selectedColumns.length; i++) {
+                projected[i] = row[selectedColumns[i]];
+            }
+            selected.add(projected);
+        }
+        ByteBuffer nextPage = more ? new PagingState(lastKey.values, lastClustering, returned, lastInPartition).encode() : null;
+        return Result.rows(this, selected, nextPage);
+    }
+
+    /**
+     * Aggregate the rows, in groups of consecutive rows with the same GROUP BY columns
+     * @param rows
+     * @param limit maximum number of groups
+     * @return
+     */
+    private List<ByteBuffer[]> aggregate(List<ByteBuffer[]> rows, int limit) {
+        List<ByteBuffer[]> groups = new ArrayList<>();
+        Aggregation current = null;
+        for (ByteBuffer[] row : rows) {
+            if (current == null || !current.contains(row)) {
+                if (current != null) {
+                    groups.add(current.result());
+                }
+                if (groups.size() >= limit) {
+                    return groups;
+                }
+                current = new Aggregation(row);
+            }
+            current.add(row);
+        }
+        if (current != null) {
+            groups.add(current.result());
+        } else if (groupBy.length == 0) {
+            // without GROUP BY, aggregates of no rows are still answered
+            groups.add(new Aggregation(null).result());
+        }
+        return groups;
+    }
+
+    private Result upsert(List<ByteBuffer> values) {
+        int keySize = keyRestrictions.length;
+        ByteBuffer[] key = new ByteBuffer[keySize];
+        ByteBuffer[] assigned = new ByteBuffer[assignedColumns.length];
+        for (int i = 0; i < assignedColumns.length; i++) {
+            int column = assignedColumns[i];
+            assigned[i] = bind(query.assignments.get(i).term, schema.getType(column), values);
+            if (column < keySize) {
+                key[column] = assigned[i];
+            }
+        }
+        if (query.kind == Kind.UPDATE) {
+            ByteBuffer[] bound = bind(restrictions, values, false);
+            for (int column = 0; column < keySize; column++) {
+                key[column] = bound[keyRestrictions[column]];
+            }
+        }
+        checkKey(key, keySize);
+        ByteBuffer[] expected = bind(conditions, values, true);
+        ByteBuffer[] clustering = Arrays.copyOfRange(key, schema.getPartitionKeySize(), keySize);
+        boolean applied = table.write(table.partitionKey(Arrays.copyOf(key, schema.getPartitionKeySize())), partition -> {
+            ByteBuffer[] existing = partition.rows.get(clustering);
+            if ((query.ifNotExists && existing != null) || !holds(existing, expected)) {
+                return false;
+            }
+            ByteBuffer[] row = existing == null ? new ByteBuffer[schema.getColumns().size()] : existing.clone();
+            System.arraycopy(key, 0, row, 0, keySize);
+            for (int i = 0; i < assignedColumns.length; i++) {
+                row[assignedColumns[i]] = assigned[i];
+            }
+            partition.rows.put(clustering, row);
+            return true;
+        });
+        return appliedResult(applied);
+    }
+
+    private Result delete(List<ByteBuffer> values) {
+        ByteBuffer[] bound = bind(restrictions, values, false);
+        ByteBuffer[] key = new ByteBuffer[keyRestrictions.length];
+        for (int column = 0; column < key.length; column++) {
+            key[column] = keyRestrictions[column] < 0 ? null : bound[keyRestrictions[column]];
+        }
+        checkKey(key, isConditional() ? key.length : schema.getPartitionKeySize());
+        ByteBuffer[] expected = bind(conditions, values, true);
+        boolean applied = table.write(table.partitionKey(Arrays.copyOf(key, schema.getPartitionKeySize())), partition -> {
+            if (isConditional()) {
+                ByteBuffer[] clustering = Arrays.copyOfRange(key, schema.getPartitionKeySize(), key.length);
+                ByteBuffer[] existing = partition.rows.get(clustering);
+                if (!holds(existing, expected)) {
+                    return false;
+                }
+                partition.rows.remove(clustering);
+                return true;
+            }
+            partition.rows.values().removeIf(row -> matches(row, restrictions, bound));
+            return true;
+        });
+        return appliedResult(applied);
+    }
+
+    private Result appliedResult(boolean applied) {
+        if (!isConditional()) {
+            return Result.voidResult();
+        }
+        ByteBuffer[] row = {Values.serialize(DataType.cboolean(), applied)};
+        return Result.rows(this, Collections.singletonList(row), null);
+    }
+
+    /**
+     * Whether the IF EXISTS and IF conditions of the statement hold on a row
+     * @param existing null if there is no such row
+     * @param expected bound values of the conditions
+     * @return
+     */
+    private boolean holds(ByteBuffer[] existing, ByteBuffer[] expected) {
+        if (query.ifExists && existing == null) {
+            return false;
+        }
+        for (int i = 0; i < conditions.size(); i++) {
+            ByteBuffer actual = existing == null ? null : existing[conditions.get(i).column];
+            if (!Values.equal(actual, expected[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void checkKey(ByteBuffer[] key, int required) {
+        for (int column = 0; column < required; column++) {
+            if (key[column] == null) {
+                throw RequestError.invalid("Invalid null value in condition for column " + schema.getColumns().get(column));
+            }
+        }
+    }
+
+    private static boolean matches(ByteBuffer[] row, List<Restriction> restrictions, ByteBuffer[] bound) {
+        for (int i = 0; i < restrictions.size(); i++) {
+            Restriction restriction = restrictions.get(i);
+            ByteBuffer value = row[restriction.column];
+            if (value == null) {
+                return false;
+            }
+            int cmp = Values.compare(restriction.type, value, bound[i]);
+            switch (restriction.operator) {
+                case EQ:
+                    if (cmp != 0) {
+                        return false;
+                    }
+                    break;
+                case LT:
+                    if (cmp >= 0) {
+                        return false;
+                    }
+                    break;
+                case LE:
+                    if (cmp > 0) {
+                        return false;
+                    }
+                    break;
+                case GT:
+                    if (cmp <= 0) {
+                        return false;
+                    }
+                    break;
+                default:
+                    if (cmp < 0) {
+                        return false;
+                    }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Values of the terms of restrictions
+     * @param restrictions
+     * @param values
+     * @param nullable whether null values are allowed, as in IF conditions
+     * @return
+     */
+    private ByteBuffer[] bind(List<Restriction> restrictions, List<ByteBuffer> values, boolean nullable) {
+        ByteBuffer[] bound = new ByteBuffer[restrictions.size()];
+        for (int i = 0; i < bound.length; i++) {
+            Restriction restriction = restrictions.get(i);
+            bound[i] = bind(restriction.term, restriction.type, values);
+            if (bound[i] == null && !nullable) {
+                throw RequestError.invalid("Invalid null value in condition for " +
+                        (restriction.column < 0 ? "partition key token" : "column " + schema.getColumns().get(restriction.column)));
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * Value of a term: the bound value of a marker, or the literal
+     * @param term
+     * @param type
+     * @param values
+     * @return null for a null value
+     */
+    private static ByteBuffer bind(Term term, DataType type, List<ByteBuffer> values) {
+        if (term.marker >= 0) {
+            return values.get(term.marker);
+        }
+        try {
+            return Values.parse(type, term.literal);
+        } catch (RuntimeException e) {
+            throw RequestError.invalid("Invalid " + type + " constant (" + term.literal + ")");
+        }
+    }
+
+    private static int positive(String clause, ByteBuffer value) {
+        if (value == null) {
+            throw RequestError.invalid("Invalid null value of " + clause);
+        }
+        int limit = value.getInt(value.position());
+        if (limit <= 0) {
+            throw RequestError.invalid(clause + " must be strictly positive");
+        }
+        return limit;
+    }
+
+    private int columnIndex(String column) {
+        int index = schema.indexOf(column);
+        if (index < 0) {
+            throw RequestError.invalid("Undefined column name " + column);
+        }
+        return index;
+    }
+
+    private static String variableName(CqlParser.Marker marker) {
+        switch (marker.kind) {
+            case COLUMN:
+                return marker.column;
+            case TOKEN:
+                return "partition key token";
+            case LIMIT:
+                return "[limit]";
+            case PER_PARTITION_LIMIT:
+                return "[per_partition_limit]";
+            case TTL:
+                return "[ttl]";
+            default:
+                return "[timestamp]";
+        }
+    }
+
+    private DataType typeOf(CqlParser.MarkerKind kind, String column) {
+        switch (kind) {
+            case COLUMN:
+                return schema.getType(columnIndex(column));
+            case TOKEN:
+            case TIMESTAMP:
+                return DataType.bigint();
+            default:
+                return DataType.cint();
+        }
+    }
+
+    private static boolean isNumeric(DataType type) {
+        switch (type.getName()) {
+            case INT:
+            case BIGINT:
+            case COUNTER:
+            case SMALLINT:
+            case TINYINT:
+            case VARINT:
+            case FLOAT:
+            case DOUBLE:
+            case DECIMAL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * A column (or the token of the partition key) compared to a term
+     */
+    private static final class Restriction {
+        // -1 for the token of the partition key
+        final int column;
+        final DataType type;
+        final Operator operator;
+        final Term term;
+
+        Restriction(int column, DataType type, Operator operator, Term term) {
+            this.column = column;
+            this.type = type;
+            this.operator = operator;
+            this.term = term;
+        }
+    }
+
+    /**
+     * Aggregates of the selectors over a group of rows, the plain columns take the value of the first row
+     */
+    private final class Aggregation {
+        private final ByteBuffer[] first;
+        private final long[] counts = new long[selectedColumns.length];
+        private final BigDecimal[] sums = new BigDecimal[selectedColumns.length];
+        private final ByteBuffer[] mins = new ByteBuffer[selectedColumns.length];
+        private final ByteBuffer[] maxs = new ByteBuffer[selectedColumns.length];
+
+        Aggregation(ByteBuffer[] first) {
+            this.first = first;
+            Arrays.fill(sums, BigDecimal.ZERO);
+        }
+
+        boolean contains(ByteBuffer[] row) {
+            for (int column : groupBy) {
+                if (!Values.equal(first[column], row[column])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void add(ByteBuffer[] row) {
+            for (int i = 0; i < selectedColumns.length; i++) {
+                if (functions[i] == null) {
+                    continue;
+                }
+                if (selectedColumns[i] < 0) {
+                    counts[i]++;
+                    continue;
+                }
+                ByteBuffer value = row[selectedColumns[i]];
+                if (value == null) {
+                    continue;
+                }
+                DataType type = schema.getType(selectedColumns[i]);
+                counts[i]++;
+                if (functions[i].equals("sum")) {
+                    sums[i] = sums[i].add(toDecimal((Number) Values.deserialize(type, value)));
+                }
+                if (mins[i] == null || Values.compare(type, value, mins[i]) < 0) {
+                    mins[i] = value;
+                }
+                if (maxs[i] == null || Values.compare(type, value, maxs[i]) > 0) {
+                    maxs[i] = value;
+                }
+            }
+        }
+
+        ByteBuffer[] result() {
+            ByteBuffer[] result = new ByteBuffer[selectedColumns.length];
+            for (int i = 0; i < result.length; i++) {
+                if (functions[i] == null) {
+                    result[i] = first == null ? null : first[selectedColumns[i]];
+                } else if (functions[i].equals("count")) {
+                    result[i] = Values.serialize(DataType.bigint(), counts[i]);
+                } else if (functions[i].equals("sum")) {
+                    DataType type = schema.getType(selectedColumns[i]);
+                    result[i] = Values.serialize(type, fromDecimal(sums[i], type));
+                } else {
+                    result[i] = functions[i].equals("min") ? mins[i] : maxs[i];
+                }
+            }
+            return result;
+        }
+
+        private BigDecimal toDecimal(Number value) {
+            if (value instanceof BigDecimal) {
+                return (BigDecimal) value;
+            }
+            if (value instanceof BigInteger) {
+                return new BigDecimal((BigInteger) value);
+            }
+            if (value instanceof Double || value instanceof Float) {
+                return BigDecimal.valueOf(value.doubleValue());
+            }
+            return BigDecimal.valueOf(value.longValue());
+        }
+
+        private Object fromDecimal(BigDecimal sum, DataType type) {
+            switch (type.getName()) {
+                case INT:
+                    return sum.intValue();
+                case SMALLINT:
+                    return sum.shortValue();
+                case TINYINT:
+                    return sum.byteValue();
+                case FLOAT:
+                    return sum.floatValue();
+                case DOUBLE:
+                    return sum.doubleValue();
+                case VARINT:
+                    return sum.toBigInteger();
+                case DECIMAL:
+                    return sum;
+                default:
+                    return sum.longValue();
+            }
+        }
+    }
+
+    /**
+     * Where a page ended: partition key and clustering of its last row, rows returned so far in total and in that partition
+     */
+    private static final class PagingState {
+        final ByteBuffer[] partitionKey;
+        final ByteBuffer[] clustering;
+        final int returned;
+        final int returnedInPartition;
+
+        PagingState(ByteBuffer[] partitionKey, ByteBuffer[] clustering, int returned, int returnedInPartition) {
+            this.partitionKey = partitionKey;
+            this.clustering = clustering;
+            this.returned = returned;
+            this.returnedInPartition = returnedInPartition;
+        }
+
+        ByteBuffer encode() {
+            Wire.Writer writer = new Wire.Writer();
+            writer.writeShort(partitionKey.length);
+            for (ByteBuffer value : partitionKey) {
+                writer.writeBytes(value);
+            }
+            writer.writeShort(clustering.length);
+            for (ByteBuffer value : clustering) {
+                writer.writeBytes(value);
+            }
+            writer.writeInt(returned).writeInt(returnedInPartition);
+            return ByteBuffer.wrap(writer.toBytes());
+        }
+
+        static PagingState decode(ByteBuffer state) {
+            try {
+                ByteBuffer in = state.duplicate();
+                ByteBuffer[] partitionKey = Wire.readValues(in).toArray(new ByteBuffer[0]);
+                ByteBuffer[] clustering = Wire.readValues(in).toArray(new ByteBuffer[0]);
+                return new PagingState(partitionKey, clustering, in.getInt(), in.getInt());
+            } catch (RuntimeException e) {
+                throw new RequestError(Wire.PROTOCOL_ERROR, "Invalid value for the paging state");
+            }
+        }
+    }
+}
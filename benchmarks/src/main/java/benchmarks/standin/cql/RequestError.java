@@ -0,0 +1,23 @@
+package benchmarks.standin.cql;
+
+/**
+ * Error answered to a request, with the error code of the protocol (the driver maps it to its exceptions,
+ * e.g. INVALID to InvalidQueryException)
+ */
+final class RequestError extends RuntimeException {
+
+    private final int code;
+
+    RequestError(int code, String message) {
+        super(message);
+        this.code = code;
+    }
+
+    static RequestError invalid(String message) {
+        return new RequestError(Wire.INVALID, message);
+    }
+
+    int getCode() {
+        return code;
+    }
+}
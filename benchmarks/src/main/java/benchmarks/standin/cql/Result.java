@@ -0,0 +1,119 @@
+package benchmarks.standin.cql;
+
+import com.datastax.driver.core.DataType;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Body of a RESULT message: Void, Rows, Set_keyspace or Prepared. Rows always carry their metadata,
+ * the skip metadata flag of the requests is ignored as the protocol allows
+ */
+final class Result {
+
+    private static final int VOID = 0x0001;
+    private static final int ROWS = 0x0002;
+    private static final int SET_KEYSPACE = 0x0003;
+    private static final int PREPARED = 0x0004;
+
+    // flags of the metadata
+    private static final int GLOBAL_TABLES_SPEC = 0x0001;
+    private static final int HAS_MORE_PAGES = 0x0002;
+    private static final int NO_METADATA = 0x0004;
+
+    private final Wire.Writer body = new Wire.Writer();
+    private final String keyspace;
+
+    private Result(int kind, String keyspace) {
+        this.keyspace = keyspace;
+        body.writeInt(kind);
+    }
+
+    static Result voidResult() {
+        return new Result(VOID, null);
+    }
+
+    static Result setKeyspace(String keyspace) {
+        Result result = new Result(SET_KEYSPACE, keyspace);
+        result.body.writeString(keyspace);
+        return result;
+    }
+
+    /**
+     * Rows answered by a statement, with its result columns
+     * @param statement
+     * @param rows
+     * @param pagingState null for the last page
+     * @return
+     */
+    static Result rows(CqlStatement statement, List<ByteBuffer[]> rows, ByteBuffer pagingState) {
+        Result result = new Result(ROWS, null);
+        result.writeMetadata(statement, statement.getResultNames(), statement.getResultTypes(), pagingState);
+        result.body.writeInt(rows.size());
+        for (ByteBuffer[] row : rows) {
+            for (ByteBuffer value : row) {
+                result.body.writeBytes(value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Prepared statement: its id, bind variables and result columns
+     * @param id
+     * @param statement
+     * @return
+     */
+    static Result prepared(byte[] id, CqlStatement statement) {
+        Result result = new Result(PREPARED, null);
+        result.body.writeShortBytes(id);
+        List<String> names = statement.getVariableNames();
+        result.body.writeInt(names.isEmpty() ? 0 : GLOBAL_TABLES_SPEC).writeInt(names.size());
+        int[] partitionKeyIndexes = statement.getPartitionKeyIndexes();
+        result.body.writeInt(partitionKeyIndexes.length);
+        for (int index : partitionKeyIndexes) {
+            result.body.writeShort(index);
+        }
+        result.writeColumns(statement, names, statement.getVariableTypes());
+        if (statement.hasResultMetadata()) {
+            result.writeMetadata(statement, statement.getResultNames(), statement.getResultTypes(), null);
+        } else {
+            result.body.writeInt(NO_METADATA).writeInt(0);
+        }
+        return result;
+    }
+
+    /**
+     * Keyspace set by the request, the one of the connection changes
+     * @return null if the request doesn't set one
+     */
+    String getKeyspace() {
+        return keyspace;
+    }
+
+    byte[] toFrame(int stream) {
+        return body.toFrame(stream, Wire.RESULT);
+    }
+
+    private void writeMetadata(CqlStatement statement, List<String> names, List<DataType> types, ByteBuffer pagingState) {
+        int flags = names.isEmpty() ? 0 : GLOBAL_TABLES_SPEC;
+        body.writeInt(pagingState == null ? flags : flags | HAS_MORE_PAGES).writeInt(names.size());
+        if (pagingState != null) {
+            body.writeBytes(pagingState);
+        }
+        writeColumns(statement, names, types);
+    }
+
+    /**
+     * Column specs, the table spec being global
+     */
+    private void writeColumns(CqlStatement statement, List<String> names, List<DataType> types) {
+        if (names.isEmpty()) {
+            return;
+        }
+        body.writeString(statement.getKeyspace()).writeString(statement.getTable());
+        for (int i = 0; i < names.size(); i++) {
+            body.writeString(names.get(i)).writeType(types.get(i));
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package benchmarks.standin.cql;
+
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.DriverInternals;
+import utils.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Loader of the schema files (resource/schema/*.cql) into the stand-in: CREATE KEYSPACE and CREATE TABLE are applied,
+ * the table options are ignored except the clustering order, other statements (materialized views, indexes...) are skipped
+ */
+final class SchemaLoader {
+
+    private final List<String> tokens;
+    private int next = 0;
+
+    private SchemaLoader(List<String> tokens) {
+        this.tokens = tokens;
+    }
+
+    /**
+     * Apply the statements of a schema file
+     * @param cql statements separated by ";"
+     * @param store
+     */
+    static void load(String cql, Store store) {
+        for (List<String> statement : statements(cql)) {
+            SchemaLoader loader = new SchemaLoader(statement);
+            boolean create = loader.acceptKeyword("CREATE");
+            if (create && loader.acceptKeyword("KEYSPACE")) {
+                boolean ifNotExists = loader.acceptIfNotExists();
+                String name = loader.identifier();
+                store.createKeyspace(name, loader.replication(), ifNotExists);
+            } else if (create && loader.acceptKeyword("TABLE")) {
+                boolean ifNotExists = loader.acceptIfNotExists();
+                store.createTable(loader.table(), ifNotExists);
+            } else {
+                Log.w("The Cassandra stand-in skips " + String.join(" ", statement.subList(0, Math.min(4, statement.size()))) + "...");
+            }
+        }
+    }
+
+    /**
+     * Parse a CREATE TABLE statement
+     * @param cql
+     * @return
+     */
+    static TableSchema parseTable(String cql) {
+        SchemaLoader loader = new SchemaLoader(CqlParser.tokenize(cql));
+        loader.expectKeyword("CREATE");
+        loader.expectKeyword("TABLE");
+        loader.acceptIfNotExists();
+        return loader.table();
+    }
+
+    private static List<List<String>> statements(String cql) {
+        StringBuilder withoutComments = new StringBuilder();
+        for (String line : cql.split("\n")) {
+            String trimmed = line.trim();
+            if (!trimmed.startsWith("--") && !trimmed.startsWith("//")) {
+                withoutComments.append(line).append('\n');
+            }
+        }
+        List<List<String>> statements = new ArrayList<>();
+        List<String> statement = new ArrayList<>();
+        for (String token : CqlParser.tokenize(withoutComments.toString())) {
+            if (token.equals(";")) {
+                if (!statement.isEmpty()) {
+                    statements.add(statement);
+                }
+                statement = new ArrayList<>();
+            } else {
+                statement.add(token);
+            }
+        }
+        if (!statement.isEmpty()) {
+            statements.add(statement);
+        }
+        return statements;
+    }
+
+    /**
+     * WITH REPLICATION = {'class': ..., ...}, the rest of the statement is ignored
+     * @return
+     */
+    private Map<String, String> replication() {
+        expectKeyword("WITH");
+        expectKeyword("REPLICATION");
+        expectSymbol("=");
+        expectSymbol("{");
+        Map<String, String> replication = new LinkedHashMap<>();
+        do {
+            String key = unquote(nextToken());
+            expectSymbol(":");
+            replication.put(key, unquote(nextToken()));
+        } while (acceptSymbol(","));
+        expectSymbol("}");
+        return replication;
+    }
+
+    /**
+     * keyspace.name (column definitions) [WITH options], what follows CREATE TABLE [IF NOT EXISTS]
+     * @return
+     */
+    private TableSchema table() {
+        String keyspace = identifier();
+        expectSymbol(".");
+        String name = identifier();
+        expectSymbol("(");
+        Map<String, DataType> columns = new HashMap<>();
+        List<String> partitionKey = new ArrayList<>();
+        List<String> clustering = new ArrayList<>();
+        do {
+            if (acceptKeyword("PRIMARY")) {
+                expectKeyword("KEY");
+                expectSymbol("(");
+                if (acceptSymbol("(")) {
+                    do {
+                        partitionKey.add(identifier());
+                    } while (acceptSymbol(","));
+                    expectSymbol(")");
+                } else {
+                    partitionKey.add(identifier());
+                }
+                while (acceptSymbol(",")) {
+                    clustering.add(identifier());
+                }
+                expectSymbol(")");
+            } else {
+                String column = identifier();
+                columns.put(column, type());
+                acceptKeyword("STATIC");
+                if (acceptKeyword("PRIMARY")) {
+                    expectKeyword("KEY");
+                    partitionKey.add(column);
+                }
+            }
+        } while (acceptSymbol(","));
+        expectSymbol(")");
+        List<Boolean> descending = new ArrayList<>();
+        for (int i = 0; i < clustering.size(); i++) {
+            descending.add(false);
+        }
+        // only CLUSTERING ORDER BY of the options changes what the stand-in does
+        while (next < tokens.size()) {
+            if (acceptKeyword("CLUSTERING")) {
+                expectKeyword("ORDER");
+                expectKeyword("BY");
+                expectSymbol("(");
+                do {
+                    int column = clustering.indexOf(identifier());
+                    boolean desc = acceptKeyword("DESC");
+                    if (!desc) {
+                        acceptKeyword("ASC");
+                    }
+                    if (column >= 0) {
+                        descending.set(column, desc);
+                    }
+                } while (acceptSymbol(","));
+                expectSymbol(")");
+            } else {
+                next++;
+            }
+        }
+        return new TableSchema(keyspace, name, columns, partitionKey, clustering, descending);
+    }
+
+    /**
+     * A type, e.g. text or frozen<map<text, text>>
+     * @return
+     */
+    private DataType type() {
+        StringBuilder type = new StringBuilder(nextToken());
+        int depth = 0;
+        while (next < tokens.size()) {
+            String token = tokens.get(next);
+            if (token.equals("<")) {
+                depth++;
+            } else if (token.equals(">")) {
+                depth--;
+            } else if (depth == 0) {
+                break;
+            }
+            type.append(token);
+            next++;
+        }
+        return DriverInternals.parseType(type.toString());
+    }
+
+    private boolean acceptIfNotExists() {
+        if (acceptKeyword("IF")) {
+            expectKeyword("NOT");
+            expectKeyword("EXISTS");
+            return true;
+        }
+        return false;
+    }
+
+    private String identifier() {
+        String token = nextToken();
+        if (token.startsWith("\"")) {
+            return token.substring(1, token.length() - 1).replace("\"\"", "\"");
+        }
+        return token.toLowerCase(Locale.ROOT);
+    }
+
+    private static String unquote(String token) {
+        return token.startsWith("'") ? token.substring(1, token.length() - 1).replace("''", "'") : token;
+    }
+
+    private String nextToken() {
+        if (next >= tokens.size()) {
+            throw new IllegalArgumentException("Unexpected end of " + String.join(" ", tokens));
+        }
+        return tokens.get(next++);
+    }
+
+    private boolean acceptKeyword(String keyword) {
+        if (next < tokens.size() && tokens.get(next).equalsIgnoreCase(keyword)) {
+            next++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expectKeyword(String keyword) {
+        if (!acceptKeyword(keyword)) {
+            throw new IllegalArgumentException("Expected " + keyword + " in " + String.join(" ", tokens));
+        }
+    }
+
+    private boolean acceptSymbol(String symbol) {
+        if (next < tokens.size() && tokens.get(next).equals(symbol)) {
+            next++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expectSymbol(String symbol) {
+        if (!acceptSymbol(symbol)) {
+            throw new IllegalArgumentException("Expected " + symbol + " in " + String.join(" ", tokens));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package benchmarks.standin.cql;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keyspaces and tables of the stand-in, the system tables the driver reads included: a table created here is
+ * described in system_schema, so the driver builds its metadata (and the application its token ranges) from it
+ */
+final class Store {
+
+    private final ConcurrentHashMap<String, Map<String, String>> keyspaces = new ConcurrentHashMap<>();
+    // by keyspace.table
+    private final ConcurrentHashMap<String, TableData> tables = new ConcurrentHashMap<>();
+    private final SystemTables systemTables;
+
+    Store(InetSocketAddress address) {
+        this.systemTables = new SystemTables(this, address);
+    }
+
+    /**
+     * @param name
+     * @param replication replication options, e.g. class and replication_factor
+     * @param ifNotExists
+     */
+    void createKeyspace(String name, Map<String, String> replication, boolean ifNotExists) {
+        if (keyspaces.putIfAbsent(name, replication) != null) {
+            if (ifNotExists) {
+                return;
+            }
+            throw new IllegalArgumentException("Keyspace " + name + " already exists");
+        }
+        systemTables.describeKeyspace(name, replication);
+    }
+
+    /**
+     * @param schema
+     * @param ifNotExists
+     */
+    void createTable(TableSchema schema, boolean ifNotExists) {
+        if (!keyspaces.containsKey(schema.getKeyspace())) {
+            throw new IllegalArgumentException("Keyspace " + schema.getKeyspace() + " doesn't exist");
+        }
+        if (tables.putIfAbsent(key(schema.getKeyspace(), schema.getName()), new TableData(schema)) != null) {
+            if (ifNotExists) {
+                return;
+            }
+            throw new IllegalArgumentException("Table " + schema.getKeyspace() + "." + schema.getName() + " already exists");
+        }
+        systemTables.describeTable(schema);
+    }
+
+    /**
+     * Declare a system table, not described in system_schema
+     * @param schema
+     */
+    void createSystemTable(TableSchema schema) {
+        tables.put(key(schema.getKeyspace(), schema.getName()), new TableData(schema));
+    }
+
+    boolean hasKeyspace(String name) {
+        return keyspaces.containsKey(name) || SystemTables.isSystemKeyspace(name);
+    }
+
+    /**
+     * @param keyspace
+     * @param name
+     * @return null if there is no such table
+     */
+    TableData table(String keyspace, String name) {
+        return tables.get(key(keyspace, name));
+    }
+
+    private static String key(String keyspace, String table) {
+        return keyspace + "." + table;
+    }
+}
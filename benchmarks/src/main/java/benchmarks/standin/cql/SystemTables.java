@@ -0,0 +1,182 @@
+package benchmarks.standin.cql;
+
+import com.datastax.driver.core.DataType;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * System tables of a single node Cassandra 3.11 read by the driver: system.local and system.peers (empty) to discover
+ * the cluster and its tokens, system_schema.* to build the schema metadata
+ */
+final class SystemTables {
+
+    static final String RELEASE_VERSION = "3.11.4";
+    static final String CQL_VERSION = "3.4.4";
+    // the schema doesn't change after the start, so its version neither
+    private static final UUID SCHEMA_VERSION = UUID.nameUUIDFromBytes("stand-in schema".getBytes(StandardCharsets.UTF_8));
+    // tokens of the node, evenly spread so that a token range scan has a few ranges to work on
+    private static final int NUM_TOKENS = 16;
+
+    private static final String[] TABLES = {
+            "CREATE TABLE system.local (key text PRIMARY KEY, bootstrapped text, broadcast_address inet, cluster_name text, " +
+                    "cql_version text, data_center text, host_id uuid, listen_address inet, native_protocol_version text, " +
+                    "partitioner text, rack text, release_version text, rpc_address inet, schema_version uuid, " +
+                    "thrift_version text, tokens set<text>)",
+            "CREATE TABLE system.peers (peer inet PRIMARY KEY, data_center text, host_id uuid, preferred_ip inet, rack text, " +
+                    "release_version text, rpc_address inet, schema_version uuid, tokens set<text>)",
+            "CREATE TABLE system_schema.keyspaces (keyspace_name text PRIMARY KEY, durable_writes boolean, " +
+                    "replication frozen<map<text, text>>)",
+            "CREATE TABLE system_schema.tables (keyspace_name text, table_name text, bloom_filter_fp_chance double, " +
+                    "caching frozen<map<text, text>>, cdc boolean, comment text, compaction frozen<map<text, text>>, " +
+                    "compression frozen<map<text, text>>, crc_check_chance double, dclocal_read_repair_chance double, " +
+                    "default_time_to_live int, extensions frozen<map<text, blob>>, flags frozen<set<text>>, " +
+                    "gc_grace_seconds int, id uuid, max_index_interval int, memtable_flush_period_in_ms int, " +
+                    "min_index_interval int, read_repair_chance double, speculative_retry text, " +
+                    "PRIMARY KEY (keyspace_name, table_name))",
+            "CREATE TABLE system_schema.columns (keyspace_name text, table_name text, column_name text, " +
+                    "clustering_order text, column_name_bytes blob, kind text, position int, type text, " +
+                    "PRIMARY KEY (keyspace_name, table_name, column_name))",
+            "CREATE TABLE system_schema.types (keyspace_name text, type_name text, field_names frozen<list<text>>, " +
+                    "field_types frozen<list<text>>, PRIMARY KEY (keyspace_name, type_name))",
+            "CREATE TABLE system_schema.functions (keyspace_name text, function_name text, argument_types frozen<list<text>>, " +
+                    "argument_names frozen<list<text>>, body text, called_on_null_input boolean, language text, " +
+                    "return_type text, PRIMARY KEY (keyspace_name, function_name, argument_types))",
+            "CREATE TABLE system_schema.aggregates (keyspace_name text, aggregate_name text, argument_types frozen<list<text>>, " +
+                    "final_func text, initcond text, return_type text, state_func text, state_type text, " +
+                    "PRIMARY KEY (keyspace_name, aggregate_name, argument_types))",
+            "CREATE TABLE system_schema.indexes (keyspace_name text, table_name text, index_name text, kind text, " +
+                    "options frozen<map<text, text>>, PRIMARY KEY (keyspace_name, table_name, index_name))",
+            "CREATE TABLE system_schema.views (keyspace_name text, view_name text, base_table_id uuid, " +
+                    "base_table_name text, include_all_columns boolean, where_clause text, " +
+                    "PRIMARY KEY (keyspace_name, view_name))",
+            "CREATE TABLE system_schema.triggers (keyspace_name text, table_name text, trigger_name text, " +
+                    "options frozen<map<text, text>>, PRIMARY KEY (keyspace_name, table_name, trigger_name))"
+    };
+
+    private final Store store;
+
+    SystemTables(Store store, InetSocketAddress address) {
+        this.store = store;
+        for (String table : TABLES) {
+            store.createSystemTable(SchemaLoader.parseTable(table));
+        }
+        Set<String> tokens = new LinkedHashSet<>();
+        long step = -(Long.MIN_VALUE / NUM_TOKENS) * 2;
+        for (int i = 0; i < NUM_TOKENS; i++) {
+            tokens.add(Long.toString(Long.MIN_VALUE + step * i + step / 2));
+        }
+        Map<String, Object> local = new HashMap<>();
+        local.put("key", "local");
+        local.put("bootstrapped", "COMPLETED");
+        local.put("broadcast_address", address.getAddress());
+        local.put("cluster_name", "Stand-in Cluster");
+        local.put("cql_version", CQL_VERSION);
+        local.put("data_center", "datacenter1");
+        local.put("host_id", UUID.nameUUIDFromBytes(address.toString().getBytes(StandardCharsets.UTF_8)));
+        local.put("listen_address", address.getAddress());
+        local.put("native_protocol_version", "4");
+        local.put("partitioner", "org.apache.cassandra.dht.Murmur3Partitioner");
+        local.put("rack", "rack1");
+        local.put("release_version", RELEASE_VERSION);
+        local.put("rpc_address", address.getAddress());
+        local.put("schema_version", SCHEMA_VERSION);
+        local.put("thrift_version", "20.1.0");
+        local.put("tokens", tokens);
+        insert("system", "local", local);
+    }
+
+    static boolean isSystemKeyspace(String keyspace) {
+        return keyspace.equals("system") || keyspace.equals("system_schema");
+    }
+
+    void describeKeyspace(String name, Map<String, String> replication) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("keyspace_name", name);
+        row.put("durable_writes", true);
+        row.put("replication", replication);
+        insert("system_schema", "keyspaces", row);
+    }
+
+    /**
+     * Describe a table with the default options of Cassandra 3.11
+     * @param schema
+     */
+    void describeTable(TableSchema schema) {
+        Map<String, Object> table = new HashMap<>();
+        table.put("keyspace_name", schema.getKeyspace());
+        table.put("table_name", schema.getName());
+        table.put("bloom_filter_fp_chance", 0.01);
+        table.put("caching", options("keys", "ALL", "rows_per_partition", "NONE"));
+        table.put("cdc", false);
+        table.put("comment", "");
+        table.put("compaction", options("class", "org.apache.cassandra.db.compaction.SizeTieredCompactionStrategy",
+                "max_threshold", "32", "min_threshold", "4"));
+        table.put("compression", options("chunk_length_in_kb", "64", "class", "org.apache.cassandra.io.compress.LZ4Compressor"));
+        table.put("crc_check_chance", 1.0);
+        table.put("dclocal_read_repair_chance", 0.1);
+        table.put("default_time_to_live", 0);
+        table.put("extensions", Collections.<String, ByteBuffer>emptyMap());
+        table.put("flags", new LinkedHashSet<>(Arrays.asList("compound")));
+        table.put("gc_grace_seconds", 864000);
+        table.put("id", schema.getId());
+        table.put("max_index_interval", 2048);
+        table.put("memtable_flush_period_in_ms", 0);
+        table.put("min_index_interval", 128);
+        table.put("read_repair_chance", 0.0);
+        table.put("speculative_retry", "99PERCENTILE");
+        insert("system_schema", "tables", table);
+
+        int clusteringStart = schema.getPartitionKeySize();
+        for (int i = 0; i < schema.getColumns().size(); i++) {
+            String name = schema.getColumns().get(i);
+            boolean clustering = i >= clusteringStart && i < clusteringStart + schema.getClusteringSize();
+            Map<String, Object> column = new HashMap<>();
+            column.put("keyspace_name", schema.getKeyspace());
+            column.put("table_name", schema.getName());
+            column.put("column_name", name);
+            column.put("clustering_order", clustering ? (schema.isDescending(i - clusteringStart) ? "desc" : "asc") : "none");
+            column.put("column_name_bytes", ByteBuffer.wrap(name.getBytes(StandardCharsets.UTF_8)));
+            column.put("kind", schema.kindOf(i));
+            column.put("position", schema.positionOf(i));
+            column.put("type", schema.getType(i).toString());
+            insert("system_schema", "columns", column);
+        }
+    }
+
+    private static Map<String, String> options(String... keysAndValues) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            options.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return options;
+    }
+
+    /**
+     * Write a row given as Java values by column name
+     * @param keyspace
+     * @param name
+     * @param values
+     */
+    private void insert(String keyspace, String name, Map<String, Object> values) {
+        TableData table = store.table(keyspace, name);
+        TableSchema schema = table.getSchema();
+        ByteBuffer[] row = new ByteBuffer[schema.getColumns().size()];
+        for (int i = 0; i < row.length; i++) {
+            DataType type = schema.getType(i);
+            row[i] = Values.serialize(type, values.get(schema.getColumns().get(i)));
+        }
+        ByteBuffer[] partitionKey = Arrays.copyOfRange(row, 0, schema.getPartitionKeySize());
+        ByteBuffer[] clustering = Arrays.copyOfRange(row, schema.getPartitionKeySize(), schema.getPartitionKeySize() + schema.getClusteringSize());
+        table.write(table.partitionKey(partitionKey), partition -> partition.rows.put(clustering, row));
+    }
+}
@@ -0,0 +1,143 @@
+package benchmarks.standin.cql;
+
+import com.datastax.driver.core.DriverInternals;
+
+import java.nio.ByteBuffer;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+
+/**
+ * Rows of a table of the stand-in, in memory: partitions in token order (as a Murmur3Partitioner node scans them),
+ * rows of a partition in clustering order. A row holds the values of all the columns of the table, null if unset.
+ * Reads don't lock, writes to a partition are serialized (so a lightweight transaction is atomic)
+ */
+final class TableData {
+
+    private final TableSchema schema;
+    private final ConcurrentSkipListMap<PartitionKey, Partition> partitions = new ConcurrentSkipListMap<>();
+
+    TableData(TableSchema schema) {
+        this.schema = schema;
+    }
+
+    TableSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Key of the partition of the given partition key values
+     * @param values
+     * @return
+     */
+    PartitionKey partitionKey(ByteBuffer[] values) {
+        return new PartitionKey(values);
+    }
+
+    /**
+     * @param key
+     * @return null if the partition has no rows
+     */
+    Partition get(PartitionKey key) {
+        return partitions.get(key);
+    }
+
+    /**
+     * Partitions from the given one (included) in token order
+     * @param from null to start at the beginning of the ring
+     * @return
+     */
+    NavigableMap<PartitionKey, Partition> from(PartitionKey from) {
+        return from == null ? partitions : partitions.tailMap(from, true);
+    }
+
+    /**
+     * Partitions from the given token (included) in token order
+     * @param token
+     * @return
+     */
+    NavigableMap<PartitionKey, Partition> fromToken(long token) {
+        return partitions.tailMap(new PartitionKey(token), true);
+    }
+
+    /**
+     * Apply a write to a partition, created if needed and dropped if the write leaves it without rows
+     * @param key
+     * @param write called while holding the lock of the partition
+     * @param <T>
+     * @return result of the write
+     */
+    <T> T write(PartitionKey key, Function<Partition, T> write) {
+        while (true) {
+            Partition partition = partitions.computeIfAbsent(key, k -> new Partition(k, schema));
+            synchronized (partition) {
+                if (partition.removed) {
+                    // dropped by a concurrent write in the meantime
+                    continue;
+                }
+                T result = write.apply(partition);
+                if (partition.rows.isEmpty()) {
+                    partition.removed = true;
+                    partitions.remove(key, partition);
+                }
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Partition key ordered by token, then by the bytes of the key as the token doesn't tell all keys apart
+     */
+    static final class PartitionKey implements Comparable<PartitionKey> {
+        final ByteBuffer[] values;
+        final long token;
+        private final ByteBuffer routingKey;
+
+        private PartitionKey(ByteBuffer[] values) {
+            this.values = values;
+            this.routingKey = TableSchema.routingKey(values);
+            this.token = DriverInternals.murmur3Token(routingKey.duplicate());
+        }
+
+        /**
+         * Key before all the keys of the token
+         * @param token
+         */
+        private PartitionKey(long token) {
+            this.values = new ByteBuffer[0];
+            this.routingKey = ByteBuffer.allocate(0);
+            this.token = token;
+        }
+
+        @Override
+        public int compareTo(PartitionKey other) {
+            int cmp = Long.compare(token, other.token);
+            return cmp != 0 ? cmp : Values.compareUnsigned(routingKey, other.routingKey);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof PartitionKey && routingKey.equals(((PartitionKey) other).routingKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return routingKey.hashCode();
+        }
+    }
+
+    /**
+     * Rows of a partition by clustering values. Rows are never modified in place, a write replaces them
+     */
+    static final class Partition {
+        final PartitionKey key;
+        final ConcurrentSkipListMap<ByteBuffer[], ByteBuffer[]> rows;
+        // guarded by this
+        private boolean removed = false;
+
+        private Partition(PartitionKey key, TableSchema schema) {
+            this.key = key;
+            this.rows = new ConcurrentSkipListMap<>(schema.clusteringOrder());
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package benchmarks.standin.cql;
+
+import com.datastax.driver.core.DataType;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Columns and primary key of a table of the stand-in. Columns are in the order of "SELECT *":
+ * partition key, clustering columns, then the other columns by name
+ */
+final class TableSchema {
+
+    private final String keyspace;
+    private final String name;
+    private final UUID id;
+    private final List<String> columns;
+    private final List<DataType> types;
+    private final int partitionKeySize;
+    private final int clusteringSize;
+    // per clustering column, whether it is ordered descending
+    private final boolean[] descending;
+
+    TableSchema(String keyspace, String name, Map<String, DataType> columnTypes, List<String> partitionKey,
+                List<String> clustering, List<Boolean> clusteringDescending) {
+        this.keyspace = keyspace;
+        this.name = name;
+        this.id = UUID.nameUUIDFromBytes((keyspace + "." + name).getBytes(StandardCharsets.UTF_8));
+        this.columns = new ArrayList<>(partitionKey);
+        this.columns.addAll(clustering);
+        List<String> regular = new ArrayList<>();
+        for (String column : new TreeMap<>(columnTypes).keySet()) {
+            if (!partitionKey.contains(column) && !clustering.contains(column)) {
+                regular.add(column);
+            }
+        }
+        this.columns.addAll(regular);
+        this.types = new ArrayList<>(columns.size());
+        for (String column : columns) {
+            DataType type = columnTypes.get(column);
+            if (type == null) {
+                throw new IllegalArgumentException("Primary key column " + column + " of " + keyspace + "." + name + " is not declared");
+            }
+            types.add(type);
+        }
+        this.partitionKeySize = partitionKey.size();
+        this.clusteringSize = clustering.size();
+        this.descending = new boolean[clusteringSize];
+        for (int i = 0; i < clusteringSize; i++) {
+            descending[i] = clusteringDescending.get(i);
+        }
+    }
+
+    String getKeyspace() {
+        return keyspace;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    UUID getId() {
+        return id;
+    }
+
+    List<String> getColumns() {
+        return columns;
+    }
+
+    DataType getType(int column) {
+        return types.get(column);
+    }
+
+    /**
+     * Index of a column
+     * @param column case insensitive unless quoted by the caller
+     * @return -1 if the table has no such column
+     */
+    int indexOf(String column) {
+        return columns.indexOf(column);
+    }
+
+    int getPartitionKeySize() {
+        return partitionKeySize;
+    }
+
+    int getClusteringSize() {
+        return clusteringSize;
+    }
+
+    boolean isDescending(int clusteringColumn) {
+        return descending[clusteringColumn];
+    }
+
+    String kindOf(int column) {
+        return column < partitionKeySize ? "partition_key" : column < partitionKeySize + clusteringSize ? "clustering" : "regular";
+    }
+
+    /**
+     * Position of a column in its kind of columns, -1 for regular columns
+     * @param column
+     * @return
+     */
+    int positionOf(int column) {
+        return column < partitionKeySize ? column : column < partitionKeySize + clusteringSize ? column - partitionKeySize : -1;
+    }
+
+    /**
+     * Order of the rows of a partition, by the clustering columns with their declared order
+     * @return
+     */
+    Comparator<ByteBuffer[]> clusteringOrder() {
+        return (a, b) -> {
+            for (int i = 0; i < clusteringSize; i++) {
+                int cmp = Values.compare(types.get(partitionKeySize + i), a[i], b[i]);
+                if (cmp != 0) {
+                    return descending[i] ? -cmp : cmp;
+                }
+            }
+            return 0;
+        };
+    }
+
+    /**
+     * Routing key of a partition as the driver computes it: the value of a single column partition key,
+     * else each value prefixed by its length and followed by a 0 byte
+     * @param partitionKey
+     * @return
+     */
+    static ByteBuffer routingKey(ByteBuffer[] partitionKey) {
+        if (partitionKey.length == 1) {
+            return partitionKey[0].duplicate();
+        }
+        int size = 0;
+        for (ByteBuffer component : partitionKey) {
+            size += 2 + component.remaining() + 1;
+        }
+        ByteBuffer composite = ByteBuffer.allocate(size);
+        for (ByteBuffer component : partitionKey) {
+            composite.putShort((short) component.remaining());
+            composite.put(component.duplicate());
+            composite.put((byte) 0);
+        }
+        composite.flip();
+        return composite;
+    }
+}
@@ -0,0 +1,111 @@
+package benchmarks.standin.cql;
+
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.TypeCodec;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+/**
+ * Serialized values: ordering by type (the order of clustering columns and of range restrictions) and conversions
+ * to and from Java values with the codecs of the driver
+ */
+final class Values {
+
+    static final ProtocolVersion PROTOCOL_VERSION = ProtocolVersion.V4;
+
+    private Values() {
+    }
+
+    /**
+     * Compare two values of a type, a null (missing) value comes first
+     * @param type
+     * @param a
+     * @param b
+     * @return
+     */
+    static int compare(DataType type, ByteBuffer a, ByteBuffer b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        switch (type.getName()) {
+            case INT:
+            case BIGINT:
+            case COUNTER:
+            case TIMESTAMP:
+            case TIME:
+            case SMALLINT:
+            case TINYINT:
+                return compareSigned(a, b);
+            case DOUBLE:
+                return Double.compare(a.getDouble(a.position()), b.getDouble(b.position()));
+            case FLOAT:
+                return Float.compare(a.getFloat(a.position()), b.getFloat(b.position()));
+            case VARINT:
+                return ((BigInteger) deserialize(type, a)).compareTo((BigInteger) deserialize(type, b));
+            case DECIMAL:
+                return ((BigDecimal) deserialize(type, a)).compareTo((BigDecimal) deserialize(type, b));
+            default:
+                // text (utf-8 byte order is the code point order), date (unsigned days), blob, uuid...
+                return compareUnsigned(a, b);
+        }
+    }
+
+    private static int compareSigned(ByteBuffer a, ByteBuffer b) {
+        if (a.remaining() != b.remaining()) {
+            return Integer.compare(a.remaining(), b.remaining());
+        }
+        if (a.remaining() == 0) {
+            return 0;
+        }
+        int first = Byte.compare(a.get(a.position()), b.get(b.position()));
+        if (first != 0) {
+            return first;
+        }
+        ByteBuffer restA = a.duplicate();
+        ByteBuffer restB = b.duplicate();
+        restA.position(restA.position() + 1);
+        restB.position(restB.position() + 1);
+        return compareUnsigned(restA, restB);
+    }
+
+    static int compareUnsigned(ByteBuffer a, ByteBuffer b) {
+        int length = Math.min(a.remaining(), b.remaining());
+        for (int i = 0; i < length; i++) {
+            int cmp = Integer.compare(a.get(a.position() + i) & 0xFF, b.get(b.position() + i) & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(a.remaining(), b.remaining());
+    }
+
+    static boolean equal(ByteBuffer a, ByteBuffer b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    static Object deserialize(DataType type, ByteBuffer value) {
+        return codec(type).deserialize(value == null ? null : value.duplicate(), PROTOCOL_VERSION);
+    }
+
+    static ByteBuffer serialize(DataType type, Object value) {
+        return value == null ? null : codec(type).serialize(value, PROTOCOL_VERSION);
+    }
+
+    /**
+     * Serialize a CQL literal, e.g. 'local' for text or 42 for int
+     * @param type
+     * @param literal
+     * @return
+     */
+    static ByteBuffer parse(DataType type, String literal) {
+        return serialize(type, codec(type).parse(literal));
+    }
+
+    private static TypeCodec<Object> codec(DataType type) {
+        return CodecRegistry.DEFAULT_INSTANCE.codecFor(type);
+    }
+}
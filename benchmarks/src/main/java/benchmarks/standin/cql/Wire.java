@@ -0,0 +1,224 @@
+package benchmarks.standin.cql;
+
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.DriverInternals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encoding of the native protocol v4: frame header, opcodes and the [string], [bytes], [option]... notations of the spec
+ */
+final class Wire {
+
+    static final int VERSION = 4;
+    static final int HEADER_LENGTH = 9;
+    // bit of the version byte set on responses
+    static final int RESPONSE = 0x80;
+    // largest frame accepted, as the server default native_transport_max_frame_size_in_mb
+    static final int MAX_FRAME_LENGTH = 256 * 1024 * 1024;
+
+    static final int ERROR = 0x00;
+    static final int STARTUP = 0x01;
+    static final int READY = 0x02;
+    static final int OPTIONS = 0x05;
+    static final int SUPPORTED = 0x06;
+    static final int QUERY = 0x07;
+    static final int RESULT = 0x08;
+    static final int PREPARE = 0x09;
+    static final int EXECUTE = 0x0A;
+    static final int REGISTER = 0x0B;
+    static final int BATCH = 0x0D;
+
+    // flags of the query parameters
+    static final int VALUES = 0x01;
+    static final int PAGE_SIZE = 0x04;
+    static final int WITH_PAGING_STATE = 0x08;
+    static final int WITH_SERIAL_CONSISTENCY = 0x10;
+    static final int WITH_DEFAULT_TIMESTAMP = 0x20;
+    static final int WITH_NAMES_FOR_VALUES = 0x40;
+
+    // error codes
+    static final int SERVER_ERROR = 0x0000;
+    static final int PROTOCOL_ERROR = 0x000A;
+    static final int OVERLOADED = 0x1001;
+    static final int SYNTAX_ERROR = 0x2000;
+    static final int INVALID = 0x2200;
+    static final int UNPREPARED = 0x2500;
+
+    private Wire() {
+    }
+
+    static String readString(ByteBuffer in) {
+        int length = in.getShort() & 0xFFFF;
+        return readUtf8(in, length);
+    }
+
+    static String readLongString(ByteBuffer in) {
+        return readUtf8(in, in.getInt());
+    }
+
+    private static String readUtf8(ByteBuffer in, int length) {
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static byte[] readShortBytes(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Read a [bytes] (or a [value] of the query parameters)
+     * @param in
+     * @return null for a null (or unset) value
+     */
+    static ByteBuffer readBytes(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        ByteBuffer value = in.slice();
+        value.limit(length);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    static Map<String, String> readStringMap(ByteBuffer in) {
+        int size = in.getShort() & 0xFFFF;
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            map.put(readString(in), readString(in));
+        }
+        return map;
+    }
+
+    static List<ByteBuffer> readValues(ByteBuffer in) {
+        int size = in.getShort() & 0xFFFF;
+        List<ByteBuffer> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(readBytes(in));
+        }
+        return values;
+    }
+
+    /**
+     * Body of a frame, written once and then framed
+     */
+    static final class Writer {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+
+        Writer writeByte(int value) {
+            out.write(value);
+            return this;
+        }
+
+        Writer writeShort(int value) {
+            out.write(value >>> 8);
+            out.write(value);
+            return this;
+        }
+
+        Writer writeInt(int value) {
+            out.write(value >>> 24);
+            out.write(value >>> 16);
+            out.write(value >>> 8);
+            out.write(value);
+            return this;
+        }
+
+        Writer writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeShort(bytes.length);
+            out.write(bytes, 0, bytes.length);
+            return this;
+        }
+
+        Writer writeShortBytes(byte[] bytes) {
+            writeShort(bytes.length);
+            out.write(bytes, 0, bytes.length);
+            return this;
+        }
+
+        /**
+         * Write a [bytes]
+         * @param value null for a null value
+         * @return
+         */
+        Writer writeBytes(ByteBuffer value) {
+            if (value == null) {
+                return writeInt(-1);
+            }
+            writeInt(value.remaining());
+            if (value.hasArray()) {
+                out.write(value.array(), value.arrayOffset() + value.position(), value.remaining());
+            } else {
+                byte[] bytes = new byte[value.remaining()];
+                value.duplicate().get(bytes);
+                out.write(bytes, 0, bytes.length);
+            }
+            return this;
+        }
+
+        Writer writeStringMultimap(Map<String, List<String>> map) {
+            writeShort(map.size());
+            for (Map.Entry<String, List<String>> entry : map.entrySet()) {
+                writeString(entry.getKey());
+                writeShort(entry.getValue().size());
+                for (String value : entry.getValue()) {
+                    writeString(value);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Write the [option] of a type
+         * @param type
+         * @return
+         */
+        Writer writeType(DataType type) {
+            switch (type.getName()) {
+                case CUSTOM:
+                    return writeShort(0).writeString(((DataType.CustomType) type).getCustomTypeClassName());
+                case LIST:
+                case SET:
+                    writeShort(DriverInternals.protocolId(type.getName()));
+                    return writeType(type.getTypeArguments().get(0));
+                case MAP:
+                    writeShort(DriverInternals.protocolId(type.getName()));
+                    writeType(type.getTypeArguments().get(0));
+                    return writeType(type.getTypeArguments().get(1));
+                case UDT:
+                case TUPLE:
+                    throw new IllegalArgumentException("The stand-in has no support for " + type);
+                default:
+                    return writeShort(DriverInternals.protocolId(type.getName()));
+            }
+        }
+
+        byte[] toBytes() {
+            return out.toByteArray();
+        }
+
+        /**
+         * Frame the body written so far
+         * @param stream stream id of the request answered
+         * @param opcode
+         * @return
+         */
+        byte[] toFrame(int stream, int opcode) {
+            byte[] body = out.toByteArray();
+            ByteBuffer frame = ByteBuffer.allocate(HEADER_LENGTH + body.length);
+            frame.put((byte) (RESPONSE | VERSION)).put((byte) 0).putShort((short) stream).put((byte) opcode).putInt(body.length).put(body);
+            return frame.array();
+        }
+    }
+}
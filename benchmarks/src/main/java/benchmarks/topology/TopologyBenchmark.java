@@ -0,0 +1,284 @@
+package benchmarks.topology;
+
+import benchmarks.standin.MultiNodeSession;
+import db.beans.UserActivityBean;
+import db.config.CassandraConfig;
+import db.config.CassandraConnector;
+import db.config.StandInConnections;
+import db.daos.CqlRequest;
+import db.daos.CqlRequestFactory;
+import db.daos.Deadline;
+import db.daos.StatementRegistry;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import utils.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Throughput and latency of the application against a stand-in cluster (MultiNodeSession) for each routing:
+ * single-node (the WhiteListPolicy used before the configurable topology), round-robin and token-aware (the policy
+ * used now). For each routing, requests are executed at increasing rates by a pool of caller threads, and the
+ * goodput, the latency from the time requests were due and the share of the requests coordinated by the busiest
+ * node are reported
+ */
+public final class TopologyBenchmark {
+
+    private static final String TABLE = "user_activity";
+    private static final String[] FIELDS = {"pid", "uid", "day", "moneySpent"};
+    private static final int KEYS = 10000;
+    private static final String SELECT = CqlRequestFactory.getSelectWhereString(TABLE, FIELDS, new String[]{"pid", "uid"}, null,
+            false, false, false, false, false);
+    private static final String CSV_HEADER = "routing,nodes,replication_factor,rate,requests,ok,failed,goodput,p50_ms,p99_ms,max_ms,"
+            + "busiest_node_share,forwarded_share";
+
+    private TopologyBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        TopologyBenchmarkOptions options;
+        try {
+            options = TopologyBenchmarkOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(TopologyBenchmarkOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+        System.out.println("Stand-in cluster: " + options.nodes + " nodes, replication factor " + options.replicationFactor
+                + ", " + options.slots + " slots per node, latency " + options.latencySpec + ", forward " + options.forwardMicros + "us");
+        List<StepResult> results = new ArrayList<>();
+        for (MultiNodeSession.Routing routing : options.routings) {
+            results.addAll(run(routing, options));
+        }
+        writeCsv(results, options.output);
+        System.out.println("Report written to " + options.output.getAbsolutePath());
+        System.exit(0);
+    }
+
+    /**
+     * Warm up at the first rate, then run a step per rate
+     * @param routing
+     * @param options
+     * @return
+     * @throws InterruptedException
+     */
+    private static List<StepResult> run(MultiNodeSession.Routing routing, TopologyBenchmarkOptions options) throws InterruptedException {
+        MultiNodeSession.Builder builder = MultiNodeSession.builder(routing, options.nodes)
+                .replicationFactor(options.replicationFactor)
+                .slotsPerNode(options.slots)
+                .forwardMicros(options.forwardMicros);
+        builder.latency(options.latency);
+        builder.rowsPerRead(10);
+        MultiNodeSession session = builder.build();
+        StandInConnections.install(session, CassandraConfig.of(new Properties()));
+        // statements prepared by the previous routing belong to its session
+        StatementRegistry.invalidateAll();
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService callers = Executors.newFixedThreadPool(options.threads, runnable -> {
+            Thread thread = new Thread(runnable, "topology-caller-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<StepResult> results = new ArrayList<>();
+        try {
+            if (options.warmupSeconds > 0) {
+                // also lets the shared concurrency limits recover from the previous routing
+                new Step(options.rates.get(0)).send(callers, options, options.warmupSeconds);
+            }
+            for (double rate : options.rates) {
+                session.resetCounters();
+                Step step = new Step(rate);
+                step.send(callers, options, options.durationSeconds);
+                StepResult result = new StepResult(routing, options, rate, step, session);
+                System.out.println(result);
+                results.add(result);
+            }
+        } finally {
+            callers.shutdownNow();
+            CassandraConnector.shutdown();
+        }
+        return results;
+    }
+
+    /**
+     * Execute a request as the application does, blocking the caller thread
+     * @param options
+     * @return whether it succeeded
+     */
+    private static boolean execute(TopologyBenchmarkOptions options) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        CqlRequest request;
+        if (random.nextDouble() < options.writeRatio) {
+            request = CqlRequestFactory.getUpsertSafeRequest(TABLE, FIELDS);
+            for (int i = 0; i < options.statements; i++) {
+                UserActivityBean bean = new UserActivityBean();
+                int key = random.nextInt(KEYS);
+                bean.setPid("p" + key);
+                bean.setUid("u" + key);
+                bean.setDay(new Date(1500000000000L + random.nextInt(365) * 86400000L));
+                bean.setMoneySpent(random.nextDouble() * 100);
+                request.addStatementsAsBeans(bean, FIELDS);
+            }
+        } else {
+            request = new CqlRequest(SELECT);
+            for (int i = 0; i < options.statements; i++) {
+                int key = random.nextInt(KEYS);
+                request.addStatements("p" + key, "u" + key);
+            }
+        }
+        request.setDeadline(Deadline.after(options.deadlineMillis));
+        return request.treat() != null && !request.isFailed();
+    }
+
+    /**
+     * Requests sent at a rate for a while, and their outcome
+     */
+    private static final class Step {
+        final double rate;
+        final LongAdder requests = new LongAdder();
+        final LongAdder ok = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder withinSlo = new LongAdder();
+        // latency from the time requests were due, so the time waiting for a caller thread counts
+        final Recorder latency = new Recorder(3);
+
+        Step(double rate) {
+            this.rate = rate;
+        }
+
+        /**
+         * Send the requests, then wait for them to complete (bounded by their deadline)
+         * @param callers
+         * @param options
+         * @param seconds
+         * @throws InterruptedException
+         */
+        void send(ExecutorService callers, TopologyBenchmarkOptions options, int seconds) throws InterruptedException {
+            long sloMicros = (long) (options.sloMillis * 1000);
+            long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+            long start = System.nanoTime();
+            long end = start + TimeUnit.SECONDS.toNanos(seconds);
+            for (long due = start; due < end; due += intervalNanos) {
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                long dueNanos = due;
+                requests.increment();
+                callers.execute(() -> {
+                    boolean succeeded;
+                    try {
+                        succeeded = execute(options);
+                    } catch (RuntimeException e) {
+                        Log.e("Request failed", e);
+                        succeeded = false;
+                    }
+                    long latencyMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - dueNanos);
+                    latency.recordValue(latencyMicros);
+                    if (succeeded) {
+                        ok.increment();
+                        if (latencyMicros <= sloMicros) {
+                            withinSlo.increment();
+                        }
+                    } else {
+                        failed.increment();
+                    }
+                });
+            }
+            // requests queued for a caller thread may still take a while
+            long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+            while (ok.sum() + failed.sum() < requests.sum() && System.nanoTime() < drainDeadline) {
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    /**
+     * Outcome of a step
+     */
+    private static final class StepResult {
+        final MultiNodeSession.Routing routing;
+        final int nodes;
+        final int replicationFactor;
+        final double rate;
+        final long requests;
+        final long ok;
+        final long failed;
+        final double goodput;
+        final Histogram latencyMicros;
+        // share of the requests coordinated by the busiest node, 1/nodes if they are evenly spread
+        final double busiestNodeShare;
+        final double forwardedShare;
+
+        StepResult(MultiNodeSession.Routing routing, TopologyBenchmarkOptions options, double rate, Step step, MultiNodeSession session) {
+            this.routing = routing;
+            this.nodes = options.nodes;
+            this.replicationFactor = options.replicationFactor;
+            this.rate = rate;
+            this.requests = step.requests.sum();
+            this.ok = step.ok.sum();
+            this.failed = step.failed.sum();
+            this.goodput = step.withinSlo.sum() / (double) options.durationSeconds;
+            this.latencyMicros = step.latency.getIntervalHistogram();
+            long total = 0;
+            long busiest = 0;
+            for (long coordinated : session.getCoordinated()) {
+                total += coordinated;
+                busiest = Math.max(busiest, coordinated);
+            }
+            this.busiestNodeShare = total == 0 ? 0 : busiest / (double) total;
+            this.forwardedShare = total == 0 ? 0 : session.getForwarded() / (double) total;
+        }
+
+        double getPercentileMillis(double percentile) {
+            return latencyMicros.getTotalCount() == 0 ? 0 : latencyMicros.getValueAtPercentile(percentile) / 1000.0;
+        }
+
+        double getMaxMillis() {
+            return latencyMicros.getTotalCount() == 0 ? 0 : latencyMicros.getMaxValue() / 1000.0;
+        }
+
+        String toCsv() {
+            return String.format(Locale.ROOT, "%s,%d,%d,%.0f,%d,%d,%d,%.1f,%.3f,%.3f,%.3f,%.3f,%.3f",
+                    routing, nodes, replicationFactor, rate, requests, ok, failed, goodput, getPercentileMillis(50),
+                    getPercentileMillis(99), getMaxMillis(), busiestNodeShare, forwardedShare);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%-12s %6.0f req/s: ok %d, failed %d; goodput %.1f/s; latency p50 %.1f ms, p99 %.1f ms, max %.1f ms; "
+                            + "busiest node %.0f%%, forwarded %.0f%%",
+                    routing, rate, ok, failed, goodput, getPercentileMillis(50), getPercentileMillis(99), getMaxMillis(),
+                    busiestNodeShare * 100, forwardedShare * 100);
+        }
+    }
+
+    private static void writeCsv(List<StepResult> results, File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        try (PrintWriter out = new PrintWriter(file, StandardCharsets.UTF_8.name())) {
+            out.println(CSV_HEADER);
+            for (StepResult result : results) {
+                out.println(result.toCsv());
+            }
+        }
+    }
+}
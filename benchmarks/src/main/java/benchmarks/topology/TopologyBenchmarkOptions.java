@@ -0,0 +1,133 @@
+package benchmarks.topology;
+
+import benchmarks.standin.Latency;
+import benchmarks.standin.MultiNodeSession;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Options of the topology benchmark, given as --name=value arguments (an empty value keeps the default)
+ */
+final class TopologyBenchmarkOptions {
+
+    static final String USAGE = String.join("\n",
+            "Options (--name=value):",
+            "  --routings=single-node,round-robin,token-aware   routings compared, see MultiNodeSession",
+            "  --rates=500,1000,2000,4000   requests per second of the steps, sent whatever the response times (open model)",
+            "  --nodes=3               nodes of the stand-in cluster",
+            "  --replication-factor=3  replicas of each partition",
+            "  --slots=4               requests a node executes at the same time",
+            "  --latency=fixed:2000    time a node spends executing a request, see Latency.parse",
+            "  --forward-micros=200    time a coordinator not replica of the partition spends forwarding a request",
+            "  --duration=10           seconds per step",
+            "  --warmup=5              seconds at the first rate before the steps of a routing",
+            "  --threads=200           caller threads executing the requests, like the threads of a servlet container",
+            "  --statements=1          statements per request",
+            "  --write-ratio=0.5       share of the requests writing (upserts), the others read",
+            "  --slo=100               latency (ms) a successful request has to stay under to count in the goodput",
+            "  --deadline=1000         deadline (ms) of each request, set by the caller",
+            "  --output=topology-benchmark.csv      CSV report");
+
+    List<MultiNodeSession.Routing> routings = Arrays.asList(MultiNodeSession.Routing.values());
+    List<Double> rates = Arrays.asList(500.0, 1000.0, 2000.0, 4000.0);
+    int nodes = 3;
+    int replicationFactor = 3;
+    int slots = 4;
+    Latency latency = Latency.fixedMicros(2000);
+    String latencySpec = "fixed:2000";
+    long forwardMicros = 200;
+    int durationSeconds = 10;
+    int warmupSeconds = 5;
+    int threads = 200;
+    int statements = 1;
+    double writeRatio = 0.5;
+    double sloMillis = 100;
+    long deadlineMillis = 1000;
+    File output = new File("topology-benchmark.csv");
+
+    private TopologyBenchmarkOptions() {
+    }
+
+    /**
+     * @param args
+     * @return
+     * @throws IllegalArgumentException on an unknown option or an invalid value
+     */
+    static TopologyBenchmarkOptions parse(String[] args) {
+        TopologyBenchmarkOptions options = new TopologyBenchmarkOptions();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            String name = arg.substring(2, equals);
+            String value = arg.substring(equals + 1).trim();
+            if (!value.isEmpty()) {
+                options.set(name, value);
+            }
+        }
+        return options;
+    }
+
+    private void set(String name, String value) {
+        switch (name) {
+            case "routings":
+                routings = new ArrayList<>();
+                for (String routing : value.split(",")) {
+                    routings.add(MultiNodeSession.Routing.parse(routing));
+                }
+                break;
+            case "rates":
+                rates = new ArrayList<>();
+                for (String rate : value.split(",")) {
+                    rates.add(Double.parseDouble(rate.trim()));
+                }
+                break;
+            case "nodes":
+                nodes = Integer.parseInt(value);
+                break;
+            case "replication-factor":
+                replicationFactor = Integer.parseInt(value);
+                break;
+            case "slots":
+                slots = Integer.parseInt(value);
+                break;
+            case "latency":
+                latency = Latency.parse(value);
+                latencySpec = value;
+                break;
+            case "forward-micros":
+                forwardMicros = Long.parseLong(value);
+                break;
+            case "duration":
+                durationSeconds = Integer.parseInt(value);
+                break;
+            case "warmup":
+                warmupSeconds = Integer.parseInt(value);
+                break;
+            case "threads":
+                threads = Integer.parseInt(value);
+                break;
+            case "statements":
+                statements = Integer.parseInt(value);
+                break;
+            case "write-ratio":
+                writeRatio = Double.parseDouble(value);
+                break;
+            case "slo":
+                sloMillis = Double.parseDouble(value);
+                break;
+            case "deadline":
+                deadlineMillis = Long.parseLong(value);
+                break;
+            case "output":
+                output = new File(value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option --" + name);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.datastax.driver.core;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Access to the package-private constructors of the driver, so the stand-ins hand out the real driver objects
+ * (rows decoded by the codecs, bound statements, paging states) instead of imitations of them
+ * Only used by the benchmarks, in the package of the driver for that reason, and only valid for the driver version
+ * pinned in benchmarks/pom.xml (cassandra-driver.version)
+ */
+public final class DriverInternals {
+
+    private DriverInternals() {
+    }
+
+    /**
+     * Metadata of columns of a table
+     * @param keyspace
+     * @param table
+     * @param names
+     * @param types
+     * @return
+     */
+    public static ColumnDefinitions columnDefinitions(String keyspace, String table, List<String> names, List<DataType> types) {
+        ColumnDefinitions.Definition[] definitions = new ColumnDefinitions.Definition[names.size()];
+        for (int i = 0; i < definitions.length; i++) {
+            definitions[i] = new ColumnDefinitions.Definition(keyspace, table, names.get(i), types.get(i));
+        }
+        return new ColumnDefinitions(definitions, CodecRegistry.DEFAULT_INSTANCE);
+    }
+
+    /**
+     * A row as the driver decodes it from a response
+     * @param columns
+     * @param values serialized values, one per column
+     * @param protocolVersion
+     * @return
+     */
+    public static Row row(ColumnDefinitions columns, List<ByteBuffer> values, ProtocolVersion protocolVersion) {
+        return ArrayBackedRow.fromData(columns, null, protocolVersion, values);
+    }
+
+    /**
+     * Id of a prepared statement, its bound variables and result columns
+     * @param query
+     * @param variables
+     * @param resultColumns
+     * @param routingKeyIndexes indexes of the partition key columns in the variables, null if not all are bound
+     * @param protocolVersion
+     * @return
+     */
+    public static PreparedId preparedId(String query, ColumnDefinitions variables, ColumnDefinitions resultColumns,
+                                        int[] routingKeyIndexes, ProtocolVersion protocolVersion) {
+        MD5Digest id = MD5Digest.wrap(md5(query));
+        return new PreparedId(new PreparedId.PreparedMetadata(id, variables), new PreparedId.PreparedMetadata(id, resultColumns),
+                routingKeyIndexes, protocolVersion);
+    }
+
+    /**
+     * Execution info of a response
+     * @param statement
+     * @param pagingState raw paging state, null on the last page
+     * @param protocolVersion
+     * @return
+     */
+    public static ExecutionInfo executionInfo(Statement statement, ByteBuffer pagingState, ProtocolVersion protocolVersion) {
+        return new ExecutionInfo(0, 0, Collections.<Host>emptyList(), null, Collections.<String, ByteBuffer>emptyMap())
+                .with(null, Collections.<String>emptyList(), pagingState, statement, protocolVersion, CodecRegistry.DEFAULT_INSTANCE);
+    }
+
+    /**
+     * Raw paging state the statement resumes from
+     * @param statement
+     * @return null for the first page
+     */
+    public static ByteBuffer pagingState(Statement statement) {
+        return statement.getPagingState();
+    }
+
+    /**
+     * Parse a CQL type, e.g. "text" or "frozen<map<text, text>>" (user types are not supported)
+     * @param cqlType
+     * @return
+     */
+    public static DataType parseType(String cqlType) {
+        return DataTypeCqlNameParser.parse(cqlType, null, null, null, null, false, false);
+    }
+
+    /**
+     * Id of a type in the native protocol
+     * @param name
+     * @return
+     */
+    public static int protocolId(DataType.Name name) {
+        return name.protocolId;
+    }
+
+    /**
+     * Token of a partition key for the Murmur3Partitioner
+     * @param routingKey serialized partition key, composite if it has several columns
+     * @return
+     */
+    public static long murmur3Token(ByteBuffer routingKey) {
+        return (Long) Token.M3PToken.FACTORY.hash(routingKey).getValue();
+    }
+
+    public static CloseFuture closed() {
+        return CloseFuture.immediateFuture();
+    }
+
+    private static byte[] md5(String query) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(query.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package db.config;
+
+import com.datastax.driver.core.Session;
+
+/**
+ * Access to the package-private test hook of CassandraConnector, so the benchmarks and load tests run on an
+ * in-process stand-in session instead of a cluster
+ * Only used by the benchmarks, in the package of the connector for that reason
+ */
+public final class StandInConnections {
+
+    private StandInConnections() {
+    }
+
+    /**
+     * Use the stand-in as the shared connection, every session pool then goes to it, the connections it replaces are closed
+     * @param session
+     * @param config
+     */
+    public static void install(Session session, CassandraConfig config) {
+        CassandraConnector.initializeForTesting(session, config);
+    }
+}
@@ -0,0 +1,113 @@
+package benchmarks;
+
+import benchmarks.standin.SyntheticSession;
+import benchmarks.standin.SyntheticTable;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.DriverInternals;
+import com.datastax.driver.core.LocalDate;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.Row;
+import db.beans.BeanRowDecoder;
+import db.beans.BeanStatementBinder;
+import db.beans.DBBean;
+import db.beans.UserActivityBean;
+import db.daos.CqlRequestFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Beans bound to statements and decoded from rows, on driver objects built by the stand-in session
+ */
+public class BeanMappingTest {
+
+    private static final String TABLE = "user_activity";
+    private static final String[] FIELDS = {"pid", "uid", "day", "moneySpent"};
+
+    private SyntheticTable table;
+    private SyntheticSession session;
+    private PreparedStatement insert;
+
+    @Before
+    public void setUp() {
+        table = SyntheticTable.userActivity();
+        session = SyntheticSession.builder().table(table).build();
+        insert = session.prepare(CqlRequestFactory.getInsertString(TABLE, FIELDS));
+    }
+
+    @After
+    public void tearDown() {
+        session.close();
+    }
+
+    private static UserActivityBean bean(int i) {
+        UserActivityBean bean = new UserActivityBean();
+        bean.setPid("p" + i);
+        bean.setUid("u" + i);
+        bean.setDay(DBBean.fromCassandraDate(LocalDate.fromDaysSinceEpoch(17000 + i)));
+        bean.setMoneySpent(i * 1.5);
+        return bean;
+    }
+
+    /**
+     * Row of the values bound to the statement, as the server would return them
+     * @param statement
+     * @return
+     */
+    private Row rowOf(BoundStatement statement) {
+        List<ByteBuffer> values = new ArrayList<>();
+        for (int i = 0; i < insert.getVariables().size(); i++) {
+            values.add(statement.getBytesUnsafe(i));
+        }
+        return DriverInternals.row(insert.getVariables(), values, ProtocolVersion.V4);
+    }
+
+    @Test
+    public void boundBeansDecodeBack() {
+        BeanStatementBinder binder = BeanStatementBinder.forFields(UserActivityBean.class, FIELDS);
+        BeanRowDecoder<UserActivityBean> decoder = BeanRowDecoder.forClass(UserActivityBean.class);
+        for (int i = 0; i < 10; i++) {
+            UserActivityBean bean = bean(i);
+            BoundStatement statement = binder.bind(insert, bean);
+            assertEquals("p" + i, statement.getString(0));
+            UserActivityBean decoded = decoder.newBean(rowOf(statement));
+            assertEquals(bean.getPid(), decoded.getPid());
+            assertEquals(bean.getUid(), decoded.getUid());
+            assertEquals(bean.getDay(), decoded.getDay());
+            assertEquals(bean.getMoneySpent(), decoded.getMoneySpent(), 0);
+            assertEquals(binder.values(bean), binder.values(decoded));
+        }
+    }
+
+    @Test
+    public void nullFieldsAreBoundAsNull() {
+        UserActivityBean bean = bean(1);
+        bean.setDay(null);
+        BoundStatement statement = BeanStatementBinder.forFields(UserActivityBean.class, FIELDS).bind(insert, bean);
+        assertTrue(statement.isNull(2));
+        assertNull(BeanRowDecoder.forClass(UserActivityBean.class).newBean(rowOf(statement)).getDay());
+    }
+
+    @Test
+    public void rowsOfTheTableDecode() {
+        BeanRowDecoder<UserActivityBean> decoder = BeanRowDecoder.forClass(UserActivityBean.class);
+        List<Row> rows = table.rows(3);
+        for (int i = 0; i < rows.size(); i++) {
+            UserActivityBean bean = decoder.newBean(rows.get(i));
+            assertEquals(rows.get(i).getString("pid"), bean.getPid());
+            assertEquals(rows.get(i).getString("uid"), bean.getUid());
+            assertEquals(DBBean.fromCassandraDate(rows.get(i).getDate("day")), bean.getDay());
+            assertEquals(rows.get(i).getDouble("moneyspent"), bean.getMoneySpent(), 0);
+        }
+    }
+}
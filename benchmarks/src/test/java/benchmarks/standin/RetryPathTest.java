@@ -0,0 +1,136 @@
+package benchmarks.standin;
+
+import com.datastax.driver.core.Row;
+import db.config.CassandraConfig;
+import db.config.CassandraConnector;
+import db.config.StandInConnections;
+import db.daos.CqlRequest;
+import db.daos.CqlRequestFactory;
+import db.daos.Deadline;
+import db.daos.ExecutionProfile;
+import db.daos.StatementRegistry;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Retries of the application against a session injecting faults. Few statements of each query fail, so their shared
+ * circuit breakers stay closed
+ */
+public class RetryPathTest {
+
+    private static final String TABLE = "user_activity";
+    private static final String[] FIELDS = {"pid", "uid", "day", "moneySpent"};
+    private static final String SELECT = CqlRequestFactory.getSelectWhereString(TABLE, FIELDS, new String[]{"pid", "uid"}, null,
+            false, false, false, false, false);
+    // statements retried until they succeed, a query of their own so their failures don't count against SELECT
+    private static final String PATIENT_SELECT = CqlRequestFactory.getSelectWhereString(TABLE, new String[]{"pid", "uid", "day"},
+            new String[]{"pid", "uid"}, null, false, false, false, false, false);
+    // short timeout and few attempts, so the tests don't wait for the backoff of the default profile
+    private static final ExecutionProfile PROFILE = ExecutionProfile.builder("retry-test")
+            .timeoutMillis(200)
+            .maxAttempts(3)
+            .build();
+    // same, with enough attempts for every statement to get through
+    private static final ExecutionProfile PATIENT_PROFILE = ExecutionProfile.builder("retry-test-patient")
+            .timeoutMillis(200)
+            .maxAttempts(10)
+            .build();
+
+    private FaultInjectingSession session;
+
+    private FaultInjectingSession start(String name, String... properties) {
+        Properties scenario = new Properties();
+        // 500us per statement
+        scenario.setProperty("latency", "fixed:500");
+        for (int i = 0; i < properties.length; i += 2) {
+            scenario.setProperty(properties[i], properties[i + 1]);
+        }
+        FaultInjectingSession.Builder builder = FaultInjectingSession.builder(FaultScenario.of(name, scenario));
+        builder.table(SyntheticTable.userActivity());
+        session = builder.build();
+        StandInConnections.install(session, CassandraConfig.of(new Properties()));
+        // statements prepared by the previous test belong to its session
+        StatementRegistry.invalidateAll();
+        session.startScenario();
+        return session;
+    }
+
+    private static CqlRequest read(int statements) {
+        return read(SELECT, PROFILE, statements);
+    }
+
+    private static CqlRequest read(String query, ExecutionProfile profile, int statements) {
+        CqlRequest request = new CqlRequest(query);
+        request.setExecutionProfile(profile);
+        for (int i = 0; i < statements; i++) {
+            request.addStatements("p" + i, "u" + i);
+        }
+        return request;
+    }
+
+    @After
+    public void tearDown() {
+        CassandraConnector.shutdown();
+        StatementRegistry.invalidateAll();
+    }
+
+    @Test
+    public void healthyClusterIsNotRetried() {
+        start("baseline");
+        CqlRequest request = read(5);
+        List<Row> rows = request.treat();
+        assertNotNull(rows);
+        assertFalse(request.isFailed());
+        assertEquals(5, session.getStatements());
+        assertEquals(0, session.getResentStatements());
+        assertEquals(0, request.getExecutionStats().getRetries());
+    }
+
+    @Test
+    public void overloadedStatementsAreRetriedUntilTheySucceed() {
+        start("overloaded", "fault.overloadedRatio", "0.3");
+        CqlRequest request = read(PATIENT_SELECT, PATIENT_PROFILE, 5);
+        List<Row> rows = request.treat();
+        assertNotNull(rows);
+        assertFalse(request.isFailed());
+        assertEquals(5, session.getStatements());
+        assertEquals(session.getOverloaded(), session.getResentStatements());
+        assertEquals(session.getOverloaded(), request.getExecutionStats().getRetries());
+    }
+
+    @Test
+    public void overloadedStatementsAreRetriedUpToMaxAttempts() {
+        start("overloaded", "fault.overloadedRatio", "1.0");
+        CqlRequest request = read(2);
+        request.treat();
+        assertTrue(request.isFailed());
+        assertEquals(2, session.getStatements());
+        assertEquals(2 * 3, session.getOverloaded());
+        assertEquals(2 * 2, session.getResentStatements());
+        assertEquals(2, request.getExecutionStats().getFailedStatements());
+    }
+
+    @Test
+    public void unansweredStatementsStopAtTheDeadline() {
+        start("timeouts", "fault.timeoutRatio", "1.0");
+        CqlRequest request = read(1);
+        request.setDeadline(Deadline.after(300));
+        long start = System.nanoTime();
+        request.treat();
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(request.isFailed());
+        assertTrue(session.getTimeouts() >= 1);
+        // the attempt after the 200ms timeout has no time left for a retry
+        assertTrue("took " + elapsedMillis + "ms", elapsedMillis < 1000);
+        assertTrue(session.getResentStatements() <= 1);
+    }
+}
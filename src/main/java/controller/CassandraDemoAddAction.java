@@ -2,7 +2,8 @@ package controller;
 
 import db.Model;
 import db.beans.UserActivityBean;
-import db.daos.UserActivityDAO;
+import db.daos.WriteBehindBuffer;
+import utils.Log;
 
 import javax.servlet.http.HttpServletRequest;
 import java.util.ArrayList;
@@ -18,9 +19,9 @@ import java.util.List;
  */
 public class CassandraDemoAddAction extends Action{
     private static final long serialVersionUID = 1L;
-    private UserActivityDAO uaDAO;
+    private WriteBehindBuffer<UserActivityBean> uaWriteBuffer;
     public CassandraDemoAddAction(Model model) {
-        uaDAO = model.getUaDAO();
+        uaWriteBuffer = model.getUaWriteBuffer();
     }
 
     @Override
@@ -58,7 +59,18 @@ public class CassandraDemoAddAction extends Action{
             uaBean.setDay(new Date());
             uaBean.setMoneySpent(Double.parseDouble(moneySpent));
 
-            uaDAO.upsert(uaBean, "pid", "uid", "day", "moneySpent");
+            if (uaWriteBuffer == null) {
+                errors.add("Not connected to Cassandra");
+                return "error.jsp";
+            }
+            // written behind, merged with the other adds of the same row in the next micro-batch
+            // fire and forget: the page is shown before the row is written, a failed write is only logged
+            // and buffered writes are lost if the server stops abruptly
+            uaWriteBuffer.upsert(uaBean).whenComplete((v, t) -> {
+                if (t != null) {
+                    Log.e("Could not add user activity of " + uid + " on " + pid, t);
+                }
+            });
             return "add.jsp";
 
         } catch (Exception e) {
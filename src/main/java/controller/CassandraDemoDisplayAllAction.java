@@ -2,6 +2,8 @@ package controller;
 
 import db.Model;
 import db.beans.UserActivityBean;
+import db.daos.ExecutionProfile;
+import db.daos.Page;
 import db.daos.UserActivityDAO;
 
 import javax.servlet.http.HttpServletRequest;
@@ -17,9 +19,12 @@ import java.util.*;
  */
 public class CassandraDemoDisplayAllAction extends Action{
     private static final long serialVersionUID = 1L;
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
     private UserActivityDAO uaDAO;
     public CassandraDemoDisplayAllAction(Model model) {
-        uaDAO = model.getUaDAO();
+        // page views: hedged LOCAL_ONE reads
+        uaDAO = (UserActivityDAO) model.getUaDAO().withProfile(ExecutionProfile.INTERACTIVE);
     }
 
     @Override
@@ -33,10 +38,17 @@ public class CassandraDemoDisplayAllAction extends Action{
         request.setAttribute("errors", errors);
 
         try {
-            List<UserActivityBean> uaBeans = uaDAO.select();
-            // sort by day
+            int pageSize = getPageSize(request.getParameter("pageSize"));
+            String cursor = request.getParameter("cursor");
+            // one page fetch per request instead of a full table scan
+            Page<UserActivityBean> page = uaDAO.selectPage(null, pageSize, cursor);
+            List<UserActivityBean> uaBeans = page.getItems();
+            // sort by day (within the page)
             Collections.sort(uaBeans, (b1, b2) -> b1.getDay().compareTo(b2.getDay()));
             request.setAttribute("beans", uaBeans);
+            request.setAttribute("pageSize", pageSize);
+            request.setAttribute("cursor", cursor);
+            request.setAttribute("nextCursor", page.getNextCursor());
             return "demo.jsp";
 
         } catch (Exception e) {
@@ -45,6 +57,19 @@ public class CassandraDemoDisplayAllAction extends Action{
         }
     }
 
+    /**
+     * Parse the requested page size, falling back to the default one
+     * @param pageSize
+     * @return
+     */
+    private int getPageSize(String pageSize) {
+        if (pageSize == null || pageSize.isEmpty()) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        int size = Integer.parseInt(pageSize);
+        return Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+    }
+
     @Override
     public String performPost(HttpServletRequest request) {
         return performGet(request);
@@ -1,6 +1,9 @@
 package controller;
 
 import java.io.IOException;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletException;
@@ -19,16 +22,42 @@ import javax.servlet.http.HttpSession;
 
 //import databean.UserBean;
 import db.Model;
+import db.config.CassandraConfig;
 
 public class Controller extends HttpServlet {
 
     private static final long serialVersionUID = 1L;
+    private static final int DEFAULT_WARM_UP_ITERATIONS = 200;
+    private Model model;
 
     public void init() throws ServletException {
-        Model model = new Model();
+        // on a warm start, statements are prepared and the paths warmed up in the background, see ready.do
+        boolean warmStart = Boolean.parseBoolean(getInitParameter("warmStart"));
+        // cassandra.* init-params override the properties file and the environment
+        Map<String, String> overrides = new HashMap<String, String>();
+        Enumeration<String> names = getInitParameterNames();
+        while (names.hasMoreElements()) {
+            String name = names.nextElement();
+            overrides.put(name, getInitParameter(name));
+        }
+        model = new Model(CassandraConfig.load(overrides), warmStart);
+        if (warmStart) {
+            String iterations = getInitParameter("warmUpIterations");
+            model.warmUpAsync(iterations == null ? DEFAULT_WARM_UP_ITERATIONS : Integer.parseInt(iterations.trim()));
+        }
         Action.add(new CassandraDemoDisplayAllAction(model));
         Action.add(new CassandraDemoAddAction(model));
         Action.add(new CassandraDemoDeleteAction(model));
+        Action.add(new ReadyAction(model));
+        Action.add(new MetricsAction());
+    }
+
+    public void destroy() {
+        // null if init() failed
+        if (model != null) {
+            // buffered writes are drained before the connection is closed
+            model.shutdown();
+        }
     }
 
     public void doPost(HttpServletRequest request, HttpServletResponse response)
@@ -64,6 +93,14 @@ public class Controller extends HttpServlet {
         if (action.equals("delete.do")) {
             return Action.perform("delete.do", request);
         }
+
+        if (action.equals("ready.do")) {
+            return Action.perform("ready.do", request);
+        }
+
+        if (action.equals("metrics.do")) {
+            return Action.perform("metrics.do", request);
+        }
         return "controller-stale-session.jsp";
     }
 
@@ -0,0 +1,23 @@
+package controller;
+
+import db.daos.CqlMetrics;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Metrics of the CQL requests and of the driver, in the Prometheus text format
+ */
+public class MetricsAction extends Action {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public String getName() {
+        return "metrics.do";
+    }
+
+    @Override
+    public String performGet(HttpServletRequest request) {
+        request.setAttribute("metrics", CqlMetrics.toPrometheusText());
+        return "metrics.jsp";
+    }
+}
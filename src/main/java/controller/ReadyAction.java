@@ -0,0 +1,34 @@
+package controller;
+
+import db.Model;
+import db.config.CassandraConnector;
+import db.daos.StatementRegistry;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Readiness check: 200 once the model is connected and warmed up, 503 before
+ */
+public class ReadyAction extends Action {
+    private static final long serialVersionUID = 1L;
+    private Model model;
+    public ReadyAction(Model model) {
+        this.model = model;
+    }
+
+    @Override
+    public String getName() {
+        return "ready.do";
+    }
+
+    @Override
+    public String performGet(HttpServletRequest request) {
+        boolean ready = model.isReady();
+        request.setAttribute("ready", ready);
+        request.setAttribute("statements", StatementRegistry.size());
+        if (ready) {
+            request.setAttribute("connections", CassandraConnector.getOpenConnectionCount());
+        }
+        return "ready.jsp";
+    }
+}
@@ -1,7 +1,24 @@
 package db;
 
+import db.beans.UserActivityBean;
+import db.config.CassandraConfig;
 import db.config.CassandraConnector;
+import db.daos.CqlMetrics;
+import db.daos.DailyRollupDAO;
+import db.daos.DailyRollupMaintainer;
+import db.daos.DailySketchDAO;
+import db.daos.DistinctUserSketcher;
+import db.daos.GenericDAO;
+import db.daos.StatementRegistry;
 import db.daos.UserActivityDAO;
+import db.daos.WriteBehindBuffer;
+
+import utils.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A model will take care of database connection and aggregate DAOs
@@ -12,14 +29,144 @@ import db.daos.UserActivityDAO;
  */
 public class Model {
 
-    private UserActivityDAO uaDAO;
+    // max time given to the buffered writes to complete on shutdown
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 10000;
+    private static final long ROLLUP_REBUILD_PERIOD_MILLIS = TimeUnit.HOURS.toMillis(24);
+    private static final long SKETCH_FLUSH_PERIOD_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private UserActivityDAO<UserActivityBean> uaDAO;
+    // null if not connected
+    private WriteBehindBuffer<UserActivityBean> uaWriteBuffer;
+    // null if the rollup table was not created
+    private DailyRollupDAO rollupDAO;
+    private DailyRollupMaintainer rollupMaintainer;
+    // null if the sketch table was not created
+    private DistinctUserSketcher userSketcher;
+    // DAOs of the tables in use, their statements are prepared by the warm-up
+    private final List<GenericDAO<?>> daos = new ArrayList<>();
+    private final boolean connected;
+    // set once the statements are prepared (and the warm-up is done on a warm start)
+    private volatile boolean ready = false;
 
     public Model() {
-        CassandraConnector.initialize();
-        uaDAO = new UserActivityDAO();
+        this(CassandraConfig.load(), false);
+    }
+
+    /**
+     * On a warm start the whole connection pool is opened now, the statements are prepared by warmUp() instead
+     * @param config
+     * @param warmStart
+     */
+    public Model(CassandraConfig config, boolean warmStart) {
+        connected = CassandraConnector.initialize(config, warmStart);
+        CqlMetrics.registerJmx();
+        uaDAO = new UserActivityDAO<>();
+        daos.add(uaDAO);
+        if (!connected) {
+            // nothing to read the schema from, the model stays not ready (ready.do answers 503)
+            return;
+        }
+        if (CassandraConnector.checkTableIfExists(CassandraConnector.getKeyspace(), DailyRollupDAO.TABLE_NAME)) {
+            // the rollup is optional, only maintained once its table exists
+            rollupDAO = new DailyRollupDAO();
+            daos.add(rollupDAO);
+            rollupMaintainer = new DailyRollupMaintainer(uaDAO, rollupDAO);
+            uaDAO.addWriteListener(rollupMaintainer);
+            rollupMaintainer.scheduleRebuild(ROLLUP_REBUILD_PERIOD_MILLIS);
+        }
+        if (CassandraConnector.checkTableIfExists(CassandraConnector.getKeyspace(), DailySketchDAO.TABLE_NAME)) {
+            DailySketchDAO sketchDAO = new DailySketchDAO();
+            daos.add(sketchDAO);
+            userSketcher = new DistinctUserSketcher(uaDAO, sketchDAO, SKETCH_FLUSH_PERIOD_MILLIS);
+            uaDAO.addWriteListener(userSketcher);
+        }
+        if (!warmStart) {
+            // prepare the statements registered by the DAOs now rather than on the first requests
+            StatementRegistry.prepareAll();
+            ready = true;
+        }
+        uaWriteBuffer = new WriteBehindBuffer<UserActivityBean>(uaDAO, 500, 20, "pid", "uid", "day", "moneySpent");
+    }
+
+    /**
+     * Prepare every CRUD statement of the DAOs, then run their decode and bind paths, so the first requests
+     * after a deploy don't pay for it. The model is ready once this is done
+     * @param iterations number of times the rows read by each DAO are decoded and bound
+     */
+    public void warmUp(int iterations) {
+        if (!connected) {
+            Log.e("ERROR: Not connected to Cassandra, warm-up skipped", null);
+            return;
+        }
+        long start = System.currentTimeMillis();
+        for (GenericDAO<?> dao : daos) {
+            dao.registerCrudStatements();
+        }
+        StatementRegistry.prepareAll();
+        int beans = 0;
+        for (GenericDAO<?> dao : daos) {
+            try {
+                beans += dao.warmUp(iterations);
+            } catch (Exception e) {
+                // the paths are compiled by the first requests instead
+                Log.e("Warm-up of a DAO failed", e);
+            }
+        }
+        ready = true;
+        Log.i("Warm-up done in " + (System.currentTimeMillis() - start) + "ms: " + StatementRegistry.size() + " statements, "
+                + beans + " beans decoded and bound, " + CassandraConnector.getOpenConnectionCount() + " connections open");
+    }
+
+    /**
+     * Run the warm-up on a background thread, so the servlet starts without waiting for it
+     * @param iterations
+     * @return completed once the warm-up is done
+     */
+    public CompletableFuture<Void> warmUpAsync(int iterations) {
+        return CompletableFuture.runAsync(() -> warmUp(iterations), runnable -> {
+            Thread thread = new Thread(runnable, "model-warm-up");
+            thread.setDaemon(true);
+            thread.start();
+        });
     }
 
-    public UserActivityDAO getUaDAO() {
+    /**
+     * Whether the model is connected and warmed up, i.e. ready to take traffic
+     * @return
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    public UserActivityDAO<UserActivityBean> getUaDAO() {
         return uaDAO;
     }
+
+    public DailyRollupDAO getRollupDAO() {
+        return rollupDAO;
+    }
+
+    /**
+     * @return null if not connected
+     */
+    public WriteBehindBuffer<UserActivityBean> getUaWriteBuffer() {
+        return uaWriteBuffer;
+    }
+
+    /**
+     * Drain the buffered writes and close the connection
+     */
+    public void shutdown() {
+        if (uaWriteBuffer != null) {
+            uaWriteBuffer.close(SHUTDOWN_TIMEOUT_MILLIS);
+        }
+        if (rollupMaintainer != null) {
+            rollupMaintainer.close(SHUTDOWN_TIMEOUT_MILLIS);
+        }
+        if (userSketcher != null) {
+            userSketcher.close(SHUTDOWN_TIMEOUT_MILLIS);
+        }
+        CqlMetrics.unregisterJmx();
+        CassandraConnector.shutdown();
+    }
 }
@@ -0,0 +1,194 @@
+package db.beans;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Row;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A bean field resolved once per bean class, so mapping rows never has to touch reflection again
+ */
+final class BeanField {
+
+    /**
+     * Java types that have a typed getter on the driver row, everything else goes through the codec registry
+     */
+    enum Kind {
+        STRING, DOUBLE, FLOAT, INT, LONG, BOOLEAN, DATE, OTHER
+    }
+
+    final String name;
+    final Class<?> type;
+    final Kind kind;
+    final boolean primitive;
+    // (DBBean, fieldType) -> void, adapted so it can be invoked exactly
+    private final MethodHandle setter;
+    // (DBBean) -> fieldType
+    private final MethodHandle getter;
+
+    private BeanField(Field field) throws IllegalAccessException {
+        field.setAccessible(true);
+        this.name = field.getName();
+        this.type = field.getType();
+        this.kind = kindOf(type);
+        this.primitive = type.isPrimitive();
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        this.setter = lookup.unreflectSetter(field).asType(MethodType.methodType(void.class, DBBean.class, type));
+        this.getter = lookup.unreflectGetter(field).asType(MethodType.methodType(type, DBBean.class));
+    }
+
+    /**
+     * Resolve the declared (non static) fields of a bean class, same fields the reflection based mapping used
+     * @param beanClass
+     * @return
+     */
+    static List<BeanField> of(Class<?> beanClass) {
+        List<BeanField> beanFields = new ArrayList<>();
+        for (Field field : beanClass.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic()) {
+                continue;
+            }
+            try {
+                beanFields.add(new BeanField(field));
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Could not access class member " + field.getName(), e);
+            }
+        }
+        return beanFields;
+    }
+
+    private static Kind kindOf(Class<?> type) {
+        if (type == String.class) return Kind.STRING;
+        if (type == double.class || type == Double.class) return Kind.DOUBLE;
+        if (type == float.class || type == Float.class) return Kind.FLOAT;
+        if (type == int.class || type == Integer.class) return Kind.INT;
+        if (type == long.class || type == Long.class) return Kind.LONG;
+        if (type == boolean.class || type == Boolean.class) return Kind.BOOLEAN;
+        if (type == Date.class) return Kind.DATE;
+        return Kind.OTHER;
+    }
+
+    /**
+     * Copy column at the given index into this field of the bean, null columns leave the field untouched
+     * @param row
+     * @param index
+     * @param bean
+     */
+    void read(Row row, int index, DBBean bean) throws Throwable {
+        if (row.isNull(index)) {
+            return;
+        }
+        switch (kind) {
+            case STRING:
+                setter.invokeExact(bean, row.getString(index));
+                break;
+            case DOUBLE:
+                if (primitive) setter.invokeExact(bean, row.getDouble(index));
+                else setter.invokeExact(bean, (Double) row.getDouble(index));
+                break;
+            case FLOAT:
+                if (primitive) setter.invokeExact(bean, row.getFloat(index));
+                else setter.invokeExact(bean, (Float) row.getFloat(index));
+                break;
+            case INT:
+                if (primitive) setter.invokeExact(bean, row.getInt(index));
+                else setter.invokeExact(bean, (Integer) row.getInt(index));
+                break;
+            case LONG:
+                if (primitive) setter.invokeExact(bean, row.getLong(index));
+                else setter.invokeExact(bean, (Long) row.getLong(index));
+                break;
+            case BOOLEAN:
+                if (primitive) setter.invokeExact(bean, row.getBool(index));
+                else setter.invokeExact(bean, (Boolean) row.getBool(index));
+                break;
+            case DATE:
+                setter.invokeExact(bean, DBBean.fromCassandraDate(row.getDate(index)));
+                break;
+            default:
+                setter.invoke(bean, row.get(index, type));
+        }
+    }
+
+    /**
+     * Bind this field of the bean to the variable at the given index, primitives are bound without boxing
+     * @param statement
+     * @param index
+     * @param bean
+     */
+    void write(BoundStatement statement, int index, DBBean bean) throws Throwable {
+        if (primitive) {
+            switch (kind) {
+                case DOUBLE:
+                    statement.setDouble(index, (double) getter.invokeExact(bean));
+                    return;
+                case FLOAT:
+                    statement.setFloat(index, (float) getter.invokeExact(bean));
+                    return;
+                case INT:
+                    statement.setInt(index, (int) getter.invokeExact(bean));
+                    return;
+                case LONG:
+                    statement.setLong(index, (long) getter.invokeExact(bean));
+                    return;
+                case BOOLEAN:
+                    statement.setBool(index, (boolean) getter.invokeExact(bean));
+                    return;
+                default:
+                    // other primitives (byte, short, char) are not mapped, fall through to the codec registry
+            }
+        }
+        Object value = getter.invoke(bean);
+        if (value == null) {
+            statement.setToNull(index);
+            return;
+        }
+        switch (kind) {
+            case STRING:
+                statement.setString(index, (String) value);
+                break;
+            case DOUBLE:
+                statement.setDouble(index, (Double) value);
+                break;
+            case FLOAT:
+                statement.setFloat(index, (Float) value);
+                break;
+            case INT:
+                statement.setInt(index, (Integer) value);
+                break;
+            case LONG:
+                statement.setLong(index, (Long) value);
+                break;
+            case BOOLEAN:
+                statement.setBool(index, (Boolean) value);
+                break;
+            case DATE:
+                statement.setDate(index, DBBean.toCassandraDate((Date) value));
+                break;
+            default:
+                bindObject(statement, index, value);
+        }
+    }
+
+    /**
+     * Read this field of the bean as it is stored in cassandra, dates are truncated to their day
+     * @param bean
+     * @return
+     */
+    Object value(DBBean bean) throws Throwable {
+        Object value = getter.invoke(bean);
+        return kind == Kind.DATE && value != null ? DBBean.toCassandraDate((Date) value) : value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> void bindObject(BoundStatement statement, int index, V value) {
+        statement.set(index, value, (Class<V>) value.getClass());
+    }
+}
@@ -0,0 +1,120 @@
+package db.beans;
+
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.Row;
+import utils.Log;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiled row decoder for a bean class, built once and cached, replaces per row reflection in DBBean.buildFrom
+ * Column indexes are resolved once per result metadata (rows of the same prepared statement share it)
+ */
+public final class BeanRowDecoder<T extends DBBean> {
+
+    // cache the decoders per bean class with concurrent hashmap
+    private final static ConcurrentHashMap<Class<?>, BeanRowDecoder<?>> DECODER_CACHE = new ConcurrentHashMap<>();
+
+    private final Class<T> beanClass;
+    private final BeanField[] fields;
+    // () -> DBBean, no-arg constructor of the bean
+    private final MethodHandle constructor;
+    // last seen result metadata and the column indexes resolved for it
+    private volatile ColumnIndexes columnIndexes;
+
+    private BeanRowDecoder(Class<T> beanClass) {
+        this.beanClass = beanClass;
+        List<BeanField> beanFields = BeanField.of(beanClass);
+        this.fields = beanFields.toArray(new BeanField[beanFields.size()]);
+        try {
+            this.constructor = MethodHandles.publicLookup()
+                    .findConstructor(beanClass, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(DBBean.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalArgumentException(beanClass.getName() + " needs a public no-arg constructor", e);
+        }
+    }
+
+    /**
+     * Get the (cached) decoder of a bean class
+     * @param beanClass
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends DBBean> BeanRowDecoder<T> forClass(Class<T> beanClass) {
+        return (BeanRowDecoder<T>) DECODER_CACHE.computeIfAbsent(beanClass, k -> new BeanRowDecoder<>(beanClass));
+    }
+
+    /**
+     * Create a new bean from the row
+     * @param row
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public T newBean(Row row) {
+        T bean;
+        try {
+            bean = (T) (DBBean) constructor.invokeExact();
+        } catch (Throwable t) {
+            throw new IllegalStateException("Could not instantiate " + beanClass.getName(), t);
+        }
+        decode(row, bean);
+        return bean;
+    }
+
+    /**
+     * Fill the given bean with the row, fields without a matching column are left untouched
+     * @param row
+     * @param bean
+     */
+    public void decode(Row row, DBBean bean) {
+        int[] indexes = indexesFor(row.getColumnDefinitions());
+        for (int i = 0; i < fields.length; i++) {
+            int index = indexes[i];
+            if (index < 0) {
+                continue;
+            }
+            try {
+                fields[i].read(row, index, bean);
+            } catch (Throwable t) {
+                Log.i(fields[i].name + " with error: " + t);
+            }
+        }
+    }
+
+    /**
+     * Resolve column indexes of each field, reusing the previous resolution while the metadata doesn't change
+     * @param definitions
+     * @return
+     */
+    private int[] indexesFor(ColumnDefinitions definitions) {
+        ColumnIndexes cached = columnIndexes;
+        if (cached != null && cached.definitions == definitions) {
+            return cached.indexes;
+        }
+        int[] indexes = new int[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            // notice the db field name has to match bean field name
+            String fieldName = fields[i].name;
+            indexes[i] = definitions.contains(fieldName) ? definitions.getIndexOf(fieldName) : -1;
+        }
+        columnIndexes = new ColumnIndexes(definitions, indexes);
+        return indexes;
+    }
+
+    /**
+     * Pair result metadata with the column index of each bean field
+     */
+    private static final class ColumnIndexes {
+        final ColumnDefinitions definitions;
+        final int[] indexes;
+        ColumnIndexes(ColumnDefinitions definitions, int[] indexes) {
+            this.definitions = definitions;
+            this.indexes = indexes;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package db.beans;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import utils.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiled statement binder for a bean class and a list of fields, built once and cached
+ * Writes bean values straight into a BoundStatement by index, replaces DBBean.toCassandraObject on the write path
+ */
+public final class BeanStatementBinder {
+
+    // cache the binders per (bean class, field list) with concurrent hashmap
+    private final static ConcurrentHashMap<BinderKey, BeanStatementBinder> BINDER_CACHE = new ConcurrentHashMap<>();
+
+    private final Class<?> beanClass;
+    private final String[] fieldNames;
+    // bean field bound to each variable, null if the bean has no such field
+    private final BeanField[] fields;
+
+    private BeanStatementBinder(Class<?> beanClass, String[] fieldNames) {
+        this.beanClass = beanClass;
+        this.fieldNames = fieldNames;
+        this.fields = new BeanField[fieldNames.length];
+        List<BeanField> beanFields = BeanField.of(beanClass);
+        for (int i = 0; i < fieldNames.length; i++) {
+            for (BeanField beanField : beanFields) {
+                if (beanField.name.equalsIgnoreCase(fieldNames[i])) {
+                    fields[i] = beanField;
+                    break;
+                }
+            }
+            if (fields[i] == null) {
+                Log.i("WARNING: bean object does not contain given field " + fieldNames[i]);
+            }
+        }
+    }
+
+    /**
+     * Get the (cached) binder of a bean class, fields should be in order of the constructed query
+     * @param beanClass
+     * @param fieldNames
+     * @return
+     */
+    public static BeanStatementBinder forFields(Class<? extends DBBean> beanClass, String... fieldNames) {
+        BeanStatementBinder binder = BINDER_CACHE.get(new BinderKey(beanClass, fieldNames));
+        if (binder == null) {
+            // keep our own copy of the field list, callers may reuse their array
+            String[] fieldNamesCopy = fieldNames.clone();
+            binder = BINDER_CACHE.computeIfAbsent(new BinderKey(beanClass, fieldNamesCopy),
+                    k -> new BeanStatementBinder(beanClass, fieldNamesCopy));
+        }
+        return binder;
+    }
+
+    /**
+     * Get the names of the bean fields mapped to the given columns (column names are case insensitive),
+     * columns without a bean field are left out
+     * @param beanClass
+     * @param columns
+     * @return
+     */
+    public static String[] fieldNames(Class<? extends DBBean> beanClass, List<String> columns) {
+        List<BeanField> beanFields = BeanField.of(beanClass);
+        List<String> names = new ArrayList<>(columns.size());
+        for (String column : columns) {
+            for (BeanField beanField : beanFields) {
+                if (beanField.name.equalsIgnoreCase(column)) {
+                    names.add(beanField.name);
+                    break;
+                }
+            }
+        }
+        return names.toArray(new String[0]);
+    }
+
+    /**
+     * Check if this binder was built for the given bean class and fields
+     * @param beanClass
+     * @param fieldNames
+     * @return
+     */
+    public boolean matches(Class<?> beanClass, String... fieldNames) {
+        return this.beanClass == beanClass && (this.fieldNames == fieldNames || Arrays.equals(this.fieldNames, fieldNames));
+    }
+
+    /**
+     * Bind the bean to a new bound statement of the prepared statement
+     * @param preparedStatement
+     * @param bean
+     * @return
+     */
+    public BoundStatement bind(PreparedStatement preparedStatement, DBBean bean) {
+        BoundStatement statement = preparedStatement.bind();
+        for (int i = 0; i < fields.length; i++) {
+            BeanField field = fields[i];
+            if (field == null) {
+                statement.setToNull(i);
+                continue;
+            }
+            try {
+                field.write(statement, i, bean);
+            } catch (Throwable t) {
+                Log.e("Could not read class member " + field.name, t);
+                statement.setToNull(i);
+            }
+        }
+        return statement;
+    }
+
+    /**
+     * Get the values the bean would be bound with, in order of the fields, e.g. to compare primary keys of beans
+     * @param bean
+     * @return
+     */
+    public List<Object> values(DBBean bean) {
+        Object[] values = new Object[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            BeanField field = fields[i];
+            if (field == null) {
+                continue;
+            }
+            try {
+                values[i] = field.value(bean);
+            } catch (Throwable t) {
+                Log.e("Could not read class member " + field.name, t);
+            }
+        }
+        return Arrays.asList(values);
+    }
+
+    /**
+     * Pair a bean class with a field list, used as the cache key
+     */
+    private static final class BinderKey {
+        final Class<?> beanClass;
+        final String[] fieldNames;
+        final int hash;
+        BinderKey(Class<?> beanClass, String[] fieldNames) {
+            this.beanClass = beanClass;
+            this.fieldNames = fieldNames;
+            this.hash = 31 * beanClass.hashCode() + Arrays.hashCode(fieldNames);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof BinderKey)) return false;
+            BinderKey other = (BinderKey) o;
+            return beanClass == other.beanClass && Arrays.equals(fieldNames, other.fieldNames);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
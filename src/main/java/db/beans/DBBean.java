@@ -1,14 +1,12 @@
 package db.beans;
 
-import com.datastax.driver.core.ColumnDefinitions;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.LocalDate;
-import com.datastax.driver.core.exceptions.CodecNotFoundException;
-import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.chrono.ISOChronology;
 import utils.Log;
 
 import java.lang.reflect.Field;
-import java.time.ZoneId;
 import java.util.*;
 
 /**
@@ -23,6 +21,8 @@ import java.util.*;
  */
 public class DBBean {
 
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
     /**
      * Let child class override this method if they have auto increment fields
      * @return
@@ -67,42 +67,38 @@ public class DBBean {
     }
 
     /**
-     * Using reflection to build this(bean itself) from row
+     * Build this(bean itself) from row, using the compiled decoder of this bean class
      * @param row
      */
     public void buildFrom(Row row) {
-        Field[] fields = this.getClass().getDeclaredFields();
-        for (int i = 0; i < fields.length; i++) {
-            Field field = fields[i];
-            field.setAccessible(true);
-            String fieldName = field.getName();
-            // Check if column definitions have the field name, notice the db field name has to match bean field name
-            ColumnDefinitions columnDefinitions = row.getColumnDefinitions();
-            if (!columnDefinitions.contains(fieldName)) {
-                continue;
-            }
-            Class<?> fieldType = field.getType();
-            // special case: cassandra's date's using LocalDate
-            boolean isDateType = false;
-            if (fieldType.equals(Date.class)) {
-                fieldType = LocalDate.class;
-                isDateType = true;
-            }
-            try {
-                Object cqlValue = row.get(fieldName, fieldType);
-                if (cqlValue == null) {
-                    continue;
-                }
-                if (isDateType) {
-                    LocalDate localDate = (LocalDate) cqlValue;
-                    cqlValue = new DateTime(localDate.getMillisSinceEpoch()).withTimeAtStartOfDay().toDate();
-                }
-                field.set(this, cqlValue);
-            } catch (IllegalAccessException | CodecNotFoundException e) {
-                Log.i(fieldName + " with error: " + e);
-                e.printStackTrace();
-            }
+        BeanRowDecoder.forClass(this.getClass()).decode(row, this);
+    }
+
+    /**
+     * Cassandra's date to java date, at the start of that day in the default timezone
+     * @param localDate
+     * @return
+     */
+    public static Date fromCassandraDate(LocalDate localDate) {
+        if (localDate == null) {
+            return null;
+        }
+        // same as new DateTime(millis).withTimeAtStartOfDay(), without allocating the DateTime
+        return new Date(ISOChronology.getInstance().dayOfMonth().roundFloor(localDate.getMillisSinceEpoch()));
+    }
+
+    /**
+     * Java date to cassandra's date, taking the day of that instant in the default timezone
+     * @param date
+     * @return
+     */
+    public static LocalDate toCassandraDate(Date date) {
+        if (date == null) {
+            return null;
         }
+        // same day as date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate(), without the java.time objects
+        long localMillis = DateTimeZone.getDefault().convertUTCToLocal(date.getTime());
+        return LocalDate.fromDaysSinceEpoch((int) Math.floorDiv(localMillis, MILLIS_PER_DAY));
     }
 
     /**
@@ -120,11 +116,8 @@ public class DBBean {
             try {
                 Object value = field.get(this);
                 if (fieldType == Date.class) {
-                    if (value != null) {
-                        // timezone issue
-                        java.time.LocalDate localDate = ((Date) value).toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
-                        value = LocalDate.fromYearMonthDay(localDate.getYear(), localDate.getMonthValue(), localDate.getDayOfMonth());
-                    }
+                    // timezone issue
+                    value = toCassandraDate((Date) value);
                 }
                 beanAsMap.put(fieldNameLowerCased, value);
             } catch (IllegalAccessException e) {
@@ -0,0 +1,69 @@
+package db.beans;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * Database bean mapping to Cassandra's table, user_activity_daily_rollup
+ */
+public class DailyRollupBean extends DBBean {
+
+    private String pid;
+    private Date day;
+    private double total;
+    private long activityCount;
+    // id of the last update, lightweight transactions are conditioned on it
+    private UUID updateId;
+
+    public String getPid() {
+        return pid;
+    }
+
+    public void setPid(String pid) {
+        this.pid = pid;
+    }
+
+    public Date getDay() {
+        return day;
+    }
+
+    public void setDay(Date day) {
+        this.day = day;
+    }
+
+    public double getTotal() {
+        return total;
+    }
+
+    public void setTotal(double total) {
+        this.total = total;
+    }
+
+    public long getActivityCount() {
+        return activityCount;
+    }
+
+    public void setActivityCount(long activityCount) {
+        this.activityCount = activityCount;
+    }
+
+    public UUID getUpdateId() {
+        return updateId;
+    }
+
+    public void setUpdateId(UUID updateId) {
+        this.updateId = updateId;
+    }
+
+    @Override
+    public String toString() {
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
+        return "DailyRollupBean{" +
+                "pid='" + pid + '\'' +
+                ", day=" + ((day == null) ? "null" : sdf.format(day)) +
+                ", total=" + total +
+                ", activityCount=" + activityCount +
+                '}';
+    }
+}
@@ -0,0 +1,61 @@
+package db.beans;
+
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * Database bean mapping to Cassandra's table, user_activity_daily_sketch
+ */
+public class DailySketchBean extends DBBean {
+
+    private String pid;
+    private Date day;
+    // HyperLogLog registers of the distinct uids
+    private ByteBuffer registers;
+    // id of the last update, lightweight transactions are conditioned on it
+    private UUID updateId;
+
+    public String getPid() {
+        return pid;
+    }
+
+    public void setPid(String pid) {
+        this.pid = pid;
+    }
+
+    public Date getDay() {
+        return day;
+    }
+
+    public void setDay(Date day) {
+        this.day = day;
+    }
+
+    public ByteBuffer getRegisters() {
+        return registers;
+    }
+
+    public void setRegisters(ByteBuffer registers) {
+        this.registers = registers;
+    }
+
+    public UUID getUpdateId() {
+        return updateId;
+    }
+
+    public void setUpdateId(UUID updateId) {
+        this.updateId = updateId;
+    }
+
+    @Override
+    public String toString() {
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
+        return "DailySketchBean{" +
+                "pid='" + pid + '\'' +
+                ", day=" + ((day == null) ? "null" : sdf.format(day)) +
+                ", registers=" + ((registers == null) ? "null" : registers.remaining() + " bytes") +
+                '}';
+    }
+}
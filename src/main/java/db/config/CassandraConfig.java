@@ -0,0 +1,304 @@
+package db.config;
+
+import com.datastax.driver.core.ProtocolOptions;
+import com.datastax.driver.core.ProtocolVersion;
+import utils.Log;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Connection settings of the cluster, loaded from (lowest to highest precedence) the defaults,
+ * the cassandra.properties file (on the classpath, or at the path of the CASSANDRA_CONFIG environment variable),
+ * the environment (cassandra.contactPoints -> CASSANDRA_CONTACT_POINTS) and the given overrides, e.g. <init-param> in web.xml
+ * Extra session pools (cassandra.sessionPools=bulk) take the same settings, overridden by the ones prefixed with their name
+ * (cassandra.bulk.pool.maxConnectionsLocal), set in the properties file or the overrides
+ */
+public final class CassandraConfig {
+
+    public static final String PREFIX = "cassandra.";
+    private static final String FILE = "cassandra.properties";
+    private static final String FILE_ENV = "CASSANDRA_CONFIG";
+    // settings that can be set by environment variables
+    private static final String[] KEYS = {
+            PREFIX + "clusterName", PREFIX + "keyspace", PREFIX + "contactPoints", PREFIX + "port", PREFIX + "localDc",
+            PREFIX + "username", PREFIX + "password", PREFIX + "compression", PREFIX + "protocolVersion",
+            PREFIX + "pool.coreConnectionsLocal", PREFIX + "pool.maxConnectionsLocal",
+            PREFIX + "pool.coreConnectionsRemote", PREFIX + "pool.maxConnectionsRemote",
+            PREFIX + "pool.maxRequestsPerConnectionLocal", PREFIX + "pool.maxRequestsPerConnectionRemote",
+            PREFIX + "maxInFlightReads", PREFIX + "maxInFlightWrites", PREFIX + "sessionPools"
+    };
+
+    // all the settings, to derive the ones of the session pools
+    private final Properties properties;
+
+    private final String clusterName;
+    private final String keyspace;
+    private final List<InetSocketAddress> contactPoints;
+    private final int port;
+    // null to take the data center of the contact points
+    private final String localDc;
+    private final String username;
+    private final String password;
+    private final int coreConnectionsLocal;
+    private final int maxConnectionsLocal;
+    private final int coreConnectionsRemote;
+    private final int maxConnectionsRemote;
+    private final int maxRequestsPerConnectionLocal;
+    private final int maxRequestsPerConnectionRemote;
+    private final ProtocolOptions.Compression compression;
+    // null to negotiate the version with the cluster
+    private final ProtocolVersion protocolVersion;
+    // caps of the statements in flight per query type, for the requests of this session pool
+    private final int maxInFlightReads;
+    private final int maxInFlightWrites;
+    // names of the extra session pools
+    private final List<String> sessionPools;
+
+    private CassandraConfig(Properties properties) {
+        this.properties = properties;
+        this.clusterName = properties.getProperty(PREFIX + "clusterName", "localhost");
+        this.keyspace = properties.getProperty(PREFIX + "keyspace", "test_db");
+        this.port = Integer.parseInt(properties.getProperty(PREFIX + "port", "9042").trim());
+        this.contactPoints = parseContactPoints(properties.getProperty(PREFIX + "contactPoints", "127.0.0.1"), port);
+        this.localDc = emptyToNull(properties.getProperty(PREFIX + "localDc"));
+        this.username = properties.getProperty(PREFIX + "username", "cassandra");
+        this.password = properties.getProperty(PREFIX + "password", "cassandra");
+        this.coreConnectionsLocal = intProperty(properties, "pool.coreConnectionsLocal", 1);
+        this.maxConnectionsLocal = intProperty(properties, "pool.maxConnectionsLocal", 8);
+        this.coreConnectionsRemote = intProperty(properties, "pool.coreConnectionsRemote", 1);
+        this.maxConnectionsRemote = intProperty(properties, "pool.maxConnectionsRemote", 1);
+        this.maxRequestsPerConnectionLocal = intProperty(properties, "pool.maxRequestsPerConnectionLocal", 32768);
+        this.maxRequestsPerConnectionRemote = intProperty(properties, "pool.maxRequestsPerConnectionRemote", 2048);
+        this.compression = ProtocolOptions.Compression.valueOf(properties.getProperty(PREFIX + "compression", "NONE").trim().toUpperCase());
+        String version = emptyToNull(properties.getProperty(PREFIX + "protocolVersion"));
+        this.protocolVersion = version == null ? null : ProtocolVersion.valueOf(version.toUpperCase());
+        this.maxInFlightReads = intProperty(properties, "maxInFlightReads", 256);
+        this.maxInFlightWrites = intProperty(properties, "maxInFlightWrites", 10000);
+        this.sessionPools = new ArrayList<>();
+        for (String pool : properties.getProperty(PREFIX + "sessionPools", "").split(",")) {
+            if (!pool.trim().isEmpty()) {
+                sessionPools.add(pool.trim());
+            }
+        }
+    }
+
+    /**
+     * Settings of an extra session pool: these settings overridden by the ones prefixed with the pool name
+     * @param pool
+     * @return
+     */
+    public CassandraConfig forPool(String pool) {
+        Properties poolProperties = new Properties();
+        String poolPrefix = PREFIX + pool + ".";
+        for (String key : properties.stringPropertyNames()) {
+            if (!key.startsWith(poolPrefix)) {
+                poolProperties.setProperty(key, properties.getProperty(key));
+            }
+        }
+        // own cluster name, so the driver metrics of the pools don't clash on JMX
+        poolProperties.setProperty(PREFIX + "clusterName", clusterName + "-" + pool);
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(poolPrefix)) {
+                poolProperties.setProperty(PREFIX + key.substring(poolPrefix.length()), properties.getProperty(key));
+            }
+        }
+        // a pool doesn't have pools of its own
+        poolProperties.remove(PREFIX + "sessionPools");
+        return new CassandraConfig(poolProperties);
+    }
+
+    /**
+     * Load the settings from the defaults, the properties file and the environment
+     * @return
+     */
+    public static CassandraConfig load() {
+        return load(Collections.emptyMap());
+    }
+
+    /**
+     * Load the settings from the defaults, the properties file, the environment and the given overrides
+     * @param overrides settings named like in the properties file (cassandra.*), other entries are ignored
+     * @return
+     */
+    public static CassandraConfig load(Map<String, String> overrides) {
+        Properties properties = new Properties();
+        loadFile(properties);
+        for (Map.Entry<String, String> variable : System.getenv().entrySet()) {
+            String key = propertyOfVariable(variable.getKey());
+            if (key != null) {
+                properties.setProperty(key, variable.getValue());
+            }
+        }
+        for (Map.Entry<String, String> override : overrides.entrySet()) {
+            if (override.getKey().startsWith(PREFIX) && override.getValue() != null) {
+                properties.setProperty(override.getKey(), override.getValue());
+            }
+        }
+        return new CassandraConfig(properties);
+    }
+
+    /**
+     * Settings of the given properties only, unset ones take the defaults
+     * @param properties
+     * @return
+     */
+    public static CassandraConfig of(Properties properties) {
+        return new CassandraConfig(properties);
+    }
+
+    private static void loadFile(Properties properties) {
+        String path = System.getenv(FILE_ENV);
+        try (InputStream in = path != null ? new FileInputStream(path) : CassandraConfig.class.getClassLoader().getResourceAsStream(FILE)) {
+            if (in != null) {
+                properties.load(in);
+            }
+        } catch (IOException e) {
+            Log.e("Could not read the Cassandra settings from " + (path != null ? path : FILE), e);
+        }
+    }
+
+    /**
+     * Get the property set by an environment variable, e.g. CASSANDRA_POOL_MAX_CONNECTIONS_LOCAL -> cassandra.pool.maxConnectionsLocal
+     * @param variable
+     * @return null if the variable doesn't match a setting
+     */
+    private static String propertyOfVariable(String variable) {
+        for (String key : KEYS) {
+            if (variableOf(key).equals(variable)) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    private static String variableOf(String key) {
+        return key.replace('.', '_').replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase();
+    }
+
+    /**
+     * Parse "host1,host2:9043" into addresses, hosts without a port take the default one
+     * @param contactPoints
+     * @param defaultPort
+     * @return
+     */
+    private static List<InetSocketAddress> parseContactPoints(String contactPoints, int defaultPort) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String contactPoint : contactPoints.split(",")) {
+            String hostAndPort = contactPoint.trim();
+            if (hostAndPort.isEmpty()) {
+                continue;
+            }
+            int colon = hostAndPort.lastIndexOf(':');
+            // a colon in an IPv6 address without brackets is not a port separator
+            if (colon > 0 && hostAndPort.indexOf(':') == colon) {
+                addresses.add(new InetSocketAddress(hostAndPort.substring(0, colon), Integer.parseInt(hostAndPort.substring(colon + 1))));
+            } else {
+                addresses.add(new InetSocketAddress(hostAndPort, defaultPort));
+            }
+        }
+        if (addresses.isEmpty()) {
+            throw new IllegalArgumentException("No contact points in " + contactPoints);
+        }
+        return addresses;
+    }
+
+    private static int intProperty(Properties properties, String name, int defaultValue) {
+        String value = properties.getProperty(PREFIX + name);
+        return value == null || value.trim().isEmpty() ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+
+    public String getClusterName() {
+        return clusterName;
+    }
+
+    public String getKeyspace() {
+        return keyspace;
+    }
+
+    public List<InetSocketAddress> getContactPoints() {
+        return contactPoints;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getLocalDc() {
+        return localDc;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public int getCoreConnectionsLocal() {
+        return coreConnectionsLocal;
+    }
+
+    public int getMaxConnectionsLocal() {
+        return maxConnectionsLocal;
+    }
+
+    public int getCoreConnectionsRemote() {
+        return coreConnectionsRemote;
+    }
+
+    public int getMaxConnectionsRemote() {
+        return maxConnectionsRemote;
+    }
+
+    public int getMaxRequestsPerConnectionLocal() {
+        return maxRequestsPerConnectionLocal;
+    }
+
+    public int getMaxRequestsPerConnectionRemote() {
+        return maxRequestsPerConnectionRemote;
+    }
+
+    public ProtocolOptions.Compression getCompression() {
+        return compression;
+    }
+
+    public ProtocolVersion getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    public int getMaxInFlightReads() {
+        return maxInFlightReads;
+    }
+
+    public int getMaxInFlightWrites() {
+        return maxInFlightWrites;
+    }
+
+    public List<String> getSessionPools() {
+        return Collections.unmodifiableList(sessionPools);
+    }
+
+    @Override
+    public String toString() {
+        return "CassandraConfig{" + clusterName + ", keyspace=" + keyspace + ", contactPoints=" + contactPoints
+                + ", localDc=" + (localDc == null ? "auto" : localDc) + ", user=" + username
+                + ", local connections=" + coreConnectionsLocal + "-" + maxConnectionsLocal + "x" + maxRequestsPerConnectionLocal
+                + ", remote connections=" + coreConnectionsRemote + "-" + maxConnectionsRemote + "x" + maxRequestsPerConnectionRemote
+                + ", maxInFlight=" + maxInFlightReads + "r/" + maxInFlightWrites + "w"
+                + ", compression=" + compression + ", protocol=" + (protocolVersion == null ? "negotiated" : protocolVersion)
+                + (sessionPools.isEmpty() ? "" : ", sessionPools=" + sessionPools) + '}';
+    }
+}
@@ -2,11 +2,17 @@ package db.config;
 
 import com.datastax.driver.core.*;
 import com.datastax.driver.core.policies.*;
+import com.google.common.annotations.VisibleForTesting;
 import utils.Log;
 
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Create a Cassandra connection with singleton pattern
@@ -21,45 +27,66 @@ public class CassandraConnector {
      * Singleton object to connect to database (only can be connected to single keyspace at a time)
      */
     private static CassandraConnector connection;
+    /**
+     * Name of the session pool of the singleton connection, used when no other pool is asked for
+     */
+    public static final String DEFAULT_POOL = "interactive";
+    // extra session pools, each one a cluster connection of its own (connections, pooling options, load balancing)
+    private static final Map<String, CassandraConnector> POOLS = new ConcurrentHashMap<>();
+    // incremented every time the connections are replaced, statements prepared on older ones are prepared again
+    private static final AtomicLong GENERATION = new AtomicLong();
     private final Session session;
+    // null for a session built elsewhere without a cluster, e.g. an in-process stand-in
     private final Cluster cluster;
-    private final String clusterName;
-    private final String keyspace;
-    private final String ipAddress;
-    private final int port;
-    private final String username;
-    private final String password;
-
-    //TODO: consider using different consistency levels for different kinds of operations
-    private CassandraConnector(String clusterName, String keyspace, String ipAddress, int port, String username, String password) {
-        this.clusterName = clusterName;
-        this.keyspace = keyspace;
-        this.ipAddress = ipAddress;
-        this.port = port;
-        this.username = username;
-        this.password = password;
-        this.cluster = initCluster(username, password);
-        this.session = cluster.connect(this.keyspace);
+    private final CassandraConfig config;
+    // whether every connection of the pool is opened when connecting
+    private final boolean openFullPool;
+
+    private CassandraConnector(CassandraConfig config, boolean openFullPool) {
+        this.config = config;
+        this.openFullPool = openFullPool;
+        this.cluster = initCluster(config.getUsername(), config.getPassword());
+        try {
+            this.session = cluster.connect(config.getKeyspace());
+        } catch (RuntimeException | Error e) {
+            cluster.close();
+            throw e;
+        }
+    }
+
+    private CassandraConnector(Session session, CassandraConfig config) {
+        this.config = config;
+        this.openFullPool = false;
+        this.cluster = session.getCluster();
+        this.session = session;
     }
 
     public static String getKeyspace() {
-        return connection.keyspace;
+        return connection.config.getKeyspace();
     }
 
+    /**
+     * Get the address of the first contact point
+     * @return
+     */
     public static String getIpAddress() {
-        return connection.ipAddress;
+        return connection.config.getContactPoints().get(0).getHostString();
     }
 
     public static int getPort() {
-        return connection.port;
+        return connection.config.getContactPoints().get(0).getPort();
     }
 
     public static String getUsername() {
-        return connection.username;
+        return connection.config.getUsername();
     }
 
     public static String getPassword() {
-        return connection.password;
+        return connection.config.getPassword();
+    }
+
+    public static CassandraConfig getConfig() {
+        return connection.config;
     }
 
     /**
@@ -70,7 +97,14 @@ public class CassandraConnector {
         if (connection==null) {
             return "";
         }
-        return connection.clusterName + "://" + connection.ipAddress + ":" + Integer.toString(connection.port)+ "/" + connection.keyspace + "?" +"user="+ connection.username;
+        StringBuilder contactPoints = new StringBuilder();
+        for (InetSocketAddress contactPoint : connection.config.getContactPoints()) {
+            if (contactPoints.length() > 0) {
+                contactPoints.append(',');
+            }
+            contactPoints.append(contactPoint.getHostString()).append(':').append(contactPoint.getPort());
+        }
+        return connection.config.getClusterName() + "://" + contactPoints + "/" + connection.config.getKeyspace() + "?" +"user="+ connection.config.getUsername();
     }
 
     /**
@@ -83,24 +117,108 @@ public class CassandraConnector {
      * @param password
      */
     public static void initializeConnection(String clusterName, String keyspace, String ipAddress, int port, String username, String password) {
-        connection = new CassandraConnector(clusterName, keyspace, ipAddress, port, username, password);
+        Properties properties = new Properties();
+        properties.setProperty(CassandraConfig.PREFIX + "clusterName", clusterName);
+        properties.setProperty(CassandraConfig.PREFIX + "keyspace", keyspace);
+        properties.setProperty(CassandraConfig.PREFIX + "contactPoints", ipAddress);
+        properties.setProperty(CassandraConfig.PREFIX + "port", Integer.toString(port));
+        properties.setProperty(CassandraConfig.PREFIX + "username", username);
+        properties.setProperty(CassandraConfig.PREFIX + "password", password);
+        initializeConnection(CassandraConfig.of(properties), false);
     }
 
     /**
-     * Method to initialize th cluster
+     * Singleton pattern, only a single shared connection object
+     * Every connection (the shared one and one per session pool) is opened before any is replaced, so if one can't
+     * be opened the others are closed and the current connections stay in use; once all are open, they replace
+     * the current ones, which are closed
+     * @param config
+     * @param openFullPool open every connection to the local hosts now rather than as the load grows
+     */
+    public static synchronized void initializeConnection(CassandraConfig config, boolean openFullPool) {
+        List<CassandraConnector> opened = new ArrayList<>();
+        Map<String, CassandraConnector> pools = new HashMap<>();
+        try {
+            CassandraConnector shared = new CassandraConnector(config, openFullPool);
+            opened.add(shared);
+            for (String pool : config.getSessionPools()) {
+                if (pool.equals(DEFAULT_POOL)) {
+                    continue;
+                }
+                CassandraConnector pooled = new CassandraConnector(config.forPool(pool), openFullPool);
+                opened.add(pooled);
+                pools.put(pool, pooled);
+            }
+            replaceConnections(shared, pools);
+        } catch (RuntimeException | Error e) {
+            for (CassandraConnector connector : opened) {
+                connector.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Test hook, not for production code: use a session built elsewhere as the shared connection, e.g. an in-process
+     * stand-in for benchmarks and load tests (see StandInConnections in the benchmarks), every session pool then goes
+     * to that session. The connections it replaces are closed. Table metadata is only known if the session has a cluster
+     * @param session
+     * @param config
+     */
+    @VisibleForTesting
+    static synchronized void initializeForTesting(Session session, CassandraConfig config) {
+        replaceConnections(new CassandraConnector(session, config), new HashMap<>());
+    }
+
+    /**
+     * Swap in connections already opened, then close the ones replaced
+     * @param shared
+     * @param pools
+     */
+    private static void replaceConnections(CassandraConnector shared, Map<String, CassandraConnector> pools) {
+        List<CassandraConnector> replaced = new ArrayList<>(POOLS.values());
+        if (connection != null) {
+            replaced.add(connection);
+        }
+        connection = shared;
+        POOLS.putAll(pools);
+        POOLS.keySet().retainAll(pools.keySet());
+        GENERATION.incrementAndGet();
+        for (CassandraConnector previous : replaced) {
+            // a stand-in session may be installed again
+            if (previous.session != shared.session) {
+                previous.close();
+            }
+        }
+    }
+
+    /**
+     * Number of times the connections were initialized, a statement prepared under an older generation
+     * belongs to a connection since replaced
+     * @return
+     */
+    public static long getGeneration() {
+        return GENERATION.get();
+    }
+
+    /**
+     * Method to initialize th cluster, with the settings of the properties file and the environment
      * @return
      */
     public static boolean initialize() {
+        return initialize(CassandraConfig.load(), false);
+    }
+
+    /**
+     * Method to initialize th cluster
+     * @param config
+     * @param openFullPool open every connection to the local hosts now, e.g. before taking traffic
+     * @return
+     */
+    public static boolean initialize(CassandraConfig config, boolean openFullPool) {
         try {
-            //TODO: maybe use config files, env variables or <init-param> in web.xml for credentials
-            String keySpace = "test_db";
-            String clusterName = "localhost";
-            String ip = "127.0.0.1";
-            int port = 9042;
-            String userName = "cassandra";
-            String password = "cassandra";
-            CassandraConnector.initializeConnection(clusterName, keySpace, ip, port, userName, password);
-            Log.i("Cassandra connection: OK  " + clusterName);
+            CassandraConnector.initializeConnection(config, openFullPool);
+            Log.i("Cassandra connection: OK  " + config);
         }
         catch( Error | Exception e ) {
             Log.e( "Error initializing Cassandra!", e);
@@ -114,14 +232,61 @@ public class CassandraConnector {
      * @return
      */
     public static Session getSession(){
-        if(connection==null || connection.session.isClosed() || connection.cluster.isClosed()) {
+        if(connection==null || connection.session.isClosed() || connection.isClusterClosed()) {
             throw new RuntimeException("Database not initialized or connection has been closed");
         }
         return connection.session;
     }
 
     /**
-     * Initialize cluster with some settings like connection pool, ip whitelist etc.
+     * Gets the session of a session pool, so a workload (e.g. scans) doesn't take the connections of another one
+     * @param pool
+     * @return the shared session if the pool is not configured
+     */
+    public static Session getSession(String pool) {
+        CassandraConnector pooled = POOLS.get(pool);
+        if (pooled == null) {
+            return getSession();
+        }
+        if (pooled.session.isClosed() || pooled.isClusterClosed()) {
+            throw new RuntimeException("Session pool " + pool + " has been closed");
+        }
+        return pooled.session;
+    }
+
+    /**
+     * Get the name of the pool actually used for the given one, requests of pools not configured go to the default one
+     * @param pool
+     * @return
+     */
+    public static String resolvePool(String pool) {
+        return pool != null && POOLS.containsKey(pool) ? pool : DEFAULT_POOL;
+    }
+
+    /**
+     * Names of the session pools, the default one first
+     * @return
+     */
+    public static List<String> getSessionPools() {
+        List<String> pools = new ArrayList<>();
+        pools.add(DEFAULT_POOL);
+        pools.addAll(POOLS.keySet());
+        return pools;
+    }
+
+    /**
+     * Get the settings of a session pool
+     * @param pool
+     * @return the settings of the shared connection if the pool is not configured
+     */
+    public static CassandraConfig getConfig(String pool) {
+        CassandraConnector pooled = POOLS.get(pool);
+        return pooled == null ? getConfig() : pooled.config;
+    }
+
+    /**
+     * Initialize cluster with some settings like connection pool, load balancing etc.
+     * Every node is used: requests go to a replica of their partition (token aware), the fastest local ones first (latency aware)
      * @param username
      * @param password
      * @return
@@ -129,28 +294,36 @@ public class CassandraConnector {
     private Cluster initCluster(String username, String password) {
         // Config connection pool
         PoolingOptions poolingOptions = new PoolingOptions()
-                .setMaxRequestsPerConnection(HostDistance.LOCAL, 32768) //limit: 32768
-                .setMaxRequestsPerConnection(HostDistance.REMOTE, 2048)
+                .setMaxRequestsPerConnection(HostDistance.LOCAL, config.getMaxRequestsPerConnectionLocal()) //limit: 32768
+                .setMaxRequestsPerConnection(HostDistance.REMOTE, config.getMaxRequestsPerConnectionRemote())
                 .setMaxQueueSize(100000)
-                .setMaxConnectionsPerHost(HostDistance.LOCAL, 8)
+                .setConnectionsPerHost(HostDistance.LOCAL, openFullPool ? config.getMaxConnectionsLocal() : config.getCoreConnectionsLocal(),
+                        config.getMaxConnectionsLocal())
+                .setConnectionsPerHost(HostDistance.REMOTE, config.getCoreConnectionsRemote(), config.getMaxConnectionsRemote())
                 .setPoolTimeoutMillis(0);
+        // with openFullPool, connect() waits for every local connection, so the first requests don't pay for growing the pool
 
-        // Config ip whitelist
-        List<InetSocketAddress> whiteList= new ArrayList<>();
-        whiteList.add(new InetSocketAddress(ipAddress, port));
+        // Config load balancing
+        DCAwareRoundRobinPolicy.Builder dcAware = DCAwareRoundRobinPolicy.builder();
+        if (config.getLocalDc() != null) {
+            dcAware.withLocalDc(config.getLocalDc());
+        }
+        LoadBalancingPolicy loadBalancingPolicy = new TokenAwarePolicy(LatencyAwarePolicy.builder(dcAware.build()).build());
 
         // Config cluster
-        Cluster cluster = Cluster.builder()
-                .withClusterName(clusterName)
-                .withPort(port)
-                .addContactPoint(ipAddress)
+        Cluster.Builder builder = Cluster.builder()
+                .withClusterName(config.getClusterName())
+                .addContactPointsWithPorts(config.getContactPoints())
                 .withPoolingOptions(poolingOptions)
-                .withLoadBalancingPolicy(new WhiteListPolicy(new TokenAwarePolicy(DCAwareRoundRobinPolicy.builder().build()), whiteList))
+                .withCompression(config.getCompression())
+                .withLoadBalancingPolicy(loadBalancingPolicy)
                 .withAuthProvider(new PlainTextAuthProvider(username, password))
                 .withReconnectionPolicy(new ExponentialReconnectionPolicy(1000, 10 * 60000)) // maybe useful in case nodes are down
-                .withRetryPolicy(DefaultRetryPolicy.INSTANCE)
-                .build();
-        return cluster;
+                .withRetryPolicy(DefaultRetryPolicy.INSTANCE);
+        if (config.getProtocolVersion() != null) {
+            builder.withProtocolVersion(config.getProtocolVersion());
+        }
+        return builder.build();
     }
 
     /**
@@ -160,7 +333,11 @@ public class CassandraConnector {
      * @return
      */
     public static boolean checkTableIfExists(String keyspaceName, String tableName) {
-        KeyspaceMetadata keyspace = connection.cluster.getMetadata().getKeyspace(keyspaceName);
+        if (connection == null) {
+            Log.i("Not connected, table -> " + tableName + " can't be checked");
+            return false;
+        }
+        KeyspaceMetadata keyspace = connection.cluster == null ? null : connection.cluster.getMetadata().getKeyspace(keyspaceName);
         if (keyspace == null) {
             Log.i("The given keyspace -> " + keyspaceName + " doesn't exist!");
             return false;
@@ -173,14 +350,120 @@ public class CassandraConnector {
         return true;
     }
 
+    /**
+     * Get the partition key columns of a table (or materialized view) of the connected keyspace, from the cluster metadata
+     * @param tableName
+     * @return column names in partition key order, null if the table doesn't exist
+     */
+    public static List<String> getPartitionKeyColumns(String tableName) {
+        AbstractTableMetadata table = getTableMetadata(tableName);
+        return table == null ? null : columnNames(table.getPartitionKey());
+    }
+
+    /**
+     * Get the primary key columns (partition key then clustering columns) of a table (or materialized view) of the connected keyspace
+     * @param tableName
+     * @return column names in primary key order, null if the table doesn't exist
+     */
+    public static List<String> getPrimaryKeyColumns(String tableName) {
+        AbstractTableMetadata table = getTableMetadata(tableName);
+        return table == null ? null : columnNames(table.getPrimaryKey());
+    }
+
+    /**
+     * Get all the columns of a table (or materialized view) of the connected keyspace
+     * @param tableName
+     * @return column names, null if the table doesn't exist
+     */
+    public static List<String> getColumns(String tableName) {
+        AbstractTableMetadata table = getTableMetadata(tableName);
+        return table == null ? null : columnNames(table.getColumns());
+    }
+
+    private static AbstractTableMetadata getTableMetadata(String tableName) {
+        if (connection == null) {
+            Log.i("Not connected, no metadata for table -> " + tableName);
+            return null;
+        }
+        KeyspaceMetadata keyspace = connection.cluster == null ? null : connection.cluster.getMetadata().getKeyspace(connection.config.getKeyspace());
+        if (keyspace == null) {
+            Log.i("The given keyspace -> " + connection.config.getKeyspace() + " doesn't exist!");
+            return null;
+        }
+        AbstractTableMetadata table = keyspace.getTable(tableName);
+        if (table == null) {
+            table = keyspace.getMaterializedView(tableName);
+        }
+        if (table == null) {
+            Log.i("The given table -> " + tableName + " doesn't exist!");
+        }
+        return table;
+    }
+
+    private static List<String> columnNames(List<ColumnMetadata> columnsMetadata) {
+        List<String> columns = new ArrayList<>();
+        for (ColumnMetadata column : columnsMetadata) {
+            columns.add(column.getName());
+        }
+        return columns;
+    }
+
+    /**
+     * Get the protocol version negotiated with the cluster
+     * @return the configured one (or the newest supported one) if the session has no cluster
+     */
+    public static ProtocolVersion getProtocolVersion() {
+        if (connection.cluster == null) {
+            return connection.config.getProtocolVersion() != null ? connection.config.getProtocolVersion() : ProtocolVersion.NEWEST_SUPPORTED;
+        }
+        return connection.cluster.getConfiguration().getProtocolOptions().getProtocolVersion();
+    }
+
+    /**
+     * Get the number of connections currently open by the session, to all hosts
+     * @return
+     */
+    public static int getOpenConnectionCount() {
+        return getOpenConnectionCount(DEFAULT_POOL);
+    }
+
+    /**
+     * Get the number of connections currently open by the session of a pool, to all hosts
+     * @param pool
+     * @return
+     */
+    public static int getOpenConnectionCount(String pool) {
+        Session.State state = getSession(pool).getState();
+        int count = 0;
+        for (Host host : state.getConnectedHosts()) {
+            count += state.getOpenConnections(host);
+        }
+        return count;
+    }
+
     /**
      * Closes the session and cluster connection.
      */
-    public static boolean shutdown() {
-        connection.session.close();
-        connection.cluster.close();
-        boolean closed = connection.session.isClosed() && connection.cluster.isClosed();
+    public static synchronized boolean shutdown() {
+        // null if the connection failed
+        boolean closed = connection == null || connection.close();
+        for (CassandraConnector pooled : POOLS.values()) {
+            closed &= pooled.close();
+        }
+        POOLS.clear();
         connection = null;
         return closed;
     }
+
+    private boolean close() {
+        session.close();
+        if (cluster != null) {
+            cluster.close();
+        }
+        return session.isClosed() && (cluster == null || cluster.isClosed());
+    }
+
+    private boolean isClusterClosed() {
+        return cluster != null && cluster.isClosed();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,84 @@
+package db.daos;
+
+/**
+ * Count, sum, min and max of a numeric column over a group of rows
+ * Partial aggregates computed by cassandra (per partition, per token range) are merged into one on the client
+ */
+public class Aggregate {
+
+    private long count = 0;
+    private double sum = 0;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Add a partial aggregate
+     * @param count
+     * @param sum
+     * @param min null if no value was aggregated
+     * @param max null if no value was aggregated
+     */
+    public void add(long count, double sum, Double min, Double max) {
+        this.count += count;
+        this.sum += sum;
+        if (min != null) {
+            this.min = Math.min(this.min, min);
+        }
+        if (max != null) {
+            this.max = Math.max(this.max, max);
+        }
+    }
+
+    /**
+     * Merge another aggregate into this one
+     * @param other
+     */
+    public void merge(Aggregate other) {
+        if (other.count > 0) {
+            add(other.count, other.sum, other.min, other.max);
+        }
+    }
+
+    /**
+     * Number of non null values
+     * @return
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * @return NaN if there are no values
+     */
+    public double getMin() {
+        return count == 0 ? Double.NaN : min;
+    }
+
+    /**
+     * @return NaN if there are no values
+     */
+    public double getMax() {
+        return count == 0 ? Double.NaN : max;
+    }
+
+    /**
+     * @return NaN if there are no values
+     */
+    public double getAverage() {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    @Override
+    public String toString() {
+        return "Aggregate{" +
+                "count=" + count +
+                ", sum=" + sum +
+                ", min=" + getMin() +
+                ", max=" + getMax() +
+                '}';
+    }
+}
@@ -0,0 +1,71 @@
+package db.daos;
+
+import com.datastax.driver.core.Row;
+import utils.Log;
+
+import java.util.List;
+
+/**
+ * Read / conditional write rounds of a lightweight transaction on a single row, repeated until one is done
+ * The backoff between rounds is capped at MAX_BACKOFF_MILLIS and all the rounds of a change, retries of their reads
+ * and writes included, have to fit in TIMEOUT_MILLIS, so a contended row can't hold the calling thread for long
+ */
+final class CasLoop {
+
+    // max number of read / conditional write rounds for a single change
+    static final int MAX_ATTEMPTS = 20;
+    static final long MAX_BACKOFF_MILLIS = 200;
+    static final long TIMEOUT_MILLIS = 5000;
+
+    /**
+     * A read / conditional write round
+     */
+    interface Round {
+
+        /**
+         * @param deadline of the change, to set on the reads and writes of the round
+         * @return true once done (written, or nothing to write), false to read again
+         */
+        boolean attempt(Deadline deadline);
+    }
+
+    private CasLoop() {
+    }
+
+    /**
+     * Run rounds until one is done, the attempts are spent or TIMEOUT_MILLIS passed
+     * @param what changed row, for the logs
+     * @param round
+     * @return whether a round was done
+     */
+    static boolean run(String what, Round round) {
+        Deadline deadline = Deadline.after(TIMEOUT_MILLIS);
+        int attemptCounter;
+        for (attemptCounter = 1; attemptCounter <= MAX_ATTEMPTS; attemptCounter++) {
+            if (attemptCounter > 1) {
+                long backoffTime = Math.min(MAX_BACKOFF_MILLIS, CqlRequest.backoffDelay(attemptCounter));
+                if (deadline.remainingMillis() <= backoffTime) {
+                    break;
+                }
+                try {Thread.sleep(backoffTime);} catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (round.attempt(deadline)) {
+                return true;
+            }
+        }
+        Log.e("ERROR: Could not update " + what + " after " + Math.min(attemptCounter, MAX_ATTEMPTS) + " attempts", null);
+        return false;
+    }
+
+    /**
+     * Whether a conditional write was applied
+     * @param result rows of the write, null if it failed
+     * @return false if it wasn't, or if its outcome is unknown
+     */
+    static boolean isApplied(List<Row> result) {
+        return result != null && !result.isEmpty() && result.get(0).getBool("[applied]");
+    }
+}
@@ -0,0 +1,222 @@
+package db.daos;
+
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.exceptions.ConnectionException;
+import com.datastax.driver.core.exceptions.NoHostAvailableException;
+import com.datastax.driver.core.exceptions.UnavailableException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker of a query, and of a query on a host for the statements pinned to a replica (token range scans):
+ * once most of its recent attempts failed because the cluster couldn't serve them (timeouts, overloaded, unavailable),
+ * it opens and the statements fail fast without being sent. After OPEN_NANOS a single probe goes through (half open),
+ * its success closes the breaker, its failure opens it again
+ * Errors of the query itself (invalid query, bad values) don't count, the cluster answered
+ */
+public final class CircuitBreaker {
+
+    /**
+     * CLOSED lets every statement through, OPEN none, HALF_OPEN a single probe
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    // failures are counted over tumbling windows
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+    // don't open on a handful of failures
+    private static final int MIN_ATTEMPTS = 20;
+    private static final double FAILURE_RATIO = 0.5;
+    private static final long OPEN_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    // queries are prepared ones and hosts are those of the cluster, so the number of breakers is bounded
+    private static final ConcurrentHashMap<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+    private final String query;
+    // null for the statements routed by the load balancing policy
+    private final Host host;
+    // System::nanoTime, a fake clock in the tests
+    private final LongSupplier clock;
+    // guarded by this
+    private State state = State.CLOSED;
+    private long windowStartNanos;
+    private int attempts;
+    private int failures;
+    private long openedNanos;
+    private boolean probing;
+    private long rejected;
+
+    /**
+     * A breaker of its own, not shared with the statements of the query
+     * @param query
+     * @param host null for any host
+     * @param clock nano time
+     */
+    CircuitBreaker(String query, Host host, LongSupplier clock) {
+        this.query = query;
+        this.host = host;
+        this.clock = clock;
+        this.windowStartNanos = clock.getAsLong();
+    }
+
+    /**
+     * Get the breaker of a statement: the one of its query on its host if it is pinned to one, of its query otherwise
+     * @param queryBreaker breaker of the query on any host, looked up once per request
+     * @param statement
+     * @return
+     */
+    static CircuitBreaker forStatement(CircuitBreaker queryBreaker, Statement statement) {
+        Host host = statement.getHost();
+        return host == null ? queryBreaker : forQuery(queryBreaker.query, host);
+    }
+
+    /**
+     * Get the shared breaker of a query on a host
+     * @param query
+     * @param host null for any host
+     * @return
+     */
+    public static CircuitBreaker forQuery(String query, Host host) {
+        String key = host == null ? query : query + " @ " + host;
+        return BREAKERS.computeIfAbsent(key, k -> new CircuitBreaker(query, host, System::nanoTime));
+    }
+
+    /**
+     * Get every breaker created so far
+     * @return
+     */
+    public static List<CircuitBreaker> all() {
+        return new ArrayList<>(BREAKERS.values());
+    }
+
+    /**
+     * Let a statement through, the outcome of its attempt has to be recorded
+     * @return false if the breaker is open, the statement should fail right away
+     */
+    synchronized boolean tryAcquire() {
+        switch (state) {
+            case OPEN:
+                if (clock.getAsLong() - openedNanos < OPEN_NANOS) {
+                    rejected += 1;
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probing = true;
+                return true;
+            case HALF_OPEN:
+                if (probing) {
+                    rejected += 1;
+                    return false;
+                }
+                probing = true;
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Give back a statement let through but not sent, so a half open breaker can let another probe through
+     */
+    synchronized void cancel() {
+        if (state == State.HALF_OPEN) {
+            probing = false;
+        }
+    }
+
+    /**
+     * Record the outcome of an attempt let through
+     * @param failure null if it succeeded
+     */
+    synchronized void record(Throwable failure) {
+        boolean failed = failure != null && isClusterFailure(failure);
+        if (state == State.HALF_OPEN) {
+            probing = false;
+            if (failed) {
+                open();
+            } else {
+                close();
+            }
+            return;
+        }
+        if (state == State.OPEN) {
+            // attempt sent before the breaker opened
+            return;
+        }
+        long now = clock.getAsLong();
+        if (now - windowStartNanos >= WINDOW_NANOS) {
+            windowStartNanos = now;
+            attempts = 0;
+            failures = 0;
+        }
+        attempts += 1;
+        if (failed) {
+            failures += 1;
+            if (attempts >= MIN_ATTEMPTS && failures >= attempts * FAILURE_RATIO) {
+                open();
+            }
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedNanos = clock.getAsLong();
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        windowStartNanos = clock.getAsLong();
+        attempts = 0;
+        failures = 0;
+    }
+
+    /**
+     * Whether the error tells the cluster (or the host) couldn't serve the statement
+     * @param error
+     * @return
+     */
+    static boolean isClusterFailure(Throwable error) {
+        return ConcurrencyLimiter.isDropped(error)
+                || error instanceof UnavailableException
+                || error instanceof NoHostAvailableException
+                || error instanceof ConnectionException;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * @return null if the breaker is the one of the query on any host
+     */
+    public Host getHost() {
+        return host;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Statements failed fast since the start
+     * @return
+     */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CircuitBreaker{" + query + (host == null ? "" : " @ " + host) +
+                ", state=" + state +
+                ", attempts=" + attempts +
+                ", failures=" + failures +
+                '}';
+    }
+}
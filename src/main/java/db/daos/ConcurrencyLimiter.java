@@ -0,0 +1,303 @@
+package db.daos;
+
+import com.datastax.driver.core.exceptions.*;
+import db.config.CassandraConfig;
+import db.config.CassandraConnector;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Adaptive limit of in-flight statements, shared per query type (and session pool) by every CqlRequest of the JVM
+ * AIMD style: the limit grows by about one per round trip while latency stays close to its baseline,
+ * and is cut on timeouts / OverloadedException or when latency climbs (requests queueing on the cluster)
+ */
+public class ConcurrencyLimiter {
+
+    /**
+     * Query types having their own limit
+     */
+    public enum QueryType {
+        READ, WRITE
+    }
+
+    // if we fetch 10 statements, each 10k items(~max partition size), we could get upto 100k! so reads stay low
+    private static final ConcurrencyLimiter READ_LIMITER = new ConcurrencyLimiter(QueryType.READ, 32, 4, 256);
+    // we can write a lot more!
+    private static final ConcurrencyLimiter WRITE_LIMITER = new ConcurrencyLimiter(QueryType.WRITE, 1000, 16, 10000);
+    // read and write limiters of the extra session pools, capped by the settings of the pool
+    private static final ConcurrentHashMap<String, ConcurrencyLimiter[]> POOL_LIMITERS = new ConcurrentHashMap<>();
+    // runs the woken waiters: permits are mostly released on driver I/O threads, which must not pump other requests
+    private static final ExecutorService WAITER_EXECUTOR = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), runnable -> {
+                Thread thread = new Thread(runnable, "limiter-waiter");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    // latency above baseline * tolerance means requests are queueing
+    private static final double LATENCY_TOLERANCE = 2.0;
+    // multiplicative decrease on drops, and a softer one on latency increase
+    private static final double DROP_BACKOFF = 0.75;
+    private static final double LATENCY_BACKOFF = 0.95;
+    // how fast the latency baseline drifts up, so it follows the cluster when it gets durably slower
+    private static final double BASELINE_DRIFT = 0.001;
+
+    private final QueryType queryType;
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // pipelines waiting for a permit, woken up when statements complete
+    private final ConcurrentLinkedQueue<Runnable> waiters = new ConcurrentLinkedQueue<>();
+    // waiters handed to the executor that didn't run yet
+    private final AtomicInteger wokenWaiters = new AtomicInteger();
+    // WAITER_EXECUTOR, a direct executor in the tests
+    private final Executor executor;
+    private volatile double limit;
+    // guarded by this
+    private double baselineLatencyNanos = Double.MAX_VALUE;
+    private long lastDecreaseNanos;
+
+    ConcurrencyLimiter(QueryType queryType, int initialLimit, int minLimit, int maxLimit) {
+        this(queryType, initialLimit, minLimit, maxLimit, WAITER_EXECUTOR);
+    }
+
+    /**
+     * A limiter of its own, not shared with the requests
+     * @param queryType
+     * @param initialLimit
+     * @param minLimit
+     * @param maxLimit
+     * @param executor runs the woken waiters
+     */
+    ConcurrencyLimiter(QueryType queryType, int initialLimit, int minLimit, int maxLimit, Executor executor) {
+        this.queryType = queryType;
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.executor = executor;
+        this.lastDecreaseNanos = System.nanoTime();
+    }
+
+    /**
+     * Get the shared limiter of the query
+     * @param query
+     * @return
+     */
+    public static ConcurrencyLimiter forQuery(String query) {
+        return forType(typeOf(query));
+    }
+
+    /**
+     * Get the shared limiter of the query type
+     * @param queryType
+     * @return
+     */
+    public static ConcurrencyLimiter forType(QueryType queryType) {
+        return queryType == QueryType.READ ? READ_LIMITER : WRITE_LIMITER;
+    }
+
+    /**
+     * Get the shared limiter of the query type in a session pool, so a busy pool doesn't take the permits of another one
+     * @param pool name of a session pool, as resolved by CassandraConnector.resolvePool
+     * @param queryType
+     * @return
+     */
+    public static ConcurrencyLimiter forType(String pool, QueryType queryType) {
+        if (CassandraConnector.DEFAULT_POOL.equals(pool)) {
+            return forType(queryType);
+        }
+        ConcurrencyLimiter[] limiters = POOL_LIMITERS.computeIfAbsent(pool, name -> {
+            CassandraConfig config = CassandraConnector.getConfig(name);
+            int maxReads = Math.max(1, config.getMaxInFlightReads());
+            int maxWrites = Math.max(1, config.getMaxInFlightWrites());
+            return new ConcurrencyLimiter[]{
+                    new ConcurrencyLimiter(QueryType.READ, Math.min(32, maxReads), Math.min(4, maxReads), maxReads),
+                    new ConcurrencyLimiter(QueryType.WRITE, Math.min(1000, maxWrites), Math.min(16, maxWrites), maxWrites)};
+        });
+        return queryType == QueryType.READ ? limiters[0] : limiters[1];
+    }
+
+    /**
+     * Get the limiters created so far, read and write ones per session pool, the default pool first
+     * @return
+     */
+    public static Map<String, List<ConcurrencyLimiter>> byPool() {
+        Map<String, List<ConcurrencyLimiter>> limiters = new LinkedHashMap<>();
+        limiters.put(CassandraConnector.DEFAULT_POOL, Arrays.asList(READ_LIMITER, WRITE_LIMITER));
+        for (Map.Entry<String, ConcurrencyLimiter[]> pool : POOL_LIMITERS.entrySet()) {
+            limiters.put(pool.getKey(), Arrays.asList(pool.getValue()));
+        }
+        return limiters;
+    }
+
+    /**
+     * Get the type of a query
+     * @param query
+     * @return
+     */
+    public static QueryType typeOf(String query) {
+        return query.trim().toUpperCase().startsWith("SELECT") ? QueryType.READ : QueryType.WRITE;
+    }
+
+    public QueryType getQueryType() {
+        return queryType;
+    }
+
+    /**
+     * Current limit of statements in flight
+     * @return
+     */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Statements in flight right now
+     * @return
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Latency baseline the limit is adapted against
+     * @return in milliseconds, 0 before the first sample
+     */
+    public synchronized double getBaselineLatencyMillis() {
+        return baselineLatencyNanos == Double.MAX_VALUE ? 0 : baselineLatencyNanos / 1e6;
+    }
+
+    /**
+     * Take a permit if the limit allows one more statement in flight
+     * @return
+     */
+    boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Run the waiter on the executor once permits are available, right away if some already are
+     * @param waiter
+     */
+    void whenAvailable(Runnable waiter) {
+        waiters.add(waiter);
+        // a permit may have been released between the failed tryAcquire and now
+        wakeWaiters();
+    }
+
+    /**
+     * Give back a permit that was not used, without adapting the limit
+     */
+    void cancel() {
+        inFlight.decrementAndGet();
+        wakeWaiters();
+    }
+
+    /**
+     * Give the permit back, adapting the limit to the outcome of the statement
+     * @param latencyNanos time until the statement completed
+     * @param error null if it succeeded
+     */
+    void release(long latencyNanos, Throwable error) {
+        if (error == null) {
+            onSuccess(latencyNanos);
+        } else if (isDropped(error)) {
+            onDropped();
+        }
+        inFlight.decrementAndGet();
+        wakeWaiters();
+    }
+
+    /**
+     * Hand as many waiters as there are free permits to the executor, a waiter that finds none taken registers again
+     */
+    private void wakeWaiters() {
+        // the permits of the waiters handed over but not run yet are not free
+        int free = (int) limit - inFlight.get() - wokenWaiters.get();
+        Runnable waiter;
+        for (int i = 0; i < free && (waiter = waiters.poll()) != null; i++) {
+            Runnable woken = waiter;
+            wokenWaiters.incrementAndGet();
+            executor.execute(() -> {
+                wokenWaiters.decrementAndGet();
+                woken.run();
+                // it may have taken no permit (nothing ready), the next waiter can have it
+                wakeWaiters();
+            });
+        }
+    }
+
+    private synchronized void onSuccess(long latencyNanos) {
+        if (latencyNanos < baselineLatencyNanos) {
+            baselineLatencyNanos = latencyNanos;
+        } else {
+            baselineLatencyNanos += (latencyNanos - baselineLatencyNanos) * BASELINE_DRIFT;
+        }
+        if (latencyNanos > baselineLatencyNanos * LATENCY_TOLERANCE) {
+            decrease(LATENCY_BACKOFF);
+        } else if (inFlight.get() * 2 >= limit) {
+            // only grow when the limit is actually used, one more statement per round trip
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+    }
+
+    private synchronized void onDropped() {
+        decrease(DROP_BACKOFF);
+    }
+
+    /**
+     * Decrease the limit, at most once per baseline round trip so a burst of timeouts only counts once
+     * @param factor
+     */
+    private void decrease(double factor) {
+        long now = System.nanoTime();
+        double roundTrip = baselineLatencyNanos == Double.MAX_VALUE ? 0 : baselineLatencyNanos;
+        if (now - lastDecreaseNanos < roundTrip) {
+            return;
+        }
+        lastDecreaseNanos = now;
+        limit = Math.max(minLimit, limit * factor);
+    }
+
+    /**
+     * Whether the error tells the cluster (or our connection pool) is overloaded
+     * @param error
+     * @return
+     */
+    static boolean isDropped(Throwable error) {
+        return error instanceof TimeoutException
+                || error instanceof OperationTimedOutException
+                || error instanceof OverloadedException
+                || error instanceof ReadTimeoutException
+                || error instanceof WriteTimeoutException
+                || error instanceof BusyPoolException
+                || error instanceof BusyConnectionException;
+    }
+
+    @Override
+    public String toString() {
+        return "ConcurrencyLimiter{" +
+                "queryType=" + queryType +
+                ", limit=" + getLimit() +
+                ", inFlight=" + getInFlight() +
+                '}';
+    }
+}
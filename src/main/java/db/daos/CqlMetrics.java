@@ -0,0 +1,379 @@
+package db.daos;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.Metrics;
+import com.datastax.driver.core.Session;
+import db.config.CassandraConnector;
+import utils.Log;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.ToIntBiFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Registry of the metrics of the CQL requests: one QueryMetrics per prepared query, the concurrency limiters, the retry
+ * budget, the circuit breakers and the driver metrics of every session pool, rendered in the Prometheus text format (metrics.do) and registered on JMX
+ * The driver also reports its own metrics on JMX, under the domain of the cluster name
+ */
+public final class CqlMetrics implements CqlMetricsMXBean {
+
+    private static final String JMX_DOMAIN = "db.daos";
+    // queries are prepared ones so their number is bounded, but keep the label cardinality safe anyway
+    private static final int MAX_QUERIES = 1000;
+    private static final String OTHER_QUERIES = "other";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static final CqlMetrics INSTANCE = new CqlMetrics();
+    private static final ConcurrentHashMap<String, QueryMetrics> QUERIES = new ConcurrentHashMap<>();
+    private static final QueryMetrics OTHER = new QueryMetrics(OTHER_QUERIES);
+    private static volatile MBeanServer mBeanServer;
+
+    private CqlMetrics() {
+    }
+
+    /**
+     * Get the metrics of a query, created on first use
+     * @param query
+     * @return
+     */
+    public static QueryMetrics forQuery(String query) {
+        QueryMetrics metrics = QUERIES.get(query);
+        if (metrics != null) {
+            return metrics;
+        }
+        if (QUERIES.size() >= MAX_QUERIES) {
+            return OTHER;
+        }
+        return QUERIES.computeIfAbsent(query, key -> {
+            QueryMetrics created = new QueryMetrics(key);
+            registerMBean(created);
+            return created;
+        });
+    }
+
+    /**
+     * Register the metrics on the platform MBean server, the ones of the queries executed later too
+     */
+    public static synchronized void registerJmx() {
+        if (mBeanServer != null) {
+            return;
+        }
+        mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        registerMBean(INSTANCE);
+        registerMBean(OTHER);
+        for (QueryMetrics metrics : QUERIES.values()) {
+            registerMBean(metrics);
+        }
+    }
+
+    /**
+     * Unregister the metrics from the MBean server, so a redeployed application doesn't leak them
+     */
+    public static synchronized void unregisterJmx() {
+        if (mBeanServer == null) {
+            return;
+        }
+        try {
+            for (ObjectName name : mBeanServer.queryNames(new ObjectName(JMX_DOMAIN + ":*"), null)) {
+                mBeanServer.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            Log.e("Could not unregister the CQL metrics", e);
+        }
+        mBeanServer = null;
+    }
+
+    private static void registerMBean(Object mBean) {
+        MBeanServer server = mBeanServer;
+        if (server == null) {
+            return;
+        }
+        try {
+            ObjectName name = mBean instanceof QueryMetrics
+                    ? new ObjectName(JMX_DOMAIN + ":type=QueryMetrics,name=" + ObjectName.quote(((QueryMetrics) mBean).getQuery()))
+                    : new ObjectName(JMX_DOMAIN + ":type=CqlMetrics");
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(mBean, name);
+        } catch (JMException e) {
+            Log.e("Could not register the CQL metrics on JMX", e);
+        }
+    }
+
+    @Override
+    public int getQueryCount() {
+        return QUERIES.size();
+    }
+
+    @Override
+    public Map<String, Integer> getInFlight() {
+        Map<String, Integer> inFlight = new LinkedHashMap<>();
+        for (Map.Entry<String, List<ConcurrencyLimiter>> pool : ConcurrencyLimiter.byPool().entrySet()) {
+            for (ConcurrencyLimiter limiter : pool.getValue()) {
+                inFlight.put(pool.getKey() + "/" + limiter.getQueryType(), limiter.getInFlight());
+            }
+        }
+        return inFlight;
+    }
+
+    @Override
+    public Map<String, Integer> getLimits() {
+        Map<String, Integer> limits = new LinkedHashMap<>();
+        for (Map.Entry<String, List<ConcurrencyLimiter>> pool : ConcurrencyLimiter.byPool().entrySet()) {
+            for (ConcurrencyLimiter limiter : pool.getValue()) {
+                limits.put(pool.getKey() + "/" + limiter.getQueryType(), limiter.getLimit());
+            }
+        }
+        return limits;
+    }
+
+    @Override
+    public long getRetryBudgetAvailable() {
+        return RetryBudget.get().getAvailable();
+    }
+
+    @Override
+    public Map<String, String> getCircuitBreakers() {
+        Map<String, String> states = new LinkedHashMap<>();
+        for (CircuitBreaker breaker : CircuitBreaker.all()) {
+            states.put(breaker.getQuery() + (breaker.getHost() == null ? "" : " @ " + breaker.getHost()), breaker.getState().name());
+        }
+        return states;
+    }
+
+    /**
+     * Render every metric in the Prometheus text exposition format (version 0.0.4)
+     * @return
+     */
+    public static String toPrometheusText() {
+        StringBuilder out = new StringBuilder(8192);
+        List<QueryMetrics> queries = new ArrayList<>(QUERIES.values());
+        if (OTHER.getAttempts() > 0) {
+            queries.add(OTHER);
+        }
+        renderQueries(out, queries);
+        renderLimiters(out);
+        renderRetries(out);
+        Map<String, Session> sessions = new LinkedHashMap<>();
+        for (String pool : CassandraConnector.getSessionPools()) {
+            try {
+                sessions.put(pool, CassandraConnector.getSession(pool));
+            } catch (RuntimeException e) {
+                // not connected (yet), only the metrics of the application are rendered
+                Log.w("No driver metrics for session pool " + pool + ": " + e.getMessage());
+            }
+        }
+        if (!sessions.isEmpty()) {
+            renderDriver(out, sessions);
+        }
+        return out.toString();
+    }
+
+    private static void renderQueries(StringBuilder out, List<QueryMetrics> queries) {
+        header(out, "cql_request_latency_seconds", "summary", "Latency of the executions of a query, quantiles of the last 10s window");
+        for (QueryMetrics metrics : queries) {
+            String query = "query=\"" + escape(metrics.getQuery()) + "\"";
+            for (double quantile : QUANTILES) {
+                sample(out, "cql_request_latency_seconds", query + ",quantile=\"" + quantile + "\"", metrics.getLatencyPercentileMillis(quantile * 100) / 1000);
+            }
+            sample(out, "cql_request_latency_seconds_sum", query, metrics.getLatencySumMillis() / 1000);
+            sample(out, "cql_request_latency_seconds_count", query, metrics.getLatencyCount());
+        }
+        counter(out, queries, "cql_request_attempts_total", "Executions of a query, hedges and retries included", QueryMetrics::getAttempts);
+        counter(out, queries, "cql_request_retries_total", "Statements of a query sent again after a timeout or an error", QueryMetrics::getRetries);
+        counter(out, queries, "cql_request_hedges_total", "Hedged executions of a query", QueryMetrics::getHedges);
+        counter(out, queries, "cql_request_timeouts_total", "Executions of a query without response within the timeout", QueryMetrics::getTimeouts);
+        counter(out, queries, "cql_request_failures_total", "Executions of a query that failed", QueryMetrics::getFailures);
+        counter(out, queries, "cql_request_gave_up_total", "Statements of a query given up after the last attempt", QueryMetrics::getGaveUp);
+        counter(out, queries, "cql_request_retries_denied_total", "Retries of a query denied by the retry budget", QueryMetrics::getRetriesDenied);
+        counter(out, queries, "cql_request_rejected_total", "Statements of a query failed fast by an open circuit breaker", QueryMetrics::getRejected);
+        counter(out, queries, "cql_request_rows_total", "Rows returned by a query", QueryMetrics::getRows);
+        header(out, "cql_request_rows_per_second", "gauge", "Rows returned by a query per second, over the last 10s window");
+        for (QueryMetrics metrics : queries) {
+            sample(out, "cql_request_rows_per_second", "query=\"" + escape(metrics.getQuery()) + "\"", metrics.getRowsPerSecond());
+        }
+    }
+
+    private static void counter(StringBuilder out, List<QueryMetrics> queries, String name, String help, ToLongFunction<QueryMetrics> value) {
+        header(out, name, "counter", help);
+        for (QueryMetrics metrics : queries) {
+            sample(out, name, "query=\"" + escape(metrics.getQuery()) + "\"", value.applyAsLong(metrics));
+        }
+    }
+
+    private static void renderLimiters(StringBuilder out) {
+        Map<String, List<ConcurrencyLimiter>> limiters = ConcurrencyLimiter.byPool();
+        header(out, "cql_limiter_in_flight", "gauge", "Statements in flight under a concurrency limiter");
+        for (Map.Entry<String, List<ConcurrencyLimiter>> pool : limiters.entrySet()) {
+            for (ConcurrencyLimiter limiter : pool.getValue()) {
+                sample(out, "cql_limiter_in_flight", limiterLabels(pool.getKey(), limiter), limiter.getInFlight());
+            }
+        }
+        header(out, "cql_limiter_limit", "gauge", "Current limit of statements in flight of a concurrency limiter");
+        for (Map.Entry<String, List<ConcurrencyLimiter>> pool : limiters.entrySet()) {
+            for (ConcurrencyLimiter limiter : pool.getValue()) {
+                sample(out, "cql_limiter_limit", limiterLabels(pool.getKey(), limiter), limiter.getLimit());
+            }
+        }
+    }
+
+    private static void renderRetries(StringBuilder out) {
+        RetryBudget budget = RetryBudget.get();
+        header(out, "cql_retry_budget_available", "gauge", "Retries left in the JVM wide retry budget");
+        sample(out, "cql_retry_budget_available", "", budget.getAvailable());
+        header(out, "cql_retry_budget_denied_total", "counter", "Retries denied by the JVM wide retry budget");
+        sample(out, "cql_retry_budget_denied_total", "", budget.getDenied());
+        List<CircuitBreaker> breakers = CircuitBreaker.all();
+        header(out, "cql_circuit_breaker_state", "gauge", "State of a circuit breaker: 0 closed, 1 open, 2 half open");
+        for (CircuitBreaker breaker : breakers) {
+            sample(out, "cql_circuit_breaker_state", breakerLabels(breaker), breaker.getState().ordinal());
+        }
+        header(out, "cql_circuit_breaker_rejected_total", "counter", "Statements failed fast by a circuit breaker");
+        for (CircuitBreaker breaker : breakers) {
+            sample(out, "cql_circuit_breaker_rejected_total", breakerLabels(breaker), breaker.getRejected());
+        }
+    }
+
+    private static String breakerLabels(CircuitBreaker breaker) {
+        return "query=\"" + escape(breaker.getQuery()) + "\",host=\"" + (breaker.getHost() == null ? "any" : escape(breaker.getHost().toString())) + "\"";
+    }
+
+    private static String limiterLabels(String pool, ConcurrencyLimiter limiter) {
+        return "pool=\"" + escape(pool) + "\",type=\"" + limiter.getQueryType().name().toLowerCase() + "\"";
+    }
+
+    /**
+     * Render the driver metrics of the session pools, the samples of a metric grouped together as the format requires
+     * @param out
+     * @param sessions per pool name
+     */
+    private static void renderDriver(StringBuilder out, Map<String, Session> sessions) {
+        Map<String, Metrics> metrics = new LinkedHashMap<>();
+        for (Map.Entry<String, Session> pool : sessions.entrySet()) {
+            // null if the metrics of the driver are disabled, or the session has no cluster (in-process stand-in)
+            Cluster cluster = pool.getValue().getCluster();
+            Metrics poolMetrics = cluster == null ? null : cluster.getMetrics();
+            if (poolMetrics != null) {
+                metrics.put(pool.getKey(), poolMetrics);
+            }
+        }
+        driverGauge(out, "cassandra_driver_known_hosts", metrics, Metrics::getKnownHosts);
+        driverGauge(out, "cassandra_driver_connected_hosts", metrics, Metrics::getConnectedToHosts);
+        driverGauge(out, "cassandra_driver_open_connections", metrics, Metrics::getOpenConnections);
+        driverGauge(out, "cassandra_driver_trashed_connections", metrics, Metrics::getTrashedConnections);
+        driverGauge(out, "cassandra_driver_in_flight_requests", metrics, Metrics::getInFlightRequests);
+        driverGauge(out, "cassandra_driver_request_queue_depth", metrics, Metrics::getRequestQueueDepth);
+        driverGauge(out, "cassandra_driver_executor_queue_depth", metrics, Metrics::getExecutorQueueDepth);
+        driverGauge(out, "cassandra_driver_blocking_executor_queue_depth", metrics, Metrics::getBlockingExecutorQueueDepth);
+        driverGauge(out, "cassandra_driver_task_scheduler_queue_size", metrics, Metrics::getTaskSchedulerQueueSize);
+
+        // the driver timer records in nanoseconds, over an exponentially decaying reservoir
+        header(out, "cassandra_driver_request_latency_seconds", "summary", "Latency of the requests of the driver");
+        for (Map.Entry<String, Metrics> pool : metrics.entrySet()) {
+            String labels = poolLabel(pool.getKey());
+            Timer timer = pool.getValue().getRequestsTimer();
+            Snapshot snapshot = timer.getSnapshot();
+            for (double quantile : QUANTILES) {
+                sample(out, "cassandra_driver_request_latency_seconds", labels + ",quantile=\"" + quantile + "\"", snapshot.getValue(quantile) / 1e9);
+            }
+            sample(out, "cassandra_driver_request_latency_seconds_count", labels, timer.getCount());
+        }
+        driverCounter(out, "cassandra_driver_bytes_sent_total", metrics, m -> m.getBytesSent().getCount());
+        driverCounter(out, "cassandra_driver_bytes_received_total", metrics, m -> m.getBytesReceived().getCount());
+        driverCounter(out, "cassandra_driver_connection_errors_total", metrics, m -> m.getErrorMetrics().getConnectionErrors().getCount());
+        driverCounter(out, "cassandra_driver_read_timeouts_total", metrics, m -> m.getErrorMetrics().getReadTimeouts().getCount());
+        driverCounter(out, "cassandra_driver_write_timeouts_total", metrics, m -> m.getErrorMetrics().getWriteTimeouts().getCount());
+        driverCounter(out, "cassandra_driver_unavailables_total", metrics, m -> m.getErrorMetrics().getUnavailables().getCount());
+        driverCounter(out, "cassandra_driver_client_timeouts_total", metrics, m -> m.getErrorMetrics().getClientTimeouts().getCount());
+        driverCounter(out, "cassandra_driver_other_errors_total", metrics, m -> m.getErrorMetrics().getOthers().getCount());
+        driverCounter(out, "cassandra_driver_retries_total", metrics, m -> m.getErrorMetrics().getRetries().getCount());
+        driverCounter(out, "cassandra_driver_ignores_total", metrics, m -> m.getErrorMetrics().getIgnores().getCount());
+        driverCounter(out, "cassandra_driver_speculative_executions_total", metrics, m -> m.getErrorMetrics().getSpeculativeExecutions().getCount());
+
+        // connections and requests per host, to spot an unbalanced or overloaded node
+        Map<String, Session.State> states = new LinkedHashMap<>();
+        for (Map.Entry<String, Session> pool : sessions.entrySet()) {
+            states.put(pool.getKey(), pool.getValue().getState());
+        }
+        hostGauge(out, "cassandra_driver_host_open_connections", states, Session.State::getOpenConnections);
+        hostGauge(out, "cassandra_driver_host_in_flight_queries", states, Session.State::getInFlightQueries);
+        hostGauge(out, "cassandra_driver_host_trashed_connections", states, Session.State::getTrashedConnections);
+    }
+
+    private static void driverGauge(StringBuilder out, String name, Map<String, Metrics> metrics, Function<Metrics, Gauge<Integer>> gauge) {
+        header(out, name, "gauge", null);
+        for (Map.Entry<String, Metrics> pool : metrics.entrySet()) {
+            Integer value = gauge.apply(pool.getValue()).getValue();
+            sample(out, name, poolLabel(pool.getKey()), value == null ? 0 : value);
+        }
+    }
+
+    private static void driverCounter(StringBuilder out, String name, Map<String, Metrics> metrics, ToLongFunction<Metrics> counter) {
+        header(out, name, "counter", null);
+        for (Map.Entry<String, Metrics> pool : metrics.entrySet()) {
+            sample(out, name, poolLabel(pool.getKey()), counter.applyAsLong(pool.getValue()));
+        }
+    }
+
+    private static void hostGauge(StringBuilder out, String name, Map<String, Session.State> states, ToIntBiFunction<Session.State, Host> gauge) {
+        header(out, name, "gauge", null);
+        for (Map.Entry<String, Session.State> pool : states.entrySet()) {
+            for (Host host : pool.getValue().getConnectedHosts()) {
+                String labels = poolLabel(pool.getKey()) + ",host=\"" + escape(String.valueOf(host.getSocketAddress()))
+                        + "\",dc=\"" + escape(String.valueOf(host.getDatacenter())) + "\"";
+                sample(out, name, labels, gauge.applyAsInt(pool.getValue(), host));
+            }
+        }
+    }
+
+    private static String poolLabel(String pool) {
+        return "pool=\"" + escape(pool) + "\"";
+    }
+
+    /**
+     * Write the HELP and TYPE lines of a metric
+     * @param out
+     * @param name
+     * @param type
+     * @param help null for none
+     */
+    private static void header(StringBuilder out, String name, String type, String help) {
+        if (help != null) {
+            out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        }
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name).append('{').append(labels).append("} ");
+        if (value == (long) value) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    /**
+     * Escape a label value: backslash, double quote and line feed
+     * @param value
+     * @return
+     */
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
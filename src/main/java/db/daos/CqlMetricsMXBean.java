@@ -0,0 +1,28 @@
+package db.daos;
+
+import java.util.Map;
+
+/**
+ * JMX view of the CQL metrics that are not per query: statements in flight and limits of the concurrency limiters
+ */
+public interface CqlMetricsMXBean {
+
+    int getQueryCount();
+
+    /**
+     * @return statements in flight per limiter, keyed pool/type
+     */
+    Map<String, Integer> getInFlight();
+
+    /**
+     * @return current limit per limiter, keyed pool/type
+     */
+    Map<String, Integer> getLimits();
+
+    long getRetryBudgetAvailable();
+
+    /**
+     * @return state per circuit breaker, keyed by query (and host)
+     */
+    Map<String, String> getCircuitBreakers();
+}
@@ -1,22 +1,38 @@
 package db.daos;
 
 import com.datastax.driver.core.*;
-import com.datastax.driver.core.exceptions.OperationTimedOutException;
-import com.datastax.driver.core.exceptions.ReadTimeoutException;
-import com.google.common.collect.Lists;
+import com.datastax.driver.core.exceptions.BootstrappingException;
+import com.datastax.driver.core.exceptions.BusyPoolException;
+import com.datastax.driver.core.exceptions.CodecNotFoundException;
+import com.datastax.driver.core.exceptions.FunctionExecutionException;
+import com.datastax.driver.core.exceptions.InvalidTypeException;
+import com.datastax.driver.core.exceptions.NoHostAvailableException;
+import com.datastax.driver.core.exceptions.OverloadedException;
+import com.datastax.driver.core.exceptions.PagingStateException;
+import com.datastax.driver.core.exceptions.QueryValidationException;
+import com.datastax.driver.core.exceptions.UnavailableException;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
 import db.config.CassandraConnector;
+import db.beans.BeanStatementBinder;
 import db.beans.DBBean;
 import utils.Log;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Prepare queries on Cassandra table and use callback style to simplify the usage of this class
@@ -27,18 +43,44 @@ import java.util.stream.Collectors;
  */
 public class CqlRequest {
 
-    // cache the prepared statements with concurrent hashmap
-    private final static ConcurrentHashMap<String, PreparedStatement> PREPARED_STATEMENT_CACHE = new ConcurrentHashMap<>();
-    // time to wait until query finishes, if not finished will retry after
-    private final int timeout = 1000;
-    // number of concurrent statements allowed
+    // single daemon thread to schedule delayed work (backoff of retries) without parking the caller
+    static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "cql-request-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // consistency, timeout, fetch size and hedging of the statements added from now on
+    private ExecutionProfile profile = ExecutionProfile.DEFAULT;
+    // deadline given by the caller, null to start the one of the profile when the request is executed
+    private Deadline deadline;
+    // session pool of the profile the statements are executed on
+    private String pool = CassandraConnector.DEFAULT_POOL;
+    // shared adaptive limit of statements in flight for this query type (and session pool)
+    private ConcurrencyLimiter limiter;
+    // cap of statements in flight for this request only, on top of the shared limit
     private int nConcurrentStatements;
+    // query of the request, and its handle if it comes from the registry, to prepare it on another session pool
+    private final String query;
+    private final StatementHandle handle;
     private PreparedStatement preparedStatement;
-    // a list of our bound statements to execute
-    private List<BoundStatement> boundStatements = new ArrayList<>();
-    // TODO: implement the streaming style query (because the returned data size can be very large)
-    // streaming handler, if set we can stream back partial lists using lambda functions
-    private HandlerRowList handler;
+    // JVM wide metrics and circuit breaker of the query, looked up once
+    private final QueryMetrics metrics;
+    private final CircuitBreaker breaker;
+    // binder used by the last addStatementsAsBeans call
+    private BeanStatementBinder binder;
+    // a list of our bound statements to execute (or single partition batches of them)
+    private List<Statement> boundStatements = new ArrayList<>();
+    // consistency level of the statements added from now on, null to use the one of the profile
+    private ConsistencyLevel consistencyLevel;
+    // whether the statements added from now on can be executed more than once (retries after a timeout, hedges,
+    // speculative executions of the driver), true unless the caller opts out, e.g. for a conditional write
+    private boolean idempotent = true;
+    // write timestamp (microseconds) of the statements added from now on, Long.MIN_VALUE to let the driver generate one per execution
+    private long defaultTimestamp = Long.MIN_VALUE;
+    // number of statements streamed at the same time, each one with a single page fetched ahead of the callback
+    private int maxConcurrentStreams = 2;
+    // stats of the last executed batch
+    private volatile ExecutionStats stats;
     // whether this query failed or not
     private boolean success = true;
 
@@ -46,6 +88,14 @@ public class CqlRequest {
         return !success;
     }
 
+    /**
+     * Throughput, retries and stall time of the last batch of statements executed by treat() or treatAsync()
+     * @return null if nothing was executed yet
+     */
+    public ExecutionStats getExecutionStats() {
+        return stats;
+    }
+
     /**
      * Construct an object to execute desired queries, with internal backoff and retry mechanisms in case of failures.
      * Also can execute multiple statements in parallel by using addStatements, all statements that are added
@@ -53,20 +103,35 @@ public class CqlRequest {
      * @param query query string with placeholders (?) that can be bound by calling addStatements()
      */
     public CqlRequest(final String query) {
-        if (query.trim().toUpperCase().startsWith("SELECT")) {
-            // not optimized for read
-            nConcurrentStatements = 32; // if we fetch 10 statements, each 10k items(~max partition size), we could get upto 100k!
-        } else {
-            // optimized for write
-            nConcurrentStatements = 10000; // we can write a lot more!
-        }
+        // the number of statements in flight is adapted to the cluster health by the limiter shared with other requests
+        this.limiter = ConcurrencyLimiter.forQuery(query);
+        this.nConcurrentStatements = Integer.MAX_VALUE;
+        this.query = query;
+        this.handle = null;
+        this.metrics = CqlMetrics.forQuery(query);
+        this.breaker = CircuitBreaker.forQuery(query, null);
 
-        // prepare our query, computeIfAbsent is atomic on concurrentHashmap, if key does not exist yet.
-        this.preparedStatement = PREPARED_STATEMENT_CACHE.computeIfAbsent(query, k -> CassandraConnector.getSession().prepare(k));
+        // prepare our query, or take it from the registry if it was already prepared
+        this.preparedStatement = StatementRegistry.prepare(pool, query);
+    }
+
+    /**
+     * Construct a request of a statement of the registry, without building or looking up the query
+     * @param handle
+     */
+    CqlRequest(StatementHandle handle) {
+        StatementHandle.PoolStatement prepared = StatementRegistry.prepare(pool, handle);
+        this.limiter = prepared.limiter;
+        this.nConcurrentStatements = Integer.MAX_VALUE;
+        this.query = handle.getQuery();
+        this.handle = handle;
+        this.preparedStatement = prepared.prepared;
+        this.metrics = handle.getMetrics();
+        this.breaker = handle.getBreaker();
     }
 
     /**
-     * Use this to override the number of concurrent statements setting (in case of read intensive scenarios)
+     * Use this to cap the number of concurrent statements of this request (in case of read intensive scenarios)
      * @param query
      * @param nConcurrentStatements
      */
@@ -76,16 +141,84 @@ public class CqlRequest {
     }
 
 
+    /**
+     * Use this to select the execution profile (ExecutionProfile.DEFAULT by default) of the statements added after this call,
+     * the timeout and hedging of the last profile set apply to every statement of the request.
+     * The session pool of the profile can only be changed before statements are added
+     * @param profile
+     */
+    public void setExecutionProfile(ExecutionProfile profile) {
+        String profilePool = CassandraConnector.resolvePool(profile.getSessionPool());
+        if (!profilePool.equals(pool)) {
+            if (!boundStatements.isEmpty()) {
+                throw new IllegalStateException("Statements already bound on session pool " + pool + ", set the profile before adding statements");
+            }
+            // a prepared statement belongs to the cluster connection of its pool
+            this.pool = profilePool;
+            if (handle != null) {
+                StatementHandle.PoolStatement prepared = StatementRegistry.prepare(profilePool, handle);
+                this.limiter = prepared.limiter;
+                this.preparedStatement = prepared.prepared;
+            } else {
+                this.limiter = ConcurrencyLimiter.forType(profilePool, limiter.getQueryType());
+                this.preparedStatement = StatementRegistry.prepare(profilePool, query);
+            }
+        }
+        this.profile = profile;
+    }
+
+    /**
+     * Use this to give the request a deadline (the one of the profile, starting on execution, by default):
+     * attempts are cut at the deadline and statements are not retried past it
+     * @param deadline
+     */
+    public void setDeadline(Deadline deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Deadline of an execution starting now
+     * @return
+     */
+    private Deadline startDeadline() {
+        return deadline != null ? deadline : profile.newDeadline();
+    }
+
+    /**
+     * Use this to override the consistency level (the one of the profile by default) of the statements added after this call,
+     * e.g. LOCAL_SERIAL to read values written by lightweight transactions
+     * @param consistencyLevel
+     */
+    public void setConsistencyLevel(ConsistencyLevel consistencyLevel) {
+        this.consistencyLevel = consistencyLevel;
+    }
+
+    /**
+     * Use this to mark the statements added after this call as not idempotent (they are by default, i.e. hedged, executed
+     * speculatively by the driver and retried after failures they may have been applied despite, like timeouts).
+     * Plain reads, upserts and deletes are idempotent, conditional writes (IF ...), counter updates and list appends
+     * are not and should opt out: they are then only retried after failures telling they were not executed
+     * @param idempotent
+     */
+    public void setIdempotent(boolean idempotent) {
+        this.idempotent = idempotent;
+    }
+
+    /**
+     * Use this to fix the write timestamp of the statements added after this call, so their retries are sent
+     * with it rather than with a fresh one and can't win over a later write of the same row
+     * @param timestampMicros Long.MIN_VALUE to let the driver generate one per execution
+     */
+    public void setDefaultTimestamp(long timestampMicros) {
+        this.defaultTimestamp = timestampMicros;
+    }
+
     /**
      * Bind the parameters to the prepared statement and add the bound statement to the list
      * @param params
      */
     public void addStatements(Object... params) {
-        BoundStatement queryBound = preparedStatement.bind(params);
-        queryBound.setFetchSize(20000);
-        queryBound.setConsistencyLevel(ConsistencyLevel.LOCAL_QUORUM);
-        queryBound.setIdempotent(true);
-        boundStatements.add(queryBound);
+        addBoundStatement(preparedStatement.bind(params));
     }
 
     /**
@@ -94,15 +227,154 @@ public class CqlRequest {
      * @param fields
      */
     public void addStatementsAsBeans(DBBean bean, String... fields) {
-        Map<String, Object> beanAsMap = bean.toCassandraObject();
-        Object[] params = new Object[fields.length];
-        for (int i =0; i<fields.length; i +=1) {
-            params[i] = beanAsMap.get(fields[i].toLowerCase());
-            if(params[i]==null) {
-                Log.i("WARNING: bean object does not contain given field " + fields[i]);
+        // callers pass the same fields for every bean, so the binder of the previous bean is usually the right one
+        BeanStatementBinder beanBinder = this.binder;
+        if (beanBinder == null || !beanBinder.matches(bean.getClass(), fields)) {
+            beanBinder = BeanStatementBinder.forFields(bean.getClass(), fields);
+            this.binder = beanBinder;
+        }
+        addBoundStatement(beanBinder.bind(preparedStatement, bean));
+    }
+
+    /**
+     * Add one statement per sub-range of the ring, each one sent to a replica owning its sub-range,
+     * to scan a whole table in parallel instead of paging the whole ring through a single coordinator.
+     * The query should be bound by "token(pk) > ? AND token(pk) <= ?"
+     * @param splitsPerRange number of sub-ranges each range between two node tokens is split into
+     * @param endOfRingQuery same query only bound by "token(pk) > ?", for the range wrapping around the ring
+     */
+    public void addTokenRangeStatements(int splitsPerRange, String endOfRingQuery) {
+        Session session = CassandraConnector.getSession(pool);
+        Metadata metadata = session.getCluster().getMetadata();
+        String keyspace = Metadata.quote(CassandraConnector.getKeyspace());
+        // a statement can only be sent to a host we have a connection pool to
+        Collection<Host> connectedHosts = session.getState().getConnectedHosts();
+        PreparedStatement endOfRingStatement = null;
+        int rangeCounter = 0;
+        for (TokenRange range : metadata.getTokenRanges()) {
+            for (TokenRange split : range.splitEvenly(Math.max(1, splitsPerRange))) {
+                List<Host> replicas = new ArrayList<>(metadata.getReplicas(keyspace, split));
+                replicas.removeIf(host -> !host.isUp() || !connectedHosts.contains(host));
+                // rotate through the replicas so the scan is spread over all of them
+                Host replica = replicas.isEmpty() ? null : replicas.get(rangeCounter++ % replicas.size());
+                for (TokenRange unwrapped : split.unwrap()) {
+                    BoundStatement statement;
+                    if (unwrapped.getEnd().compareTo(unwrapped.getStart()) <= 0) {
+                        // once unwrapped, only (start, min] ends before it starts: it means up to the end of the ring,
+                        // "token <= min" would match nothing
+                        if (endOfRingStatement == null) {
+                            endOfRingStatement = StatementRegistry.prepare(pool, endOfRingQuery);
+                        }
+                        statement = endOfRingStatement.bind().setToken(0, unwrapped.getStart());
+                    } else {
+                        statement = preparedStatement.bind().setToken(0, unwrapped.getStart()).setToken(1, unwrapped.getEnd());
+                    }
+                    statement.setHost(replica);
+                    addBoundStatement(statement);
+                }
             }
         }
-        addStatements(params);
+    }
+
+    /**
+     * Apply the statement settings and add the bound statement to the list
+     * @param queryBound
+     */
+    private void addBoundStatement(BoundStatement queryBound) {
+        applySettings(queryBound);
+        boundStatements.add(queryBound);
+    }
+
+    private void applySettings(Statement statement) {
+        statement.setFetchSize(profile.getFetchSize());
+        statement.setConsistencyLevel(consistencyLevel != null ? consistencyLevel : profile.getConsistencyLevel());
+        if (profile.getReadTimeoutMillis() > 0) {
+            statement.setReadTimeoutMillis(profile.getReadTimeoutMillis());
+        }
+        statement.setIdempotent(idempotent);
+        if (defaultTimestamp != Long.MIN_VALUE) {
+            statement.setDefaultTimestamp(defaultTimestamp);
+        }
+    }
+
+    /**
+     * Group the bound statements by partition into UNLOGGED batches, one batch only touching a single partition
+     * so the coordinator stays a replica (token aware) and the server does one mutation per partition.
+     * Statements not binding the whole partition key are left as they are
+     * @param partitionKeyColumns partition key columns of the table, in order
+     * @param maxBatchBytes max size of a batch, keep it under the server's batch_size_warn_threshold_in_kb
+     */
+    public void batchByPartition(List<String> partitionKeyColumns, int maxBatchBytes) {
+        if (partitionKeyColumns == null || partitionKeyColumns.isEmpty()) {
+            Log.i("WARNING: No partition key given, statements won't be batched for query: " + this.preparedStatement.getQueryString());
+            return;
+        }
+        ColumnDefinitions variables = this.preparedStatement.getVariables();
+        int[] keyIndexes = new int[partitionKeyColumns.size()];
+        for (int i = 0; i < keyIndexes.length; i++) {
+            String column = partitionKeyColumns.get(i);
+            if (!variables.contains(column)) {
+                Log.i("WARNING: Partition key column " + column + " is not bound, statements won't be batched for query: " + this.preparedStatement.getQueryString());
+                return;
+            }
+            keyIndexes[i] = variables.getIndexOf(column);
+        }
+
+        // group by the serialized partition key values, keeping the statements order within a partition
+        Map<List<ByteBuffer>, List<BoundStatement>> partitions = new LinkedHashMap<>();
+        List<Statement> others = new ArrayList<>();
+        for (Statement statement : this.boundStatements) {
+            if (!(statement instanceof BoundStatement)) {
+                others.add(statement);
+                continue;
+            }
+            BoundStatement boundStatement = (BoundStatement) statement;
+            List<ByteBuffer> partitionKey = new ArrayList<>(keyIndexes.length);
+            for (int keyIndex : keyIndexes) {
+                partitionKey.add(boundStatement.getBytesUnsafe(keyIndex));
+            }
+            partitions.computeIfAbsent(partitionKey, k -> new ArrayList<>()).add(boundStatement);
+        }
+
+        ProtocolVersion protocolVersion = CassandraConnector.getProtocolVersion();
+        CodecRegistry codecRegistry = this.preparedStatement.getCodecRegistry();
+        List<Statement> batched = new ArrayList<>(others);
+        for (List<BoundStatement> partition : partitions.values()) {
+            if (partition.size() == 1) {
+                batched.add(partition.get(0));
+                continue;
+            }
+            BatchStatement batch = newBatch();
+            int batchBytes = 0;
+            for (BoundStatement statement : partition) {
+                int statementBytes = statement.requestSizeInBytes(protocolVersion, codecRegistry);
+                if (batch.size() > 0 && batchBytes + statementBytes > maxBatchBytes) {
+                    batched.add(batch.size() == 1 ? batch.getStatements().iterator().next() : batch);
+                    batch = newBatch();
+                    batchBytes = 0;
+                }
+                batch.add(statement);
+                batchBytes += statementBytes;
+                // a batch is only as idempotent as its statements
+                if (statement.isIdempotent() != Boolean.TRUE) {
+                    batch.setIdempotent(false);
+                }
+                // the timestamps of the statements of a batch are ignored, the batch is written with the latest one
+                if (statement.getDefaultTimestamp() > batch.getDefaultTimestamp()) {
+                    batch.setDefaultTimestamp(statement.getDefaultTimestamp());
+                }
+            }
+            batched.add(batch.size() == 1 ? batch.getStatements().iterator().next() : batch);
+        }
+        this.boundStatements = batched;
+    }
+
+    private BatchStatement newBatch() {
+        BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+        applySettings(batch);
+        // set from the statements added to it
+        batch.setDefaultTimestamp(Long.MIN_VALUE);
+        return batch;
     }
 
     /**
@@ -122,12 +394,15 @@ public class CqlRequest {
         }
         this.success = true;
         try {
-            Session session = CassandraConnector.getSession();
+            Session session = CassandraConnector.getSession(pool);
             // insert/update/delete queries won't return result rows
-            List<Row> res = executeQuery(session, this.boundStatements);
+            StatementPipeline pipeline = new StatementPipeline(session, nConcurrentStatements, profile, startDeadline(), this.preparedStatement.getQueryString(), limiter, metrics, breaker)
+                    .execute(this.boundStatements).join();
             // clear our statements as we assume calling this object twice with new statements is allowed
             this.boundStatements.clear();
-            return res;
+            this.stats = pipeline.getStats();
+            this.success = this.stats.getFailedStatements() == 0;
+            return pipeline.getCollectedRows();
         } catch (Exception e) {
             e.printStackTrace();
             Log.i(e.getMessage());
@@ -137,112 +412,296 @@ public class CqlRequest {
     }
 
     /**
-     * TODO: use this method when implementing stream query
-     * @param streamingHandler
-     * @return
+     * Get query results without blocking the calling thread, the statements are cleared right away
+     * so this object can be reused while the query is running
+     * @return future rows, completed exceptionally if some statements could not be executed before the deadline
      */
-    public boolean streamRows(HandlerRowList streamingHandler) {
-        this.handler = streamingHandler;
-        treat();
-        return this.success;
+    public CompletableFuture<List<Row>> treatAsync() {
+        if (this.boundStatements.isEmpty()) {
+            Log.i("WARNING: No bound statements, either this query was already treated or no statements were added");
+        }
+        List<Statement> statements = new ArrayList<>(this.boundStatements);
+        this.boundStatements.clear();
+        try {
+            Session session = CassandraConnector.getSession(pool);
+            return new StatementPipeline(session, nConcurrentStatements, profile, startDeadline(), this.preparedStatement.getQueryString(), limiter, metrics, breaker)
+                    .execute(statements)
+                    .thenApply(pipeline -> {
+                        this.stats = pipeline.getStats();
+                        if (this.stats.getFailedStatements() > 0) {
+                            throw new IllegalStateException("Could not completely execute all requests: "
+                                    + this.stats.getFailedStatements() + " for query: " + this.preparedStatement.getQueryString());
+                        }
+                        return pipeline.getCollectedRows();
+                    });
+        } catch (Exception e) {
+            CompletableFuture<List<Row>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
     }
 
     /**
-     * Execute query and get rows, backoff and retry if run into failures
+     * Get a single page of the query results, starting from the cursor of the previous page
+     * @param pageSize max number of rows of the page
+     * @param cursor cursor returned with the previous page, null for the first page
+     * @return the rows and the cursor of the next page, null if the query failed
+     */
+    public Page<Row> treatPage(int pageSize, String cursor) {
+        if (this.boundStatements.size() != 1) {
+            throw new IllegalStateException("A page can only be fetched for a single bound statement, got " + this.boundStatements.size());
+        }
+        Statement statement = this.boundStatements.get(0);
+        statement.setFetchSize(pageSize);
+        if (cursor != null && !cursor.isEmpty()) {
+            try {
+                statement.setPagingState(PagingState.fromString(cursor));
+            } catch (PagingStateException | IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid page cursor: " + cursor, e);
+            }
+        }
+        this.success = true;
+        Session session = CassandraConnector.getSession(pool);
+        String query = this.preparedStatement.getQueryString();
+        CircuitBreaker breaker = CircuitBreaker.forStatement(this.breaker, statement);
+        Deadline pageDeadline = startDeadline();
+        RetryBudget.get().onRequests(1);
+        for (int attemptCounter = 1; ; attemptCounter++) {
+            if (!breaker.tryAcquire()) {
+                metrics.recordRejected();
+                Log.e("ERROR: Circuit breaker open, page not fetched for query: " + query, null);
+                this.success = false;
+                return null;
+            }
+            long startNanos = System.nanoTime();
+            Throwable failure;
+            try {
+                capReadTimeout(statement, profile, pageDeadline);
+                ResultSet result = executePage(session, statement, metrics, pageDeadline);
+                breaker.record(null);
+                metrics.recordExecution(System.nanoTime() - startNanos, null);
+                // only take what came with this page, iterating further would fetch the next pages
+                int available = result.getAvailableWithoutFetching();
+                List<Row> rows = new ArrayList<>(available);
+                for (int i = 0; i < available; i++) {
+                    rows.add(result.one());
+                }
+                metrics.recordRows(available);
+                PagingState pagingState = result.getExecutionInfo().getPagingState();
+                this.boundStatements.clear();
+                return new Page<>(rows, pagingState == null ? null : pagingState.toString());
+            } catch (TimeoutException e) {
+                metrics.recordTimeout(System.nanoTime() - startNanos);
+                failure = e;
+            } catch (InterruptedException e) {
+                breaker.cancel();
+                Thread.currentThread().interrupt();
+                Log.i("Page fetch interrupted for query: " + query);
+                this.success = false;
+                return null;
+            } catch (ExecutionException e) {
+                failure = e.getCause();
+                metrics.recordExecution(System.nanoTime() - startNanos, failure);
+            } catch (Exception e) {
+                failure = e;
+                metrics.recordExecution(System.nanoTime() - startNanos, e);
+            }
+            breaker.record(failure);
+            long backoffTime = retryDelay(profile, pageDeadline, statement, attemptCounter, failure, metrics);
+            if (backoffTime < 0) {
+                metrics.recordGaveUp();
+                Log.e("ERROR: Could not fetch page after " + Integer.toString(attemptCounter) + " attempts for query: " + query, failure);
+                this.success = false;
+                return null;
+            }
+            Log.i("Page fetch failed: " + failure + " Attempt: " + Integer.toString(attemptCounter + 1) +
+                    " Backing-off: " + Long.toString(backoffTime) + "ms");
+            metrics.recordRetry();
+            try {
+                Thread.sleep(backoffTime);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.success = false;
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Execute the statement of a page, hedged if the profile hedges reads: the statement is executed again
+     * when there is no response after the hedge delay, the first execution to succeed wins.
+     * Executions still running at the timeout (or at the deadline if it comes first) are cancelled
      * @param session
-     * @param statements
+     * @param statement
+     * @param metrics metrics of the query, counting the hedges
+     * @param pageDeadline
      * @return
      */
-    private List<Row> executeQuery(Session session, List<BoundStatement> statements) {
-        List<Row> collectedRows = new ArrayList<>();
-        int attemptCounter = 1;
-        this.success = true;
+    private ResultSet executePage(Session session, Statement statement, QueryMetrics metrics, Deadline pageDeadline) throws InterruptedException, ExecutionException, TimeoutException {
+        long startNanos = System.nanoTime();
+        long deadlineNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(pageDeadline.capMillis(profile.getTimeoutMillis()));
+        boolean hedged = limiter.getQueryType() == ConcurrencyLimiter.QueryType.READ && Boolean.TRUE.equals(statement.isIdempotent());
+        CompletableFuture<ResultSet> firstSucceeded = new CompletableFuture<>();
+        AtomicInteger running = new AtomicInteger();
+        List<ResultSetFuture> executions = new ArrayList<>();
+        try {
+            for (int hedges = 0; ; hedges++) {
+                if (hedges > 0) {
+                    metrics.recordHedge();
+                }
+                ResultSetFuture execution = session.executeAsync(statement);
+                executions.add(execution);
+                running.incrementAndGet();
+                Futures.addCallback(execution, new FutureCallback<ResultSet>() {
+                    @Override
+                    public void onSuccess(ResultSet resultSet) {
+                        firstSucceeded.complete(resultSet);
+                    }
 
-        List<BoundStatement> failedStatements = executeQueryByBuffer(session, statements, collectedRows);
-        // if some failed, we need to retry them, failing once is common, twice would indicate small issues, more probably severe issues
-        while (failedStatements.size() > 0 && attemptCounter <= 15) {
-            attemptCounter += 1;
-            // delay by fixed time + random extra time (random exponential backoff), upto 2^10+2^10*25 = ~ 1min
-            double expFactor = Math.pow(2, attemptCounter-1);
-            int baseDelay = 25;
-            if (attemptCounter>2) {
-                long backoffTime = (long)((expFactor*baseDelay)+(Math.random()*baseDelay*expFactor));
-                Log.i("Remaining requests: " + Integer.toString(failedStatements.size()) +
-                        " Attempt: " + Integer.toString(attemptCounter) +
-                        " Backing-off: " + Long.toString(backoffTime) + "ms");
-                try {Thread.sleep(backoffTime);} catch (InterruptedException e) {e.printStackTrace();}
+                    @Override
+                    public void onFailure(Throwable t) {
+                        // failed only once every execution failed
+                        if (running.decrementAndGet() == 0) {
+                            firstSucceeded.completeExceptionally(t);
+                        }
+                    }
+                }, MoreExecutors.directExecutor());
+                long waitNanos = deadlineNanos - System.nanoTime();
+                long hedgeDelay = hedged && hedges < profile.getMaxHedges() ? profile.getHedgeDelayMillis(metrics) : -1;
+                boolean hedgeNext = hedgeDelay >= 0 && TimeUnit.MILLISECONDS.toNanos(hedgeDelay) < waitNanos;
+                try {
+                    return firstSucceeded.get(hedgeNext ? TimeUnit.MILLISECONDS.toNanos(hedgeDelay) : Math.max(0, waitNanos), TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    if (!hedgeNext) {
+                        throw e;
+                    }
+                }
+            }
+        } finally {
+            for (ResultSetFuture execution : executions) {
+                if (!execution.isDone()) {
+                    execution.cancel(true);
+                }
             }
-            failedStatements = executeQueryByBuffer(session, failedStatements, collectedRows);
         }
+    }
+
+    /**
+     * Use this to override the number of statements streamed at the same time (2 by default)
+     * Each stream only prefetches the next page of its statement: the paging state of a page is only known once
+     * the previous one arrived, so a single statement can't be fetched deeper ahead. Stream more statements
+     * (e.g. more token ranges) to have more pages in flight
+     * @param maxConcurrentStreams
+     */
+    public void setMaxConcurrentStreams(int maxConcurrentStreams) {
+        this.maxConcurrentStreams = maxConcurrentStreams;
+    }
 
-        if (failedStatements.size()>0) {
-            Log.e("ERROR: Could not completely execute all requests: " + Integer.toString(failedStatements.size()) +" for query: " + this.preparedStatement.getQueryString(), null);
+    /**
+     * Stream the query results page by page to the handler instead of collecting them all,
+     * heap usage stays bounded by the concurrent streams (one page each), use this for large results (e.g. full table scans)
+     * @param streamingHandler
+     * @return whether all rows were streamed
+     */
+    public boolean streamRows(HandlerRowList streamingHandler) {
+        if (this.boundStatements.isEmpty()) {
+            Log.i("WARNING: No bound statements, either this query was already treated or no statements were added");
+        }
+        try {
+            Session session = CassandraConnector.getSession(pool);
+            this.success = new RowStreamer(session, this.boundStatements, this.maxConcurrentStreams, profile, startDeadline(),
+                    this.preparedStatement.getQueryString(), metrics, breaker).stream(streamingHandler);
+            this.boundStatements.clear();
+        } catch (Exception e) {
+            e.printStackTrace();
+            Log.i(e.getMessage());
             this.success = false;
         }
-        return collectedRows;
+        return this.success;
     }
 
+    /**
+     * Backoff before the next attempt of a failed statement, if it is worth one: the error may be transient, the statement
+     * is idempotent or was not executed, the profile allows another attempt, the deadline leaves room for the backoff
+     * and half a timeout, and the JVM wide retry budget is not spent (checked last, so only the retries actually sent take from it)
+     * @param profile
+     * @param deadline
+     * @param statement
+     * @param attempts executions of the statement so far
+     * @param failure
+     * @param metrics metrics of the query, counting the retries denied by the budget
+     * @return the delay in milliseconds, -1 to give up
+     */
+    static long retryDelay(ExecutionProfile profile, Deadline deadline, Statement statement, int attempts, Throwable failure, QueryMetrics metrics) {
+        if (!isRetryable(failure) || attempts >= profile.getMaxAttempts()) {
+            return -1;
+        }
+        if (statement.isIdempotent() != Boolean.TRUE && !isNotExecuted(failure)) {
+            // it may have been applied, e.g. a timeout of a conditional write, the caller has to find out
+            return -1;
+        }
+        long backoffTime = backoffDelay(attempts + 1);
+        if (deadline.remainingMillis() - backoffTime < profile.getTimeoutMillis() / 2) {
+            return -1;
+        }
+        if (!RetryBudget.get().tryRetry()) {
+            metrics.recordRetryDenied();
+            return -1;
+        }
+        return backoffTime;
+    }
 
     /**
-     * Execute query in a batch style
-     * @param session
-     * @param statements
-     * @param collectedRows
+     * Whether executing the statement again may succeed, errors of the query itself or of its values won't go away
+     * @param failure null if unknown
      * @return
      */
-    private List<BoundStatement> executeQueryByBuffer(Session session, List<BoundStatement> statements, List<Row> collectedRows) {
-        List<BoundStatement> failedStatements = new ArrayList<>();
-
-        // do it in batch, to avoid overloading our threads and network, this is linked to setMaxRequestsPerConnection
-        for (List<BoundStatement> partition : Lists.partition(statements, nConcurrentStatements)) {
-            // use async to get a list of resultsets
-            List<ResultSetWithStatement> resultSets = partition.stream()
-                    .map(statement -> new ResultSetWithStatement(session.executeAsync(statement), statement))
-                    .collect(Collectors.toList());
-
-            // collect resulting rows from the future result sets
-            List<Row> collectRowsPartial = resultSets.stream().map(futurePair -> {
-                ResultSet result = null;
-                ResultSetFuture future = futurePair.resultSetFuture;
-                BoundStatement queryBound = futurePair.statement;
-                try {
-                    result = future.get(timeout, TimeUnit.MILLISECONDS);
-                    return result.all();
-                } catch (InterruptedException | ExecutionException | TimeoutException | OperationTimedOutException | ReadTimeoutException e) {
-                    e.printStackTrace();
-                } catch (Exception e){Log.i(e.getMessage());}
-
-                // add failed statements
-                failedStatements.add(queryBound);
-                return null;
-            }).filter(a -> a != null).flatMap(a -> a.stream()).collect(Collectors.toList()); // filter and merge each partialRowList
+    static boolean isRetryable(Throwable failure) {
+        return !(failure instanceof QueryValidationException
+                || failure instanceof FunctionExecutionException
+                || failure instanceof InvalidTypeException
+                || failure instanceof CodecNotFoundException);
+    }
 
-            if(collectRowsPartial.size()>500000) {
-                Log.w("WARNING: nConcurrentStatements too large, or partition size too large: "+Integer.toString(collectRowsPartial.size())+" rows, for query: " + this.preparedStatement.getQueryString(), null);
-            }
+    /**
+     * Whether the failure tells the statement was not executed, so even a statement that is not idempotent can be sent again
+     * @param failure null if unknown
+     * @return
+     */
+    static boolean isNotExecuted(Throwable failure) {
+        return failure instanceof UnavailableException
+                || failure instanceof OverloadedException
+                || failure instanceof BootstrappingException
+                || failure instanceof NoHostAvailableException
+                || failure instanceof BusyPoolException;
+    }
 
-            // check if it's using callback style
-            if (this.handler != null) {
-                // use callback
-                this.handler.callback(collectRowsPartial);
-            } else {
-                // no callback, we simply return the full row set
-                collectedRows.addAll(collectRowsPartial);
-            }
+    /**
+     * Cap the time the driver waits for each page of the statement to the time left before the deadline
+     * @param statement
+     * @param profile
+     * @param deadline
+     */
+    static void capReadTimeout(Statement statement, ExecutionProfile profile, Deadline deadline) {
+        if (!deadline.isBounded()) {
+            return;
         }
-        return failedStatements;
+        int readTimeout = profile.getReadTimeoutMillis() > 0 ? profile.getReadTimeoutMillis() : SocketOptions.DEFAULT_READ_TIMEOUT_MILLIS;
+        statement.setReadTimeoutMillis((int) Math.max(1, deadline.capMillis(readTimeout)));
     }
 
     /**
-     * Combine ResultSetFuture with BoundStatement to a new result type class
-     * this can help redo the query in case of failure
+     * Random exponential backoff before the given attempt, first retry is immediate
+     * delay by fixed time + random extra time, upto 2^10+2^10*25 = ~ 1min
+     * @param attemptCounter
+     * @return
      */
-    class ResultSetWithStatement {
-        public ResultSetFuture resultSetFuture;
-        public BoundStatement statement;
-        public ResultSetWithStatement(ResultSetFuture resultSetFuture, BoundStatement statement) {
-            this.resultSetFuture = resultSetFuture;
-            this.statement = statement;
+    static long backoffDelay(int attemptCounter) {
+        if (attemptCounter <= 2) {
+            return 0;
         }
+        double expFactor = Math.pow(2, attemptCounter-1);
+        int baseDelay = 25;
+        return (long)((expFactor*baseDelay)+(Math.random()*baseDelay*expFactor));
     }
 }
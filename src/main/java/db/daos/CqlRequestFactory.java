@@ -1,6 +1,8 @@
 package db.daos;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 
 /**
  * Use factory design pattern for CqlRequest, get basic CRUD requests
@@ -25,6 +27,41 @@ public class CqlRequestFactory {
         return query;
     }
 
+    /**
+     * Get the insert string applied only if the row doesn't exist yet (lightweight transaction)
+     * @param table
+     * @param fieldsToInsert
+     * @return
+     */
+    public static String getInsertIfNotExistsString(String table, String... fieldsToInsert) {
+        return getInsertString(table, fieldsToInsert) + " IF NOT EXISTS";
+    }
+
+    /**
+     * Get the update string applied only if the conditions hold (lightweight transaction)
+     * @param table
+     * @param fieldsToSet
+     * @param keyFields
+     * @param conditionFields fields that have to be equal to the bound values
+     * @return
+     */
+    public static String getUpdateIfString(String table, String[] fieldsToSet, String[] keyFields, String[] conditionFields) {
+        String[] assignments = new String[fieldsToSet.length];
+        for (int i=0; i<fieldsToSet.length; i+=1) {
+            assignments[i] = fieldsToSet[i] + "=?";
+        }
+        String[] keys = new String[keyFields.length];
+        for (int i=0; i<keyFields.length; i+=1) {
+            keys[i] = keyFields[i] + "=?";
+        }
+        String[] conditions = new String[conditionFields.length];
+        for (int i=0; i<conditionFields.length; i+=1) {
+            conditions[i] = conditionFields[i] + "=?";
+        }
+        return "UPDATE " + table + " SET " + String.join(", ", assignments) + " WHERE " + String.join(" AND ", keys) +
+                " IF " + String.join(" AND ", conditions);
+    }
+
     /**
      * Get the upsert request based on table and fields (for cassandra and for now, it's same with insert request)
      * @param table
@@ -32,9 +69,8 @@ public class CqlRequestFactory {
      * @return
      */
     public static CqlRequest getUpsertSafeRequest(String table, String... fieldsToUpsert) {
-        String query = getInsertString(table, fieldsToUpsert);
-        CqlRequest request = new CqlRequest(query);
-        return request;
+        // the query is only built the first time, then taken from the registry
+        return StatementRegistry.get(table, StatementRegistry.Operation.UPSERT, fieldsToUpsert).newRequest();
     }
 
     /**
@@ -44,12 +80,111 @@ public class CqlRequestFactory {
      * @return
      */
     public static CqlRequest getSelectSafeRequest(String table, String[] fieldsToGet) {
-        String query =  "SELECT " + ((fieldsToGet==null || fieldsToGet.length==0)?"*": String.join(", ", fieldsToGet))+" " +
+        return StatementRegistry.get(table, StatementRegistry.Operation.SELECT, fieldsToGet).newRequest();
+    }
+
+    /**
+     * Get the select string of given fields of the whole table
+     * @param table
+     * @param fieldsToGet
+     * @return
+     */
+    public static String getSelectString(String table, String[] fieldsToGet) {
+        return "SELECT " + ((fieldsToGet==null || fieldsToGet.length==0)?"*": String.join(", ", fieldsToGet))+" " +
+                "FROM " + table;
+    }
+
+    /**
+     * Get the select string of rows by key, e.g. a partition key lookup with an optional range on a clustering column
+     * @param table
+     * @param fieldsToGet
+     * @param keyFields fields restricted by equality, usually the whole partition key
+     * @param rangeField clustering column restricted by the range and used to order the rows, null if none
+     * @param hasFrom whether the range has a lower bound (inclusive)
+     * @param hasTo whether the range has an upper bound (inclusive)
+     * @param descending order of the rows on the range field
+     * @param perPartitionLimit whether the number of rows per partition is limited
+     * @param limit whether the number of rows is limited
+     * @return
+     */
+    public static String getSelectWhereString(String table, String[] fieldsToGet, String[] keyFields, String rangeField,
+                                              boolean hasFrom, boolean hasTo, boolean descending, boolean perPartitionLimit, boolean limit) {
+        // create condition strings
+        List<String> conditions = new ArrayList<>();
+        for (String keyField : keyFields) {
+            conditions.add(keyField + "=?");
+        }
+        if (rangeField != null && hasFrom) {
+            conditions.add(rangeField + ">=?");
+        }
+        if (rangeField != null && hasTo) {
+            conditions.add(rangeField + "<=?");
+        }
+        String query = "SELECT " + ((fieldsToGet==null || fieldsToGet.length==0)?"*": String.join(", ", fieldsToGet))+" " +
                 "FROM " + table;
+        if (!conditions.isEmpty()) {
+            query += " WHERE " + String.join(" AND ", conditions);
+        }
+        if (rangeField != null) {
+            query += " ORDER BY " + rangeField + (descending ? " DESC" : " ASC");
+        }
+        if (perPartitionLimit) {
+            query += " PER PARTITION LIMIT ?";
+        }
+        if (limit) {
+            query += " LIMIT ?";
+        }
+        return query;
+    }
+
+    /**
+     * Get the select string of a token range, bound by (start, end] tokens or only by the start token
+     * when the range reaches the end of the ring
+     * @param table
+     * @param fieldsToGet
+     * @param partitionKeyColumns
+     * @param endOfRing
+     * @return
+     */
+    public static String getTokenRangeSelectString(String table, String[] fieldsToGet, List<String> partitionKeyColumns, boolean endOfRing) {
+        String token = "token(" + String.join(", ", partitionKeyColumns) + ")";
+        return "SELECT " + ((fieldsToGet==null || fieldsToGet.length==0)?"*": String.join(", ", fieldsToGet))+" " +
+                "FROM " + table + " WHERE " + token + " > ?" + (endOfRing ? "" : " AND " + token + " <= ?");
+    }
+
+    /**
+     * Get the select request of token ranges, use addTokenRangeStatements to scan the whole table
+     * @param table
+     * @param fieldsToGet
+     * @param partitionKeyColumns
+     * @return
+     */
+    public static CqlRequest getTokenRangeSelectSafeRequest(String table, String[] fieldsToGet, List<String> partitionKeyColumns) {
+        String query = getTokenRangeSelectString(table, fieldsToGet, partitionKeyColumns, false);
         CqlRequest request = new CqlRequest(query);
         return request;
     }
 
+    /**
+     * Get the string aggregating a numeric field of a token range: count, sum, min and max, grouped by
+     * a primary key prefix which has to contain the whole partition key
+     * @param table
+     * @param valueField
+     * @param groupByFields
+     * @param partitionKeyColumns
+     * @param endOfRing
+     * @return
+     */
+    public static String getTokenRangeAggregateString(String table, String valueField, List<String> groupByFields,
+                                                      List<String> partitionKeyColumns, boolean endOfRing) {
+        List<String> selectors = new ArrayList<>(groupByFields);
+        for (String function : new String[]{"count", "sum", "min", "max"}) {
+            selectors.add(function + "(" + valueField + ")");
+        }
+        return getTokenRangeSelectString(table, selectors.toArray(new String[0]), partitionKeyColumns, endOfRing) +
+                " GROUP BY " + String.join(", ", groupByFields);
+    }
+
     /**
      * Get the delete request based on table and fields to delete by
      * @param table
@@ -57,14 +192,22 @@ public class CqlRequestFactory {
      * @return
      */
     public static CqlRequest getDeleteSafeRequest(String table, String[] fieldsToDeleteBy) {
+        return StatementRegistry.get(table, StatementRegistry.Operation.DELETE, fieldsToDeleteBy).newRequest();
+    }
+
+    /**
+     * Get the delete string based on table and fields to delete by
+     * @param table
+     * @param fieldsToDeleteBy
+     * @return
+     */
+    public static String getDeleteString(String table, String[] fieldsToDeleteBy) {
         // create condition strings
         String[] conditions = new String[fieldsToDeleteBy.length];
         for (int i=0; i<fieldsToDeleteBy.length; i+=1) {
             conditions[i] = fieldsToDeleteBy[i] +"=?";
         }
         String conditionsPlaceHolders = String.join(" AND ", conditions);
-        String query = "DELETE FROM " + table + " WHERE " + conditionsPlaceHolders;
-        CqlRequest request = new CqlRequest(query);
-        return request;
+        return "DELETE FROM " + table + " WHERE " + conditionsPlaceHolders;
     }
 }
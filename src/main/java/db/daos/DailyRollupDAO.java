@@ -0,0 +1,165 @@
+package db.daos;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.LocalDate;
+import com.datastax.driver.core.Row;
+import db.beans.DailyRollupBean;
+import db.beans.DBBean;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A DAO for user_activity_daily_rollup table, totals of user_activity per product and day
+ * Rows are changed with lightweight transactions conditioned on the id of the last update, so concurrent deltas
+ * are never lost, and a delta whose write timed out is never applied twice: it is recognized once applied,
+ * or reported as unknown when another update makes it impossible to tell
+ */
+public class DailyRollupDAO extends GenericDAO<DailyRollupBean> {
+
+    public static final String TABLE_NAME = "user_activity_daily_rollup";
+    private static final String[] KEY_FIELDS = {"pid", "day"};
+    private static final String SELECT_QUERY = CqlRequestFactory.getSelectWhereString(TABLE_NAME, null, KEY_FIELDS, null,
+            false, false, false, false, false);
+    private static final String INSERT_QUERY = CqlRequestFactory.getInsertIfNotExistsString(TABLE_NAME,
+            "pid", "day", "total", "activityCount", "updateId");
+    private static final String UPDATE_QUERY = CqlRequestFactory.getUpdateIfString(TABLE_NAME,
+            new String[]{"total", "activityCount", "updateId"}, KEY_FIELDS, new String[]{"updateId"});
+
+    public DailyRollupDAO() {
+        super(TABLE_NAME, DailyRollupBean.class);
+    }
+
+    /**
+     * Totals of a product per day between two days (inclusive), single partition read
+     * @param pid
+     * @param from null if unbounded
+     * @param to null if unbounded
+     * @return
+     */
+    public List<DailyRollupBean> selectByProductBetween(String pid, Date from, Date to) {
+        return selectByKeyInRange(null, new String[]{"pid"}, new Object[]{pid}, "day", from, to, false, 0);
+    }
+
+    /**
+     * Outcome of a delta
+     */
+    public enum Outcome {
+        APPLIED,
+        NOT_APPLIED,
+        // a write timed out and the row was changed by another update since, the delta may or may not be in the totals
+        UNKNOWN
+    }
+
+    /**
+     * Add a delta to the totals of a product on a day
+     * @param pid
+     * @param day
+     * @param deltaTotal
+     * @param deltaCount
+     * @return UNKNOWN rather than risk adding the delta twice, the rebuild recomputes the totals
+     */
+    public Outcome addDelta(String pid, LocalDate day, double deltaTotal, long deltaCount) {
+        return compareAndSet(pid, day, deltaTotal, deltaCount, false);
+    }
+
+    /**
+     * Overwrite the totals of a product on a day
+     * @param pid
+     * @param day
+     * @param total
+     * @param count
+     * @return whether the totals were written
+     */
+    public boolean set(String pid, LocalDate day, double total, long count) {
+        // writing the same totals twice is harmless, an unknown outcome is just written again
+        return compareAndSet(pid, day, total, count, true) == Outcome.APPLIED;
+    }
+
+    /**
+     * Read the row, then write it only if nobody updated it in between, until it succeeds (see CasLoop)
+     * A write that timed out may still be applied, but only on the row it was conditioned on: while the row keeps
+     * that update id none of them was applied, once it carries the id of one of them it was. If another update
+     * changed the row first, a delta may have been applied before it or not at all, and the outcome is unknown
+     * @param pid
+     * @param day
+     * @param total
+     * @param count
+     * @param absolute whether total and count replace the current values or are added to them
+     * @return
+     */
+    private Outcome compareAndSet(String pid, LocalDate day, double total, long count, boolean absolute) {
+        UnknownWrites unknown = new UnknownWrites();
+        // set by the round that is done
+        Outcome[] outcome = new Outcome[1];
+        boolean done = CasLoop.run("rollup of " + pid + " on " + DBBean.fromCassandraDate(day), deadline -> {
+            // serial read, so updates still in a paxos round are seen
+            CqlRequest read = new CqlRequest(SELECT_QUERY);
+            read.setDeadline(deadline);
+            read.setConsistencyLevel(ConsistencyLevel.LOCAL_SERIAL);
+            read.addStatements(pid, day);
+            List<Row> rows = read.treat();
+            if (rows == null || read.isFailed()) {
+                return false;
+            }
+            DailyRollupBean current = rows.isEmpty() ? null : createBean(rows.get(0));
+            UUID currentId = current == null ? null : current.getUpdateId();
+            if (!unknown.updateIds.isEmpty()) {
+                if (currentId != null && unknown.updateIds.contains(currentId)) {
+                    // a previous write was applied, we just didn't get its outcome
+                    outcome[0] = Outcome.APPLIED;
+                    return true;
+                }
+                if (!Objects.equals(currentId, unknown.expectedId)) {
+                    if (!absolute) {
+                        outcome[0] = Outcome.UNKNOWN;
+                        return true;
+                    }
+                    // conditioned on an update id that is gone, they can't be applied anymore
+                    unknown.updateIds.clear();
+                }
+            }
+            double nextTotal = absolute || current == null ? total : current.getTotal() + total;
+            long nextCount = absolute || current == null ? count : current.getActivityCount() + count;
+            UUID updateId = UUID.randomUUID();
+            CqlRequest write = new CqlRequest(current == null ? INSERT_QUERY : UPDATE_QUERY);
+            // a write of ours retried by the request would come back as not applied, and the delta added again
+            write.setIdempotent(false);
+            if (current == null) {
+                write.addStatements(pid, day, nextTotal, nextCount, updateId);
+            } else {
+                write.addStatements(nextTotal, nextCount, updateId, pid, day, currentId);
+            }
+            write.setDeadline(deadline);
+            List<Row> result = write.treat();
+            if (result == null || write.isFailed()) {
+                unknown.updateIds.add(updateId);
+                unknown.expectedId = currentId;
+                return false;
+            }
+            if (CasLoop.isApplied(result)) {
+                outcome[0] = Outcome.APPLIED;
+                return true;
+            }
+            // another update got in first, read again
+            return false;
+        });
+        if (done) {
+            return outcome[0];
+        }
+        return unknown.updateIds.isEmpty() ? Outcome.NOT_APPLIED : Outcome.UNKNOWN;
+    }
+
+    /**
+     * Writes of a change whose outcome is unknown (e.g. timeouts), all conditioned on the same update id
+     */
+    private static final class UnknownWrites {
+        final Set<UUID> updateIds = new HashSet<>();
+        // null if they were inserts
+        UUID expectedId;
+    }
+}
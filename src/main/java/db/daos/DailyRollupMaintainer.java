@@ -0,0 +1,349 @@
+package db.daos;
+
+import com.datastax.driver.core.LocalDate;
+import db.beans.BeanStatementBinder;
+import db.beans.DBBean;
+import db.beans.DailyRollupBean;
+import db.beans.UserActivityBean;
+import utils.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Keep user_activity_daily_rollup in sync with the writes of user_activity
+ * Before a write, the rows it replaces (or deletes) are read, so an overwrite of a (pid, uid, day) only adds
+ * the difference with the previous value; once the write succeeded, deltas are summed per (pid, day) and applied
+ * in the background with lightweight transactions. Deltas of the writes made while a flush runs are merged per (pid, day)
+ * too, so a hot (pid, day) gets one conditional write per flush instead of one per write, and no two flushes race on it.
+ * The writes of a (pid, uid) partition are read and written one at a time, each one reading the rows once the previous
+ * one is done, so two overwrites of a row never compute their delta from the same previous value. Writes that failed
+ * but were applied, or made by other clients, can still make the rollup drift: the rebuild job recomputes it from user_activity
+ */
+public class DailyRollupMaintainer implements GenericDAO.WriteListener<UserActivityBean> {
+
+    private static final String[] KEY_FIELDS = {"pid", "uid", "day"};
+    private static final String[] ROW_FIELDS = {"pid", "uid", "day", "moneySpent"};
+    // number of token ranges aggregated at the same time by the rebuild
+    private static final int REBUILD_PARALLELISM = 8;
+    // delay before the deltas a flush could not apply are applied again
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    private final GenericDAO<? extends UserActivityBean> activityDAO;
+    private final DailyRollupDAO rollupDAO;
+    // applies the deltas and runs the rebuild, off the threads writing user_activity
+    private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "rollup-maintainer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // deltas not applied yet, per (pid, day), guarded by itself
+    private final Map<List<Object>, Delta> pending = new HashMap<>();
+    // whether a flush is scheduled or running, guarded by pending
+    private boolean flushing = false;
+    // completed once the last write of a (pid, uid) is done, per (pid, uid), guarded by itself
+    private final Map<List<Object>, CompletableFuture<Void>> lastWrites = new HashMap<>();
+
+    public DailyRollupMaintainer(GenericDAO<? extends UserActivityBean> activityDAO, DailyRollupDAO rollupDAO) {
+        this.activityDAO = activityDAO;
+        this.rollupDAO = rollupDAO;
+    }
+
+    @Override
+    public CompletableFuture<GenericDAO.AfterWrite> beforeUpsert(List<? extends UserActivityBean> beans, String[] fieldsToUpsert) {
+        if (!containsAll(fieldsToUpsert, KEY_FIELDS)) {
+            Log.w("WARNING: upsert without the primary key of user_activity, rollup not updated");
+            return CompletableFuture.completedFuture(null);
+        }
+        boolean setsMoneySpent = containsAll(fieldsToUpsert, "moneySpent");
+        // the last bean of a row is the one written
+        Map<List<Object>, UserActivityBean> written = new LinkedHashMap<>();
+        for (UserActivityBean bean : beans) {
+            written.put(keyOf(bean), bean);
+        }
+        List<Object[]> keys = new ArrayList<>(written.size());
+        for (List<Object> key : written.keySet()) {
+            keys.add(key.toArray());
+        }
+        return afterLastWrites(beans, () -> activityDAO.selectByKeysAsync(ROW_FIELDS, KEY_FIELDS, keys).thenApply(previousRows -> {
+            Map<List<Object>, UserActivityBean> previous = new LinkedHashMap<>();
+            for (UserActivityBean row : previousRows) {
+                previous.put(keyOf(row), row);
+            }
+            Map<List<Object>, Delta> deltas = new LinkedHashMap<>();
+            for (Map.Entry<List<Object>, UserActivityBean> entry : written.entrySet()) {
+                UserActivityBean before = previous.get(entry.getKey());
+                double previousValue = before == null ? 0 : before.getMoneySpent();
+                double value = setsMoneySpent ? entry.getValue().getMoneySpent() : previousValue;
+                deltaOf(deltas, entry.getValue()).add(value - previousValue, before == null ? 1 : 0);
+            }
+            return deltas;
+        }));
+    }
+
+    @Override
+    public CompletableFuture<GenericDAO.AfterWrite> beforeDelete(List<? extends UserActivityBean> beans, String[] fieldsToDeleteBy) {
+        List<Object[]> keys = new ArrayList<>(beans.size());
+        for (UserActivityBean bean : beans) {
+            keys.add(BeanStatementBinder.forFields(bean.getClass(), fieldsToDeleteBy).values(bean).toArray());
+        }
+        // a delete has the whole partition key, the (pid, uid) of its beans
+        return afterLastWrites(beans, () -> activityDAO.selectByKeysAsync(ROW_FIELDS, fieldsToDeleteBy, keys).thenApply(deletedRows -> {
+            // the same row may match several deletes
+            Set<List<Object>> seen = new HashSet<>();
+            Map<List<Object>, Delta> deltas = new LinkedHashMap<>();
+            for (UserActivityBean row : deletedRows) {
+                if (seen.add(keyOf(row))) {
+                    deltaOf(deltas, row).add(-row.getMoneySpent(), -1);
+                }
+            }
+            return deltas;
+        }));
+    }
+
+    /**
+     * Compute the deltas of a write once the previous writes of its (pid, uid) partitions are done, so the rows it
+     * replaces are read after they were written; the next writes of these partitions wait for this one in turn
+     * @param beans
+     * @param readDeltas reads the rows the write replaces and computes its deltas
+     * @return completed with the action applying the deltas once the write succeeded
+     */
+    private CompletableFuture<GenericDAO.AfterWrite> afterLastWrites(List<? extends UserActivityBean> beans,
+                                                                     Supplier<CompletableFuture<Map<List<Object>, Delta>>> readDeltas) {
+        Set<List<Object>> partitions = new HashSet<>();
+        for (UserActivityBean bean : beans) {
+            partitions.add(Arrays.asList(bean.getPid(), bean.getUid()));
+        }
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        List<CompletableFuture<Void>> previousWrites = new ArrayList<>();
+        synchronized (lastWrites) {
+            for (List<Object> partition : partitions) {
+                CompletableFuture<Void> previous = lastWrites.put(partition, done);
+                if (previous != null) {
+                    previousWrites.add(previous);
+                }
+            }
+        }
+        Runnable release = () -> {
+            synchronized (lastWrites) {
+                for (List<Object> partition : partitions) {
+                    lastWrites.remove(partition, done);
+                }
+            }
+            done.complete(null);
+        };
+        return CompletableFuture.allOf(previousWrites.toArray(new CompletableFuture<?>[0]))
+                .thenCompose(v -> readDeltas.get())
+                .<GenericDAO.AfterWrite>thenApply(deltas -> new GenericDAO.AfterWrite() {
+                    @Override
+                    public void written() {
+                        apply(deltas);
+                        release.run();
+                    }
+
+                    @Override
+                    public void failed() {
+                        release.run();
+                    }
+                })
+                .whenComplete((afterWrite, t) -> {
+                    if (t != null) {
+                        // the write goes on without us
+                        release.run();
+                    }
+                });
+    }
+
+    /**
+     * Recompute the whole rollup from user_activity, grouped per (pid, day) here: the day is a clustering column,
+     * so the rows are read without server side aggregation
+     * Deltas applied while the rebuild runs may be counted twice or lost, run it when writes are low
+     */
+    public void rebuild() {
+        long start = System.currentTimeMillis();
+        Map<List<Object>, Aggregate> aggregates = activityDAO.withProfile(ExecutionProfile.BULK)
+                .aggregate("moneySpent", new String[]{"pid", "day"}, REBUILD_PARALLELISM, 1);
+        int failed = 0;
+        for (Map.Entry<List<Object>, Aggregate> entry : aggregates.entrySet()) {
+            Aggregate aggregate = entry.getValue();
+            if (!rollupDAO.set((String) entry.getKey().get(0), (LocalDate) entry.getKey().get(1), aggregate.getSum(), aggregate.getCount())) {
+                failed += 1;
+            }
+        }
+        // days that no longer have any activity
+        for (DailyRollupBean rollup : rollupDAO.select()) {
+            List<Object> key = Arrays.asList(rollup.getPid(), DBBean.toCassandraDate(rollup.getDay()));
+            if (!aggregates.containsKey(key) && rollup.getActivityCount() != 0
+                    && !rollupDAO.set(rollup.getPid(), (LocalDate) key.get(1), 0, 0)) {
+                failed += 1;
+            }
+        }
+        Log.i("Rebuilt " + aggregates.size() + " rollup rows in " + (System.currentTimeMillis() - start) + "ms, failed: " + failed);
+    }
+
+    /**
+     * Rebuild the rollup in the background
+     * @return
+     */
+    public CompletableFuture<Void> rebuildAsync() {
+        return CompletableFuture.runAsync(this::rebuild, executor);
+    }
+
+    /**
+     * Rebuild the rollup periodically, the first rebuild runs after one period
+     * @param periodMillis
+     */
+    public void scheduleRebuild(long periodMillis) {
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                rebuild();
+            } catch (Exception e) {
+                Log.e("Could not rebuild " + DailyRollupDAO.TABLE_NAME, e);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the rebuilds and wait for the pending deltas to be applied
+     * @param timeoutMillis
+     * @return whether every delta was applied within the timeout
+     */
+    public boolean close(long timeoutMillis) {
+        executor.shutdown();
+        try {
+            return executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Merge the deltas of a write into the pending ones and make sure a flush will apply them
+     * @param deltas
+     */
+    private void apply(Map<List<Object>, Delta> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        synchronized (pending) {
+            for (Map.Entry<List<Object>, Delta> entry : deltas.entrySet()) {
+                pending.computeIfAbsent(entry.getKey(), k -> new Delta()).add(entry.getValue().total, entry.getValue().count);
+            }
+            if (flushing) {
+                // the running flush picks them up before it returns
+                return;
+            }
+            flushing = true;
+        }
+        try {
+            executor.execute(this::flush);
+        } catch (RejectedExecutionException e) {
+            dropPending(e);
+        }
+    }
+
+    /**
+     * Drop the pending deltas once the executor is closed
+     * @param e
+     */
+    private void dropPending(RejectedExecutionException e) {
+        int lost;
+        synchronized (pending) {
+            lost = pending.size();
+            pending.clear();
+            flushing = false;
+        }
+        Log.e("Rollup maintainer closed, " + lost + " deltas not applied", e);
+    }
+
+    /**
+     * Apply the pending deltas, one conditional write per (pid, day), until none is left
+     * Deltas not applied go back to the pending ones and are applied again by a flush after a delay
+     */
+    private void flush() {
+        while (true) {
+            Map<List<Object>, Delta> deltas;
+            synchronized (pending) {
+                if (pending.isEmpty()) {
+                    flushing = false;
+                    return;
+                }
+                deltas = new LinkedHashMap<>(pending);
+                pending.clear();
+            }
+            Map<List<Object>, Delta> notApplied = new LinkedHashMap<>();
+            for (Map.Entry<List<Object>, Delta> entry : deltas.entrySet()) {
+                Delta delta = entry.getValue();
+                if (delta.total == 0 && delta.count == 0) {
+                    continue;
+                }
+                String pid = (String) entry.getKey().get(0);
+                LocalDate day = (LocalDate) entry.getKey().get(1);
+                DailyRollupDAO.Outcome outcome = rollupDAO.addDelta(pid, day, delta.total, delta.count);
+                if (outcome == DailyRollupDAO.Outcome.NOT_APPLIED) {
+                    notApplied.put(entry.getKey(), delta);
+                } else if (outcome == DailyRollupDAO.Outcome.UNKNOWN) {
+                    Log.e("Outcome of a delta of " + delta.total + " to the rollup of " + pid + " on " + day
+                            + " unknown, not applied again, the next rebuild fixes it", null);
+                }
+            }
+            if (!notApplied.isEmpty()) {
+                synchronized (pending) {
+                    for (Map.Entry<List<Object>, Delta> entry : notApplied.entrySet()) {
+                        pending.computeIfAbsent(entry.getKey(), k -> new Delta()).add(entry.getValue().total, entry.getValue().count);
+                    }
+                }
+                Log.w("WARNING: " + notApplied.size() + " rollup deltas not applied, applied again in " + RETRY_DELAY_MILLIS + "ms");
+                try {
+                    // still flushing, the deltas of the writes made meanwhile wait for the retry
+                    executor.schedule(this::flush, RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    dropPending(e);
+                }
+                return;
+            }
+        }
+    }
+
+    private static List<Object> keyOf(UserActivityBean bean) {
+        return Arrays.asList(bean.getPid(), bean.getUid(), DBBean.toCassandraDate(bean.getDay()));
+    }
+
+    private static Delta deltaOf(Map<List<Object>, Delta> deltas, UserActivityBean bean) {
+        return deltas.computeIfAbsent(Arrays.asList(bean.getPid(), DBBean.toCassandraDate(bean.getDay())), k -> new Delta());
+    }
+
+    private static boolean containsAll(String[] fields, String... expectedFields) {
+        for (String expected : expectedFields) {
+            if (Arrays.stream(fields).noneMatch(field -> field.equalsIgnoreCase(expected))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Change of the totals of a (pid, day)
+     */
+    private static class Delta {
+        double total = 0;
+        long count = 0;
+        void add(double total, long count) {
+            this.total += total;
+            this.count += count;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package db.daos;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.LocalDate;
+import com.datastax.driver.core.Row;
+import db.beans.DBBean;
+import db.beans.DailySketchBean;
+import utils.HyperLogLog;
+
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A DAO for user_activity_daily_sketch table, sketches of the distinct users per product and day
+ * Sketches are merged into the stored ones with lightweight transactions conditioned on the id of the last update,
+ * merging is idempotent so a merge whose outcome is unknown can simply be retried
+ */
+public class DailySketchDAO extends GenericDAO<DailySketchBean> {
+
+    public static final String TABLE_NAME = "user_activity_daily_sketch";
+    private static final String[] KEY_FIELDS = {"pid", "day"};
+    private static final String SELECT_QUERY = CqlRequestFactory.getSelectWhereString(TABLE_NAME, null, KEY_FIELDS, null,
+            false, false, false, false, false);
+    private static final String INSERT_QUERY = CqlRequestFactory.getInsertIfNotExistsString(TABLE_NAME,
+            "pid", "day", "registers", "updateId");
+    private static final String UPDATE_QUERY = CqlRequestFactory.getUpdateIfString(TABLE_NAME,
+            new String[]{"registers", "updateId"}, KEY_FIELDS, new String[]{"updateId"});
+
+    public DailySketchDAO() {
+        super(TABLE_NAME, DailySketchBean.class);
+    }
+
+    /**
+     * Sketches of a product per day between two days (inclusive), single partition read
+     * @param pid
+     * @param from null if unbounded
+     * @param to null if unbounded
+     * @return
+     */
+    public List<DailySketchBean> selectByProductBetween(String pid, Date from, Date to) {
+        return selectByKeyInRange(null, new String[]{"pid"}, new Object[]{pid}, "day", from, to, false, 0);
+    }
+
+    /**
+     * Merge a sketch into the one stored for a product on a day
+     * @param pid
+     * @param day
+     * @param sketch
+     * @return whether the sketch was merged
+     */
+    public boolean merge(String pid, LocalDate day, HyperLogLog sketch) {
+        return compareAndSet(pid, day, sketch, false);
+    }
+
+    /**
+     * Replace the sketch stored for a product on a day
+     * @param pid
+     * @param day
+     * @param sketch
+     * @return whether the sketch was written
+     */
+    public boolean set(String pid, LocalDate day, HyperLogLog sketch) {
+        return compareAndSet(pid, day, sketch, true);
+    }
+
+    /**
+     * Read the row, then write it only if nobody updated it in between, until it succeeds (see CasLoop)
+     * @param pid
+     * @param day
+     * @param sketch
+     * @param replace whether the sketch replaces the stored one or is merged into it
+     * @return
+     */
+    private boolean compareAndSet(String pid, LocalDate day, HyperLogLog sketch, boolean replace) {
+        return CasLoop.run("sketch of " + pid + " on " + DBBean.fromCassandraDate(day), deadline -> {
+            // serial read, so updates still in a paxos round are seen
+            CqlRequest read = new CqlRequest(SELECT_QUERY);
+            read.setDeadline(deadline);
+            read.setConsistencyLevel(ConsistencyLevel.LOCAL_SERIAL);
+            read.addStatements(pid, day);
+            List<Row> rows = read.treat();
+            if (rows == null || read.isFailed()) {
+                return false;
+            }
+            DailySketchBean current = rows.isEmpty() ? null : createBean(rows.get(0));
+            HyperLogLog next = sketch;
+            if (!replace && current != null && current.getRegisters() != null) {
+                HyperLogLog stored = HyperLogLog.fromBytes(current.getRegisters());
+                if (stored.contains(sketch)) {
+                    // nothing new, e.g. users already active that day
+                    return true;
+                }
+                next = stored.merge(sketch);
+            }
+            CqlRequest write = new CqlRequest(current == null ? INSERT_QUERY : UPDATE_QUERY);
+            // conditional, the loop reads again rather than the request retrying it
+            write.setIdempotent(false);
+            if (current == null) {
+                write.addStatements(pid, day, next.toBytes(), UUID.randomUUID());
+            } else {
+                write.addStatements(next.toBytes(), UUID.randomUUID(), pid, day, current.getUpdateId());
+            }
+            write.setDeadline(deadline);
+            // false if another update got in first (or the outcome is unknown), read again
+            return CasLoop.isApplied(write.treat());
+        });
+    }
+}
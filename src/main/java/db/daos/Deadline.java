@@ -0,0 +1,70 @@
+package db.daos;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time a request has to be done by, every attempt and backoff of its statements included
+ * Passed down from the caller (GenericDAO.withDeadline, CqlRequest.setDeadline), otherwise the deadline of the
+ * execution profile starts when the request is executed. Attempts are cut at the deadline and no retry is sent
+ * that couldn't complete before it
+ */
+public final class Deadline {
+
+    /**
+     * No deadline, statements are only bounded by the timeouts and max attempts of their profile
+     */
+    public static final Deadline NONE = new Deadline(0, false);
+
+    private final long deadlineNanos;
+    private final boolean bounded;
+
+    private Deadline(long deadlineNanos, boolean bounded) {
+        this.deadlineNanos = deadlineNanos;
+        this.bounded = bounded;
+    }
+
+    /**
+     * Deadline the given time from now, e.g. what is left of the time budget of an HTTP request
+     * @param millis
+     * @return
+     */
+    public static Deadline after(long millis) {
+        return new Deadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis)), true);
+    }
+
+    public boolean isBounded() {
+        return bounded;
+    }
+
+    /**
+     * @return Long.MAX_VALUE if not bounded, 0 or less once expired
+     */
+    public long remainingNanos() {
+        return bounded ? deadlineNanos - System.nanoTime() : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return Long.MAX_VALUE if not bounded, 0 or less once expired
+     */
+    public long remainingMillis() {
+        return bounded ? TimeUnit.NANOSECONDS.toMillis(remainingNanos()) : Long.MAX_VALUE;
+    }
+
+    public boolean isExpired() {
+        return bounded && remainingNanos() <= 0;
+    }
+
+    /**
+     * Cap a timeout to the time left
+     * @param timeoutMillis
+     * @return
+     */
+    long capMillis(long timeoutMillis) {
+        return Math.max(0, Math.min(timeoutMillis, remainingMillis()));
+    }
+
+    @Override
+    public String toString() {
+        return bounded ? "Deadline{in " + remainingMillis() + "ms}" : "Deadline{none}";
+    }
+}
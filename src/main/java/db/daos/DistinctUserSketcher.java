@@ -0,0 +1,157 @@
+package db.daos;
+
+import com.datastax.driver.core.LocalDate;
+import db.beans.DBBean;
+import db.beans.UserActivityBean;
+import utils.HyperLogLog;
+import utils.Log;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keep the sketches of distinct users per (pid, day) in user_activity_daily_sketch from the writes of user_activity
+ * The uids written are offered to in-memory sketches, merged into the stored sketches periodically, so a busy
+ * (pid, day) costs one lightweight transaction per flush instead of one per write. Deletes are ignored,
+ * a sketch can't forget a user: rebuild recomputes the sketches from user_activity
+ */
+public class DistinctUserSketcher implements GenericDAO.WriteListener<UserActivityBean> {
+
+    // number of token ranges scanned at the same time by the rebuild
+    private static final int REBUILD_PARALLELISM = 8;
+
+    private final GenericDAO<? extends UserActivityBean> activityDAO;
+    private final DailySketchDAO sketchDAO;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "distinct-user-sketcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // sketches of the uids written since the last flush, per (pid, day), guarded by this
+    private Map<List<Object>, HyperLogLog> pending = new HashMap<>();
+
+    /**
+     * Sketch the writes of the DAO, flushed to the sketch table at the given interval
+     * @param activityDAO
+     * @param sketchDAO
+     * @param flushIntervalMillis
+     */
+    public DistinctUserSketcher(GenericDAO<? extends UserActivityBean> activityDAO, DailySketchDAO sketchDAO, long flushIntervalMillis) {
+        this.activityDAO = activityDAO;
+        this.sketchDAO = sketchDAO;
+        executor.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public CompletableFuture<GenericDAO.AfterWrite> beforeUpsert(List<? extends UserActivityBean> beans, String[] fieldsToUpsert) {
+        // nothing to read, the users are sketched once they are written
+        return CompletableFuture.completedFuture(() -> offer(beans));
+    }
+
+    @Override
+    public CompletableFuture<GenericDAO.AfterWrite> beforeDelete(List<? extends UserActivityBean> beans, String[] fieldsToDeleteBy) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private synchronized void offer(List<? extends UserActivityBean> beans) {
+        for (UserActivityBean bean : beans) {
+            if (bean.getPid() == null || bean.getUid() == null || bean.getDay() == null) {
+                continue;
+            }
+            pending.computeIfAbsent(Arrays.asList(bean.getPid(), DBBean.toCassandraDate(bean.getDay())), k -> new HyperLogLog())
+                    .offer(bean.getUid());
+        }
+    }
+
+    /**
+     * Merge the sketches of the users written since the last flush into the sketch table
+     * Sketches not merged go back to the pending ones and are merged again by the next flush
+     */
+    public void flush() {
+        Map<List<Object>, HyperLogLog> sketches;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            sketches = pending;
+            pending = new HashMap<>();
+        }
+        Map<List<Object>, HyperLogLog> failed = new HashMap<>();
+        for (Map.Entry<List<Object>, HyperLogLog> entry : sketches.entrySet()) {
+            try {
+                if (!sketchDAO.merge((String) entry.getKey().get(0), (LocalDate) entry.getKey().get(1), entry.getValue())) {
+                    failed.put(entry.getKey(), entry.getValue());
+                }
+            } catch (Exception e) {
+                Log.e("Could not merge sketch of " + entry.getKey(), e);
+                failed.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (!failed.isEmpty()) {
+            synchronized (this) {
+                // merging a sketch twice changes nothing, even if a failed merge was written after all
+                for (Map.Entry<List<Object>, HyperLogLog> entry : failed.entrySet()) {
+                    pending.merge(entry.getKey(), entry.getValue(), HyperLogLog::merge);
+                }
+            }
+            Log.e("ERROR: " + failed.size() + " of " + sketches.size() + " sketches not merged into " + DailySketchDAO.TABLE_NAME
+                    + ", retried on next flush", null);
+        }
+    }
+
+    /**
+     * Recompute every sketch from a scan of user_activity
+     * Users written while the rebuild runs are still merged by the next flush
+     */
+    public void rebuild() {
+        long start = System.currentTimeMillis();
+        Map<List<Object>, HyperLogLog> sketches = new HashMap<>();
+        boolean scanned = activityDAO.withProfile(ExecutionProfile.BULK).scan(new String[]{"pid", "uid", "day"}, REBUILD_PARALLELISM, 1, partialBeans -> {
+            for (UserActivityBean bean : partialBeans) {
+                sketches.computeIfAbsent(Arrays.asList(bean.getPid(), DBBean.toCassandraDate(bean.getDay())), k -> new HyperLogLog())
+                        .offer(bean.getUid());
+            }
+        });
+        if (!scanned) {
+            Log.e("ERROR: Could not scan user_activity, sketches not rebuilt", null);
+            return;
+        }
+        for (Map.Entry<List<Object>, HyperLogLog> entry : sketches.entrySet()) {
+            sketchDAO.set((String) entry.getKey().get(0), (LocalDate) entry.getKey().get(1), entry.getValue());
+        }
+        Log.i("Rebuilt " + sketches.size() + " sketches in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Rebuild the sketches in the background
+     * @return
+     */
+    public CompletableFuture<Void> rebuildAsync() {
+        return CompletableFuture.runAsync(this::rebuild, executor);
+    }
+
+    /**
+     * Stop the periodic flush and merge what is pending
+     * @param timeoutMillis
+     * @return whether the pending sketches were merged within the timeout
+     */
+    public boolean close(long timeoutMillis) {
+        executor.execute(this::flush);
+        executor.shutdown();
+        try {
+            boolean terminated = executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+            synchronized (this) {
+                return terminated && pending.isEmpty();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
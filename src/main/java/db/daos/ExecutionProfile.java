@@ -0,0 +1,284 @@
+package db.daos;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import db.config.CassandraConnector;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Named settings of the statements of a request: session pool, consistency level, timeouts, deadline, retries, fetch size and hedging of reads
+ * Select one per DAO call with GenericDAO.withProfile, e.g. hedged LOCAL_ONE reads for page views, wide timeouts for bulk writes.
+ * Hedged reads send the same idempotent SELECT again if it got no response after a delay (fixed, or a percentile of
+ * the recent latencies of the query, see QueryMetrics), the first response wins and the other executions are cancelled
+ */
+public final class ExecutionProfile {
+
+    private static final ConcurrentHashMap<String, ExecutionProfile> PROFILES = new ConcurrentHashMap<>();
+
+    /**
+     * Settings used so far for every statement: no deadline, 15 attempts, so bulk list writes are never cut short
+     */
+    public static final ExecutionProfile DEFAULT = register(builder("default").build());
+
+    /**
+     * Latency sensitive reads, e.g. page views: LOCAL_ONE, short timeout, done within a second, small pages, hedged at the p99 latency
+     */
+    public static final ExecutionProfile INTERACTIVE = register(builder("interactive")
+            .consistencyLevel(ConsistencyLevel.LOCAL_ONE)
+            .timeoutMillis(500)
+            .readTimeoutMillis(500)
+            .deadlineMillis(1000)
+            .maxAttempts(3)
+            .fetchSize(1000)
+            .hedgeAtPercentile(99, 1)
+            .build());
+
+    /**
+     * Bulk reads and writes, e.g. scans and imports: own session pool (if configured), wide timeout, no deadline
+     * and the long retry loop (scans run as long as they make progress), large pages, never hedged
+     */
+    public static final ExecutionProfile BULK = register(builder("bulk")
+            .sessionPool("bulk")
+            .timeoutMillis(10000)
+            .readTimeoutMillis(30000)
+            .deadlineMillis(0)
+            .maxAttempts(15)
+            .fetchSize(20000)
+            .build());
+
+    private final String name;
+    // session pool the statements are executed on, the default one if that pool is not configured
+    private final String sessionPool;
+    private final ConsistencyLevel consistencyLevel;
+    private final int timeoutMillis;
+    // 0 to keep the read timeout of the driver
+    private final int readTimeoutMillis;
+    // time a request has when the caller gives no deadline, 0 for none
+    private final long deadlineMillis;
+    // executions of a statement before it is given up, if the deadline and the retry budget allow them
+    private final int maxAttempts;
+    private final int fetchSize;
+    // fixed hedge delay, -1 if the delay is a percentile or reads are not hedged
+    private final long hedgeDelayMillis;
+    // percentile of the latencies used as hedge delay, 0 if not used
+    private final double hedgePercentile;
+    private final int maxHedges;
+
+    private ExecutionProfile(Builder builder) {
+        this.name = builder.name;
+        this.sessionPool = builder.sessionPool;
+        this.consistencyLevel = builder.consistencyLevel;
+        this.timeoutMillis = builder.timeoutMillis;
+        this.readTimeoutMillis = builder.readTimeoutMillis;
+        this.deadlineMillis = builder.deadlineMillis;
+        this.maxAttempts = builder.maxAttempts;
+        this.fetchSize = builder.fetchSize;
+        this.hedgeDelayMillis = builder.hedgeDelayMillis;
+        this.hedgePercentile = builder.hedgePercentile;
+        this.maxHedges = builder.maxHedges;
+    }
+
+    /**
+     * Start building a profile
+     * @param name
+     * @return
+     */
+    public static Builder builder(String name) {
+        return new Builder(name);
+    }
+
+    /**
+     * Register a profile so it can be selected by name, replaces the profile of the same name
+     * @param profile
+     * @return the profile
+     */
+    public static ExecutionProfile register(ExecutionProfile profile) {
+        PROFILES.put(profile.name, profile);
+        return profile;
+    }
+
+    /**
+     * Get a registered profile
+     * @param name
+     * @return
+     */
+    public static ExecutionProfile get(String name) {
+        ExecutionProfile profile = PROFILES.get(name);
+        if (profile == null) {
+            throw new IllegalArgumentException("No execution profile named " + name);
+        }
+        return profile;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getSessionPool() {
+        return sessionPool;
+    }
+
+    public ConsistencyLevel getConsistencyLevel() {
+        return consistencyLevel;
+    }
+
+    /**
+     * Time given to a statement to get its first page before it is retried
+     * @return
+     */
+    public int getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * Time the driver waits for each page of a statement
+     * @return 0 if the read timeout of the driver is kept
+     */
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    /**
+     * Time a request has to complete, retries included, when the caller gives no deadline
+     * @return 0 if there is none
+     */
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    /**
+     * Deadline of a request starting now
+     * @return
+     */
+    Deadline newDeadline() {
+        return deadlineMillis > 0 ? Deadline.after(deadlineMillis) : Deadline.NONE;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public int getMaxHedges() {
+        return maxHedges;
+    }
+
+    /**
+     * Delay after which a read without response is sent again
+     * @param metrics metrics of the query read, for the percentile hedge delay
+     * @return -1 if reads are not hedged (or not enough latencies were recorded yet)
+     */
+    long getHedgeDelayMillis(QueryMetrics metrics) {
+        if (maxHedges <= 0) {
+            return -1;
+        }
+        return hedgePercentile > 0 ? metrics.getWindowPercentileMillis(hedgePercentile) : hedgeDelayMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "ExecutionProfile{" + name + ", pool=" + sessionPool + ", " + consistencyLevel + ", timeout=" + timeoutMillis + "ms"
+                + (deadlineMillis > 0 ? ", deadline=" + deadlineMillis + "ms" : "") + ", maxAttempts=" + maxAttempts + ", fetchSize=" + fetchSize
+                + (maxHedges <= 0 ? "" : ", hedges=" + maxHedges + " after " + (hedgePercentile > 0 ? "p" + hedgePercentile : hedgeDelayMillis + "ms")) + '}';
+    }
+
+    /**
+     * Builder of a profile, defaults are the settings used so far (LOCAL_QUORUM, 1s timeout, driver read timeout, 20000 rows pages, no hedging)
+     * and retries (no deadline, 15 attempts)
+     */
+    public static final class Builder {
+        private final String name;
+        private String sessionPool = CassandraConnector.DEFAULT_POOL;
+        private ConsistencyLevel consistencyLevel = ConsistencyLevel.LOCAL_QUORUM;
+        private int timeoutMillis = 1000;
+        private int readTimeoutMillis = 0;
+        private long deadlineMillis = 0;
+        private int maxAttempts = 15;
+        private int fetchSize = 20000;
+        private long hedgeDelayMillis = -1;
+        private double hedgePercentile = 0;
+        private int maxHedges = 0;
+
+        private Builder(String name) {
+            this.name = name;
+        }
+
+        public Builder sessionPool(String sessionPool) {
+            this.sessionPool = sessionPool;
+            return this;
+        }
+
+        public Builder consistencyLevel(ConsistencyLevel consistencyLevel) {
+            this.consistencyLevel = consistencyLevel;
+            return this;
+        }
+
+        public Builder timeoutMillis(int timeoutMillis) {
+            this.timeoutMillis = timeoutMillis;
+            return this;
+        }
+
+        public Builder readTimeoutMillis(int readTimeoutMillis) {
+            this.readTimeoutMillis = readTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * @param deadlineMillis time a request has when the caller gives no deadline, 0 for none
+         * @return
+         */
+        public Builder deadlineMillis(long deadlineMillis) {
+            this.deadlineMillis = deadlineMillis;
+            return this;
+        }
+
+        public Builder maxAttempts(int maxAttempts) {
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("A statement is executed at least once, got " + maxAttempts + " max attempts");
+            }
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        public Builder fetchSize(int fetchSize) {
+            this.fetchSize = fetchSize;
+            return this;
+        }
+
+        /**
+         * Hedge reads after a fixed delay
+         * @param delayMillis
+         * @param maxHedges max number of extra executions of a read
+         * @return
+         */
+        public Builder hedgeAfterMillis(long delayMillis, int maxHedges) {
+            this.hedgeDelayMillis = delayMillis;
+            this.hedgePercentile = 0;
+            this.maxHedges = maxHedges;
+            return this;
+        }
+
+        /**
+         * Hedge reads after a percentile of the recent latencies of the query, e.g. 99 to resend the slowest 1% only
+         * @param percentile
+         * @param maxHedges max number of extra executions of a read
+         * @return
+         */
+        public Builder hedgeAtPercentile(double percentile, int maxHedges) {
+            if (percentile <= 0 || percentile >= 100) {
+                throw new IllegalArgumentException("Percentile should be between 0 and 100, got " + percentile);
+            }
+            this.hedgePercentile = percentile;
+            this.hedgeDelayMillis = -1;
+            this.maxHedges = maxHedges;
+            return this;
+        }
+
+        public ExecutionProfile build() {
+            return new ExecutionProfile(this);
+        }
+    }
+}
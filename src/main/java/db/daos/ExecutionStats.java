@@ -0,0 +1,148 @@
+package db.daos;
+
+/**
+ * Throughput and stall time of a batch of statements executed by a CqlRequest
+ * Stalled time is when nothing was in flight while statements were still waiting (e.g. on a retry backoff),
+ * the average in-flight over the window size tells how well the window was kept full
+ */
+public class ExecutionStats {
+
+    private final int window;
+    private int statements;
+    private int attempts;
+    private int retries;
+    // extra executions of hedged reads
+    private int hedges;
+    private int failedStatements;
+    // statements failed without being sent, past the deadline or while the circuit breaker was open
+    private int rejected;
+    private int inFlight;
+    private long startNanos;
+    private long endNanos;
+    private long lastChangeNanos;
+    // sum of inFlight * elapsed nanos, to get the average number of statements in flight
+    private double inFlightNanos;
+    private long stalledNanos;
+
+    ExecutionStats(int window) {
+        this.window = window;
+    }
+
+    synchronized void start(int statements) {
+        this.statements = statements;
+        this.startNanos = System.nanoTime();
+        this.lastChangeNanos = startNanos;
+    }
+
+    synchronized void launched() {
+        advance();
+        attempts += 1;
+        inFlight += 1;
+    }
+
+    synchronized void completed(boolean succeeded) {
+        advance();
+        inFlight -= 1;
+        if (!succeeded) {
+            retries += 1;
+        }
+    }
+
+    synchronized void hedged() {
+        hedges += 1;
+    }
+
+    synchronized void gaveUp() {
+        retries -= 1;
+        failedStatements += 1;
+    }
+
+    /**
+     * A statement failed without being sent
+     * @param retry whether it was sent before and waiting for its retry
+     */
+    synchronized void rejected(boolean retry) {
+        if (retry) {
+            retries -= 1;
+        }
+        rejected += 1;
+        failedStatements += 1;
+    }
+
+    synchronized void finish() {
+        advance();
+        endNanos = lastChangeNanos;
+    }
+
+    private void advance() {
+        long now = System.nanoTime();
+        long elapsed = now - lastChangeNanos;
+        inFlightNanos += (double) inFlight * elapsed;
+        if (inFlight == 0) {
+            stalledNanos += elapsed;
+        }
+        lastChangeNanos = now;
+    }
+
+    public synchronized int getStatements() {
+        return statements;
+    }
+
+    public synchronized int getAttempts() {
+        return attempts;
+    }
+
+    public synchronized int getRetries() {
+        return retries;
+    }
+
+    public synchronized int getHedges() {
+        return hedges;
+    }
+
+    public synchronized int getRejected() {
+        return rejected;
+    }
+
+    public synchronized int getFailedStatements() {
+        return failedStatements;
+    }
+
+    public synchronized long getElapsedMillis() {
+        return (endNanos - startNanos) / 1000000;
+    }
+
+    public synchronized long getStalledMillis() {
+        return stalledNanos / 1000000;
+    }
+
+    /**
+     * Succeeded statements per second
+     * @return
+     */
+    public synchronized double getThroughput() {
+        long elapsed = endNanos - startNanos;
+        return elapsed <= 0 ? 0 : (statements - failedStatements) * 1e9 / elapsed;
+    }
+
+    public synchronized double getAverageInFlight() {
+        long elapsed = endNanos - startNanos;
+        return elapsed <= 0 ? 0 : inFlightNanos / elapsed;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ExecutionStats{" +
+                "statements=" + statements +
+                ", attempts=" + attempts +
+                ", retries=" + retries +
+                (hedges == 0 ? "" : ", hedges=" + hedges) +
+                ", failed=" + failedStatements +
+                (rejected == 0 ? "" : ", rejected=" + rejected) +
+                ", elapsed=" + getElapsedMillis() + "ms" +
+                ", throughput=" + String.format("%.1f", getThroughput()) + "/s" +
+                ", avgInFlight=" + String.format("%.1f", getAverageInFlight()) + (window == Integer.MAX_VALUE ? "" : "/" + window) +
+                ", stalled=" + getStalledMillis() + "ms" +
+                '}';
+    }
+}
@@ -1,10 +1,22 @@
 package db.daos;
 
+import db.beans.BeanRowDecoder;
+import db.beans.BeanStatementBinder;
 import db.beans.DBBean;
+import db.config.CassandraConnector;
 import com.datastax.driver.core.Row;
 import utils.Log;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -14,14 +26,306 @@ import java.util.stream.Collectors;
  * @author lucas
  * @create 2018-11-10 10:59 PM
  */
-public class GenericDAO <T extends DBBean>{
+public class GenericDAO <T extends DBBean> implements Cloneable {
 
     protected final String TABLE;
     protected final Class<T> BEAN_CLASS;
+    // max number of rows read by the warm-up
+    private static final int WARM_UP_ROWS = 100;
+    // builds and sends the async writes once the write listeners are done: their reads complete on driver I/O
+    // threads, which must not bind statements or block preparing one
+    private static final ExecutorService WRITE_EXECUTOR = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), runnable -> {
+                Thread thread = new Thread(runnable, "dao-async-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+    private final BeanRowDecoder<T> decoder;
+    // max size of single partition batches for list upserts/deletes, 0 when batching is disabled
+    private volatile int maxBatchBytes = 0;
+    // partition key columns of the table, loaded from the cluster metadata when batching is enabled
+    private volatile List<String> partitionKeyColumns;
+    // materialized views of the table, reads by key can be routed to them
+    private final List<String> views = new CopyOnWriteArrayList<>();
+    // notified around list upserts and deletes
+    private final List<WriteListener<? super T>> writeListeners = new CopyOnWriteArrayList<>();
+    // settings of the statements of this DAO, see withProfile
+    private ExecutionProfile profile = ExecutionProfile.DEFAULT;
+    // deadline of the requests of this DAO, see withDeadline, null for the one of the profile
+    private Deadline deadline;
 
     protected GenericDAO(String table, Class<T> beanClass) {
         this.TABLE = table;
         this.BEAN_CLASS = beanClass;
+        this.decoder = BeanRowDecoder.forClass(beanClass);
+    }
+
+    /**
+     * Get a copy of this DAO executing its statements with the given profile, e.g. dao.withProfile(ExecutionProfile.INTERACTIVE).select()
+     * The copy shares views, write listeners and batching settings with this DAO
+     * @param profile
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public <D extends GenericDAO<T>> D withProfile(ExecutionProfile profile) {
+        try {
+            GenericDAO<T> copy = (GenericDAO<T>) super.clone();
+            copy.profile = profile;
+            return (D) copy;
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Get a copy of this DAO executing its statements with the registered profile of the given name
+     * @param profileName
+     * @return
+     */
+    public <D extends GenericDAO<T>> D withProfile(String profileName) {
+        return withProfile(ExecutionProfile.get(profileName));
+    }
+
+    public ExecutionProfile getExecutionProfile() {
+        return profile;
+    }
+
+    /**
+     * Get a copy of this DAO whose requests have to be done by the given deadline, e.g. what is left of the time budget
+     * of an HTTP request: dao.withDeadline(Deadline.after(200)).selectByKeys(...)
+     * Without one, each request gets the deadline of its profile
+     * @param deadline
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public <D extends GenericDAO<T>> D withDeadline(Deadline deadline) {
+        try {
+            GenericDAO<T> copy = (GenericDAO<T>) super.clone();
+            copy.deadline = deadline;
+            return (D) copy;
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Apply the profile and the deadline of this DAO to a request
+     * @param request
+     * @param requestProfile
+     */
+    private void configure(CqlRequest request, ExecutionProfile requestProfile) {
+        request.setExecutionProfile(requestProfile);
+        if (deadline != null) {
+            request.setDeadline(deadline);
+        }
+    }
+
+    /**
+     * Profile of the reads of the whole table (select all, stream, scan, aggregate): the bulk one unless the caller chose one,
+     * so scans run on their own session pool and don't starve interactive traffic
+     * @return
+     */
+    private ExecutionProfile scanProfile() {
+        return profile == ExecutionProfile.DEFAULT ? ExecutionProfile.BULK : profile;
+    }
+
+    /**
+     * Listener of the writes of a DAO, e.g. to maintain a table derived from this one
+     */
+    public interface WriteListener<T> {
+        /**
+         * Called before beans are upserted, the values they replace can still be read
+         * @param beans
+         * @param fieldsToUpsert
+         * @return completed with the action to run once the beans are written, null if none
+         */
+        CompletableFuture<AfterWrite> beforeUpsert(List<? extends T> beans, String[] fieldsToUpsert);
+
+        /**
+         * Called before rows are deleted, the rows can still be read
+         * @param beans
+         * @param fieldsToDeleteBy
+         * @return completed with the action to run once the rows are deleted, null if none
+         */
+        CompletableFuture<AfterWrite> beforeDelete(List<? extends T> beans, String[] fieldsToDeleteBy);
+    }
+
+    /**
+     * Action of a write listener, run once the write is done
+     */
+    public interface AfterWrite {
+        /**
+         * Called once the write succeeded
+         */
+        void written();
+
+        /**
+         * Called instead once the write failed, it may or may not be applied
+         */
+        default void failed() {
+        }
+    }
+
+    /**
+     * Add a listener called around every list upsert and delete (sync or async) of this DAO
+     * @param listener
+     */
+    public void addWriteListener(WriteListener<? super T> listener) {
+        writeListeners.add(listener);
+    }
+
+    /**
+     * Notify the write listeners of a write about to happen, a listener failing doesn't prevent the write
+     * @param event
+     * @return completed with the actions of all the listeners to run after the write
+     */
+    private CompletableFuture<AfterWrite> notifyWriteListeners(Function<WriteListener<? super T>, CompletableFuture<AfterWrite>> event) {
+        if (writeListeners.isEmpty()) {
+            return CompletableFuture.completedFuture(() -> {});
+        }
+        List<CompletableFuture<AfterWrite>> futures = new ArrayList<>();
+        for (WriteListener<? super T> listener : writeListeners) {
+            CompletableFuture<AfterWrite> future;
+            try {
+                future = event.apply(listener);
+            } catch (Exception e) {
+                future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+            }
+            futures.add(future.exceptionally(t -> {
+                Log.e("Write listener failed on " + TABLE + ", its derived data may be stale", t);
+                return null;
+            }));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(v -> new AfterWrite() {
+            @Override
+            public void written() {
+                for (CompletableFuture<AfterWrite> future : futures) {
+                    AfterWrite afterWrite = future.join();
+                    if (afterWrite != null) {
+                        afterWrite.written();
+                    }
+                }
+            }
+
+            @Override
+            public void failed() {
+                for (CompletableFuture<AfterWrite> future : futures) {
+                    AfterWrite afterWrite = future.join();
+                    if (afterWrite != null) {
+                        afterWrite.failed();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Get the handle of a statement of this table from the registry, to be kept by callers
+     * @param operation
+     * @param fields
+     * @return
+     */
+    public StatementHandle getStatementHandle(StatementRegistry.Operation operation, String... fields) {
+        return StatementRegistry.get(TABLE, operation, fields);
+    }
+
+    /**
+     * Register the statements of the basic operations of this table: select all, upsert of every field of the bean,
+     * delete by primary key and delete by partition key, so they can be prepared before the first requests
+     * @return number of statements registered, 0 if the table metadata could not be read
+     */
+    public int registerCrudStatements() {
+        List<String> columns = CassandraConnector.getColumns(TABLE);
+        List<String> primaryKeyColumns = CassandraConnector.getPrimaryKeyColumns(TABLE);
+        List<String> partitionKeyColumns = CassandraConnector.getPartitionKeyColumns(TABLE);
+        if (columns == null || primaryKeyColumns == null || partitionKeyColumns == null) {
+            Log.i("WARNING: Could not read the metadata of " + TABLE + ", its statements will be prepared on first use");
+            return 0;
+        }
+        getStatementHandle(StatementRegistry.Operation.SELECT);
+        getStatementHandle(StatementRegistry.Operation.UPSERT, BeanStatementBinder.fieldNames(BEAN_CLASS, columns));
+        getStatementHandle(StatementRegistry.Operation.DELETE, BeanStatementBinder.fieldNames(BEAN_CLASS, primaryKeyColumns));
+        if (partitionKeyColumns.size() == primaryKeyColumns.size()) {
+            return 3;
+        }
+        getStatementHandle(StatementRegistry.Operation.DELETE, BeanStatementBinder.fieldNames(BEAN_CLASS, partitionKeyColumns));
+        return 4;
+    }
+
+    /**
+     * Run the decode and bind paths of this table on a page of real rows, so they are compiled before the first requests
+     * Nothing is written: the beans are bound to the upserts and deletes registered for the table, then dropped.
+     * A blank bean is bound if the table is empty
+     * @param iterations number of times the rows are decoded and bound
+     * @return number of beans decoded (or created) and bound
+     */
+    public int warmUp(int iterations) {
+        CqlRequest request = getStatementHandle(StatementRegistry.Operation.SELECT).newRequest();
+        request.addStatements();
+        Page<Row> page = request.treatPage(WARM_UP_ROWS, null);
+        List<Row> rows = page == null ? new ArrayList<>() : page.getItems();
+        List<StatementHandle> writeHandles = new ArrayList<>();
+        for (StatementHandle handle : StatementRegistry.handlesOf(TABLE)) {
+            if (handle.getOperation() != StatementRegistry.Operation.SELECT) {
+                writeHandles.add(handle);
+            }
+        }
+        int count = 0;
+        for (int i = 0; i < iterations; i++) {
+            List<T> beans = new ArrayList<>(rows.size());
+            for (Row row : rows) {
+                T bean = createBean(row);
+                if (bean != null) {
+                    beans.add(bean);
+                }
+            }
+            if (beans.isEmpty()) {
+                try {
+                    beans.add(BEAN_CLASS.getConstructor().newInstance());
+                } catch (ReflectiveOperationException e) {
+                    Log.e("Could not create a blank " + BEAN_CLASS.getSimpleName(), e);
+                    return count;
+                }
+            }
+            for (StatementHandle handle : writeHandles) {
+                // bound only, never executed
+                CqlRequest write = handle.newRequest();
+                for (T bean : beans) {
+                    write.addStatementsAsBeans(bean, handle.fields());
+                }
+            }
+            count += beans.size();
+        }
+        return count;
+    }
+
+    /**
+     * Group list upserts and deletes sharing a partition into single partition UNLOGGED batches,
+     * which cuts request count and coordinator work by the number of rows per partition while keeping writes token aware
+     * @param maxBatchBytes max size of a batch, the server warns above batch_size_warn_threshold_in_kb (5kb by default)
+     * and fails above batch_size_fail_threshold_in_kb (50kb by default)
+     */
+    public void enablePartitionBatching(int maxBatchBytes) {
+        this.partitionKeyColumns = CassandraConnector.getPartitionKeyColumns(TABLE);
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    /**
+     * Send one statement per bean again
+     */
+    public void disablePartitionBatching() {
+        this.maxBatchBytes = 0;
+    }
+
+    /**
+     * Batch the request's statements by partition if batching is enabled
+     * @param request
+     */
+    private void batchIfEnabled(CqlRequest request) {
+        if (maxBatchBytes > 0) {
+            request.batchByPartition(partitionKeyColumns, maxBatchBytes);
+        }
     }
 
     /**
@@ -29,12 +333,11 @@ public class GenericDAO <T extends DBBean>{
      * @param row
      * @return
      */
-    private T createBean(Row row) {
+    protected T createBean(Row row) {
         T bean = null;
         try {
-            // use reflection to solve generic type problem
-            bean = BEAN_CLASS.newInstance();
-            bean.buildFrom(row);
+            // compiled decoder, no reflection per row
+            bean = decoder.newBean(row);
         } catch (Exception e) {
             e.printStackTrace();
             Log.d("Null beans found! Be careful!");
@@ -57,6 +360,7 @@ public class GenericDAO <T extends DBBean>{
      */
     public List<T> select(String[] fieldsToGet) {
         CqlRequest request = CqlRequestFactory.getSelectSafeRequest(TABLE, fieldsToGet);
+        configure(request, scanProfile());
         // without "?" placeholder, we don't need to pass parameter to addStatements method
         request.addStatements();
         List<Row> dbRows = request.treat();
@@ -64,6 +368,410 @@ public class GenericDAO <T extends DBBean>{
         return beans;
     }
 
+    /**
+     * Select given fields from the table without blocking the calling thread
+     * @param fieldsToGet
+     * @return
+     */
+    public CompletableFuture<List<T>> selectAsync(String[] fieldsToGet) {
+        CqlRequest request = CqlRequestFactory.getSelectSafeRequest(TABLE, fieldsToGet);
+        configure(request, scanProfile());
+        request.addStatements();
+        return request.treatAsync().thenApply(dbRows -> dbRows.stream().map(row -> createBean(row)).collect(Collectors.toList()));
+    }
+
+    /**
+     * Select a page of given fields from the table, each call costs a single page fetch
+     * @param fieldsToGet
+     * @param pageSize max number of beans of the page
+     * @param cursor cursor of the previous page, null for the first page
+     * @return
+     */
+    public Page<T> selectPage(String[] fieldsToGet, int pageSize, String cursor) {
+        CqlRequest request = CqlRequestFactory.getSelectSafeRequest(TABLE, fieldsToGet);
+        configure(request, profile);
+        request.addStatements();
+        Page<Row> rowPage = request.treatPage(pageSize, cursor);
+        if (rowPage == null) {
+            throw new IllegalStateException("Could not fetch page from " + TABLE);
+        }
+        List<T> beans = rowPage.getItems().stream().map(row -> createBean(row)).collect(Collectors.toList());
+        return new Page<>(beans, rowPage.getNextCursor());
+    }
+
+    /**
+     * Select the rows of a partition (or any rows matching the key fields), a single partition read
+     * @param fieldsToGet
+     * @param keyFields
+     * @param keyValues values of the key fields, in the same order
+     * @return
+     */
+    public List<T> selectByKey(String[] fieldsToGet, String[] keyFields, Object[] keyValues) {
+        return selectByKeyInRange(fieldsToGet, keyFields, keyValues, null, null, null, false, 0);
+    }
+
+    /**
+     * Select the rows of a partition within a range of a clustering column
+     * @param fieldsToGet
+     * @param keyFields
+     * @param keyValues values of the key fields, in the same order
+     * @param rangeField clustering column of the range, null to read the whole partition
+     * @param from lower bound (inclusive), null if unbounded
+     * @param to upper bound (inclusive), null if unbounded
+     * @param descending order of the rows on the range field
+     * @param limit max number of rows, 0 for no limit
+     * @return
+     */
+    public List<T> selectByKeyInRange(String[] fieldsToGet, String[] keyFields, Object[] keyValues, String rangeField,
+                                      Object from, Object to, boolean descending, int limit) {
+        if (keyFields.length != keyValues.length) {
+            throw new IllegalArgumentException("Got " + keyValues.length + " values for key fields " + String.join(", ", keyFields));
+        }
+        // read from the table, or from one of its views if the table's partition key is not bound
+        String source = routeQuery(fieldsToGet, keyFields);
+        String query = CqlRequestFactory.getSelectWhereString(source, fieldsToGet, keyFields, rangeField,
+                from != null, to != null, descending, false, limit > 0);
+        List<Object> params = new ArrayList<>(Arrays.asList(keyValues));
+        if (rangeField != null && from != null) {
+            params.add(from);
+        }
+        if (rangeField != null && to != null) {
+            params.add(to);
+        }
+        if (limit > 0) {
+            params.add(limit);
+        }
+        return selectWhere(query, params);
+    }
+
+    /**
+     * Select at most the given number of rows from each partition of the table, in clustering order
+     * This is a full table scan (a single statement without a key, paged by the driver), so it runs with the
+     * bulk profile unless another one was selected, and all the rows are kept in memory: use scan for large tables
+     * @param fieldsToGet
+     * @param perPartitionLimit
+     * @return
+     */
+    public List<T> selectPerPartition(String[] fieldsToGet, int perPartitionLimit) {
+        String query = CqlRequestFactory.getSelectWhereString(TABLE, fieldsToGet, new String[0], null,
+                false, false, false, true, false);
+        List<Object> params = new ArrayList<>();
+        params.add(perPartitionLimit);
+        return selectWhere(query, params, scanProfile());
+    }
+
+    /**
+     * Select the rows of many keys from the table, all point reads are executed in parallel
+     * @param fieldsToGet
+     * @param keyFields
+     * @param keyValuesList values of the key fields of each row to read, in the same order as the key fields
+     * @return rows found, in no particular order, IllegalStateException if some keys could not be read
+     */
+    public List<T> selectByKeys(String[] fieldsToGet, String[] keyFields, List<Object[]> keyValuesList) {
+        if (keyValuesList.isEmpty()) {
+            return new ArrayList<>();
+        }
+        String query = CqlRequestFactory.getSelectWhereString(TABLE, fieldsToGet, keyFields, null,
+                false, false, false, false, false);
+        CqlRequest request = new CqlRequest(query);
+        configure(request, profile);
+        for (Object[] keyValues : keyValuesList) {
+            request.addStatements(toCassandraValues(keyValues));
+        }
+        List<Row> dbRows = request.treat();
+        if (dbRows == null || request.isFailed()) {
+            throw new IllegalStateException("Could not read " + keyValuesList.size() + " keys from " + TABLE);
+        }
+        return dbRows.stream().map(row -> createBean(row)).collect(Collectors.toList());
+    }
+
+    /**
+     * Select the rows of many keys from the table without blocking the calling thread
+     * @param fieldsToGet
+     * @param keyFields
+     * @param keyValuesList values of the key fields of each row to read, in the same order as the key fields
+     * @return future rows found, in no particular order
+     */
+    public CompletableFuture<List<T>> selectByKeysAsync(String[] fieldsToGet, String[] keyFields, List<Object[]> keyValuesList) {
+        if (keyValuesList.isEmpty()) {
+            return CompletableFuture.completedFuture(new ArrayList<>());
+        }
+        String query = CqlRequestFactory.getSelectWhereString(TABLE, fieldsToGet, keyFields, null,
+                false, false, false, false, false);
+        CqlRequest request = new CqlRequest(query);
+        configure(request, profile);
+        for (Object[] keyValues : keyValuesList) {
+            request.addStatements(toCassandraValues(keyValues));
+        }
+        return request.treatAsync().thenApply(dbRows -> dbRows.stream().map(row -> createBean(row)).collect(Collectors.toList()));
+    }
+
+    /**
+     * Register a materialized view of the table, reads by key are routed to it when its partition key is bound
+     * but the table's is not
+     * @param view
+     */
+    protected void addView(String view) {
+        views.add(view);
+    }
+
+    /**
+     * Pick the table or view to read from: the table if its partition key is bound by the key fields,
+     * otherwise the first view whose partition key is bound and which has all the fields to get
+     * @param fieldsToGet null for all the fields of the table
+     * @param keyFields
+     * @return the table if nothing fits better
+     */
+    protected String routeQuery(String[] fieldsToGet, String[] keyFields) {
+        if (views.isEmpty() || isBound(CassandraConnector.getPartitionKeyColumns(TABLE), keyFields)) {
+            return TABLE;
+        }
+        for (String view : views) {
+            List<String> viewColumns = CassandraConnector.getColumns(view);
+            // a view only has some columns of the table, so it can't serve "select *"
+            if (fieldsToGet == null || fieldsToGet.length == 0 || viewColumns == null) {
+                continue;
+            }
+            if (isBound(CassandraConnector.getPartitionKeyColumns(view), keyFields) && hasColumns(viewColumns, fieldsToGet)) {
+                return view;
+            }
+        }
+        Log.i("WARNING: No table or view of " + TABLE + " has its partition key bound by " + String.join(", ", keyFields));
+        return TABLE;
+    }
+
+    /**
+     * Check if all the columns are in the given fields, case insensitive like cassandra's unquoted names
+     * @param columns
+     * @param fields
+     * @return false if there are no columns
+     */
+    private static boolean isBound(List<String> columns, String[] fields) {
+        if (columns == null) {
+            return false;
+        }
+        for (String column : columns) {
+            boolean found = false;
+            for (String field : fields) {
+                if (field.equalsIgnoreCase(column)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check if all the fields are columns of the table, case insensitive
+     * @param columns
+     * @param fields
+     * @return
+     */
+    private static boolean hasColumns(List<String> columns, String[] fields) {
+        for (String field : fields) {
+            if (columns.stream().noneMatch(column -> column.equalsIgnoreCase(field))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Java dates are bound as cassandra dates
+     * @param values
+     * @return
+     */
+    private static Object[] toCassandraValues(Object[] values) {
+        Object[] cassandraValues = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            Object value = values[i];
+            cassandraValues[i] = value instanceof Date ? DBBean.toCassandraDate((Date) value) : value;
+        }
+        return cassandraValues;
+    }
+
+    /**
+     * Run a select with placeholders, the prepared statement is cached by query string
+     * @param query
+     * @param params values of the placeholders
+     * @return
+     */
+    private List<T> selectWhere(String query, List<Object> params) {
+        return selectWhere(query, params, profile);
+    }
+
+    /**
+     * Run a select with placeholders with the given profile
+     * @param query
+     * @param params values of the placeholders
+     * @param requestProfile
+     * @return rows found, IllegalStateException if they could not be read
+     */
+    private List<T> selectWhere(String query, List<Object> params, ExecutionProfile requestProfile) {
+        CqlRequest request = new CqlRequest(query);
+        configure(request, requestProfile);
+        request.addStatements(toCassandraValues(params.toArray()));
+        List<Row> dbRows = request.treat();
+        if (dbRows == null || request.isFailed()) {
+            // not an empty list, the caller would take it for a key without rows
+            throw new IllegalStateException("Could not read " + TABLE + " for query: " + query);
+        }
+        return dbRows.stream().map(row -> createBean(row)).collect(Collectors.toList());
+    }
+
+    /**
+     * Handler for callback
+     */
+    public interface HandlerBeanList<T> {
+        void callback(List<T> partialBeans);
+    }
+
+    /**
+     * Stream given fields of the whole table page by page to the handler, instead of loading all rows in memory
+     * @param fieldsToGet
+     * @param handler
+     * @return whether all rows were streamed
+     */
+    public boolean stream(String[] fieldsToGet, HandlerBeanList<T> handler) {
+        CqlRequest request = CqlRequestFactory.getSelectSafeRequest(TABLE, fieldsToGet);
+        configure(request, scanProfile());
+        request.addStatements();
+        return request.streamRows(rows -> handler.callback(rows.stream().map(row -> createBean(row)).collect(Collectors.toList())));
+    }
+
+    /**
+     * Scan the whole table in parallel, split by token ranges, each range being read from one of its replicas
+     * Beans are handed to the handler page by page from the calling thread, in no particular order
+     * @param fieldsToGet
+     * @param parallelism number of token ranges read at the same time
+     * @param splitsPerRange number of sub-ranges each range between two node tokens is split into
+     * @param handler
+     * @return whether all rows were streamed
+     */
+    public boolean scan(String[] fieldsToGet, int parallelism, int splitsPerRange, HandlerBeanList<T> handler) {
+        List<String> partitionKeyColumns = CassandraConnector.getPartitionKeyColumns(TABLE);
+        if (partitionKeyColumns == null) {
+            return false;
+        }
+        CqlRequest request = CqlRequestFactory.getTokenRangeSelectSafeRequest(TABLE, fieldsToGet, partitionKeyColumns);
+        configure(request, scanProfile());
+        request.addTokenRangeStatements(splitsPerRange, CqlRequestFactory.getTokenRangeSelectString(TABLE, fieldsToGet, partitionKeyColumns, true));
+        request.setMaxConcurrentStreams(parallelism);
+        return request.streamRows(rows -> handler.callback(rows.stream().map(row -> createBean(row)).collect(Collectors.toList())));
+    }
+
+    /**
+     * Aggregate a numeric field per group, e.g. total spent per product.
+     * Cassandra aggregates each partition (GROUP BY the partition key and the clustering columns needed by the group fields)
+     * for all token ranges in parallel, only these partial aggregates are sent back and merged here per group.
+     * Grouping by the whole primary key (e.g. by a clustering column under a partition) would make one group per row,
+     * so the rows are then read without GROUP BY (only the group and value columns) and aggregated here
+     * @param valueField
+     * @param groupFields columns of the primary key to group by, empty for a single group
+     * @param parallelism number of token ranges aggregated at the same time
+     * @param splitsPerRange number of sub-ranges each range between two node tokens is split into
+     * @return aggregates per group, keyed by the values of the group fields (dates as cassandra dates)
+     */
+    public Map<List<Object>, Aggregate> aggregate(String valueField, String[] groupFields, int parallelism, int splitsPerRange) {
+        List<String> partitionKeyColumns = CassandraConnector.getPartitionKeyColumns(TABLE);
+        List<String> primaryKeyColumns = CassandraConnector.getPrimaryKeyColumns(TABLE);
+        if (partitionKeyColumns == null || primaryKeyColumns == null) {
+            throw new IllegalStateException("Could not get primary key of table " + TABLE);
+        }
+        // group by the shortest primary key prefix containing the partition key and the group fields
+        int groupByLength = partitionKeyColumns.size();
+        int[] groupIndexes = new int[groupFields.length];
+        for (int i = 0; i < groupFields.length; i++) {
+            int index = -1;
+            for (int j = 0; j < primaryKeyColumns.size(); j++) {
+                if (primaryKeyColumns.get(j).equalsIgnoreCase(groupFields[i])) {
+                    index = j;
+                    break;
+                }
+            }
+            if (index < 0) {
+                throw new IllegalArgumentException("Can only group by primary key columns of " + TABLE + ", got " + groupFields[i]);
+            }
+            groupIndexes[i] = index;
+            groupByLength = Math.max(groupByLength, index + 1);
+        }
+        if (groupByLength == primaryKeyColumns.size()) {
+            return aggregateRows(valueField, groupFields, partitionKeyColumns, parallelism, splitsPerRange);
+        }
+        List<String> groupBy = primaryKeyColumns.subList(0, groupByLength);
+        // count, sum, min and max follow the group by columns
+        int first = groupBy.size();
+
+        CqlRequest request = new CqlRequest(CqlRequestFactory.getTokenRangeAggregateString(TABLE, valueField, groupBy, partitionKeyColumns, false));
+        configure(request, scanProfile());
+        request.addTokenRangeStatements(splitsPerRange, CqlRequestFactory.getTokenRangeAggregateString(TABLE, valueField, groupBy, partitionKeyColumns, true));
+        request.setMaxConcurrentStreams(parallelism);
+        Map<List<Object>, Aggregate> aggregates = new HashMap<>();
+        // rows are handed over on this thread, no need to synchronize the map
+        boolean streamed = request.streamRows(rows -> {
+            for (Row row : rows) {
+                List<Object> key = new ArrayList<>(groupIndexes.length);
+                for (int groupIndex : groupIndexes) {
+                    key.add(row.getObject(groupIndex));
+                }
+                Number min = (Number) row.getObject(first + 2);
+                Number max = (Number) row.getObject(first + 3);
+                aggregates.computeIfAbsent(key, k -> new Aggregate()).add(
+                        ((Number) row.getObject(first)).longValue(),
+                        ((Number) row.getObject(first + 1)).doubleValue(),
+                        min == null ? null : min.doubleValue(),
+                        max == null ? null : max.doubleValue());
+            }
+        });
+        if (!streamed) {
+            throw new IllegalStateException("Could not aggregate " + valueField + " of " + TABLE);
+        }
+        return aggregates;
+    }
+
+    /**
+     * Aggregate a numeric field per group from the rows themselves, nothing is aggregated by cassandra
+     * @param valueField
+     * @param groupFields
+     * @param partitionKeyColumns
+     * @param parallelism
+     * @param splitsPerRange
+     * @return
+     */
+    private Map<List<Object>, Aggregate> aggregateRows(String valueField, String[] groupFields, List<String> partitionKeyColumns,
+                                                       int parallelism, int splitsPerRange) {
+        // the value follows the group fields
+        String[] fields = Arrays.copyOf(groupFields, groupFields.length + 1);
+        fields[groupFields.length] = valueField;
+        CqlRequest request = CqlRequestFactory.getTokenRangeSelectSafeRequest(TABLE, fields, partitionKeyColumns);
+        configure(request, scanProfile());
+        request.addTokenRangeStatements(splitsPerRange, CqlRequestFactory.getTokenRangeSelectString(TABLE, fields, partitionKeyColumns, true));
+        request.setMaxConcurrentStreams(parallelism);
+        Map<List<Object>, Aggregate> aggregates = new HashMap<>();
+        // rows are handed over on this thread, no need to synchronize the map
+        boolean streamed = request.streamRows(rows -> {
+            for (Row row : rows) {
+                List<Object> key = new ArrayList<>(groupFields.length);
+                for (int i = 0; i < groupFields.length; i++) {
+                    key.add(row.getObject(i));
+                }
+                Aggregate aggregate = aggregates.computeIfAbsent(key, k -> new Aggregate());
+                Number value = (Number) row.getObject(groupFields.length);
+                if (value != null) {
+                    aggregate.add(1, value.doubleValue(), value.doubleValue(), value.doubleValue());
+                }
+            }
+        });
+        if (!streamed) {
+            throw new IllegalStateException("Could not aggregate " + valueField + " of " + TABLE);
+        }
+        return aggregates;
+    }
+
     /**
      * Upsert list of beans with list of given fields into table
      * @param beans
@@ -71,15 +779,74 @@ public class GenericDAO <T extends DBBean>{
      * @return
      */
     public int upsert(List<T> beans, String... fieldsToUpsert) {
+        AfterWrite afterWrite = notifyWriteListeners(listener -> listener.beforeUpsert(beans, fieldsToUpsert)).join();
         CqlRequest request = CqlRequestFactory.getUpsertSafeRequest(TABLE, fieldsToUpsert);
-        for (T bean: beans) {
-            request.addStatementsAsBeans(bean, fieldsToUpsert);
+        try {
+            configure(request, profile);
+            for (T bean: beans) {
+                request.addStatementsAsBeans(bean, fieldsToUpsert);
+            }
+            batchIfEnabled(request);
+            request.treat();
+        } catch (RuntimeException e) {
+            afterWrite.failed();
+            throw e;
         }
-        request.treat();
+        afterWritten(request, afterWrite);
         // return upserted records count
         return request.isFailed()? 0: beans.size();
     }
 
+    /**
+     * Upsert list of beans with list of given fields into table without blocking the calling thread
+     * @param beans
+     * @param fieldsToUpsert
+     * @return future upserted records count, completed exceptionally if some records could not be upserted
+     */
+    public CompletableFuture<Integer> upsertAsync(List<T> beans, String... fieldsToUpsert) {
+        return upsertAsync(StatementRegistry.get(TABLE, StatementRegistry.Operation.UPSERT, fieldsToUpsert), beans);
+    }
+
+    /**
+     * Upsert list of beans with the statement of a handle, for hot paths keeping their handle
+     * @param upsertHandle handle of an upsert statement of this table, see getStatementHandle
+     * @param beans
+     * @return future count of upserted records, completed exceptionally if some could not be upserted
+     */
+    public CompletableFuture<Integer> upsertAsync(StatementHandle upsertHandle, List<T> beans) {
+        return upsertAsync(upsertHandle, beans, null);
+    }
+
+    /**
+     * Upsert list of beans with the statement of a handle, each one written with the given timestamp
+     * @param upsertHandle handle of an upsert statement of this table, see getStatementHandle
+     * @param beans
+     * @param timestampsMicros write timestamp of each bean, null to let the driver generate them
+     * @return future count of upserted records, completed exceptionally if some could not be upserted
+     */
+    public CompletableFuture<Integer> upsertAsync(StatementHandle upsertHandle, List<T> beans, long[] timestampsMicros) {
+        String[] fieldsToUpsert = upsertHandle.fields();
+        return notifyWriteListeners(listener -> listener.beforeUpsert(beans, fieldsToUpsert)).thenComposeAsync(afterWrite -> {
+            CompletableFuture<List<Row>> rows;
+            try {
+                CqlRequest request = upsertHandle.newRequest();
+                configure(request, profile);
+                for (int i = 0; i < beans.size(); i++) {
+                    if (timestampsMicros != null) {
+                        request.setDefaultTimestamp(timestampsMicros[i]);
+                    }
+                    request.addStatementsAsBeans(beans.get(i), fieldsToUpsert);
+                }
+                batchIfEnabled(request);
+                rows = request.treatAsync();
+            } catch (RuntimeException e) {
+                afterWrite.failed();
+                throw e;
+            }
+            return afterWrittenAsync(rows, afterWrite).thenApply(written -> beans.size());
+        }, WRITE_EXECUTOR);
+    }
+
     /**
      * Overload method for single bean upsert, not very efficient, try to upsert a list first instead
      * @param bean
@@ -99,15 +866,79 @@ public class GenericDAO <T extends DBBean>{
      * @return
      */
     public int delete(List<T> beans, String... fieldsToDeleteBy) {
+        AfterWrite afterWrite = notifyWriteListeners(listener -> listener.beforeDelete(beans, fieldsToDeleteBy)).join();
         CqlRequest request = CqlRequestFactory.getDeleteSafeRequest(TABLE, fieldsToDeleteBy);
-        for (T bean: beans) {
-            request.addStatementsAsBeans(bean, fieldsToDeleteBy);
+        try {
+            configure(request, profile);
+            for (T bean: beans) {
+                request.addStatementsAsBeans(bean, fieldsToDeleteBy);
+            }
+            batchIfEnabled(request);
+            request.treat();
+        } catch (RuntimeException e) {
+            afterWrite.failed();
+            throw e;
         }
-        request.treat();
+        afterWritten(request, afterWrite);
         // return count of deleted records
         return request.isFailed()? 0: beans.size();
     }
 
+    /**
+     * Deletes list of beans where given fieldsToDeleteBy is equal to the bean values, without blocking the calling thread
+     * @param beans
+     * @param fieldsToDeleteBy
+     * @return future count of deleted records, completed exceptionally if some records could not be deleted
+     */
+    public CompletableFuture<Integer> deleteAsync(List<T> beans, String... fieldsToDeleteBy) {
+        return notifyWriteListeners(listener -> listener.beforeDelete(beans, fieldsToDeleteBy)).thenComposeAsync(afterWrite -> {
+            CompletableFuture<List<Row>> rows;
+            try {
+                CqlRequest request = CqlRequestFactory.getDeleteSafeRequest(TABLE, fieldsToDeleteBy);
+                configure(request, profile);
+                for (T bean: beans) {
+                    request.addStatementsAsBeans(bean, fieldsToDeleteBy);
+                }
+                batchIfEnabled(request);
+                rows = request.treatAsync();
+            } catch (RuntimeException e) {
+                afterWrite.failed();
+                throw e;
+            }
+            return afterWrittenAsync(rows, afterWrite).thenApply(written -> beans.size());
+        }, WRITE_EXECUTOR);
+    }
+
+    /**
+     * Tell the write listeners the outcome of a write
+     * @param request
+     * @param afterWrite
+     */
+    private static void afterWritten(CqlRequest request, AfterWrite afterWrite) {
+        if (request.isFailed()) {
+            afterWrite.failed();
+        } else {
+            afterWrite.written();
+        }
+    }
+
+    /**
+     * Tell the write listeners the outcome of an async write once it is done
+     * @param rows
+     * @param afterWrite
+     * @return completed like rows, once the listeners were told
+     */
+    private static CompletableFuture<List<Row>> afterWrittenAsync(CompletableFuture<List<Row>> rows, AfterWrite afterWrite) {
+        return rows.whenComplete((result, t) -> {
+            if (t != null) {
+                afterWrite.failed();
+            }
+        }).thenApply(result -> {
+            afterWrite.written();
+            return result;
+        });
+    }
+
     /**
      * Overload method for single bean delete, not very efficient, try to delete a list first instead
      * @param bean
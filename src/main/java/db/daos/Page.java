@@ -0,0 +1,30 @@
+package db.daos;
+
+import java.util.List;
+
+/**
+ * A page of results plus an opaque cursor to fetch the next page (encoded from the driver's paging state)
+ */
+public class Page<E> {
+
+    private final List<E> items;
+    // null when this is the last page
+    private final String nextCursor;
+
+    public Page(List<E> items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<E> getItems() {
+        return items;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+}
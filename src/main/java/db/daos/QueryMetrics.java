@@ -0,0 +1,264 @@
+package db.daos;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Metrics of a prepared query: latency histogram of the executions (first page, or page for streams),
+ * attempts, retries, hedges, timeouts, failures, statements given up, retries denied by the retry budget,
+ * statements failed fast by a circuit breaker and rows returned
+ * Recording is wait-free (HdrHistogram recorder and LongAdders), percentiles are read from the last complete
+ * window of WINDOW_MILLIS, so every reader (metrics.do, JMX, the percentile hedge delay of the profiles) sees the same values
+ */
+public final class QueryMetrics implements QueryMetricsMXBean {
+
+    private static final long WINDOW_MILLIS = 10000;
+    // latencies are recorded in microseconds, up to a minute
+    private static final long MAX_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(1);
+    private static final int SIGNIFICANT_DIGITS = 3;
+    // a window percentile is not trusted below this number of latencies
+    private static final int MIN_WINDOW_SAMPLES = 100;
+
+    private final String query;
+    // System::currentTimeMillis, a fake clock in the tests
+    private final LongSupplier clock;
+    private final Recorder recorder = new Recorder(MAX_LATENCY_MICROS, SIGNIFICANT_DIGITS);
+    private final LongAdder attempts = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder gaveUp = new LongAdder();
+    private final LongAdder retriesDenied = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    // guarded by this
+    private final Histogram total = new Histogram(MAX_LATENCY_MICROS, SIGNIFICANT_DIGITS);
+    // the recorder only takes back the histograms it handed out, both come from it
+    private Histogram window;
+    private Histogram recycled;
+    // read without the lock to tell whether the window is over
+    private volatile long windowStartMillis;
+    // percentiles of the window already computed for the hedged reads, cleared when the window rolls over
+    private final ConcurrentHashMap<Double, Long> windowPercentiles = new ConcurrentHashMap<>();
+    private long windowStartRows = 0;
+    private double rowsPerSecond = 0;
+
+    QueryMetrics(String query) {
+        this(query, System::currentTimeMillis);
+    }
+
+    /**
+     * Metrics of their own, not registered with CqlMetrics
+     * @param query
+     * @param clock current time in milliseconds
+     */
+    QueryMetrics(String query, LongSupplier clock) {
+        this.query = query;
+        this.clock = clock;
+        this.window = recorder.getIntervalHistogram();
+        this.windowStartMillis = clock.getAsLong();
+    }
+
+    /**
+     * Record an execution that got its response (or failed)
+     * @param latencyNanos
+     * @param failure null if it succeeded
+     */
+    void recordExecution(long latencyNanos, Throwable failure) {
+        attempts.increment();
+        recorder.recordValue(Math.max(0, Math.min(MAX_LATENCY_MICROS, TimeUnit.NANOSECONDS.toMicros(latencyNanos))));
+        if (failure != null) {
+            failures.increment();
+        }
+    }
+
+    /**
+     * Record an execution without response within the timeout
+     * @param timeoutNanos
+     */
+    void recordTimeout(long timeoutNanos) {
+        attempts.increment();
+        timeouts.increment();
+        recorder.recordValue(Math.min(MAX_LATENCY_MICROS, TimeUnit.NANOSECONDS.toMicros(timeoutNanos)));
+    }
+
+    void recordRetry() {
+        retries.increment();
+    }
+
+    void recordHedge() {
+        hedges.increment();
+    }
+
+    void recordGaveUp() {
+        gaveUp.increment();
+    }
+
+    /**
+     * Record a retry the retry budget didn't allow
+     */
+    void recordRetryDenied() {
+        retriesDenied.increment();
+    }
+
+    /**
+     * Record a statement failed fast by an open circuit breaker
+     */
+    void recordRejected() {
+        rejected.increment();
+    }
+
+    void recordRows(int count) {
+        rows.add(count);
+    }
+
+    /**
+     * Close the current window if it is over, so the percentiles move forward
+     */
+    private synchronized void refresh() {
+        long now = clock.getAsLong();
+        if (now - windowStartMillis < WINDOW_MILLIS) {
+            return;
+        }
+        Histogram interval = recorder.getIntervalHistogram(recycled);
+        total.add(interval);
+        recycled = window;
+        window = interval;
+        windowPercentiles.clear();
+        long rowCount = rows.sum();
+        rowsPerSecond = (rowCount - windowStartRows) * 1000.0 / (now - windowStartMillis);
+        windowStartRows = rowCount;
+        windowStartMillis = now;
+    }
+
+    /**
+     * Latency percentile of the last window (of all time if the last window is empty)
+     * @param percentile
+     * @return
+     */
+    public synchronized double getLatencyPercentileMillis(double percentile) {
+        refresh();
+        Histogram histogram = window.getTotalCount() > 0 ? window : total;
+        return histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    /**
+     * Latency percentile of the last window, computed once per window so hot paths (hedged reads) only look it up
+     * @param percentile
+     * @return at least a millisecond, -1 if the window has too few latencies to tell
+     */
+    long getWindowPercentileMillis(double percentile) {
+        if (clock.getAsLong() - windowStartMillis >= WINDOW_MILLIS) {
+            refresh();
+        }
+        Long cached = windowPercentiles.get(percentile);
+        if (cached != null) {
+            return cached;
+        }
+        synchronized (this) {
+            return windowPercentiles.computeIfAbsent(percentile, p -> window.getTotalCount() < MIN_WINDOW_SAMPLES ? -1L
+                    : Math.max(1, Math.round(window.getValueAtPercentile(p) / 1000.0)));
+        }
+    }
+
+    @Override
+    public String getQuery() {
+        return query;
+    }
+
+    @Override
+    public long getAttempts() {
+        return attempts.sum();
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    @Override
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public long getGaveUp() {
+        return gaveUp.sum();
+    }
+
+    @Override
+    public long getRetriesDenied() {
+        return retriesDenied.sum();
+    }
+
+    @Override
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public long getRows() {
+        return rows.sum();
+    }
+
+    @Override
+    public synchronized double getRowsPerSecond() {
+        refresh();
+        return rowsPerSecond;
+    }
+
+    @Override
+    public synchronized long getLatencyCount() {
+        refresh();
+        return total.getTotalCount();
+    }
+
+    @Override
+    public synchronized double getLatencySumMillis() {
+        refresh();
+        return total.getMean() * total.getTotalCount() / 1000.0;
+    }
+
+    @Override
+    public double getLatencyP50Millis() {
+        return getLatencyPercentileMillis(50);
+    }
+
+    @Override
+    public double getLatencyP90Millis() {
+        return getLatencyPercentileMillis(90);
+    }
+
+    @Override
+    public double getLatencyP99Millis() {
+        return getLatencyPercentileMillis(99);
+    }
+
+    @Override
+    public double getLatencyP999Millis() {
+        return getLatencyPercentileMillis(99.9);
+    }
+
+    @Override
+    public synchronized double getLatencyMaxMillis() {
+        refresh();
+        Histogram histogram = window.getTotalCount() > 0 ? window : total;
+        return histogram.getMaxValue() / 1000.0;
+    }
+}
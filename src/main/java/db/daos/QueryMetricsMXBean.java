@@ -0,0 +1,43 @@
+package db.daos;
+
+/**
+ * JMX view of the metrics of a prepared query, latencies are those of the last window
+ */
+public interface QueryMetricsMXBean {
+
+    String getQuery();
+
+    long getAttempts();
+
+    long getRetries();
+
+    long getHedges();
+
+    long getTimeouts();
+
+    long getFailures();
+
+    long getGaveUp();
+
+    long getRetriesDenied();
+
+    long getRejected();
+
+    long getRows();
+
+    double getRowsPerSecond();
+
+    long getLatencyCount();
+
+    double getLatencySumMillis();
+
+    double getLatencyP50Millis();
+
+    double getLatencyP90Millis();
+
+    double getLatencyP99Millis();
+
+    double getLatencyP999Millis();
+
+    double getLatencyMaxMillis();
+}
@@ -0,0 +1,128 @@
+package db.daos;
+
+import java.util.function.LongSupplier;
+
+/**
+ * JVM wide budget of retries: over the last WINDOW_SECONDS, retries can't exceed RATIO of the first attempts
+ * (plus a small reserve so a quiet application can still retry), whatever the query or the request.
+ * When a cluster struggles every request fails at once, retrying all of them would multiply its load,
+ * with the budget only the first failures are retried and the others fail right away
+ */
+public final class RetryBudget {
+
+    // retries allowed per first attempt, i.e. at most 10% more load on the cluster
+    private static final double RATIO = 0.1;
+    // retries allowed per second whatever the traffic
+    private static final int MIN_RETRIES_PER_SECOND = 10;
+    // the window is made of one second buckets
+    private static final int WINDOW_SECONDS = 10;
+
+    private static final RetryBudget INSTANCE = new RetryBudget(System::nanoTime);
+
+    // System::nanoTime, a fake clock in the tests
+    private final LongSupplier clock;
+    // guarded by this, per bucket of the window
+    private final long[] requests = new long[WINDOW_SECONDS];
+    private final long[] retries = new long[WINDOW_SECONDS];
+    private long requestsInWindow;
+    private long retriesInWindow;
+    // second of the current bucket
+    private long currentSecond;
+    private long denied;
+
+    /**
+     * A budget of its own, not shared with the requests
+     * @param clock nano time
+     */
+    RetryBudget(LongSupplier clock) {
+        this.clock = clock;
+        this.currentSecond = Math.floorDiv(clock.getAsLong(), 1000000000L);
+    }
+
+    /**
+     * Get the budget shared by every request
+     * @return
+     */
+    public static RetryBudget get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Record the first attempts of statements (or of pages)
+     * @param count
+     */
+    synchronized void onRequests(int count) {
+        advance();
+        requests[bucket()] += count;
+        requestsInWindow += count;
+    }
+
+    /**
+     * Take a retry from the budget
+     * @return false if the budget is spent, the statement should not be retried
+     */
+    synchronized boolean tryRetry() {
+        advance();
+        if (retriesInWindow >= allowed()) {
+            denied += 1;
+            return false;
+        }
+        retries[bucket()] += 1;
+        retriesInWindow += 1;
+        return true;
+    }
+
+    private long allowed() {
+        return (long) (requestsInWindow * RATIO) + (long) MIN_RETRIES_PER_SECOND * WINDOW_SECONDS;
+    }
+
+    /**
+     * Move the window to the current second, dropping the buckets older than the window
+     */
+    private void advance() {
+        long second = Math.floorDiv(clock.getAsLong(), 1000000000L);
+        long elapsed = Math.min(WINDOW_SECONDS, second - currentSecond);
+        for (long i = 1; i <= elapsed; i++) {
+            int expired = (int) Math.floorMod(currentSecond + i, (long) WINDOW_SECONDS);
+            requestsInWindow -= requests[expired];
+            retriesInWindow -= retries[expired];
+            requests[expired] = 0;
+            retries[expired] = 0;
+        }
+        if (second > currentSecond) {
+            currentSecond = second;
+        }
+    }
+
+    private int bucket() {
+        // nanoTime may be negative
+        return (int) Math.floorMod(currentSecond, (long) WINDOW_SECONDS);
+    }
+
+    /**
+     * Retries left in the budget right now
+     * @return
+     */
+    public synchronized long getAvailable() {
+        advance();
+        return Math.max(0, allowed() - retriesInWindow);
+    }
+
+    /**
+     * Retries denied since the start, all queries together
+     * @return
+     */
+    public synchronized long getDenied() {
+        return denied;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RetryBudget{" +
+                "requests=" + requestsInWindow +
+                ", retries=" + retriesInWindow +
+                ", allowed=" + allowed() +
+                ", window=" + WINDOW_SECONDS + "s" +
+                '}';
+    }
+}
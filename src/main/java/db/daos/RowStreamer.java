@@ -0,0 +1,251 @@
+package db.daos;
+
+import com.datastax.driver.core.*;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import utils.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stream the rows of statements page by page using the driver's paging, instead of pulling whole result sets in memory
+ * Each page is handed to the callback as it arrives while the next page of that statement is prefetched in the background,
+ * so memory is bounded by the number of statements streamed at the same time, not by the table size.
+ * A statement can't be fetched more than one page ahead, the paging state of a page comes with the previous one
+ * At the deadline the pages in flight are cancelled and streaming stops, failed pages are retried within the deadline,
+ * the retry budget and the circuit breaker of the statement
+ */
+class RowStreamer {
+
+    private final Session session;
+    private final Deque<Statement> pendingStatements;
+    // number of statements streamed at the same time, each one has at most one page being fetched ahead of the callback
+    private final int maxConcurrentStreams;
+    // pages (or failures) delivered by the driver threads, consumed by the calling thread
+    private final BlockingQueue<PageEvent> events = new LinkedBlockingQueue<>();
+    private final ExecutionProfile profile;
+    private final Deadline deadline;
+    private final String query;
+    // JVM wide metrics of the query, each page counts as an execution
+    private final QueryMetrics metrics;
+    // circuit breaker of the query on any host, the statements pinned to a host (token ranges) use the one of that host
+    private final CircuitBreaker breaker;
+    // statements started, to cancel their pages in flight at the deadline
+    private final List<StatementStream> startedStreams = new ArrayList<>();
+    // set once streaming stopped, retries scheduled afterwards are not sent
+    private volatile boolean stopped = false;
+    // statements being streamed, only touched by the calling thread
+    private int activeStreams = 0;
+    private boolean success = true;
+
+    RowStreamer(Session session, List<? extends Statement> statements, int maxConcurrentStreams, ExecutionProfile profile, Deadline deadline, String query,
+                QueryMetrics metrics, CircuitBreaker breaker) {
+        this.session = session;
+        this.pendingStatements = new ArrayDeque<>(statements);
+        this.maxConcurrentStreams = Math.max(1, maxConcurrentStreams);
+        this.profile = profile;
+        this.deadline = deadline;
+        this.query = query;
+        this.metrics = metrics;
+        this.breaker = breaker;
+    }
+
+    /**
+     * Stream all statements, blocks until every page has been handed to the handler, failed or the deadline passed
+     * @param handler
+     * @return whether all the rows were streamed
+     */
+    boolean stream(CqlRequest.HandlerRowList handler) {
+        startPendingStatements();
+        try {
+            while (activeStreams > 0) {
+                PageEvent event = deadline.isBounded() ? events.poll(Math.max(0, deadline.remainingNanos()), TimeUnit.NANOSECONDS) : events.take();
+                if (event == null) {
+                    Log.e("ERROR: Deadline exceeded while streaming, remaining statements: " + Integer.toString(pendingStatements.size() + activeStreams), null);
+                    success = false;
+                    break;
+                }
+                StatementStream stream = event.stream;
+                if (event.error != null) {
+                    retryOrGiveUp(stream, event.error);
+                    continue;
+                }
+                ResultSet resultSet = event.resultSet;
+                // remember where this page ended, so a failed fetch can resume from here instead of the beginning
+                stream.pagingState = resultSet.getExecutionInfo().getPagingState();
+                stream.failures = 0;
+                if (resultSet.isFullyFetched()) {
+                    activeStreams -= 1;
+                    startPendingStatements();
+                } else {
+                    // prefetch the next page while the callback works on this one
+                    RetryBudget.get().onRequests(1);
+                    listen(stream, resultSet.fetchMoreResults(), null);
+                }
+                if (!event.rows.isEmpty()) {
+                    handler.callback(event.rows);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Log.i("Streaming interrupted, remaining statements: " + Integer.toString(pendingStatements.size() + activeStreams));
+            success = false;
+        } finally {
+            stop();
+        }
+        return success;
+    }
+
+    private void startPendingStatements() {
+        while (activeStreams < maxConcurrentStreams && !pendingStatements.isEmpty()) {
+            activeStreams += 1;
+            StatementStream stream = new StatementStream(pendingStatements.poll());
+            startedStreams.add(stream);
+            RetryBudget.get().onRequests(1);
+            execute(stream);
+        }
+    }
+
+    /**
+     * Execute the statement of a stream, from its last page, unless its circuit breaker is open
+     * @param stream
+     */
+    private void execute(StatementStream stream) {
+        if (stopped) {
+            return;
+        }
+        CircuitBreaker breaker = CircuitBreaker.forStatement(this.breaker, stream.statement);
+        if (!breaker.tryAcquire()) {
+            metrics.recordRejected();
+            stream.rejected = true;
+            events.add(new PageEvent(stream, null, null, new IllegalStateException("Circuit breaker open for query: " + query)));
+            return;
+        }
+        CqlRequest.capReadTimeout(stream.statement, profile, deadline);
+        listen(stream, session.executeAsync(stream.statement), breaker);
+    }
+
+    /**
+     * Stop streaming, cancelling the pages in flight nobody will consume
+     */
+    private void stop() {
+        stopped = true;
+        for (StatementStream stream : startedStreams) {
+            ListenableFuture<ResultSet> page = stream.page;
+            if (page != null && !page.isDone()) {
+                page.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Retry a failed page with backoff, resuming from the last page we got
+     * @param stream
+     * @param error
+     */
+    private void retryOrGiveUp(StatementStream stream, Throwable error) {
+        stream.failures += 1;
+        int attemptCounter = stream.failures + 1;
+        long backoffTime = stream.rejected ? -1 : CqlRequest.retryDelay(profile, deadline, stream.statement, stream.failures, error, metrics);
+        if (backoffTime < 0) {
+            metrics.recordGaveUp();
+            Log.e("ERROR: Could not completely stream statement, giving up after " + Integer.toString(stream.failures) + " failures", error);
+            success = false;
+            activeStreams -= 1;
+            startPendingStatements();
+            return;
+        }
+        if (stream.pagingState != null) {
+            stream.statement.setPagingState(stream.pagingState);
+        }
+        if (stream.statement.getHost() != null) {
+            // the replica the statement was pinned to may be down, let the load balancing policy pick another one
+            stream.statement.setHost(null);
+        }
+        metrics.recordRetry();
+        Log.i("Streaming page failed: " + error + " Attempt: " + Integer.toString(attemptCounter) +
+                " Backing-off: " + Long.toString(backoffTime) + "ms");
+        CqlRequest.SCHEDULER.schedule(() -> execute(stream), backoffTime, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * When the page arrives, copy the rows available without fetching and hand them to the calling thread
+     * @param stream
+     * @param future
+     * @param breaker circuit breaker the page was let through by, null for the pages prefetched
+     */
+    private void listen(StatementStream stream, ListenableFuture<ResultSet> future, CircuitBreaker breaker) {
+        // the page is requested right before we listen to it
+        long startNanos = System.nanoTime();
+        stream.page = future;
+        if (stopped) {
+            // streaming stopped while this retry was being sent
+            future.cancel(true);
+        }
+        Futures.addCallback(future, new FutureCallback<ResultSet>() {
+            @Override
+            public void onSuccess(ResultSet resultSet) {
+                if (breaker != null) {
+                    breaker.record(null);
+                }
+                int available = resultSet.getAvailableWithoutFetching();
+                List<Row> rows = new ArrayList<>(available);
+                for (int i = 0; i < available; i++) {
+                    rows.add(resultSet.one());
+                }
+                metrics.recordExecution(System.nanoTime() - startNanos, null);
+                metrics.recordRows(available);
+                events.add(new PageEvent(stream, resultSet, rows, null));
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                if (breaker != null) {
+                    breaker.record(t);
+                }
+                metrics.recordExecution(System.nanoTime() - startNanos, t);
+                events.add(new PageEvent(stream, null, null, t));
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Streaming state of a single statement
+     */
+    private static class StatementStream {
+        final Statement statement;
+        PagingState pagingState;
+        int failures = 0;
+        // failed fast by its circuit breaker, not retried
+        volatile boolean rejected = false;
+        // page being fetched, set by the thread executing it
+        volatile ListenableFuture<ResultSet> page;
+        StatementStream(Statement statement) {
+            this.statement = statement;
+        }
+    }
+
+    /**
+     * A page of rows (or the failure to get it) for a statement
+     */
+    private static class PageEvent {
+        final StatementStream stream;
+        final ResultSet resultSet;
+        final List<Row> rows;
+        final Throwable error;
+        PageEvent(StatementStream stream, ResultSet resultSet, List<Row> rows, Throwable error) {
+            this.stream = stream;
+            this.resultSet = resultSet;
+            this.rows = rows;
+            this.error = error;
+        }
+    }
+}
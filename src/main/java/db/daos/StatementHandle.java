@@ -0,0 +1,189 @@
+package db.daos;
+
+import com.datastax.driver.core.PreparedStatement;
+import db.config.CassandraConnector;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Precompiled statement of the registry: the query string, its prepared statements and limiters (one per session pool),
+ * its query type, metrics and circuit breaker are built once, thread safe and meant to be kept by callers, so hot paths
+ * create requests without building the query or looking any of them up. The prepared statements are dropped by the registry
+ * when the table schema changes, and prepared again on next use (or once the connections were replaced)
+ */
+public final class StatementHandle {
+
+    private final String table;
+    private final StatementRegistry.Operation operation;
+    private final String[] fields;
+    private final String query;
+    private final ConcurrencyLimiter.QueryType queryType;
+    // prepared statement and shared limiter of each session pool, every pool is a cluster connection of its own
+    private final ConcurrentHashMap<String, PoolStatement> poolStatements = new ConcurrentHashMap<>();
+    // the one of the default pool, read by most requests without a map lookup
+    private volatile PoolStatement defaultPoolStatement;
+    // looked up on first use, shared with the requests built from the query string
+    private volatile QueryMetrics metrics;
+    private volatile CircuitBreaker breaker;
+
+    StatementHandle(String table, StatementRegistry.Operation operation, String[] fields, String query) {
+        this.table = table;
+        this.operation = operation;
+        this.fields = fields;
+        this.query = query;
+        this.queryType = ConcurrencyLimiter.typeOf(query);
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public StatementRegistry.Operation getOperation() {
+        return operation;
+    }
+
+    /**
+     * Fields of the statement, in order of the placeholders
+     * @return
+     */
+    public String[] getFields() {
+        return fields.clone();
+    }
+
+    // fields without copying them, for the DAOs
+    String[] fields() {
+        return fields;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    ConcurrencyLimiter.QueryType getQueryType() {
+        return queryType;
+    }
+
+    /**
+     * Create a request executing this statement
+     * @return
+     */
+    public CqlRequest newRequest() {
+        return new CqlRequest(this);
+    }
+
+    /**
+     * JVM wide metrics of the query, looked up once
+     * @return
+     */
+    QueryMetrics getMetrics() {
+        QueryMetrics current = metrics;
+        if (current == null) {
+            // forQuery always gives the same metrics for a query, a race only looks it up twice
+            current = CqlMetrics.forQuery(query);
+            metrics = current;
+        }
+        return current;
+    }
+
+    /**
+     * Circuit breaker of the query on any host, looked up once
+     * @return
+     */
+    CircuitBreaker getBreaker() {
+        CircuitBreaker current = breaker;
+        if (current == null) {
+            current = CircuitBreaker.forQuery(query, null);
+            breaker = current;
+        }
+        return current;
+    }
+
+    /**
+     * Get the prepared statement and limiter of a session pool
+     * @param pool
+     * @return null if not prepared yet, or prepared on connections since replaced
+     */
+    PoolStatement getPoolStatement(String pool) {
+        PoolStatement current = CassandraConnector.DEFAULT_POOL.equals(pool) ? defaultPoolStatement : poolStatements.get(pool);
+        return current != null && current.generation == CassandraConnector.getGeneration() ? current : null;
+    }
+
+    /**
+     * Prepare the statement on a session pool if it is not already, the registry registers its schema listener first
+     * @param pool
+     * @return
+     */
+    synchronized PoolStatement prepare(String pool) {
+        PoolStatement current = getPoolStatement(pool);
+        if (current == null) {
+            // read before the session, a connection replaced in between makes the next request prepare it again
+            long generation = CassandraConnector.getGeneration();
+            current = new PoolStatement(CassandraConnector.getSession(pool).prepare(query), ConcurrencyLimiter.forType(pool, queryType), generation);
+            put(pool, current);
+        }
+        return current;
+    }
+
+    boolean isPrepared(String pool) {
+        return getPoolStatement(pool) != null;
+    }
+
+    /**
+     * Set the prepared statement of a session pool, e.g. once prepared asynchronously by the warm-up
+     * @param pool
+     * @param prepared
+     * @param generation connection generation read before the statement was prepared
+     */
+    synchronized void setPreparedStatement(String pool, PreparedStatement prepared, long generation) {
+        if (getPoolStatement(pool) == null) {
+            put(pool, new PoolStatement(prepared, ConcurrencyLimiter.forType(pool, queryType), generation));
+        }
+    }
+
+    private void put(String pool, PoolStatement poolStatement) {
+        poolStatements.put(pool, poolStatement);
+        if (CassandraConnector.DEFAULT_POOL.equals(pool)) {
+            defaultPoolStatement = poolStatement;
+        }
+    }
+
+    /**
+     * Drop the prepared statements, they will be prepared again on next use
+     */
+    void invalidate() {
+        poolStatements.clear();
+        defaultPoolStatement = null;
+    }
+
+    /**
+     * Drop the prepared statement of a session pool, it will be prepared again on next use
+     * @param pool
+     */
+    void invalidate(String pool) {
+        poolStatements.remove(pool);
+        if (CassandraConnector.DEFAULT_POOL.equals(pool)) {
+            defaultPoolStatement = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "StatementHandle{" + query + '}';
+    }
+
+    /**
+     * Prepared statement of a session pool, with the limiter of its query type in that pool
+     */
+    static final class PoolStatement {
+        final PreparedStatement prepared;
+        final ConcurrencyLimiter limiter;
+        // see CassandraConnector.getGeneration
+        final long generation;
+
+        PoolStatement(PreparedStatement prepared, ConcurrencyLimiter limiter, long generation) {
+            this.prepared = prepared;
+            this.limiter = limiter;
+            this.generation = generation;
+        }
+    }
+}
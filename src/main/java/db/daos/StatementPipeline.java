@@ -0,0 +1,437 @@
+package db.daos;
+
+import com.datastax.driver.core.*;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import utils.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Execute statements through a sliding window of in-flight requests, built on the driver's ResultSetFuture callbacks
+ * A permit is handed to the next statement as soon as any statement completes (instead of waiting for a whole partition),
+ * failed statements go back into the same pipeline after their backoff, scheduled on a timer instead of parking a thread,
+ * as long as the deadline leaves time for it, the retry budget allows it and the circuit breaker of the statement is closed
+ */
+class StatementPipeline {
+
+    private final Session session;
+    private final int window;
+    private final int timeout;
+    private final ExecutionProfile profile;
+    // every attempt and backoff of the statements fits before it
+    private final Deadline deadline;
+    // only idempotent reads are hedged
+    private final boolean hedgeable;
+    private final String query;
+    // JVM wide adaptive limit shared with every request of the same query type
+    private final ConcurrencyLimiter limiter;
+    // one permit per statement in flight (per request cap, on top of the shared limit)
+    private final Semaphore permits;
+    // statements ready to be executed (first attempt or retry after backoff)
+    private final ConcurrentLinkedQueue<PipelineStatement> ready = new ConcurrentLinkedQueue<>();
+    // statements not yet succeeded or given up
+    private final AtomicInteger remaining = new AtomicInteger();
+    // work-in-progress counter, so only one thread drains the ready queue at a time (no recursion on synchronous callbacks)
+    private final AtomicInteger pumping = new AtomicInteger();
+    // whether a waiter of this pipeline is registered on the limiter, at most one at a time
+    private final AtomicBoolean waiting = new AtomicBoolean();
+    private final List<Row> collectedRows = new ArrayList<>();
+    private final ExecutionStats stats;
+    // JVM wide metrics of the query
+    private final QueryMetrics metrics;
+    // circuit breaker of the query on any host, the statements pinned to a host use the one of that host
+    private final CircuitBreaker breaker;
+    private final CompletableFuture<StatementPipeline> done = new CompletableFuture<>();
+    // gives up the statements still waiting for a permit at the deadline
+    private volatile ScheduledFuture<?> deadlineTimer;
+
+    StatementPipeline(Session session, int window, ExecutionProfile profile, Deadline deadline, String query, ConcurrencyLimiter limiter,
+                      QueryMetrics metrics, CircuitBreaker breaker) {
+        this.session = session;
+        this.limiter = limiter;
+        this.window = Math.max(1, window);
+        this.profile = profile;
+        this.deadline = deadline;
+        this.timeout = profile.getTimeoutMillis();
+        this.hedgeable = profile.getMaxHedges() > 0 && limiter.getQueryType() == ConcurrencyLimiter.QueryType.READ;
+        this.query = query;
+        this.permits = new Semaphore(this.window);
+        this.stats = new ExecutionStats(this.window);
+        this.metrics = metrics;
+        this.breaker = breaker;
+    }
+
+    /**
+     * Start executing the statements, returns right away
+     * @param statements
+     * @return completed with this pipeline once every statement succeeded or was given up
+     */
+    CompletableFuture<StatementPipeline> execute(List<? extends Statement> statements) {
+        stats.start(statements.size());
+        if (statements.isEmpty()) {
+            finish();
+            return done;
+        }
+        remaining.set(statements.size());
+        RetryBudget.get().onRequests(statements.size());
+        for (Statement statement : statements) {
+            ready.add(new PipelineStatement(statement));
+        }
+        if (deadline.isBounded()) {
+            deadlineTimer = CqlRequest.SCHEDULER.schedule(this::expire, Math.max(0, deadline.remainingNanos()), TimeUnit.NANOSECONDS);
+        }
+        pump();
+        return done;
+    }
+
+    /**
+     * Rows collected from every succeeded statement
+     * @return
+     */
+    List<Row> getCollectedRows() {
+        return collectedRows;
+    }
+
+    ExecutionStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Woken by the limiter, the next pump that finds the limit reached registers again
+     */
+    private void onPermitAvailable() {
+        waiting.set(false);
+        pump();
+    }
+
+    /**
+     * Refill the window with ready statements while permits (ours and the shared limiter's) are available
+     */
+    private void pump() {
+        if (pumping.getAndIncrement() != 0) {
+            // the thread already pumping will loop once more
+            return;
+        }
+        do {
+            while (!ready.isEmpty() && permits.tryAcquire()) {
+                if (!limiter.tryAcquire()) {
+                    // shared limit reached, we'll be pumped again once other statements complete
+                    permits.release();
+                    if (waiting.compareAndSet(false, true)) {
+                        limiter.whenAvailable(this::onPermitAvailable);
+                    }
+                    break;
+                }
+                PipelineStatement next = ready.poll();
+                if (next == null) {
+                    limiter.cancel();
+                    permits.release();
+                    break;
+                }
+                CircuitBreaker breaker = CircuitBreaker.forStatement(this.breaker, next.statement);
+                if (deadline.isExpired() || !breaker.tryAcquire()) {
+                    // no time left, or failing fast while the breaker is open: the statement is not sent
+                    limiter.cancel();
+                    permits.release();
+                    reject(next);
+                    continue;
+                }
+                stats.launched();
+                executeStatement(next, breaker);
+            }
+        } while (pumping.decrementAndGet() != 0);
+    }
+
+    /**
+     * Give up the statements waiting for a permit (of this pipeline or of the shared limiter), the ones in flight
+     * time out by the deadline
+     */
+    private void expire() {
+        PipelineStatement next;
+        while ((next = ready.poll()) != null) {
+            reject(next);
+        }
+    }
+
+    /**
+     * Give up a statement without sending it
+     * @param pipelineStatement
+     */
+    private void reject(PipelineStatement pipelineStatement) {
+        if (deadline.isExpired()) {
+            Log.d("Deadline exceeded, statement not sent after " + Integer.toString(pipelineStatement.attempts) + " attempts");
+        } else {
+            metrics.recordRejected();
+        }
+        stats.rejected(pipelineStatement.attempts > 0);
+        metrics.recordGaveUp();
+        statementResolved();
+    }
+
+    /**
+     * Execute a single statement, its first page has to arrive within the timeout (or the deadline if it comes first),
+     * and so does each of its next pages. Hedged reads are executed again if no response came after the hedge delay
+     * of the profile, the first execution to succeed (or the last one to fail) settles the statement and the others are cancelled
+     * The permit of the limiter is held until the last page arrived, and the breaker and metrics are told the outcome of the whole statement
+     * @param pipelineStatement
+     * @param breaker circuit breaker the statement was let through by
+     */
+    private void executeStatement(PipelineStatement pipelineStatement, CircuitBreaker breaker) {
+        pipelineStatement.attempts += 1;
+        long attemptTimeout = deadline.capMillis(timeout);
+        CqlRequest.capReadTimeout(pipelineStatement.statement, profile, deadline);
+        long startNanos = System.nanoTime();
+        // set once, either by the first page or by the timeout
+        AtomicBoolean settled = new AtomicBoolean(false);
+        // executions of the statement racing for the first page
+        List<ResultSetFuture> executions = new CopyOnWriteArrayList<>();
+        AtomicInteger running = new AtomicInteger(1);
+        ScheduledFuture<?> timer = CqlRequest.SCHEDULER.schedule(() -> {
+            if (settled.compareAndSet(false, true)) {
+                // the executions still running won't be waited for, don't leave them on the connections
+                cancelAll(executions);
+                TimeoutException timedOut = new TimeoutException("No response within " + attemptTimeout + "ms");
+                metrics.recordTimeout(System.nanoTime() - startNanos);
+                limiter.release(System.nanoTime() - startNanos, timedOut);
+                breaker.record(timedOut);
+                onStatementDone(pipelineStatement, null, timedOut);
+            }
+        }, attemptTimeout, TimeUnit.MILLISECONDS);
+        Runnable race = () -> {
+            ResultSetFuture future = session.executeAsync(pipelineStatement.statement);
+            executions.add(future);
+            future.addListener(() -> {
+                Throwable failure = failureOf(future);
+                if (failure != null && running.decrementAndGet() > 0) {
+                    // another execution may still succeed
+                    return;
+                }
+                if (settled.compareAndSet(false, true)) {
+                    timer.cancel(false);
+                    executions.remove(future);
+                    cancelAll(executions);
+                    long latency = System.nanoTime() - startNanos;
+                    RowsCallback onDone = (rows, error) -> {
+                        // the shared limit adapts on the first page latency, like the timeout
+                        limiter.release(latency, error);
+                        breaker.record(error);
+                        if (error instanceof TimeoutException) {
+                            metrics.recordTimeout(System.nanoTime() - startNanos);
+                        } else {
+                            metrics.recordExecution(latency, error);
+                        }
+                        onStatementDone(pipelineStatement, rows, error);
+                    };
+                    if (failure != null) {
+                        onDone.rows(null, failure);
+                    } else {
+                        collectPages(future.getUninterruptibly(), new ArrayList<>(), onDone);
+                    }
+                }
+            }, MoreExecutors.directExecutor());
+        };
+        race.run();
+        if (hedgeable && pipelineStatement.statement.isIdempotent() == Boolean.TRUE) {
+            scheduleHedge(race, settled, running, profile.getMaxHedges());
+        }
+    }
+
+    /**
+     * Execute the statement again after the hedge delay if it is not settled by then
+     * @param race
+     * @param settled
+     * @param running
+     * @param hedgesLeft
+     */
+    private void scheduleHedge(Runnable race, AtomicBoolean settled, AtomicInteger running, int hedgesLeft) {
+        long delay = profile.getHedgeDelayMillis(metrics);
+        if (hedgesLeft <= 0 || delay < 0 || delay >= timeout) {
+            return;
+        }
+        CqlRequest.SCHEDULER.schedule(() -> {
+            if (settled.get()) {
+                return;
+            }
+            running.incrementAndGet();
+            stats.hedged();
+            metrics.recordHedge();
+            race.run();
+            scheduleHedge(race, settled, running, hedgesLeft - 1);
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static void cancelAll(List<ResultSetFuture> executions) {
+        for (ResultSetFuture execution : executions) {
+            execution.cancel(true);
+        }
+    }
+
+    /**
+     * Get the failure of a completed future
+     * @param future
+     * @return null if it succeeded
+     */
+    private static Throwable failureOf(ResultSetFuture future) {
+        try {
+            future.get();
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (Exception e) {
+            return e;
+        }
+    }
+
+    /**
+     * Release the permit, keep the rows or send the statement back into the pipeline after its backoff
+     * @param pipelineStatement
+     * @param rows null if the statement failed
+     * @param failure why it failed
+     */
+    private void onStatementDone(PipelineStatement pipelineStatement, List<Row> rows, Throwable failure) {
+        permits.release();
+        stats.completed(rows != null);
+        if (rows != null) {
+            metrics.recordRows(rows.size());
+            synchronized (collectedRows) {
+                collectedRows.addAll(rows);
+            }
+            statementResolved();
+        } else {
+            long backoffTime = CqlRequest.retryDelay(profile, deadline, pipelineStatement.statement, pipelineStatement.attempts, failure, metrics);
+            if (backoffTime < 0) {
+                stats.gaveUp();
+                metrics.recordGaveUp();
+                statementResolved();
+            } else {
+                metrics.recordRetry();
+                if (backoffTime > 0) {
+                    Log.d("Retrying statement, attempt: " + Integer.toString(pipelineStatement.attempts + 1) +
+                            " Backing-off: " + Long.toString(backoffTime) + "ms");
+                    CqlRequest.SCHEDULER.schedule(() -> {
+                        ready.add(pipelineStatement);
+                        pump();
+                    }, backoffTime, TimeUnit.MILLISECONDS);
+                } else {
+                    ready.add(pipelineStatement);
+                }
+            }
+        }
+        pump();
+    }
+
+    private void statementResolved() {
+        if (remaining.decrementAndGet() == 0) {
+            finish();
+        }
+    }
+
+    private void finish() {
+        ScheduledFuture<?> timer = deadlineTimer;
+        if (timer != null) {
+            timer.cancel(false);
+        }
+        stats.finish();
+        if (stats.getFailedStatements() > 0) {
+            Log.e("ERROR: Could not completely execute all requests: " + Integer.toString(stats.getFailedStatements()) + " for query: " + query, null);
+        }
+        if (collectedRows.size() > 500000) {
+            Log.w("WARNING: result too large, or partition size too large: " + Integer.toString(collectedRows.size()) + " rows, for query: " + query, null);
+        }
+        if (stats.getStatements() > 1 || stats.getRetries() > 0) {
+            Log.i(stats + " for query: " + query);
+        } else {
+            Log.d(stats + " for query: " + query);
+        }
+        done.complete(this);
+    }
+
+    /**
+     * Collect the rows of every page without blocking, fetching the next page once the rows of the previous one are taken
+     * @param resultSet
+     * @param rows
+     * @param onDone
+     */
+    private void collectPages(ResultSet resultSet, List<Row> rows, RowsCallback onDone) {
+        int available = resultSet.getAvailableWithoutFetching();
+        for (int i = 0; i < available; i++) {
+            rows.add(resultSet.one());
+        }
+        if (resultSet.isFullyFetched()) {
+            onDone.rows(rows, null);
+        } else if (deadline.isExpired()) {
+            onDone.rows(null, new TimeoutException("Deadline exceeded after " + rows.size() + " rows"));
+        } else {
+            fetchNextPage(resultSet, rows, onDone);
+        }
+    }
+
+    /**
+     * Fetch the next page, it has to arrive within the timeout (or the deadline if it comes first)
+     * @param resultSet
+     * @param rows
+     * @param onDone
+     */
+    private void fetchNextPage(ResultSet resultSet, List<Row> rows, RowsCallback onDone) {
+        long pageTimeout = deadline.capMillis(timeout);
+        ListenableFuture<ResultSet> next = resultSet.fetchMoreResults();
+        // set once, either by the page or by the timeout
+        AtomicBoolean settled = new AtomicBoolean(false);
+        ScheduledFuture<?> timer = CqlRequest.SCHEDULER.schedule(() -> {
+            if (settled.compareAndSet(false, true)) {
+                next.cancel(true);
+                onDone.rows(null, new TimeoutException("No page within " + pageTimeout + "ms after " + rows.size() + " rows"));
+            }
+        }, pageTimeout, TimeUnit.MILLISECONDS);
+        Futures.addCallback(next, new FutureCallback<ResultSet>() {
+            @Override
+            public void onSuccess(ResultSet nextPage) {
+                if (settled.compareAndSet(false, true)) {
+                    timer.cancel(false);
+                    collectPages(nextPage, rows, onDone);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                if (settled.compareAndSet(false, true)) {
+                    timer.cancel(false);
+                    Log.i(t.getMessage());
+                    onDone.rows(null, t);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * A statement and the number of times it was executed, so it can be retried
+     */
+    private static class PipelineStatement {
+        final Statement statement;
+        int attempts = 0;
+        PipelineStatement(Statement statement) {
+            this.statement = statement;
+        }
+    }
+
+    /**
+     * Callback with the rows of a statement, null if it failed
+     */
+    private interface RowsCallback {
+        void rows(List<Row> rows, Throwable failure);
+    }
+}
@@ -0,0 +1,314 @@
+package db.daos;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.KeyspaceMetadata;
+import com.datastax.driver.core.MaterializedViewMetadata;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.SchemaChangeListenerBase;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.TableMetadata;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ListenableFuture;
+import db.config.CassandraConnector;
+import utils.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of the statements of the DAOs, keyed by (table, operation, fields)
+ * Each statement is compiled once into a StatementHandle; other queries (built per call, e.g. key lookups)
+ * go through a bounded cache of prepared statements. Statements are prepared once per session pool.
+ * Prepared statements of a table are dropped when its schema changes (so "SELECT *" gets the new columns)
+ * and prepared again on next use; statements are prepared again on nodes coming back up by the driver itself
+ */
+public final class StatementRegistry {
+
+    /**
+     * Operations with a template in CqlRequestFactory
+     */
+    public enum Operation {
+        SELECT, UPSERT, DELETE
+    }
+
+    // max number of other queries kept prepared
+    private static final int MAX_QUERIES = 1000;
+    private static final ConcurrentHashMap<StatementKey, StatementHandle> HANDLES = new ConcurrentHashMap<>();
+    // keyed by (session pool, query)
+    private static final Cache<List<String>, PreparedStatement> QUERIES = CacheBuilder.newBuilder().maximumSize(MAX_QUERIES).build();
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+    // cluster the schema listener is registered on, per session pool
+    private static final ConcurrentHashMap<String, Cluster> LISTENED_CLUSTERS = new ConcurrentHashMap<>();
+
+    private StatementRegistry() {
+    }
+
+    /**
+     * Get the handle of a statement, compiled on first call
+     * @param table
+     * @param operation
+     * @param fields fields of the statement, in order of the placeholders
+     * @return
+     */
+    public static StatementHandle get(String table, Operation operation, String... fields) {
+        StatementHandle handle = HANDLES.get(new StatementKey(table, operation, fields));
+        if (handle != null) {
+            HITS.incrementAndGet();
+            return handle;
+        }
+        MISSES.incrementAndGet();
+        // keep our own copy of the field list, callers may reuse their array
+        String[] fieldsCopy = fields == null ? new String[0] : fields.clone();
+        return HANDLES.computeIfAbsent(new StatementKey(table, operation, fieldsCopy),
+                k -> new StatementHandle(table, operation, fieldsCopy, compile(table, operation, fieldsCopy)));
+    }
+
+    private static String compile(String table, Operation operation, String[] fields) {
+        switch (operation) {
+            case SELECT:
+                return CqlRequestFactory.getSelectString(table, fields);
+            case UPSERT:
+                return CqlRequestFactory.getInsertString(table, fields);
+            case DELETE:
+                return CqlRequestFactory.getDeleteString(table, fields);
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    /**
+     * Get the prepared statement of a query built by the caller
+     * @param pool session pool the statement is executed on, as resolved by CassandraConnector.resolvePool
+     * @param query
+     * @return
+     */
+    static PreparedStatement prepare(String pool, String query) {
+        listenToSchemaChanges(pool);
+        List<String> key = Arrays.asList(pool, query);
+        PreparedStatement prepared = QUERIES.getIfPresent(key);
+        if (prepared != null) {
+            HITS.incrementAndGet();
+            return prepared;
+        }
+        MISSES.incrementAndGet();
+        prepared = CassandraConnector.getSession(pool).prepare(query);
+        QUERIES.put(key, prepared);
+        return prepared;
+    }
+
+    /**
+     * Get the prepared statement and limiter of a handle, only looked up on the handle once prepared
+     * @param pool session pool the statement is executed on, as resolved by CassandraConnector.resolvePool
+     * @param handle
+     * @return
+     */
+    static StatementHandle.PoolStatement prepare(String pool, StatementHandle handle) {
+        StatementHandle.PoolStatement prepared = handle.getPoolStatement(pool);
+        if (prepared != null) {
+            return prepared;
+        }
+        // first use on this pool, or its prepared statement was dropped: the cluster may be a new one
+        listenToSchemaChanges(pool);
+        return handle.prepare(pool);
+    }
+
+    /**
+     * Prepare every registered statement not prepared yet on every session pool, in parallel, e.g. before taking traffic
+     * @return number of statements prepared
+     */
+    public static int prepareAll() {
+        int prepared = 0;
+        for (String pool : CassandraConnector.getSessionPools()) {
+            listenToSchemaChanges(pool);
+            long generation = CassandraConnector.getGeneration();
+            Session session = CassandraConnector.getSession(pool);
+            List<StatementHandle> handles = new ArrayList<>();
+            List<ListenableFuture<PreparedStatement>> futures = new ArrayList<>();
+            for (StatementHandle handle : HANDLES.values()) {
+                if (!handle.isPrepared(pool)) {
+                    handles.add(handle);
+                    futures.add(session.prepareAsync(handle.getQuery()));
+                }
+            }
+            for (int i = 0; i < handles.size(); i++) {
+                try {
+                    handles.get(i).setPreparedStatement(pool, futures.get(i).get(), generation);
+                    prepared += 1;
+                } catch (Exception e) {
+                    // it will be prepared on first use
+                    Log.e("Could not prepare " + handles.get(i).getQuery() + " on session pool " + pool, e);
+                }
+            }
+        }
+        Log.i("Prepared " + prepared + " statements, " + HANDLES.size() + " registered, on session pools " + CassandraConnector.getSessionPools());
+        return prepared;
+    }
+
+    /**
+     * Get the handles registered for a table
+     * @param table
+     * @return
+     */
+    static List<StatementHandle> handlesOf(String table) {
+        List<StatementHandle> handles = new ArrayList<>();
+        for (StatementHandle handle : HANDLES.values()) {
+            if (handle.getTable().equalsIgnoreCase(table)) {
+                handles.add(handle);
+            }
+        }
+        return handles;
+    }
+
+    /**
+     * Drop the prepared statements of a table, they are prepared again on next use
+     * @param table
+     */
+    public static void invalidate(String table) {
+        for (StatementHandle handle : HANDLES.values()) {
+            if (handle.getTable().equalsIgnoreCase(table)) {
+                handle.invalidate();
+            }
+        }
+        // other queries are not indexed by table, schema changes are rare enough to drop them all
+        QUERIES.invalidateAll();
+    }
+
+    /**
+     * Drop every prepared statement
+     */
+    public static void invalidateAll() {
+        for (StatementHandle handle : HANDLES.values()) {
+            handle.invalidate();
+        }
+        QUERIES.invalidateAll();
+    }
+
+    /**
+     * Number of lookups that found a statement already registered
+     * @return
+     */
+    public static long getHitCount() {
+        return HITS.get();
+    }
+
+    /**
+     * Number of lookups that had to compile or prepare a statement
+     * @return
+     */
+    public static long getMissCount() {
+        return MISSES.get();
+    }
+
+    /**
+     * Number of statements registered
+     * @return
+     */
+    public static int size() {
+        return HANDLES.size() + (int) QUERIES.size();
+    }
+
+    /**
+     * Register the schema listener on the cluster of a session pool, once per cluster: every pool is a cluster
+     * connection of its own, each one is told of the schema changes and drops its own prepared statements
+     * A new cluster (connection closed then opened again) doesn't know our prepared statements
+     * @param pool
+     */
+    private static void listenToSchemaChanges(String pool) {
+        Cluster cluster = CassandraConnector.getSession(pool).getCluster();
+        // no cluster for a session built elsewhere (e.g. a stand-in), nothing to listen to
+        if (cluster == null || cluster == LISTENED_CLUSTERS.get(pool)) {
+            return;
+        }
+        synchronized (StatementRegistry.class) {
+            Cluster listened = LISTENED_CLUSTERS.get(pool);
+            if (cluster == listened) {
+                return;
+            }
+            if (listened != null) {
+                invalidatePool(pool, null);
+            }
+            cluster.register(new SchemaListener(pool));
+            LISTENED_CLUSTERS.put(pool, cluster);
+        }
+    }
+
+    /**
+     * Drop the prepared statements of a session pool, they are prepared again on next use
+     * @param pool
+     * @param table null for every table
+     */
+    private static void invalidatePool(String pool, String table) {
+        for (StatementHandle handle : HANDLES.values()) {
+            if (table == null || handle.getTable().equalsIgnoreCase(table)) {
+                handle.invalidate(pool);
+            }
+        }
+        // other queries are not indexed by table, schema changes are rare enough to drop them all
+        QUERIES.asMap().keySet().removeIf(key -> key.get(0).equals(pool));
+    }
+
+    /**
+     * Drops the prepared statements of a session pool on the schema changes seen by its cluster
+     */
+    private static final class SchemaListener extends SchemaChangeListenerBase {
+        private final String pool;
+
+        SchemaListener(String pool) {
+            this.pool = pool;
+        }
+
+        @Override
+        public void onTableChanged(TableMetadata current, TableMetadata previous) {
+            Log.i("Schema of " + current.getName() + " changed, its statements will be prepared again on session pool " + pool);
+            invalidatePool(pool, current.getName());
+        }
+
+        @Override
+        public void onTableRemoved(TableMetadata table) {
+            invalidatePool(pool, table.getName());
+        }
+
+        @Override
+        public void onMaterializedViewChanged(MaterializedViewMetadata current, MaterializedViewMetadata previous) {
+            invalidatePool(pool, current.getName());
+        }
+
+        @Override
+        public void onKeyspaceRemoved(KeyspaceMetadata keyspace) {
+            invalidatePool(pool, null);
+        }
+    }
+
+    /**
+     * Pair a table and operation with a field list, used as the registry key
+     */
+    private static final class StatementKey {
+        final String table;
+        final Operation operation;
+        final String[] fields;
+        final int hash;
+        StatementKey(String table, Operation operation, String[] fields) {
+            this.table = table;
+            this.operation = operation;
+            this.fields = fields == null ? new String[0] : fields;
+            this.hash = 31 * (31 * table.hashCode() + operation.hashCode()) + Arrays.hashCode(this.fields);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof StatementKey)) return false;
+            StatementKey other = (StatementKey) o;
+            return operation == other.operation && table.equals(other.table) && Arrays.equals(fields, other.fields);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -1,6 +1,19 @@
 package db.daos;
 
+import com.datastax.driver.core.LocalDate;
+import db.beans.DBBean;
+import db.beans.DailySketchBean;
 import db.beans.UserActivityBean;
+import utils.HyperLogLog;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * A DAO for user_activity table
@@ -16,9 +29,152 @@ public class UserActivityDAO<T extends UserActivityBean> extends GenericDAO<T> {
      */
     public static final UserActivityDAO<UserActivityBean> dao = new UserActivityDAO<>();
 
+    // sketches of the distinct users per product and day
+    private final DailySketchDAO sketchDAO = new DailySketchDAO();
+
     public UserActivityDAO() {
         super("user_activity", (Class<T>) UserActivityBean.class);
+        // keyed by ((pid, day), uid), serves the reads of a product on a day
+        addView("user_activity_view");
+        // statements of the demo actions, prepared by the warm-up
+        getStatementHandle(StatementRegistry.Operation.SELECT);
+        getStatementHandle(StatementRegistry.Operation.UPSERT, "pid", "uid", "day", "moneySpent");
+        getStatementHandle(StatementRegistry.Operation.DELETE, "pid", "uid");
+    }
+
+    /**
+     * Users active on a product on a day, single partition read on the view (moneySpent is not set)
+     * @param pid
+     * @param day
+     * @return beans ordered by uid
+     */
+    public List<T> selectActiveUsers(String pid, Date day) {
+        return selectByKey(new String[]{"pid", "day", "uid"}, new String[]{"pid", "day"}, new Object[]{pid, day});
     }
 
-    // TODO: implement a stream style query here
+    /**
+     * Activity of every user on a product on a day: users are read from the view,
+     * then their rows are read from the table with parallel point reads to get moneySpent
+     * @param pid
+     * @param day
+     * @return beans ordered by uid
+     */
+    public List<T> selectActivityOnDay(String pid, Date day) {
+        List<T> activeUsers = selectActiveUsers(pid, day);
+        List<Object[]> keys = new ArrayList<>(activeUsers.size());
+        for (T user : activeUsers) {
+            keys.add(new Object[]{user.getPid(), user.getUid(), user.getDay()});
+        }
+        return selectByKeys(null, new String[]{"pid", "uid", "day"}, keys).stream()
+                .sorted(Comparator.comparing(UserActivityBean::getUid))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * All activity of a user on a product, single partition read
+     * @param pid
+     * @param uid
+     * @return
+     */
+    public List<T> selectByUser(String pid, String uid) {
+        return selectByKey(null, new String[]{"pid", "uid"}, new Object[]{pid, uid});
+    }
+
+    /**
+     * Activity of a user on a product between two days (inclusive), single partition read
+     * @param pid
+     * @param uid
+     * @param from null if unbounded
+     * @param to null if unbounded
+     * @param descending latest days first
+     * @param limit max number of days, 0 for no limit
+     * @return
+     */
+    public List<T> selectByUserBetween(String pid, String uid, Date from, Date to, boolean descending, int limit) {
+        return selectByKeyInRange(null, new String[]{"pid", "uid"}, new Object[]{pid, uid}, "day", from, to, descending, limit);
+    }
+
+    /**
+     * Latest days of activity of a user on a product
+     * @param pid
+     * @param uid
+     * @param limit
+     * @return
+     */
+    public List<T> selectLatestByUser(String pid, String uid, int limit) {
+        return selectByUserBetween(pid, uid, null, null, true, limit);
+    }
+
+    /**
+     * Money spent per product, aggregated per (pid, uid) partition by cassandra
+     * @param parallelism number of token ranges aggregated at the same time
+     * @return
+     */
+    public Map<String, Aggregate> spendPerProduct(int parallelism) {
+        Map<String, Aggregate> spend = new HashMap<>();
+        // already merged per pid
+        aggregate("moneySpent", new String[]{"pid"}, parallelism, 1).forEach((key, aggregate) -> spend.put((String) key.get(0), aggregate));
+        return spend;
+    }
+
+    /**
+     * Money spent per user over all products, aggregated per (pid, uid) partition by cassandra
+     * @param parallelism number of token ranges aggregated at the same time
+     * @return
+     */
+    public Map<String, Aggregate> spendPerUser(int parallelism) {
+        Map<String, Aggregate> spend = new HashMap<>();
+        // already merged per uid
+        aggregate("moneySpent", new String[]{"uid"}, parallelism, 1).forEach((key, aggregate) -> spend.put((String) key.get(0), aggregate));
+        return spend;
+    }
+
+    /**
+     * Money spent per day over all products, aggregated here from the rows: the day being a clustering column
+     * under the (pid, uid) partition, cassandra would return one group per row
+     * @param parallelism number of token ranges read at the same time
+     * @return
+     */
+    public Map<Date, Aggregate> spendPerDay(int parallelism) {
+        Map<Date, Aggregate> spend = new HashMap<>();
+        // already merged per day
+        aggregate("moneySpent", new String[]{"day"}, parallelism, 1)
+                .forEach((key, aggregate) -> spend.put(DBBean.fromCassandraDate((LocalDate) key.get(0)), aggregate));
+        return spend;
+    }
+
+    /**
+     * Estimated number of distinct users of a product between two days (inclusive), merged from the daily sketches
+     * (about 1.6% standard error), needs user_activity_daily_sketch to be maintained by DistinctUserSketcher
+     * @param pid
+     * @param from null if unbounded
+     * @param to null if unbounded
+     * @return
+     */
+    public long estimateDistinctUsers(String pid, Date from, Date to) {
+        HyperLogLog sketch = new HyperLogLog();
+        for (DailySketchBean daily : sketchDAO.selectByProductBetween(pid, from, to)) {
+            if (daily.getRegisters() != null) {
+                sketch.merge(HyperLogLog.fromBytes(daily.getRegisters()));
+            }
+        }
+        return sketch.estimate();
+    }
+
+    /**
+     * Estimated number of distinct users of a product per day between two days (inclusive)
+     * @param pid
+     * @param from null if unbounded
+     * @param to null if unbounded
+     * @return estimates ordered by day
+     */
+    public Map<Date, Long> estimateDistinctUsersPerDay(String pid, Date from, Date to) {
+        Map<Date, Long> estimates = new LinkedHashMap<>();
+        for (DailySketchBean daily : sketchDAO.selectByProductBetween(pid, from, to)) {
+            if (daily.getRegisters() != null) {
+                estimates.put(daily.getDay(), HyperLogLog.fromBytes(daily.getRegisters()).estimate());
+            }
+        }
+        return estimates;
+    }
 }
@@ -0,0 +1,213 @@
+package db.daos;
+
+import com.datastax.driver.core.AtomicMonotonicTimestampGenerator;
+import com.datastax.driver.core.TimestampGenerator;
+import db.beans.BeanStatementBinder;
+import db.beans.DBBean;
+import db.config.CassandraConnector;
+import utils.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind buffer in front of a DAO, collects single upserts from many threads and writes them in micro-batches
+ * Repeated writes to the same primary key are merged (the latest bean wins), a batch is flushed once it is full
+ * or after the flush interval, every caller gets a future completed when its write (or the one replacing it) is done
+ * Each write gets its timestamp when it is buffered and keeps it through the retries of its flush, so a later write
+ * of the same row always wins, even over a retry of an earlier flush
+ * Buffered writes only live in memory: they are lost if the process dies before their flush, and a failed flush
+ * is only reported through the futures, callers not waiting for them (fire and forget) never know
+ */
+public class WriteBehindBuffer<T extends DBBean> {
+
+    // microseconds, strictly increasing across the buffers of the JVM
+    private static final TimestampGenerator TIMESTAMPS = new AtomicMonotonicTimestampGenerator();
+
+    private final GenericDAO<T> dao;
+    // upsert statement kept by the buffer, flushes don't build or look up the query
+    private final StatementHandle upsertHandle;
+    // binds the primary key fields only, to merge writes of the same row
+    private final BeanStatementBinder keyBinder;
+    private final int maxBatchSize;
+    private final ScheduledFuture<?> flushTask;
+    // flushes not completed yet, waited for on close
+    private final Set<CompletableFuture<?>> flushesInFlight = ConcurrentHashMap.newKeySet();
+    // guarded by this
+    private Map<List<Object>, PendingWrite<T>> pending = new LinkedHashMap<>();
+    private boolean closed = false;
+
+    /**
+     * Buffer upserts of the given fields, the primary key is read from the table metadata
+     * @param dao
+     * @param maxBatchSize number of rows that triggers a flush
+     * @param flushIntervalMillis max time a write waits in the buffer
+     * @param fieldsToUpsert
+     */
+    public WriteBehindBuffer(GenericDAO<T> dao, int maxBatchSize, long flushIntervalMillis, String... fieldsToUpsert) {
+        List<String> keyColumns = CassandraConnector.getPrimaryKeyColumns(dao.TABLE);
+        if (keyColumns == null) {
+            throw new IllegalArgumentException("Could not get primary key of table " + dao.TABLE);
+        }
+        this.dao = dao;
+        this.upsertHandle = dao.getStatementHandle(StatementRegistry.Operation.UPSERT, fieldsToUpsert);
+        this.keyBinder = BeanStatementBinder.forFields(dao.BEAN_CLASS, keyColumns.toArray(new String[0]));
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.flushTask = CqlRequest.SCHEDULER.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queue the upsert of a bean, returns right away
+     * The write is timestamped now, so it wins over the writes of the same row buffered before it
+     * @param bean
+     * @return completed once the row is written, exceptionally if the write failed or the buffer is closed
+     */
+    public CompletableFuture<Void> upsert(T bean) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        List<Object> key = keyBinder.values(bean);
+        Map<List<Object>, PendingWrite<T>> batch = null;
+        synchronized (this) {
+            if (closed) {
+                future.completeExceptionally(new IllegalStateException("Write-behind buffer of " + dao.TABLE + " is closed"));
+                return future;
+            }
+            // taken under the lock, so timestamps follow the order of the writes in the buffer
+            long timestamp = TIMESTAMPS.next();
+            PendingWrite<T> write = pending.get(key);
+            if (write == null) {
+                pending.put(key, new PendingWrite<>(bean, timestamp, future));
+            } else {
+                write.merge(bean, timestamp, future);
+            }
+            if (pending.size() >= maxBatchSize) {
+                batch = swapPending();
+            }
+        }
+        if (batch != null) {
+            write(batch);
+        }
+        return future;
+    }
+
+    /**
+     * Number of rows waiting for the next flush
+     * @return
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Write the buffered rows now
+     */
+    public void flush() {
+        Map<List<Object>, PendingWrite<T>> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = swapPending();
+        }
+        write(batch);
+    }
+
+    /**
+     * Stop accepting writes, flush what is buffered and wait for the flushes in flight
+     * @param timeoutMillis
+     * @return whether every write completed within the timeout
+     */
+    public boolean close(long timeoutMillis) {
+        synchronized (this) {
+            if (closed) {
+                return flushesInFlight.isEmpty();
+            }
+            closed = true;
+        }
+        flushTask.cancel(false);
+        flush();
+        CompletableFuture<Void> drained = CompletableFuture.allOf(flushesInFlight.toArray(new CompletableFuture<?>[0]));
+        try {
+            drained.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // failed writes were already reported to their callers
+            if (drained.isDone()) {
+                return true;
+            }
+        }
+        Log.w("WARNING: write-behind buffer of " + dao.TABLE + " closed with " + flushesInFlight.size() + " flushes in flight");
+        return false;
+    }
+
+    private Map<List<Object>, PendingWrite<T>> swapPending() {
+        Map<List<Object>, PendingWrite<T>> batch = pending;
+        pending = new LinkedHashMap<>();
+        return batch;
+    }
+
+    private void write(Map<List<Object>, PendingWrite<T>> batch) {
+        List<T> beans = new ArrayList<>(batch.size());
+        long[] timestamps = new long[batch.size()];
+        for (PendingWrite<T> write : batch.values()) {
+            timestamps[beans.size()] = write.timestamp;
+            beans.add(write.bean);
+        }
+        CompletableFuture<Integer> flush;
+        try {
+            flush = dao.upsertAsync(upsertHandle, beans, timestamps);
+        } catch (Exception e) {
+            flush = new CompletableFuture<>();
+            flush.completeExceptionally(e);
+        }
+        flushesInFlight.add(flush);
+        CompletableFuture<Integer> completedFlush = flush;
+        flush.whenComplete((count, t) -> {
+            flushesInFlight.remove(completedFlush);
+            if (t != null) {
+                Log.e("ERROR: write-behind flush of " + beans.size() + " rows failed on " + dao.TABLE, t);
+            }
+            for (PendingWrite<T> write : batch.values()) {
+                write.complete(t);
+            }
+        });
+    }
+
+    /**
+     * Latest bean written to a primary key, its timestamp and the callers waiting for it
+     */
+    private static class PendingWrite<T> {
+        T bean;
+        long timestamp;
+        final List<CompletableFuture<Void>> callers = new ArrayList<>(1);
+        PendingWrite(T bean, long timestamp, CompletableFuture<Void> caller) {
+            this.bean = bean;
+            this.timestamp = timestamp;
+            callers.add(caller);
+        }
+
+        void merge(T bean, long timestamp, CompletableFuture<Void> caller) {
+            this.bean = bean;
+            this.timestamp = timestamp;
+            callers.add(caller);
+        }
+
+        void complete(Throwable t) {
+            for (CompletableFuture<Void> caller : callers) {
+                if (t == null) {
+                    caller.complete(null);
+                } else {
+                    caller.completeExceptionally(t);
+                }
+            }
+        }
+    }
+}
@@ -41,6 +41,21 @@
         </c:forEach>
         </tbody>
     </table>
+    <nav>
+        <c:if test="${not empty cursor}">
+            <c:url var="firstPageUrl" value="demo.do">
+                <c:param name="pageSize" value="${pageSize}"/>
+            </c:url>
+            <a class="btn btn-secondary" href="${firstPageUrl}">First page</a>
+        </c:if>
+        <c:if test="${not empty nextCursor}">
+            <c:url var="nextPageUrl" value="demo.do">
+                <c:param name="pageSize" value="${pageSize}"/>
+                <c:param name="cursor" value="${nextCursor}"/>
+            </c:url>
+            <a class="btn btn-secondary" href="${nextPageUrl}">Next page</a>
+        </c:if>
+    </nav>
 </div>
 
 
@@ -0,0 +1,2 @@
+<%@ page contentType="text/plain; version=0.0.4; charset=UTF-8" trimDirectiveWhitespaces="true" %>
+${metrics}
@@ -0,0 +1,10 @@
+<%@ page contentType="text/plain; charset=UTF-8" %>
+<%
+    // load balancers only look at the status code
+    if (!Boolean.TRUE.equals(request.getAttribute("ready"))) {
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
+%>
+ready=${ready}
+statements=${statements}
+connections=${empty connections ? 0 : connections}
@@ -0,0 +1,75 @@
+package com.datastax.driver.core;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Driver objects as they come out of a response, built through the package-private constructors of the driver
+ * (hence the package) so the tests of the bean mapping run on real rows and bound statements without a cluster
+ */
+public final class TestDriverObjects {
+
+    private TestDriverObjects() {
+    }
+
+    /**
+     * Metadata of columns
+     * @param names
+     * @param types
+     * @return
+     */
+    public static ColumnDefinitions columns(String[] names, DataType[] types) {
+        ColumnDefinitions.Definition[] definitions = new ColumnDefinitions.Definition[names.length];
+        for (int i = 0; i < definitions.length; i++) {
+            definitions[i] = new ColumnDefinitions.Definition("test", "test", names[i], types[i]);
+        }
+        return new ColumnDefinitions(definitions, CodecRegistry.DEFAULT_INSTANCE);
+    }
+
+    /**
+     * A row of the columns, values are serialized with the codec of their column type
+     * @param columns
+     * @param values one per column, null for a null column
+     * @return
+     */
+    public static Row row(ColumnDefinitions columns, Object... values) {
+        List<ByteBuffer> serialized = new ArrayList<>(values.length);
+        for (int i = 0; i < values.length; i++) {
+            serialized.add(values[i] == null ? null
+                    : CodecRegistry.DEFAULT_INSTANCE.codecFor(columns.getType(i)).serialize(values[i], ProtocolVersion.V4));
+        }
+        return ArrayBackedRow.fromData(columns, null, ProtocolVersion.V4, serialized);
+    }
+
+    /**
+     * A prepared statement of the variables, only good for binding: everything but the variables, the id, the codecs
+     * and bind() is left unset
+     * @param variables
+     * @return
+     */
+    public static PreparedStatement preparedStatement(ColumnDefinitions variables) {
+        MD5Digest id = MD5Digest.wrap(new byte[16]);
+        PreparedId preparedId = new PreparedId(new PreparedId.PreparedMetadata(id, variables),
+                new PreparedId.PreparedMetadata(id, null), null, ProtocolVersion.V4);
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getVariables":
+                            return variables;
+                        case "getPreparedId":
+                            return preparedId;
+                        case "getCodecRegistry":
+                            return CodecRegistry.DEFAULT_INSTANCE;
+                        case "isTracing":
+                            return false;
+                        case "bind":
+                            BoundStatement statement = new BoundStatement((PreparedStatement) proxy);
+                            return args == null || args.length == 0 ? statement : statement.bind((Object[]) args[0]);
+                        default:
+                            return null;
+                    }
+                });
+    }
+}
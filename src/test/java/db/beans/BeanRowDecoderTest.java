@@ -0,0 +1,69 @@
+package db.beans;
+
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.LocalDate;
+import com.datastax.driver.core.TestDriverObjects;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class BeanRowDecoderTest {
+
+    private static final ColumnDefinitions COLUMNS = TestDriverObjects.columns(
+            new String[]{"pid", "uid", "day", "moneyspent"},
+            new DataType[]{DataType.text(), DataType.text(), DataType.date(), DataType.cdouble()});
+
+    private final BeanRowDecoder<UserActivityBean> decoder = BeanRowDecoder.forClass(UserActivityBean.class);
+
+    @Test
+    public void decodersAreCachedPerClass() {
+        assertSame(decoder, BeanRowDecoder.forClass(UserActivityBean.class));
+    }
+
+    @Test
+    public void columnsAreDecodedIntoTheFieldsOfTheSameName() {
+        LocalDate day = LocalDate.fromDaysSinceEpoch(17000);
+        UserActivityBean bean = decoder.newBean(TestDriverObjects.row(COLUMNS, "p1", "u1", day, 12.5));
+        assertEquals("p1", bean.getPid());
+        assertEquals("u1", bean.getUid());
+        assertEquals(DBBean.fromCassandraDate(day), bean.getDay());
+        assertEquals(12.5, bean.getMoneySpent(), 0);
+    }
+
+    @Test
+    public void nullColumnsAreNull() {
+        UserActivityBean bean = decoder.newBean(TestDriverObjects.row(COLUMNS, "p1", null, null, 1.0));
+        assertNull(bean.getUid());
+        assertNull(bean.getDay());
+    }
+
+    @Test
+    public void fieldsWithoutAColumnAreLeftUntouched() {
+        ColumnDefinitions pidOnly = TestDriverObjects.columns(new String[]{"pid"}, new DataType[]{DataType.text()});
+        UserActivityBean bean = new UserActivityBean();
+        bean.setUid("u1");
+        bean.setMoneySpent(3.0);
+        decoder.decode(TestDriverObjects.row(pidOnly, "p1"), bean);
+        assertEquals("p1", bean.getPid());
+        assertEquals("u1", bean.getUid());
+        assertEquals(3.0, bean.getMoneySpent(), 0);
+    }
+
+    @Test
+    public void columnIndexesFollowTheMetadataOfTheRow() {
+        ColumnDefinitions reordered = TestDriverObjects.columns(new String[]{"moneyspent", "uid", "pid"},
+                new DataType[]{DataType.cdouble(), DataType.text(), DataType.text()});
+        UserActivityBean first = decoder.newBean(TestDriverObjects.row(COLUMNS, "p1", "u1", null, 1.0));
+        UserActivityBean second = decoder.newBean(TestDriverObjects.row(reordered, 2.0, "u2", "p2"));
+        UserActivityBean third = decoder.newBean(TestDriverObjects.row(COLUMNS, "p3", "u3", null, 3.0));
+        assertEquals("p1", first.getPid());
+        assertEquals("p2", second.getPid());
+        assertEquals("u2", second.getUid());
+        assertEquals(2.0, second.getMoneySpent(), 0);
+        assertEquals("p3", third.getPid());
+        assertEquals(3.0, third.getMoneySpent(), 0);
+    }
+}
@@ -0,0 +1,96 @@
+package db.beans;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.TestDriverObjects;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BeanStatementBinderTest {
+
+    private static final String[] FIELDS = {"pid", "uid", "day", "moneySpent"};
+    private static final PreparedStatement INSERT = TestDriverObjects.preparedStatement(TestDriverObjects.columns(
+            new String[]{"pid", "uid", "day", "moneyspent"},
+            new DataType[]{DataType.text(), DataType.text(), DataType.date(), DataType.cdouble()}));
+
+    private static UserActivityBean bean() {
+        UserActivityBean bean = new UserActivityBean();
+        bean.setPid("p1");
+        bean.setUid("u1");
+        bean.setDay(new Date(1500000000000L));
+        bean.setMoneySpent(12.5);
+        return bean;
+    }
+
+    @Test
+    public void bindersAreCachedPerClassAndFields() {
+        BeanStatementBinder binder = BeanStatementBinder.forFields(UserActivityBean.class, FIELDS);
+        assertSame(binder, BeanStatementBinder.forFields(UserActivityBean.class, FIELDS.clone()));
+        assertTrue(binder.matches(UserActivityBean.class, FIELDS));
+        assertFalse(binder.matches(UserActivityBean.class, "pid", "uid"));
+        assertFalse(binder.matches(DBBean.class, FIELDS));
+    }
+
+    @Test
+    public void binderKeepsItsOwnFieldList() {
+        String[] fields = {"pid", "uid"};
+        BeanStatementBinder binder = BeanStatementBinder.forFields(UserActivityBean.class, fields);
+        fields[1] = "day";
+        assertTrue(binder.matches(UserActivityBean.class, "pid", "uid"));
+        assertSame(binder, BeanStatementBinder.forFields(UserActivityBean.class, "pid", "uid"));
+    }
+
+    @Test
+    public void beanIsBoundByIndex() {
+        UserActivityBean bean = bean();
+        BoundStatement statement = BeanStatementBinder.forFields(UserActivityBean.class, FIELDS).bind(INSERT, bean);
+        assertEquals("p1", statement.getString(0));
+        assertEquals("u1", statement.getString(1));
+        assertEquals(DBBean.toCassandraDate(bean.getDay()), statement.getDate(2));
+        assertEquals(12.5, statement.getDouble(3), 0);
+    }
+
+    @Test
+    public void nullAndUnknownFieldsAreBoundAsNull() {
+        UserActivityBean bean = bean();
+        bean.setUid(null);
+        BoundStatement statement = BeanStatementBinder.forFields(UserActivityBean.class, "pid", "uid", "nope", "moneySpent")
+                .bind(INSERT, bean);
+        assertEquals("p1", statement.getString(0));
+        assertTrue(statement.isNull(1));
+        assertTrue(statement.isNull(2));
+        assertEquals(12.5, statement.getDouble(3), 0);
+    }
+
+    @Test
+    public void valuesAreInOrderOfTheFields() {
+        UserActivityBean bean = bean();
+        List<Object> values = BeanStatementBinder.forFields(UserActivityBean.class, "moneySpent", "day", "pid").values(bean);
+        assertEquals(Arrays.asList(12.5, DBBean.toCassandraDate(bean.getDay()), "p1"), values);
+    }
+
+    @Test
+    public void unknownFieldsAreNull() {
+        List<Object> values = BeanStatementBinder.forFields(UserActivityBean.class, "pid", "nope").values(bean());
+        assertEquals("p1", values.get(0));
+        assertNull(values.get(1));
+    }
+
+    @Test
+    public void fieldNamesOfColumnsIgnoreCase() {
+        String[] names = BeanStatementBinder.fieldNames(UserActivityBean.class,
+                Arrays.asList("pid", "UID", "moneyspent", "[applied]"));
+        assertArrayEquals(new String[]{"pid", "uid", "moneySpent"}, names);
+    }
+}
@@ -0,0 +1,120 @@
+package db.daos;
+
+import com.datastax.driver.core.exceptions.InvalidQueryException;
+import com.datastax.driver.core.exceptions.OperationTimedOutException;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+    private static final String QUERY = "SELECT * FROM user_activity WHERE pid = ? AND uid = ?";
+
+    // nano time of the fake clock
+    private long now = TimeUnit.DAYS.toNanos(1);
+    private final CircuitBreaker breaker = new CircuitBreaker(QUERY, null, () -> now);
+
+    private static Throwable timeout() {
+        return new OperationTimedOutException(null);
+    }
+
+    private void attempt(Throwable outcome) {
+        assertTrue(breaker.tryAcquire());
+        breaker.record(outcome);
+    }
+
+    private void open() {
+        for (int i = 0; i < 20; i++) {
+            attempt(timeout());
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void staysClosedOnAHandfulOfFailures() {
+        for (int i = 0; i < 19; i++) {
+            attempt(timeout());
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void opensOnceMostAttemptsFailed() {
+        for (int i = 0; i < 10; i++) {
+            attempt(null);
+        }
+        for (int i = 0; i < 9; i++) {
+            attempt(timeout());
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        attempt(timeout());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+        assertEquals(1, breaker.getRejected());
+    }
+
+    @Test
+    public void errorsOfTheQueryDontCount() {
+        for (int i = 0; i < 40; i++) {
+            attempt(new InvalidQueryException("Undefined column name x"));
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void failuresAreCountedPerWindow() {
+        for (int i = 0; i < 19; i++) {
+            attempt(timeout());
+        }
+        now += TimeUnit.SECONDS.toNanos(10);
+        attempt(timeout());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void successfulProbeCloses() {
+        open();
+        now += TimeUnit.SECONDS.toNanos(4);
+        assertFalse(breaker.tryAcquire());
+        now += TimeUnit.SECONDS.toNanos(1);
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        // a single probe at a time
+        assertFalse(breaker.tryAcquire());
+        breaker.record(null);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    public void failedProbeOpensAgain() {
+        open();
+        now += TimeUnit.SECONDS.toNanos(5);
+        assertTrue(breaker.tryAcquire());
+        breaker.record(timeout());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        now += TimeUnit.SECONDS.toNanos(4);
+        assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    public void cancelledProbeLetsAnotherThrough() {
+        open();
+        now += TimeUnit.SECONDS.toNanos(5);
+        assertTrue(breaker.tryAcquire());
+        breaker.cancel();
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    public void attemptsSentBeforeOpeningAreIgnored() {
+        open();
+        breaker.record(null);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+}
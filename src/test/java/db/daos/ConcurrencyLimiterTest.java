@@ -0,0 +1,164 @@
+package db.daos;
+
+import com.datastax.driver.core.exceptions.InvalidQueryException;
+import com.datastax.driver.core.exceptions.OperationTimedOutException;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrencyLimiterTest {
+
+    // latency of the statements, short so the decreases aren't throttled by the round trip
+    private static final long LATENCY_NANOS = 1000;
+
+    // woken waiters, run by the test
+    private final Queue<Runnable> woken = new ArrayDeque<>();
+    private final ConcurrencyLimiter limiter = new ConcurrencyLimiter(ConcurrencyLimiter.QueryType.READ, 4, 2, 8, woken::add);
+
+    private void runWoken() {
+        Runnable waiter;
+        while ((waiter = woken.poll()) != null) {
+            waiter.run();
+        }
+    }
+
+    @Test
+    public void permitsAreBoundedByTheLimit() {
+        for (int i = 0; i < 4; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+        assertFalse(limiter.tryAcquire());
+        assertEquals(4, limiter.getInFlight());
+        limiter.cancel();
+        assertEquals(3, limiter.getInFlight());
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    public void waitersRunWhenAPermitIsReleased() {
+        AtomicInteger woken = new AtomicInteger();
+        for (int i = 0; i < 4; i++) {
+            limiter.tryAcquire();
+        }
+        limiter.whenAvailable(woken::incrementAndGet);
+        runWoken();
+        assertEquals(0, woken.get());
+        limiter.release(LATENCY_NANOS, null);
+        // handed to the executor, not run on the thread releasing the permit
+        assertEquals(0, woken.get());
+        runWoken();
+        assertEquals(1, woken.get());
+    }
+
+    @Test
+    public void onlyAsManyWaitersAsFreePermitsAreWoken() {
+        AtomicInteger woken = new AtomicInteger();
+        for (int i = 0; i < 4; i++) {
+            limiter.tryAcquire();
+        }
+        for (int i = 0; i < 3; i++) {
+            limiter.whenAvailable(() -> {
+                assertTrue(limiter.tryAcquire());
+                woken.incrementAndGet();
+            });
+        }
+        limiter.release(LATENCY_NANOS, null);
+        limiter.release(LATENCY_NANOS, null);
+        runWoken();
+        assertEquals(2, woken.get());
+        limiter.cancel();
+        runWoken();
+        assertEquals(3, woken.get());
+    }
+
+    @Test
+    public void waiterRunsRightAwayIfAPermitIsFree() {
+        AtomicInteger woken = new AtomicInteger();
+        limiter.whenAvailable(woken::incrementAndGet);
+        runWoken();
+        assertEquals(1, woken.get());
+    }
+
+    @Test
+    public void limitGrowsWhileUsedUpToTheMax() {
+        for (int i = 0; i < 1000; i++) {
+            for (int j = 0; j < 4; j++) {
+                limiter.tryAcquire();
+            }
+            for (int j = 0; j < 4; j++) {
+                limiter.release(LATENCY_NANOS, null);
+            }
+        }
+        assertEquals(8, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void idleLimitDoesntGrow() {
+        for (int i = 0; i < 1000; i++) {
+            limiter.tryAcquire();
+            limiter.release(LATENCY_NANOS, null);
+        }
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void dropsCutTheLimitDownToTheMin() {
+        // no baseline yet, every drop counts
+        limiter.tryAcquire();
+        limiter.release(LATENCY_NANOS, new OperationTimedOutException(null));
+        assertEquals(3, limiter.getLimit());
+        for (int i = 0; i < 10; i++) {
+            limiter.tryAcquire();
+            limiter.release(LATENCY_NANOS, new TimeoutException());
+        }
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void burstOfDropsCountsOncePerRoundTrip() {
+        for (int i = 0; i < 4; i++) {
+            limiter.tryAcquire();
+        }
+        limiter.release(LATENCY_NANOS, new OperationTimedOutException(null));
+        // a baseline of a minute, the other drops are within its round trip
+        limiter.release(60_000_000_000L, null);
+        limiter.release(LATENCY_NANOS, new OperationTimedOutException(null));
+        limiter.release(LATENCY_NANOS, new OperationTimedOutException(null));
+        assertEquals(3, limiter.getLimit());
+    }
+
+    @Test
+    public void otherErrorsLeaveTheLimit() {
+        limiter.tryAcquire();
+        limiter.release(LATENCY_NANOS, new InvalidQueryException("Undefined column name x"));
+        assertEquals(4, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void latencyAboveTheBaselineCutsTheLimit() throws InterruptedException {
+        limiter.tryAcquire();
+        limiter.release(1_000_000, null);
+        assertEquals(1.0, limiter.getBaselineLatencyMillis(), 1e-9);
+        // past the round trip of the baseline
+        Thread.sleep(5);
+        limiter.tryAcquire();
+        limiter.release(10_000_000, null);
+        assertTrue(limiter.getLimit() < 4);
+    }
+
+    @Test
+    public void queryTypes() {
+        assertEquals(ConcurrencyLimiter.QueryType.READ, ConcurrencyLimiter.typeOf("  select * FROM t"));
+        assertEquals(ConcurrencyLimiter.QueryType.WRITE, ConcurrencyLimiter.typeOf("INSERT INTO t (a) VALUES (?)"));
+        assertEquals(ConcurrencyLimiter.QueryType.WRITE, ConcurrencyLimiter.typeOf("UPDATE t SET a = ? WHERE b = ?"));
+    }
+}
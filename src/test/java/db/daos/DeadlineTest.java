@@ -0,0 +1,43 @@
+package db.daos;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DeadlineTest {
+
+    @Test
+    public void noneIsNeverExpired() {
+        assertFalse(Deadline.NONE.isBounded());
+        assertFalse(Deadline.NONE.isExpired());
+        assertEquals(Long.MAX_VALUE, Deadline.NONE.remainingNanos());
+        assertEquals(Long.MAX_VALUE, Deadline.NONE.remainingMillis());
+        assertEquals(5000, Deadline.NONE.capMillis(5000));
+    }
+
+    @Test
+    public void boundedDeadlineCapsTimeouts() {
+        Deadline deadline = Deadline.after(60000);
+        assertTrue(deadline.isBounded());
+        assertFalse(deadline.isExpired());
+        assertTrue(deadline.remainingMillis() > 50000 && deadline.remainingMillis() <= 60000);
+        assertEquals(1000, deadline.capMillis(1000));
+        assertTrue(deadline.capMillis(120000) <= 60000);
+    }
+
+    @Test
+    public void expiredDeadlineLeavesNoTime() throws InterruptedException {
+        Deadline deadline = Deadline.after(1);
+        Thread.sleep(5);
+        assertTrue(deadline.isExpired());
+        assertTrue(deadline.remainingNanos() <= 0);
+        assertEquals(0, deadline.capMillis(1000));
+    }
+
+    @Test
+    public void negativeDelayIsExpiredRightAway() {
+        assertTrue(Deadline.after(-10).isExpired());
+    }
+}
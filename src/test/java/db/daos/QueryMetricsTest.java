@@ -0,0 +1,90 @@
+package db.daos;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class QueryMetricsTest {
+
+    // milliseconds of the fake clock
+    private long now = TimeUnit.DAYS.toMillis(1);
+    private final QueryMetrics metrics = new QueryMetrics("SELECT * FROM t", () -> now);
+
+    private void record(int count, long latencyMillis) {
+        for (int i = 0; i < count; i++) {
+            metrics.recordExecution(TimeUnit.MILLISECONDS.toNanos(latencyMillis), null);
+        }
+    }
+
+    @Test
+    public void percentilesAreOfTheLastCompleteWindow() {
+        record(100, 5);
+        // window not over yet, nothing complete
+        assertEquals(0, metrics.getLatencyCount());
+        now += 10000;
+        assertEquals(5, metrics.getLatencyP99Millis(), 0.01);
+        assertEquals(100, metrics.getLatencyCount());
+    }
+
+    @Test
+    public void windowsRollOverAndAddUp() {
+        long[] latencies = {5, 20, 2, 40};
+        for (int i = 0; i < latencies.length; i++) {
+            record(10, latencies[i]);
+            now += 10000;
+            assertEquals(latencies[i], metrics.getLatencyP50Millis(), latencies[i] * 0.01);
+            assertEquals(latencies[i], metrics.getLatencyMaxMillis(), latencies[i] * 0.01);
+            assertEquals(10 * (i + 1), metrics.getLatencyCount());
+        }
+        assertEquals(10 * (5 + 20 + 2 + 40), metrics.getLatencySumMillis(), 1);
+    }
+
+    @Test
+    public void emptyWindowFallsBackToAllTime() {
+        record(10, 5);
+        now += 10000;
+        assertEquals(5, metrics.getLatencyP50Millis(), 0.01);
+        now += 10000;
+        assertEquals(5, metrics.getLatencyP50Millis(), 0.01);
+        now += 10000;
+        record(10, 7);
+        now += 10000;
+        assertEquals(7, metrics.getLatencyP50Millis(), 0.01);
+        assertEquals(20, metrics.getLatencyCount());
+    }
+
+    @Test
+    public void rowsPerSecondOfTheLastWindow() {
+        metrics.recordRows(500);
+        now += 10000;
+        assertEquals(50, metrics.getRowsPerSecond(), 1e-9);
+        metrics.recordRows(100);
+        now += 10000;
+        assertEquals(10, metrics.getRowsPerSecond(), 1e-9);
+    }
+
+    @Test
+    public void windowPercentileNeedsEnoughLatencies() {
+        record(99, 5);
+        now += 10000;
+        assertEquals(-1, metrics.getWindowPercentileMillis(99));
+        record(100, 5);
+        now += 10000;
+        assertEquals(5, metrics.getWindowPercentileMillis(99));
+    }
+
+    @Test
+    public void windowPercentileFollowsTheWindows() {
+        record(100, 5);
+        now += 10000;
+        assertEquals(5, metrics.getWindowPercentileMillis(99));
+        // recorded in the current window, the percentile stays the one of the last complete window
+        record(100, 40);
+        assertEquals(5, metrics.getWindowPercentileMillis(99));
+        now += 10000;
+        assertEquals(40, metrics.getWindowPercentileMillis(99));
+        assertEquals(40, metrics.getWindowPercentileMillis(50));
+    }
+}
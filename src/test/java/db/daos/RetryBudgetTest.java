@@ -0,0 +1,73 @@
+package db.daos;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryBudgetTest {
+
+    // nano time of the fake clock
+    private long now = TimeUnit.DAYS.toNanos(1);
+    private final RetryBudget budget = new RetryBudget(() -> now);
+
+    @Test
+    public void quietApplicationKeepsTheReserve() {
+        // 10 retries per second over 10 seconds
+        assertEquals(100, budget.getAvailable());
+        for (int i = 0; i < 100; i++) {
+            assertTrue(budget.tryRetry());
+        }
+        assertFalse(budget.tryRetry());
+        assertEquals(0, budget.getAvailable());
+        assertEquals(1, budget.getDenied());
+    }
+
+    @Test
+    public void retriesGrowWithTheFirstAttempts() {
+        budget.onRequests(10000);
+        assertEquals(1100, budget.getAvailable());
+        for (int i = 0; i < 1100; i++) {
+            assertTrue(budget.tryRetry());
+        }
+        assertFalse(budget.tryRetry());
+    }
+
+    @Test
+    public void spentRetriesExpireWithTheWindow() {
+        for (int i = 0; i < 100; i++) {
+            budget.tryRetry();
+        }
+        assertFalse(budget.tryRetry());
+        now += TimeUnit.SECONDS.toNanos(9);
+        assertFalse(budget.tryRetry());
+        now += TimeUnit.SECONDS.toNanos(1);
+        assertEquals(100, budget.getAvailable());
+        assertTrue(budget.tryRetry());
+    }
+
+    @Test
+    public void firstAttemptsExpireWithTheWindow() {
+        budget.onRequests(10000);
+        now += TimeUnit.SECONDS.toNanos(5);
+        budget.onRequests(1000);
+        assertEquals(1200, budget.getAvailable());
+        now += TimeUnit.SECONDS.toNanos(5);
+        assertEquals(200, budget.getAvailable());
+        now += TimeUnit.SECONDS.toNanos(30);
+        assertEquals(100, budget.getAvailable());
+    }
+
+    @Test
+    public void negativeNanoTime() {
+        now = -TimeUnit.SECONDS.toNanos(3);
+        RetryBudget negative = new RetryBudget(() -> now);
+        negative.onRequests(1000);
+        assertEquals(200, negative.getAvailable());
+        now += TimeUnit.SECONDS.toNanos(10);
+        assertEquals(100, negative.getAvailable());
+    }
+}
@@ -0,0 +1,79 @@
+package utils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class HyperLogLogTest {
+
+    private static HyperLogLog sketch(String prefix, int from, int to) {
+        HyperLogLog sketch = new HyperLogLog();
+        for (int i = from; i < to; i++) {
+            sketch.offer(prefix + i);
+        }
+        return sketch;
+    }
+
+    private static void assertEstimate(long expected, HyperLogLog sketch) {
+        // 1.6% standard error, 4 sigmas
+        assertEquals(expected, sketch.estimate(), Math.max(2, expected * 0.064));
+    }
+
+    @Test
+    public void emptySketchCountsNothing() {
+        assertEquals(0, new HyperLogLog().estimate());
+    }
+
+    @Test
+    public void smallCardinalitiesAreExactEnough() {
+        assertEstimate(1, sketch("u", 0, 1));
+        assertEstimate(100, sketch("u", 0, 100));
+    }
+
+    @Test
+    public void largeCardinalitiesStayWithinTheError() {
+        assertEstimate(20000, sketch("u", 0, 20000));
+        assertEstimate(200000, sketch("u", 0, 200000));
+    }
+
+    @Test
+    public void duplicatesCountOnce() {
+        HyperLogLog sketch = sketch("u", 0, 1000);
+        for (int i = 0; i < 1000; i++) {
+            sketch.offer("u" + i);
+        }
+        assertEstimate(1000, sketch);
+    }
+
+    @Test
+    public void mergeCountsTheUnion() {
+        HyperLogLog first = sketch("u", 0, 30000);
+        HyperLogLog second = sketch("u", 20000, 50000);
+        assertSame(first, first.merge(second));
+        assertEstimate(50000, first);
+        assertTrue(first.contains(second));
+        assertFalse(second.contains(first));
+    }
+
+    @Test
+    public void bytesRoundTrip() {
+        HyperLogLog sketch = sketch("u", 0, 5000);
+        ByteBuffer bytes = sketch.toBytes();
+        assertEquals(HyperLogLog.REGISTERS, bytes.remaining());
+        HyperLogLog read = HyperLogLog.fromBytes(bytes);
+        assertEquals(sketch.estimate(), read.estimate());
+        assertTrue(read.contains(sketch) && sketch.contains(read));
+        // reading doesn't consume the buffer
+        assertEquals(HyperLogLog.REGISTERS, bytes.remaining());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void bytesOfAnotherSizeAreRejected() {
+        HyperLogLog.fromBytes(ByteBuffer.allocate(16));
+    }
+}